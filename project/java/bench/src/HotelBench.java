@@ -0,0 +1,186 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hotelbench.Workload;
+
+/**
+ * The Hotel data access paths measured by hotelbench.HotelBenchmark,
+ * against a live database.
+ *
+ * Before measuring, load() fills the database with the DataGenerator data
+ * set of the chosen scale through the BulkImporter, and records the scale
+ * and seed in the BenchDataset table so later runs at the same scale skip
+ * the load.  The tables of create_tables.sql must exist.  Bookings made by
+ * the benchmark use nights from BENCH_YEAR on and are deleted by close().
+ */
+public class HotelBench implements Workload {
+
+   // bookings made by the benchmark land in this year and later
+   private static final int BENCH_YEAR = 2100;
+
+   private Hotel esql;
+   private int threads;
+
+   // ids sampled from the database the benchmark picks its inputs from
+   private final List<int[]> rooms = new ArrayList<int[]>();
+   private final List<Integer> managers = new ArrayList<Integer>();
+   private final List<Integer> customers = new ArrayList<Integer>();
+   private double minLat, maxLat, minLng, maxLng;
+
+   public void open(String dbname, String port, String user, int threads) throws Exception {
+      Class.forName("org.postgresql.Driver").newInstance();
+      this.threads = threads;
+      this.esql = new Hotel(dbname, port, user, "", threads, threads);
+   }//end open
+
+   public void load(int scale, long seed) throws Exception {
+      esql.executeUpdate("CREATE TABLE IF NOT EXISTS BenchDataset (scale integer NOT NULL, seed bigint NOT NULL)");
+      if (!esql.exists("SELECT 1 FROM BenchDataset WHERE scale = ? AND seed = ?", scale, seed)) {
+         System.out.println("Loading the data set of scale " + scale);
+         esql.executeUpdate("DELETE FROM BenchDataset");
+         File dir = generate(scale, seed);
+         try {
+            StringBuilder tables = new StringBuilder();
+            for (List<BulkImporter.Table> stage : BulkImporter.STAGES)
+               for (BulkImporter.Table table : stage)
+                  tables.append(tables.length() == 0 ? "" : ", ").append(table.name);
+            esql.executeUpdate("TRUNCATE " + tables + " CASCADE");
+
+            BulkImporter importer = new BulkImporter(esql, Math.min(threads, BulkImporter.DEFAULT_THREADS));
+            try {
+               importer.finish(importer.importDirectory(dir));
+            }finally {
+               importer.close();
+            }//end try
+         }finally {
+            for (File file : dir.listFiles())
+               file.delete();
+            dir.delete();
+         }//end try
+         esql.executeUpdate("INSERT INTO BenchDataset (scale, seed) VALUES (?, ?)", scale, seed);
+      }//end if
+      sample();
+   }//end load
+
+   // the CSV files of a data set scale times the size of the sample data
+   private static File generate(int scale, long seed) throws IOException {
+      File dir = File.createTempFile("hotelbench", "");
+      if (!dir.delete() || !dir.mkdir())
+         throw new IOException("Cannot create " + dir);
+      new DataGenerator(20 * scale, 10, 92 * scale, 500L * scale, 5 * scale, 10 * scale, 50 * scale, seed).generate(dir);
+      return dir;
+   }//end generate
+
+   public void close() throws Exception {
+      try {
+         esql.executeUpdate("DELETE FROM RoomBookings WHERE bookingDate >= ?", java.sql.Date.valueOf(BENCH_YEAR + "-01-01"));
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end close
+
+   // picks up the ids and coordinate range the random inputs are drawn from
+   private void sample() throws SQLException {
+      rooms.clear();
+      managers.clear();
+      customers.clear();
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT hotelID, roomNumber FROM Rooms"))
+         rooms.add(new int[] { Integer.parseInt(row.get(0)), Integer.parseInt(row.get(1)) });
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT DISTINCT managerUserID FROM Hotel"))
+         managers.add(Integer.valueOf(row.get(0)));
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT userID FROM Users WHERE userType = 'customer'"))
+         customers.add(Integer.valueOf(row.get(0)));
+      List<String> box = esql.executeQueryAndReturnResult("SELECT MIN(latitude), MAX(latitude), MIN(longitude), MAX(longitude) FROM Hotel").get(0);
+      if (rooms.isEmpty() || managers.isEmpty() || customers.isEmpty())
+         throw new SQLException("The database has no rooms, managers or customers to benchmark with");
+      minLat = Double.parseDouble(box.get(0));
+      maxLat = Double.parseDouble(box.get(1));
+      minLng = Double.parseDouble(box.get(2));
+      maxLng = Double.parseDouble(box.get(3));
+      System.out.printf("sampled %d rooms, %d managers, %d customers%n", rooms.size(), managers.size(), customers.size());
+   }//end sample
+
+   public void viewHotels(Random rnd) throws SQLException {
+      esql.findHotelsWithin(lat(rnd), lng(rnd), 30);
+   }
+
+   public void viewHotelsFromDatabase(Random rnd) throws SQLException {
+      esql.findHotelsWithinFromDatabase(lat(rnd), lng(rnd), 30);
+   }
+
+   public void viewRooms(Random rnd) throws SQLException {
+      esql.roomAvailability(room(rnd)[0], recentDate(rnd));
+   }
+
+   public void bookRoom(Random rnd) throws SQLException {
+      int[] room = room(rnd);
+      esql.bookRoom(customer(rnd), room[0], room[1], benchDate(rnd));
+   }//end bookRoom
+
+   public void bookRoomBatch(Random rnd, int nights) throws SQLException {
+      int[] room = room(rnd);
+      int first = RoomAvailabilityIndex.epochDay(benchDate(rnd));
+      List<Hotel.BookingRequest> requests = new ArrayList<Hotel.BookingRequest>();
+      for (int n = 0; n < nights; ++n)
+         requests.add(new Hotel.BookingRequest(room[0], room[1], RoomAvailabilityIndex.toDate(first + n)));
+      esql.bookRoomBatch(customer(rnd), requests);
+   }//end bookRoomBatch
+
+   public void bookRoomSingle(Random rnd, int nights) throws SQLException {
+      int[] room = room(rnd);
+      int first = RoomAvailabilityIndex.epochDay(benchDate(rnd));
+      int customer = customer(rnd);
+      for (int n = 0; n < nights; ++n)
+         esql.bookRoom(customer, room[0], room[1], RoomAvailabilityIndex.toDate(first + n));
+   }//end bookRoomSingle
+
+   public void viewBookingHistory(Random rnd) throws SQLException {
+      final AtomicLong sink = new AtomicLong();
+      int to = RoomAvailabilityIndex.epochDay(new java.util.Date());
+      esql.streamBookingHistory(manager(rnd), RoomAvailabilityIndex.toDate(to - 3650), RoomAvailabilityIndex.toDate(to),
+                                new Hotel.RowHandler() {
+         public void handle(java.sql.ResultSet row) throws SQLException {
+            sink.addAndGet(row.getInt(1));
+         }
+      });
+   }//end viewBookingHistory
+
+   public void viewRegularCustomers(Random rnd) throws SQLException {
+      esql.regularCustomers(room(rnd)[0], 5);
+   }
+
+   private double lat(Random rnd) {
+      return minLat + rnd.nextDouble() * (maxLat - minLat);
+   }
+
+   private double lng(Random rnd) {
+      return minLng + rnd.nextDouble() * (maxLng - minLng);
+   }
+
+   private int[] room(Random rnd) {
+      return rooms.get(rnd.nextInt(rooms.size()));
+   }
+
+   private int manager(Random rnd) {
+      return managers.get(rnd.nextInt(managers.size()));
+   }
+
+   private int customer(Random rnd) {
+      return customers.get(rnd.nextInt(customers.size()));
+   }
+
+   // a night inside the availability window
+   private static java.sql.Date recentDate(Random rnd) {
+      return RoomAvailabilityIndex.toDate(RoomAvailabilityIndex.epochDay(new java.util.Date()) + rnd.nextInt(365));
+   }
+
+   // a night in the range the benchmark cleans up afterwards
+   private static java.sql.Date benchDate(Random rnd) {
+      return RoomAvailabilityIndex.toDate(RoomAvailabilityIndex.epochDay(java.sql.Date.valueOf(BENCH_YEAR + "-01-01")) + rnd.nextInt(3650));
+   }
+}//end HotelBench
@@ -0,0 +1,148 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a running HotelService with many concurrent clients and reports
+ * the request rate and latency percentiles it sees.
+ *
+ * Every client logs in as the given user once and then loops over a mix
+ * of hotel searches, room availability lookups and booking history pages
+ * until the time is up.  Keep-alive connections are reused as a browser
+ * would.
+ *
+ * Usage: java LoadGenerator <baseUrl> <userID> <password> [clients] [seconds] [hotelID]
+ */
+public class LoadGenerator {
+
+   // endpoints in the mix, picked with equal probability
+   private static final String[] MIX = { "hotels", "rooms", "bookings" };
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java " + LoadGenerator.class.getName() +
+                            " <baseUrl> <userID> <password> [clients] [seconds] [hotelID]");
+         return;
+      }//end if
+      final String base = args[0].endsWith("/") ? args[0].substring(0, args[0].length() - 1) : args[0];
+      int clients = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+      int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+      final int hotelID = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+
+      String login = request(base + "/login", "userID=" + enc(args[1]) + "&password=" + enc(args[2]), null);
+      int start = login.indexOf("\"token\":\"");
+      if (start < 0)
+         throw new IOException("Login failed: " + login);
+      final String token = login.substring(start + 9, login.indexOf('"', start + 9));
+
+      final long deadline = System.nanoTime() + seconds * 1000000000L;
+      final long[][] latencies = new long[clients][];
+      final int[] counts = new int[clients];
+      final AtomicLong errors = new AtomicLong();
+      final CountDownLatch done = new CountDownLatch(clients);
+      for (int t = 0; t < clients; ++t) {
+         final int id = t;
+         new Thread("client-" + t) {
+            public void run() {
+               Random rnd = new Random(id);
+               long[] samples = new long[1 << 12];
+               int count = 0;
+               try {
+                  while (System.nanoTime() < deadline) {
+                     String op = MIX[rnd.nextInt(MIX.length)];
+                     String url;
+                     if (op.equals("hotels"))
+                        url = base + "/hotels?lat=" + rnd.nextInt(100) + "&lng=" + rnd.nextInt(100);
+                     else if (op.equals("rooms"))
+                        url = base + "/rooms?hotelID=" + hotelID + "&date=" + new java.sql.Date(System.currentTimeMillis());
+                     else
+                        url = base + "/bookings";
+                     long begin = System.nanoTime();
+                     try {
+                        request(url, null, token);
+                     }catch (IOException e) {
+                        if (errors.incrementAndGet() == 1)
+                           System.err.println(op + ": " + e.getMessage());
+                     }//end try
+                     if (count == samples.length)
+                        samples = Arrays.copyOf(samples, count * 2);
+                     samples[count++] = System.nanoTime() - begin;
+                  }//end while
+               }finally {
+                  latencies[id] = samples;
+                  counts[id] = count;
+                  done.countDown();
+               }//end try
+            }
+         }.start();
+      }//end for
+      done.await();
+
+      int total = 0;
+      for (int c : counts)
+         total += c;
+      long[] all = new long[total];
+      int at = 0;
+      for (int t = 0; t < clients; ++t) {
+         System.arraycopy(latencies[t], 0, all, at, counts[t]);
+         at += counts[t];
+      }//end for
+      Arrays.sort(all);
+      System.out.printf("%d clients, %d requests in %d s: %.1f req/s, p50 %.1f ms, p99 %.1f ms, max %.1f ms, %d errors%n",
+                        clients, total, seconds, total / (double) seconds, percentile(all, 0.50), percentile(all, 0.99),
+                        total == 0 ? 0.0 : all[total - 1] / 1e6, errors.get());
+   }//end main
+
+   // GET, or POST of a form when form is not null; returns the body of a 2xx response
+   private static String request(String url, String form, String token) throws IOException {
+      HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+      if (token != null)
+         conn.setRequestProperty("Authorization", "Bearer " + token);
+      if (form != null) {
+         conn.setRequestMethod("POST");
+         conn.setDoOutput(true);
+         conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+         OutputStream out = conn.getOutputStream();
+         try {
+            out.write(form.getBytes("UTF-8"));
+         }finally {
+            out.close();
+         }//end try
+      }//end if
+      int status = conn.getResponseCode();
+      InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      if (in != null) {
+         try {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; )
+               body.write(buffer, 0, n);
+         }finally {
+            // closing the stream, not disconnecting, keeps the connection alive
+            in.close();
+         }//end try
+      }//end if
+      if (status >= 400)
+         throw new IOException("HTTP " + status + " " + body.toString("UTF-8"));
+      return body.toString("UTF-8");
+   }//end request
+
+   private static String enc(String value) throws IOException {
+      return URLEncoder.encode(value, "UTF-8");
+   }
+
+   private static double percentile(long[] sorted, double q) {
+      if (sorted.length == 0)
+         return 0.0;
+      int index = (int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1);
+      return sorted[Math.max(index, 0)] / 1e6;
+   }//end percentile
+}//end LoadGenerator
@@ -0,0 +1,109 @@
+package hotelbench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * JMH benchmark of the Hotel data access paths against a live database.
+ *
+ * Every benchmark shares one Hotel per fork, set up with a connection per
+ * benchmark thread after the data set of the chosen scale is loaded.  The
+ * sample time mode reports the throughput and the latency percentiles;
+ * add -prof gc for the bytes allocated per operation.  See
+ * scripts/bench.sh for the parameters.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class HotelBenchmark {
+
+   @Param("hotel")
+   public String dbname;
+
+   @Param("5432")
+   public String port;
+
+   @Param("postgres")
+   public String user;
+
+   // size of the data set, in multiples of the sample data
+   @Param("1")
+   public int scale;
+
+   @Param("1")
+   public long seed;
+
+   private Workload workload;
+
+   @Setup(Level.Trial)
+   public void setUp(BenchmarkParams params) throws Exception {
+      workload = (Workload) Class.forName("HotelBench").newInstance();
+      workload.open(dbname, port, user, params.getThreads());
+      workload.load(scale, seed);
+   }//end setUp
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception {
+      workload.close();
+   }
+
+   @Benchmark
+   public void viewHotels() throws Exception {
+      workload.viewHotels(ThreadLocalRandom.current());
+   }
+
+   @Benchmark
+   public void viewHotelsSql() throws Exception {
+      workload.viewHotelsFromDatabase(ThreadLocalRandom.current());
+   }
+
+   @Benchmark
+   public void viewRooms() throws Exception {
+      workload.viewRooms(ThreadLocalRandom.current());
+   }
+
+   @Benchmark
+   public void bookRooms() throws Exception {
+      workload.bookRoom(ThreadLocalRandom.current());
+   }
+
+   @Benchmark
+   public void bookRoomsBatch7Nights() throws Exception {
+      workload.bookRoomBatch(ThreadLocalRandom.current(), 7);
+   }
+
+   @Benchmark
+   public void bookRoomsSingle7Nights() throws Exception {
+      workload.bookRoomSingle(ThreadLocalRandom.current(), 7);
+   }
+
+   @Benchmark
+   public void viewBookingHistoryofHotel() throws Exception {
+      workload.viewBookingHistory(ThreadLocalRandom.current());
+   }
+
+   @Benchmark
+   public void viewRegularCustomers() throws Exception {
+      workload.viewRegularCustomers(ThreadLocalRandom.current());
+   }
+}//end HotelBenchmark
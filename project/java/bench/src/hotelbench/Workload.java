@@ -0,0 +1,45 @@
+package hotelbench;
+
+import java.util.Random;
+
+/**
+ * The Hotel operations HotelBenchmark measures.  JMH only generates code
+ * for benchmarks in a named package, and a named package cannot refer to
+ * the classes of src, so the work is done by HotelBench in the default
+ * package through this interface.
+ */
+public interface Workload {
+
+   /**
+    * Connects to the database with a pool of threads connections.
+    */
+   void open(String dbname, String port, String user, int threads) throws Exception;
+
+   /**
+    * Replaces the data with the generated data set of the given scale,
+    * unless that data set is already loaded.  Scale 1 is the size of the
+    * sample data in the data directory.
+    */
+   void load(int scale, long seed) throws Exception;
+
+   /**
+    * Deletes the bookings the benchmark made and disconnects.
+    */
+   void close() throws Exception;
+
+   void viewHotels(Random rnd) throws Exception;
+
+   void viewHotelsFromDatabase(Random rnd) throws Exception;
+
+   void viewRooms(Random rnd) throws Exception;
+
+   void bookRoom(Random rnd) throws Exception;
+
+   void bookRoomBatch(Random rnd, int nights) throws Exception;
+
+   void bookRoomSingle(Random rnd, int nights) throws Exception;
+
+   void viewBookingHistory(Random rnd) throws Exception;
+
+   void viewRegularCustomers(Random rnd) throws Exception;
+}//end Workload
@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# build the JMH benchmark jar, the java program included; JMH needs Java 8 or later
+(cd $DIR/../bench && mvn -q -B package) || exit 1
+
+#run the benchmark; the data set of the given scale is loaded first unless already there
+#Usage: bench.sh [scale] [JMH option...]
+#       e.g. bench.sh 50 -t 8 -prof gc HotelBenchmark.viewRooms
+SCALE=${1:-1}
+shift
+java -cp $DIR/../bench/target/benchmarks.jar:$DIR/../lib/pg73jdbc3.jar org.openjdk.jmh.Main \
+   -p dbname=$USER"_DB" -p port=$PGPORT -p user=$USER -p scale=$SCALE "$@"
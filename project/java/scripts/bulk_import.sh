@@ -0,0 +1,16 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+# fetch the driver with COPY support, the 7.3 driver can only INSERT
+COPY_DRIVER=$DIR/../target/lib/postgresql.jar
+[ -f $COPY_DRIVER ] || (cd $DIR/.. && mvn -q -B generate-resources)
+
+#load the csv files of a directory, the sample data by default
+#Usage: bulk_import.sh [dataDir] [threads]
+java -cp $DIR/../classes:$COPY_DRIVER:$DIR/../lib/pg73jdbc3.jar BulkImporter $USER"_DB" $PGPORT $USER ${1:-$DIR/../../data} ${2:-4} $DIR/../../sql/src/create_indexes.sql
@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#write the csv files into the directory given first
+#Usage: generate_data.sh <outputDir> [--hotels n] [--rooms-per-hotel n] [--customers n] [--bookings n]
+#                        [--companies n] [--repairs n] [--updates n] [--seed n]
+java -cp $DIR/../classes DataGenerator "$@"
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#create the coming months' partitions and archive the old ones, run it monthly
+#Usage: partition_maintenance.sh [monthsAhead] [retainMonths] [archiveDir]
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PartitionMaintenance $USER"_DB" $PGPORT $USER "$@"
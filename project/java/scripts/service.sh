@@ -0,0 +1,17 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/src/LoadGenerator.java
+
+#serve the hotel operations over HTTP
+#Usage: service.sh [httpPort] [maxConnections] [auditJournal] [replicaPorts] [shardPorts]
+#replicaPorts are comma separated ports of streaming replicas on this machine, such as 5433,5434
+#shardPorts are comma separated ports of shard databases, with :firstHotelID for ranges, such as 5441:1,5442:5000;
+#$PGPORT is then the global node. Set up each shard with create_db.sh and SELECT set_shard_key_range(<shard>),
+#then POST /shards/prune as an admin to keep only each shard's own hotels
+#Drive it with: java -cp $DIR/../classes LoadGenerator http://localhost:8080 <userID> <password> [clients] [seconds]
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar HotelService $USER"_DB" $PGPORT $USER "$@"
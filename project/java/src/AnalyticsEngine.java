@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Revenue, occupancy and average daily rate (ADR) over every booking,
+ * answered in memory so reports do not run aggregates on the booking
+ * database.
+ *
+ * Each booked night is one entry in four parallel int columns (hotelID,
+ * roomNumber, epoch day, price).  A report scans them with fork/join:
+ * the range is split until a slice has at most SLICE entries, each slice
+ * sums into arrays indexed by group, and the partial sums are added
+ * together on the way back up, so every core is busy and nothing is
+ * boxed.  Entries are only ever appended; a report works on the columns
+ * and size it saw when it started, so bookings added meanwhile wait for
+ * the next report.
+ *
+ * The price is the room's price when the booking was recorded, since
+ * RoomBookings does not keep what was paid.  Deleted bookings are not
+ * noticed until the engine is rebuilt.  Bookings up to loadedThrough are
+ * taken from the loader and ignored by addBooking(), later ones the other
+ * way round, so a booking made while loading is counted once.
+ */
+public class AnalyticsEngine {
+
+   // entries summed by one fork/join leaf
+   public static final int SLICE = 1 << 16;
+
+   /**
+    * What the rows of a report are.
+    */
+   public enum Grouping { HOTEL, DAY, MONTH }
+
+   private static final ForkJoinPool POOL = new ForkJoinPool();
+
+   private int[] hotels = new int[1024];
+   private int[] rooms = new int[1024];
+   private int[] days = new int[1024];
+   private int[] prices = new int[1024];
+   private int size = 0;
+   private volatile int loadedThrough = Integer.MAX_VALUE;
+   private volatile boolean ready = false;
+
+   /**
+    * Sets the bookingID up to which bookings come from the loader.
+    */
+   public void setLoadedThrough(int bookingID) {
+      loadedThrough = bookingID;
+   }
+
+   /**
+    * Marks the engine as fully loaded; reports are refused before that.
+    */
+   public void markReady() {
+      ready = true;
+   }
+
+   public boolean isReady() {
+      return ready;
+   }
+
+   /**
+    * @return number of booked nights held
+    */
+   public synchronized int size() {
+      return size;
+   }
+
+   /**
+    * Records a booking made after the load started.
+    */
+   public void addBooking(int bookingID, int hotelID, int roomNumber, java.util.Date night, int price) {
+      if (bookingID > loadedThrough)
+         append(hotelID, roomNumber, RoomAvailabilityIndex.epochDay(night), price);
+   }
+
+   /**
+    * Records a booking read by the loader.
+    */
+   public synchronized void append(int hotelID, int roomNumber, int day, int price) {
+      if (size == hotels.length) {
+         // new arrays, so a running report keeps the ones it started with
+         int capacity = hotels.length * 2;
+         hotels = java.util.Arrays.copyOf(hotels, capacity);
+         rooms = java.util.Arrays.copyOf(rooms, capacity);
+         days = java.util.Arrays.copyOf(days, capacity);
+         prices = java.util.Arrays.copyOf(prices, capacity);
+      }//end if
+      hotels[size] = hotelID;
+      rooms[size] = roomNumber;
+      days[size] = day;
+      prices[size] = price;
+      ++size;
+   }//end append
+
+   /**
+    * Reports revenue, occupancy and ADR.
+    *
+    * @param hotelID the hotel, or 0 for every hotel
+    * @param first the first night
+    * @param last the last night
+    * @param grouping one row per hotel, per night or per month
+    * @param roomCounts number of rooms of each hotel, for occupancy
+    * @return group, room nights sold, revenue, occupancy %, ADR; groups
+    *         without bookings are left out when grouping by hotel
+    */
+   public List<List<String>> report(int hotelID, java.util.Date first, java.util.Date last, Grouping grouping,
+                                    Map<Integer, Integer> roomCounts) {
+      int from = RoomAvailabilityIndex.epochDay(first), to = RoomAvailabilityIndex.epochDay(last);
+      List<List<String>> result = new ArrayList<List<String>>();
+      if (to < from)
+         return result;
+
+      int[] groupOf = null;
+      int groups;
+      List<String> labels = new ArrayList<String>();
+      // nights of the range in each group, times the rooms, is what could have been sold
+      List<Integer> nightsIn = new ArrayList<Integer>();
+      if (grouping == Grouping.HOTEL) {
+         int max = 0;
+         for (Integer id : roomCounts.keySet())
+            max = Math.max(max, id);
+         groups = Math.max(max, hotelID) + 1;
+      }else if (grouping == Grouping.DAY) {
+         groups = to - from + 1;
+         for (int day = from; day <= to; ++day) {
+            labels.add(RoomAvailabilityIndex.toDate(day).toString());
+            nightsIn.add(1);
+         }//end for
+      }else {
+         groupOf = new int[to - from + 1];
+         Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+         String month = null;
+         for (int day = from; day <= to; ++day) {
+            calendar.setTimeInMillis(day * 86400000L);
+            String label = String.format("%04d-%02d", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1);
+            if (!label.equals(month)) {
+               labels.add(label);
+               nightsIn.add(0);
+               month = label;
+            }//end if
+            groupOf[day - from] = labels.size() - 1;
+            nightsIn.set(labels.size() - 1, nightsIn.get(labels.size() - 1) + 1);
+         }//end for
+         groups = labels.size();
+      }//end if
+
+      int n;
+      int[] h, d, p;
+      synchronized (this) {
+         n = size;
+         h = hotels;
+         d = days;
+         p = prices;
+      }//end synchronized
+      Sums sums = POOL.invoke(new Scan(h, d, p, 0, n, hotelID, from, to, grouping, groupOf, groups));
+
+      long roomsInScope = 0;
+      if (hotelID != 0)
+         roomsInScope = roomCounts.containsKey(hotelID) ? roomCounts.get(hotelID) : 0;
+      else
+         for (Integer count : roomCounts.values())
+            roomsInScope += count;
+
+      for (int g = 0; g < groups; ++g) {
+         long capacity;
+         String label;
+         if (grouping == Grouping.HOTEL) {
+            if (sums.nights[g] == 0)
+               continue;
+            label = Integer.toString(g);
+            capacity = (long) (roomCounts.containsKey(g) ? roomCounts.get(g) : 0) * (to - from + 1);
+         }else {
+            label = labels.get(g);
+            capacity = roomsInScope * nightsIn.get(g);
+         }//end if
+         List<String> row = new ArrayList<String>(5);
+         row.add(label);
+         row.add(Long.toString(sums.nights[g]));
+         row.add(Long.toString(sums.revenue[g]));
+         row.add(capacity == 0 ? "-" : String.format("%.1f", 100.0 * sums.nights[g] / capacity));
+         row.add(sums.nights[g] == 0 ? "-" : String.format("%.2f", (double) sums.revenue[g] / sums.nights[g]));
+         result.add(row);
+      }//end for
+      return result;
+   }//end report
+
+   /**
+    * Room nights and revenue per group.
+    */
+   private static final class Sums {
+      final long[] nights;
+      final long[] revenue;
+
+      Sums(int groups) {
+         nights = new long[groups];
+         revenue = new long[groups];
+      }
+
+      Sums add(Sums other) {
+         for (int g = 0; g < nights.length; ++g) {
+            nights[g] += other.nights[g];
+            revenue[g] += other.revenue[g];
+         }//end for
+         return this;
+      }//end add
+   }//end Sums
+
+   /**
+    * Sums the entries from start to end, splitting the range while it is
+    * longer than SLICE.
+    */
+   private static final class Scan extends RecursiveTask<Sums> {
+      private static final long serialVersionUID = 1L;
+
+      final int[] hotels, days, prices;
+      final int start, end;
+      final int hotelID, from, to;
+      final Grouping grouping;
+      final int[] groupOf;
+      final int groups;
+
+      Scan(int[] hotels, int[] days, int[] prices, int start, int end, int hotelID, int from, int to,
+           Grouping grouping, int[] groupOf, int groups) {
+         this.hotels = hotels;
+         this.days = days;
+         this.prices = prices;
+         this.start = start;
+         this.end = end;
+         this.hotelID = hotelID;
+         this.from = from;
+         this.to = to;
+         this.grouping = grouping;
+         this.groupOf = groupOf;
+         this.groups = groups;
+      }//end Scan
+
+      protected Sums compute() {
+         if (end - start > SLICE) {
+            int mid = (start + end) >>> 1;
+            Scan left = new Scan(hotels, days, prices, start, mid, hotelID, from, to, grouping, groupOf, groups);
+            Scan right = new Scan(hotels, days, prices, mid, end, hotelID, from, to, grouping, groupOf, groups);
+            left.fork();
+            Sums sums = right.compute();
+            return sums.add(left.join());
+         }//end if
+         Sums sums = new Sums(groups);
+         for (int i = start; i < end; ++i) {
+            int day = days[i];
+            if (day < from || day > to || (hotelID != 0 && hotels[i] != hotelID))
+               continue;
+            int g;
+            if (grouping == Grouping.HOTEL) {
+               g = hotels[i];
+               if (g >= groups)
+                  continue;
+            }else if (grouping == Grouping.DAY) {
+               g = day - from;
+            }else {
+               g = groupOf[day - from];
+            }//end if
+            ++sums.nights[g];
+            sums.revenue[g] += prices[i];
+         }//end for
+         return sums;
+      }//end compute
+   }//end Scan
+}//end AnalyticsEngine
@@ -0,0 +1,315 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes RoomUpdatesLog entries behind the caller's back.  record() puts
+ * an entry on a bounded queue and returns; a background thread inserts
+ * the queued entries in one multi-row INSERT when batchSize of them are
+ * waiting or flushIntervalMs after the first one arrived, whichever comes
+ * first.  When the queue is full record() blocks until the writer catches
+ * up, so a database that cannot keep up slows the callers down instead of
+ * growing the queue without end.  A batch that fails is kept and retried
+ * after RETRY_MS.
+ *
+ * With a journal file every entry is appended to it, and flushed to the
+ * operating system, before record() returns; after each batch is
+ * committed a checkpoint line is appended, and the file is emptied once
+ * nothing is outstanding.  On start the entries after the last
+ * checkpoint are queued again, so an entry survives a crash of the
+ * process.  An entry whose batch committed just before the crash, but
+ * whose checkpoint was not written, is inserted twice.
+ *
+ * Journal lines are "E seq,managerID,hotelID,roomNumber,millis" and
+ * "C seq", seq counting from 1 in the order of record().
+ */
+public class AuditLogWriter {
+
+   public static final int DEFAULT_CAPACITY = 10000;
+   public static final int DEFAULT_BATCH_SIZE = 200;
+   public static final long DEFAULT_FLUSH_INTERVAL_MS = 500;
+   // wait before retrying a batch that failed
+   public static final long RETRY_MS = 2000;
+
+   private static final String INSERT = "INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES ";
+
+   /**
+    * One RoomUpdatesLog row waiting to be written.
+    */
+   private static final class Entry {
+      final long seq;
+      final int managerID;
+      final int hotelID;
+      final int roomNumber;
+      final long updatedOn;
+
+      Entry(long seq, int managerID, int hotelID, int roomNumber, long updatedOn) {
+         this.seq = seq;
+         this.managerID = managerID;
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.updatedOn = updatedOn;
+      }
+   }//end Entry
+
+   private final ConnectionPool pool;
+   private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+   // room left in the queue; the writer gives it back as entries are written
+   private final Semaphore space;
+   private final int batchSize;
+   private final long flushIntervalMs;
+   private final File journalFile;
+   private final Thread writer;
+
+   // guarded by this: the journal and the sequence numbers in it
+   private Writer journal;
+   private long lastSeq = 0;
+   private long committedSeq = 0;
+
+   private volatile boolean closed = false;
+
+   /**
+    * Starts the writer, first queueing what the journal holds.
+    *
+    * @param pool where to write the entries
+    * @param capacity entries queued before record() blocks
+    * @param batchSize most entries per INSERT
+    * @param flushIntervalMs longest time an entry waits for others to join it
+    * @param journalFile append-only journal, or null to keep entries in memory only
+    * @throws java.io.IOException when the journal cannot be read or opened
+    */
+   public AuditLogWriter(ConnectionPool pool, int capacity, int batchSize, long flushIntervalMs, File journalFile) throws IOException {
+      this.pool = pool;
+      this.batchSize = batchSize;
+      this.flushIntervalMs = flushIntervalMs;
+      this.journalFile = journalFile;
+      List<Entry> pending = journalFile == null ? new ArrayList<Entry>() : replay(journalFile);
+      // replayed entries may overfill the queue, record() then waits for them
+      this.space = new Semaphore(capacity - pending.size());
+      this.queue.addAll(pending);
+      if (journalFile != null) {
+         this.journal = new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8");
+         if (!pending.isEmpty()) {
+            this.lastSeq = pending.get(pending.size() - 1).seq;
+            this.committedSeq = pending.get(0).seq - 1;
+         }//end if
+      }//end if
+      this.writer = new Thread("audit-log-writer") {
+         public void run() {
+            drain();
+         }
+      };
+      this.writer.setDaemon(true);
+      this.writer.start();
+   }//end AuditLogWriter
+
+   public AuditLogWriter(ConnectionPool pool, File journalFile) throws IOException {
+      this(pool, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS, journalFile);
+   }
+
+   /**
+    * Queues one entry, blocking while the queue is full.
+    *
+    * @throws java.io.IOException when the entry cannot be journaled
+    * @throws java.lang.IllegalStateException after close()
+    */
+   public void record(int managerID, int hotelID, int roomNumber, Timestamp updatedOn) throws IOException, InterruptedException {
+      if (closed)
+         throw new IllegalStateException("audit log is closed");
+      // waited for outside the lock, which the writer needs to checkpoint
+      space.acquire();
+      try {
+         synchronized (this) {
+            Entry entry = new Entry(++lastSeq, managerID, hotelID, roomNumber, updatedOn.getTime());
+            if (journal != null) {
+               journal.write("E " + entry.seq + "," + managerID + "," + hotelID + "," + roomNumber + "," + entry.updatedOn + "\n");
+               journal.flush();
+            }//end if
+            // under the lock, so the queue is in sequence order
+            queue.add(entry);
+         }//end synchronized
+      }catch (IOException e) {
+         space.release();
+         throw e;
+      }//end try
+   }//end record
+
+   /**
+    * @return entries queued and not yet written
+    */
+   public int pending() {
+      return queue.size();
+   }
+
+   /**
+    * Waits until every entry recorded before the call is written.
+    *
+    * @return false when that did not happen within timeoutMs
+    */
+   public synchronized boolean flush(long timeoutMs) throws InterruptedException {
+      long target = lastSeq;
+      long deadline = System.currentTimeMillis() + timeoutMs;
+      while (committedSeq < target) {
+         long wait = deadline - System.currentTimeMillis();
+         if (wait <= 0)
+            return false;
+         wait(wait);
+      }//end while
+      return true;
+   }//end flush
+
+   /**
+    * Stops taking entries, writes every queued one and stops the writer.
+    * Waits at most timeoutMs; what is left then stays in the journal.
+    */
+   public void close(long timeoutMs) {
+      closed = true;
+      try {
+         writer.join(timeoutMs);
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+      synchronized (this) {
+         if (journal != null) {
+            try {
+               journal.close();
+            }catch (IOException e) {
+               System.err.println("Audit journal: " + e.getMessage());
+            }//end try
+            journal = null;
+         }//end if
+      }//end synchronized
+   }//end close
+
+   private void drain() {
+      List<Entry> batch = new ArrayList<Entry>(batchSize);
+      while (true) {
+         try {
+            if (batch.isEmpty()) {
+               if (closed && queue.isEmpty())
+                  return;
+               // polled, so the writer notices close() within one interval
+               Entry first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+               if (first == null)
+                  continue;
+               batch.add(first);
+               long deadline = System.currentTimeMillis() + flushIntervalMs;
+               while (batch.size() < batchSize && !closed) {
+                  long wait = deadline - System.currentTimeMillis();
+                  Entry next = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+                  if (next == null)
+                     break;
+                  batch.add(next);
+               }//end while
+               queue.drainTo(batch, batchSize - batch.size());
+            }//end if
+            insert(batch);
+            checkpoint(batch.get(batch.size() - 1).seq);
+            space.release(batch.size());
+            batch.clear();
+         }catch (InterruptedException e) {
+            return;
+         }catch (SQLException e) {
+            System.err.println("Audit log: " + e.getMessage() + ", " + batch.size() + " entries kept");
+            if (closed)
+               return;
+            try {
+               Thread.sleep(RETRY_MS);
+            }catch (InterruptedException ie) {
+               return;
+            }//end try
+         }//end try
+      }//end while
+   }//end drain
+
+   private void insert(List<Entry> batch) throws SQLException {
+      StringBuilder sql = new StringBuilder(INSERT.length() + batch.size() * 16).append(INSERT);
+      for (int i = 0; i < batch.size(); ++i)
+         sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?)");
+      Connection conn = pool.borrow();
+      try {
+         // a one-off statement per batch size, kept out of the statement cache
+         PreparedStatement stmt = conn.prepareStatement(sql.toString());
+         try {
+            int p = 0;
+            for (Entry entry : batch) {
+               stmt.setInt(++p, entry.managerID);
+               stmt.setInt(++p, entry.hotelID);
+               stmt.setInt(++p, entry.roomNumber);
+               stmt.setTimestamp(++p, new Timestamp(entry.updatedOn));
+            }//end for
+            stmt.executeUpdate();
+         }finally {
+            stmt.close();
+         }//end try
+      }finally {
+         pool.release(conn);
+      }//end try
+   }//end insert
+
+   // notes in the journal that every entry up to seq is in the database
+   private synchronized void checkpoint(long seq) {
+      committedSeq = seq;
+      notifyAll();
+      if (journal == null)
+         return;
+      try {
+         if (committedSeq == lastSeq) {
+            journal.close();
+            journal = new OutputStreamWriter(new FileOutputStream(journalFile, false), "UTF-8");
+         }else {
+            journal.write("C " + seq + "\n");
+            journal.flush();
+         }//end if
+      }catch (IOException e) {
+         System.err.println("Audit journal: " + e.getMessage());
+      }//end try
+   }//end checkpoint
+
+   // entries of the journal after its last checkpoint, in order
+   private static List<Entry> replay(File file) throws IOException {
+      List<Entry> entries = new ArrayList<Entry>();
+      if (!file.exists())
+         return entries;
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      try {
+         String line;
+         long committed = 0;
+         while ((line = in.readLine()) != null) {
+            try {
+               if (line.startsWith("C ")) {
+                  committed = Long.parseLong(line.substring(2).trim());
+               }else if (line.startsWith("E ")) {
+                  String[] f = line.substring(2).split(",");
+                  entries.add(new Entry(Long.parseLong(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+                                        Integer.parseInt(f[3]), Long.parseLong(f[4])));
+               }//end if
+            }catch (RuntimeException e) {
+               // a line cut short by the crash
+            }//end try
+         }//end while
+         List<Entry> pending = new ArrayList<Entry>();
+         for (Entry entry : entries)
+            if (entry.seq > committed)
+               pending.add(entry);
+         return pending;
+      }finally {
+         in.close();
+      }//end try
+   }//end replay
+}//end AuditLogWriter
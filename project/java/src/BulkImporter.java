@@ -0,0 +1,473 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the CSV files of the data directory into the database from the
+ * client, so the files need not be on the database host.
+ *
+ * The secondary indexes of create_indexes.sql are dropped before the load
+ * and built again afterwards, which is much cheaper than maintaining them
+ * row by row.  Tables are loaded in foreign key order, one stage at a time;
+ * the tables within a stage do not reference each other and are loaded in
+ * parallel on separate connections.  Each table is loaded in a single
+ * transaction, and the serial sequences are moved past the loaded ids at
+ * the end just like load_data.sql does.  The trigger counting bookings per
+ * hotel and customer is switched off during the load, and the counts are
+ * taken again from the loaded bookings afterwards.  So are the triggers
+ * recording catalog changes row by row; one change of the whole catalog
+ * is recorded instead.
+ *
+ * Rows go through the COPY protocol when the JDBC driver on the classpath
+ * offers it (org.postgresql.copy.CopyManager, driver 8.4 and later).  The
+ * 7.3 driver shipped in lib has none, so the Maven build fetches a newer
+ * driver to target/lib/postgresql.jar and bulk_import.sh puts it first on
+ * the classpath.  With the 7.3 driver alone rows are sent as multi-row
+ * INSERT statements of ROWS_PER_INSERT rows instead, which is still far
+ * from one round trip per row.
+ *
+ * Usage: java BulkImporter <dbname> <port> <user> <dataDir> [threads] [indexFile]
+ */
+public class BulkImporter {
+
+   public static final int DEFAULT_THREADS = 4;
+   // rows per INSERT when COPY is not available
+   public static final int ROWS_PER_INSERT = 1000;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   /**
+    * One table and the file it is loaded from.
+    */
+   public static class Table {
+      public final String name;
+      public final String file;
+      // serial column, null when the table has none
+      public final String serialColumn;
+
+      public Table(String name, String file, String serialColumn) {
+         this.name = name;
+         this.file = file;
+         this.serialColumn = serialColumn;
+      }
+   }//end Table
+
+   /**
+    * Rows loaded into one table and how long it took.
+    */
+   public static class Result {
+      public final Table table;
+      public final long rows;
+      public final long millis;
+
+      public Result(Table table, long rows, long millis) {
+         this.table = table;
+         this.rows = rows;
+         this.millis = millis;
+      }
+
+      public double rowsPerSecond() {
+         return rows * 1000.0 / Math.max(millis, 1);
+      }
+   }//end Result
+
+   /**
+    * The tables of create_tables.sql in foreign key order.  A stage only
+    * references tables of earlier stages.
+    */
+   public static final List<List<Table>> STAGES = Arrays.asList(
+      Arrays.asList(new Table("Users", "users.csv", "userID"),
+                    new Table("MaintenanceCompany", "company.csv", null)),
+      Arrays.asList(new Table("Hotel", "hotels.csv", null)),
+      Arrays.asList(new Table("Rooms", "rooms.csv", null)),
+      Arrays.asList(new Table("RoomBookings", "bookings.csv", "bookingID"),
+                    new Table("RoomRepairs", "roomRepairs.csv", "repairID"),
+                    new Table("RoomUpdatesLog", "roomUpdatesLog.csv", "updateNumber")),
+      Arrays.asList(new Table("RoomRepairRequests", "roomRepairRequests.csv", "requestNumber")));
+
+   // the per-row triggers are replaced by one recount and one catalog change after the load
+   private static final String[][] ROW_TRIGGERS = {
+      { "RoomBookings", "RoomBookings_count_customer" },
+      { "Hotel", "Hotel_record_change" },
+      { "Rooms", "Rooms_record_change" } };
+   private static final String RECOUNT = "SELECT recount_hotel_customer_bookings()";
+   // a change of no hotel in particular makes catalog listeners reload everything
+   private static final String RECORD_CATALOG_CHANGE = "INSERT INTO CatalogChanges (hotelID) VALUES (NULL)";
+
+   private final Hotel esql;
+   private final ExecutorService workers;
+
+   /**
+    * @param esql database to load into; give it at least threads connections
+    * @param threads tables loaded at the same time
+    */
+   public BulkImporter(Hotel esql, int threads) {
+      this.esql = esql;
+      this.workers = Executors.newFixedThreadPool(threads);
+   }//end BulkImporter
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java [-classpath <classpath>] " + BulkImporter.class.getName() +
+                            " <dbname> <port> <user> <dataDir> [threads] [indexFile]");
+         return;
+      }//end if
+      int threads = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_THREADS;
+      File dir = new File(args[3]);
+      File indexFile = args.length > 5 ? new File(args[5]) : null;
+
+      Class.forName("org.postgresql.Driver").newInstance();
+      Hotel esql = new Hotel(args[0], args[1], args[2], "", 1, threads);
+      BulkImporter importer = new BulkImporter(esql, threads);
+      try {
+         System.out.println(importer.usesCopy() ? "Loading through COPY"
+                                                : "Loading through multi-row INSERT, the JDBC driver has no COPY support");
+         long start = System.currentTimeMillis();
+         List<String> indexes = indexFile == null ? new ArrayList<String>() : importer.readStatements(indexFile);
+         importer.dropIndexes(indexes);
+         List<Result> results = importer.importDirectory(dir);
+         long loaded = System.currentTimeMillis();
+         importer.createIndexes(indexes);
+         importer.finish(results);
+
+         long rows = 0;
+         for (Result r : results) {
+            rows += r.rows;
+            System.out.printf("%-20s %12d rows %10.1f s %12.0f rows/s%n",
+                              r.table.name, r.rows, r.millis / 1000.0, r.rowsPerSecond());
+         }//end for
+         long end = System.currentTimeMillis();
+         System.out.printf("loaded %d rows in %.1f s (%.0f rows/s), indexes built in %.1f s, total %.1f s%n",
+                           rows, (loaded - start) / 1000.0, rows * 1000.0 / Math.max(loaded - start, 1),
+                           (end - loaded) / 1000.0, (end - start) / 1000.0);
+      }finally {
+         importer.close();
+         esql.cleanup();
+      }//end try
+   }//end main
+
+   /**
+    * @return true when rows are loaded through COPY, false when the JDBC
+    *         driver has no COPY support and they are inserted
+    * @throws java.sql.SQLException when no connection can be made
+    */
+   public boolean usesCopy() throws SQLException {
+      Connection conn = esql.getConnection();
+      try {
+         return copyManager(conn) != null;
+      }finally {
+         esql.releaseConnection(conn);
+      }//end try
+   }//end usesCopy
+
+   /**
+    * Loads every table from its file in dir, stage by stage.  Missing
+    * files are skipped.
+    *
+    * @return the rows loaded per table, in load order
+    * @throws java.sql.SQLException when a table fails to load; tables of
+    *         the same stage loaded before that stay loaded
+    */
+   public List<Result> importDirectory(final File dir) throws SQLException {
+      List<Result> results = new ArrayList<Result>();
+      for (String[] trigger : ROW_TRIGGERS)
+         esql.executeUpdate("ALTER TABLE " + trigger[0] + " DISABLE TRIGGER " + trigger[1]);
+      try {
+         importStages(dir, results);
+      }finally {
+         for (String[] trigger : ROW_TRIGGERS)
+            esql.executeUpdate("ALTER TABLE " + trigger[0] + " ENABLE TRIGGER " + trigger[1]);
+         esql.executeQueryAndReturnResult(RECOUNT);
+         esql.executeUpdate(RECORD_CATALOG_CHANGE);
+         esql.executeUpdate("NOTIFY " + CatalogListener.CHANNEL);
+      }//end try
+      return results;
+   }//end importDirectory
+
+   private void importStages(final File dir, List<Result> results) throws SQLException {
+      for (List<Table> stage : STAGES) {
+         List<Future<Result>> running = new ArrayList<Future<Result>>();
+         for (final Table table : stage) {
+            final File file = new File(dir, table.file);
+            if (!file.isFile()) {
+               System.out.println("Skipping " + table.name + ", " + file + " does not exist");
+               continue;
+            }//end if
+            running.add(workers.submit(new Callable<Result>() {
+               public Result call() throws Exception {
+                  Reader in = new InputStreamReader(new FileInputStream(file), UTF8);
+                  try {
+                     return importTable(table, in);
+                  }finally {
+                     in.close();
+                  }//end try
+               }
+            }));
+         }//end for
+         for (Future<Result> done : running)
+            results.add(await(done));
+      }//end for
+   }//end importStages
+
+   /**
+    * Loads CSV rows, with a header line, into a table in one transaction.
+    * Columns are taken in table order, as COPY ... CSV HEADER does.
+    *
+    * @param table the table to load
+    * @param in the CSV text; not closed
+    * @return the rows loaded
+    * @throws java.sql.SQLException when a row is rejected
+    * @throws java.io.IOException when in cannot be read
+    */
+   public Result importTable(Table table, Reader in) throws SQLException, IOException {
+      long start = System.currentTimeMillis();
+      Connection conn = esql.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         Object copyManager = copyManager(conn);
+         long rows = copyManager != null ? copy(copyManager, table, in) : insert(conn, table, in);
+         conn.commit();
+         return new Result(table, rows, System.currentTimeMillis() - start);
+      }finally {
+         esql.releaseConnection(conn);
+      }//end try
+   }//end importTable
+
+   /**
+    * @return the SQL statements of a script such as create_indexes.sql
+    */
+   public List<String> readStatements(File script) throws IOException {
+      StringBuilder text = new StringBuilder();
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(script), UTF8));
+      try {
+         for (String line; (line = in.readLine()) != null; ) {
+            int comment = line.indexOf("--");
+            text.append(comment < 0 ? line : line.substring(0, comment)).append('\n');
+         }//end for
+      }finally {
+         in.close();
+      }//end try
+      List<String> statements = new ArrayList<String>();
+      for (String statement : text.toString().split(";")) {
+         statement = statement.trim();
+         if (statement.length() > 0)
+            statements.add(statement);
+      }//end for
+      return statements;
+   }//end readStatements
+
+   /**
+    * Runs the DROP INDEX statements of the index script, so the load does
+    * not maintain them.
+    */
+   public void dropIndexes(List<String> statements) throws SQLException {
+      for (String statement : statements)
+         if (statement.toUpperCase().startsWith("DROP INDEX"))
+            esql.executeUpdate(statement);
+   }//end dropIndexes
+
+   /**
+    * Runs every other statement of the index script, the index builds in
+    * parallel.
+    */
+   public void createIndexes(List<String> statements) throws SQLException {
+      List<Future<Result>> running = new ArrayList<Future<Result>>();
+      for (final String statement : statements) {
+         if (statement.toUpperCase().startsWith("DROP INDEX"))
+            continue;
+         running.add(workers.submit(new Callable<Result>() {
+            public Result call() throws Exception {
+               esql.executeUpdate(statement);
+               return null;
+            }
+         }));
+      }//end for
+      for (Future<Result> done : running)
+         await(done);
+   }//end createIndexes
+
+   /**
+    * Moves the sequences of the loaded tables past their largest id and
+    * refreshes the planner statistics.
+    */
+   public void finish(List<Result> results) throws SQLException {
+      for (Result r : results) {
+         Table t = r.table;
+         // the names come from STAGES; pg_get_serial_sequence takes the column name as written, so in lower case
+         if (t.serialColumn != null)
+            esql.executeQueryAndReturnResult("SELECT setval(pg_get_serial_sequence(?, ?), COALESCE(MAX(" + t.serialColumn +
+                                             "), 0) + 1, false) FROM " + t.name, t.name, t.serialColumn.toLowerCase());
+         esql.executeUpdate("ANALYZE " + t.name);
+      }//end for
+   }//end finish
+
+   /**
+    * Stops the worker threads.
+    */
+   public void close() {
+      workers.shutdown();
+   }
+
+   // the driver's CopyManager, looked up by reflection so this compiles and
+   // runs against drivers without one; null when there is none
+   private static Object copyManager(Connection conn) {
+      try {
+         return conn.getClass().getMethod("getCopyAPI").invoke(conn);
+      }catch (NoSuchMethodException e) {
+         return null;
+      }catch (IllegalAccessException e) {
+         return null;
+      }catch (InvocationTargetException e) {
+         return null;
+      }//end try
+   }//end copyManager
+
+   private static long copy(Object copyManager, Table table, Reader in) throws SQLException, IOException {
+      String sql = "COPY " + table.name + " FROM STDIN WITH DELIMITER ',' CSV HEADER";
+      try {
+         Method copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+         return ((Number) copyIn.invoke(copyManager, sql, in)).longValue();
+      }catch (NoSuchMethodException e) {
+         throw new SQLException("Unsupported CopyManager: " + e.getMessage());
+      }catch (IllegalAccessException e) {
+         throw new SQLException("Unsupported CopyManager: " + e.getMessage());
+      }catch (InvocationTargetException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         throw new SQLException(cause.toString());
+      }//end try
+   }//end copy
+
+   // multi-row INSERTs of up to ROWS_PER_INSERT rows each
+   private static long insert(Connection conn, Table table, Reader in) throws SQLException, IOException {
+      BufferedReader lines = new BufferedReader(in, 1 << 16);
+      String header = lines.readLine();
+      if (header == null)
+         return 0;
+      int columns = parseCsv(header).size();
+      List<List<String>> rows = new ArrayList<List<String>>(ROWS_PER_INSERT);
+      PreparedStatement full = null;
+      long loaded = 0;
+      try {
+         for (String line; (line = lines.readLine()) != null; ) {
+            if (line.length() == 0)
+               continue;
+            List<String> row = parseCsv(line);
+            if (row.size() != columns)
+               throw new SQLException(table.file + ": expected " + columns + " values in line " + (loaded + rows.size() + 2));
+            rows.add(row);
+            if (rows.size() == ROWS_PER_INSERT) {
+               if (full == null)
+                  full = conn.prepareStatement(insertSql(table, columns, ROWS_PER_INSERT));
+               loaded += insertRows(full, rows);
+            }//end if
+         }//end for
+         if (!rows.isEmpty()) {
+            PreparedStatement rest = conn.prepareStatement(insertSql(table, columns, rows.size()));
+            try {
+               loaded += insertRows(rest, rows);
+            }finally {
+               rest.close();
+            }//end try
+         }//end if
+      }finally {
+         if (full != null)
+            full.close();
+      }//end try
+      return loaded;
+   }//end insert
+
+   private static int insertRows(PreparedStatement stmt, List<List<String>> rows) throws SQLException {
+      int index = 0;
+      for (List<String> row : rows) {
+         for (String value : row) {
+            // an empty unquoted value is NULL, as in COPY
+            if (value == null)
+               stmt.setNull(++index, Types.VARCHAR);
+            else
+               stmt.setString(++index, value);
+         }//end for
+      }//end for
+      stmt.executeUpdate();
+      int count = rows.size();
+      rows.clear();
+      return count;
+   }//end insertRows
+
+   private static String insertSql(Table table, int columns, int rows) {
+      StringBuilder row = new StringBuilder("(");
+      for (int c = 0; c < columns; ++c)
+         row.append(c == 0 ? "?" : ", ?");
+      row.append(')');
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(table.name).append(" VALUES ");
+      for (int r = 0; r < rows; ++r)
+         sql.append(r == 0 ? "" : ", ").append(row);
+      return sql.toString();
+   }//end insertSql
+
+   /**
+    * Splits one CSV line.  Quoted values may contain commas and doubled
+    * quotes; an empty unquoted value is returned as null.
+    */
+   static List<String> parseCsv(String line) {
+      List<String> values = new ArrayList<String>();
+      StringBuilder value = new StringBuilder();
+      boolean quoted = false, wasQuoted = false;
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (quoted) {
+            if (c != '"')
+               value.append(c);
+            else if (i + 1 < line.length() && line.charAt(i + 1) == '"')
+               value.append(line.charAt(++i));
+            else
+               quoted = false;
+         }else if (c == '"') {
+            quoted = wasQuoted = true;
+         }else if (c == ',') {
+            values.add(value.length() == 0 && !wasQuoted ? null : value.toString());
+            value.setLength(0);
+            wasQuoted = false;
+         }else {
+            value.append(c);
+         }//end if
+      }//end for
+      values.add(value.length() == 0 && !wasQuoted ? null : value.toString());
+      return values;
+   }//end parseCsv
+
+   private static Result await(Future<Result> future) throws SQLException {
+      try {
+         return future.get();
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted");
+      }catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         throw new SQLException(cause.toString());
+      }//end try
+   }//end await
+}//end BulkImporter
@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Every hotel and room with its price and manager, held in memory so the
+ * lookups the menus and the booking path make on each call (does the hotel
+ * exist, who manages it, what does the room cost) need no round trip.
+ *
+ * Readers take the current snapshot from a volatile field and never lock.
+ * A snapshot is never changed once published: a room or hotel update
+ * copies the parts it touches into a new snapshot, and a reload builds a
+ * new one from scratch, so a reader always sees one consistent catalog.
+ * The spatial index of the hotels with coordinates is built with each
+ * reload and with each hotel update, and shared by the snapshots derived
+ * from it by room updates.
+ */
+public class CatalogCache {
+
+   /**
+    * One consistent state of the catalog.
+    */
+   private static final class Snapshot {
+      final Map<Integer, HotelEntry> hotels;
+      // hotelID -> roomNumber -> room, rooms in number order
+      final Map<Integer, TreeMap<Integer, RoomEntry>> rooms;
+      final HotelSpatialIndex index;
+
+      Snapshot(Map<Integer, HotelEntry> hotels, Map<Integer, TreeMap<Integer, RoomEntry>> rooms, HotelSpatialIndex index) {
+         this.hotels = hotels;
+         this.rooms = rooms;
+         this.index = index;
+      }
+   }//end Snapshot
+
+   private volatile Snapshot current;
+   private volatile long loadedAt;
+
+   public CatalogCache(List<HotelEntry> hotels, List<RoomEntry> rooms) {
+      replace(hotels, rooms);
+   }
+
+   /**
+    * Replaces the whole catalog, as after a reload from the database.
+    */
+   public synchronized void replace(List<HotelEntry> hotels, List<RoomEntry> rooms) {
+      Map<Integer, HotelEntry> hotelMap = new HashMap<Integer, HotelEntry>();
+      for (HotelEntry hotel : hotels)
+         hotelMap.put(hotel.hotelID, hotel);
+      Map<Integer, TreeMap<Integer, RoomEntry>> roomMap = new HashMap<Integer, TreeMap<Integer, RoomEntry>>();
+      for (RoomEntry room : rooms) {
+         TreeMap<Integer, RoomEntry> ofHotel = roomMap.get(room.hotelID);
+         if (ofHotel == null) {
+            ofHotel = new TreeMap<Integer, RoomEntry>();
+            roomMap.put(room.hotelID, ofHotel);
+         }//end if
+         ofHotel.put(room.roomNumber, room);
+      }//end for
+      current = new Snapshot(hotelMap, roomMap, index(hotelMap));
+      loadedAt = System.currentTimeMillis();
+   }//end replace
+
+   /**
+    * Replaces or adds one hotel.  The map of hotels is copied and the
+    * spatial index built again; the rooms are shared.
+    */
+   public synchronized void putHotel(HotelEntry hotel) {
+      Snapshot old = current;
+      Map<Integer, HotelEntry> hotels = new HashMap<Integer, HotelEntry>(old.hotels);
+      hotels.put(hotel.hotelID, hotel);
+      current = new Snapshot(hotels, old.rooms, index(hotels));
+   }//end putHotel
+
+   /**
+    * Forgets a hotel, as after it was deleted.  Its rooms are forgotten
+    * one by one with removeRoom(), as they are deleted.
+    */
+   public synchronized void removeHotel(int hotelID) {
+      Snapshot old = current;
+      if (!old.hotels.containsKey(hotelID))
+         return;
+      Map<Integer, HotelEntry> hotels = new HashMap<Integer, HotelEntry>(old.hotels);
+      hotels.remove(hotelID);
+      current = new Snapshot(hotels, old.rooms, index(hotels));
+   }//end removeHotel
+
+   /**
+    * Replaces one room, as after updateRoomInfo.  Only the map of its hotel
+    * and the map of hotels are copied.
+    */
+   public synchronized void putRoom(RoomEntry room) {
+      Snapshot old = current;
+      Map<Integer, TreeMap<Integer, RoomEntry>> rooms = new HashMap<Integer, TreeMap<Integer, RoomEntry>>(old.rooms);
+      TreeMap<Integer, RoomEntry> ofHotel = old.rooms.get(room.hotelID);
+      ofHotel = ofHotel == null ? new TreeMap<Integer, RoomEntry>() : new TreeMap<Integer, RoomEntry>(ofHotel);
+      ofHotel.put(room.roomNumber, room);
+      rooms.put(room.hotelID, ofHotel);
+      current = new Snapshot(old.hotels, rooms, old.index);
+   }//end putRoom
+
+   /**
+    * Forgets a room, as after it was deleted.
+    */
+   public synchronized void removeRoom(int hotelID, int roomNumber) {
+      Snapshot old = current;
+      TreeMap<Integer, RoomEntry> ofHotel = old.rooms.get(hotelID);
+      if (ofHotel == null || !ofHotel.containsKey(roomNumber))
+         return;
+      Map<Integer, TreeMap<Integer, RoomEntry>> rooms = new HashMap<Integer, TreeMap<Integer, RoomEntry>>(old.rooms);
+      ofHotel = new TreeMap<Integer, RoomEntry>(ofHotel);
+      ofHotel.remove(roomNumber);
+      if (ofHotel.isEmpty())
+         rooms.remove(hotelID);
+      else
+         rooms.put(hotelID, ofHotel);
+      current = new Snapshot(old.hotels, rooms, old.index);
+   }//end removeRoom
+
+   /**
+    * @return the hotel, or null when there is no such hotel
+    */
+   public HotelEntry hotel(int hotelID) {
+      return current.hotels.get(hotelID);
+   }
+
+   /**
+    * @return the managerUserID of a hotel, or null when there is no such hotel
+    */
+   public Integer manager(int hotelID) {
+      HotelEntry hotel = current.hotels.get(hotelID);
+      return hotel == null ? null : hotel.managerUserID;
+   }
+
+   /**
+    * @return the room, or null when the hotel has no such room
+    */
+   public RoomEntry room(int hotelID, int roomNumber) {
+      TreeMap<Integer, RoomEntry> ofHotel = current.rooms.get(hotelID);
+      return ofHotel == null ? null : ofHotel.get(roomNumber);
+   }
+
+   /**
+    * @return the rooms of a hotel in number order, empty for an unknown hotel
+    */
+   public List<RoomEntry> rooms(int hotelID) {
+      TreeMap<Integer, RoomEntry> ofHotel = current.rooms.get(hotelID);
+      if (ofHotel == null)
+         return Collections.emptyList();
+      return new ArrayList<RoomEntry>(ofHotel.values());
+   }//end rooms
+
+   /**
+    * @return number of rooms of every hotel that has any
+    */
+   public Map<Integer, Integer> roomCounts() {
+      Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+      for (Map.Entry<Integer, TreeMap<Integer, RoomEntry>> hotel : current.rooms.entrySet())
+         counts.put(hotel.getKey(), hotel.getValue().size());
+      return counts;
+   }//end roomCounts
+
+   /**
+    * @return every hotel, in no particular order
+    */
+   public List<HotelEntry> hotels() {
+      return new ArrayList<HotelEntry>(current.hotels.values());
+   }
+
+   /**
+    * @return the grid over the located hotels, as of the last reload or hotel update
+    */
+   public HotelSpatialIndex spatialIndex() {
+      return current.index;
+   }
+
+   // the grid over the hotels with coordinates
+   private static HotelSpatialIndex index(Map<Integer, HotelEntry> hotels) {
+      List<HotelEntry> located = new ArrayList<HotelEntry>(hotels.size());
+      for (HotelEntry hotel : hotels.values())
+         if (hotel.located())
+            located.add(hotel);
+      return new HotelSpatialIndex(located);
+   }//end index
+
+   /**
+    * @return System.currentTimeMillis() of the last reload
+    */
+   public long getLoadedAt() {
+      return loadedAt;
+   }
+}//end CatalogCache
@@ -0,0 +1,250 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Watches for changes to Hotel and Rooms made by other clients and hands
+ * the hotels and rooms that changed to a Handler, so only those catalog
+ * entries are loaded again.
+ *
+ * The row triggers of create_tables.sql record every changed hotel or
+ * room in CatalogChanges, and a statement trigger sends a notification on
+ * CHANNEL.  Notifications of the 7.3 driver's protocol carry no payload,
+ * so the notification only wakes this thread, which reads the rows added
+ * since it last looked.  It LISTENs on a connection of its own, outside
+ * the pool, and polls it every POLL_MS; the driver only reads
+ * notifications when a statement runs.
+ *
+ * Changes made through the connections of the pool are skipped, by the
+ * server process that made them: this process updated its own catalog
+ * already, as updateRoom does.  A notification sent only by those
+ * processes is not even read.  A TRUNCATE or a bulk load by another
+ * client, or more than PATCH_LIMIT changed entries at once, lead to one
+ * reload of the whole catalog instead, as does a broken connection, since
+ * notifications sent while it was down are lost.
+ *
+ * changeIDs are taken when a row is written but become visible when its
+ * transaction commits, so a lower changeID can show up after a higher
+ * one.  The IDs skipped over are looked for again with the next rows for
+ * up to PENDING_MS; an ID rolled back is never seen and is dropped then.
+ * Every PRUNE_MS the rows older than RETAIN_MS are deleted.
+ */
+public class CatalogListener extends Thread {
+
+   public static final String CHANNEL = "catalog_changed";
+   public static final long POLL_MS = 1000;
+   // wait before opening a broken connection again
+   public static final long RETRY_MS = 5000;
+   // more changed hotels and rooms than this at once are reloaded instead
+   public static final int PATCH_LIMIT = 100;
+   // how long a skipped changeID is looked for, and how many are
+   public static final long PENDING_MS = 10 * 60 * 1000;
+   public static final int MAX_PENDING = 1000;
+   public static final long PRUNE_MS = 10 * 60 * 1000;
+   public static final long RETAIN_MS = 60 * 60 * 1000;
+
+   /**
+    * What the listener does about a change.  Called on the listener thread.
+    */
+   public interface Handler {
+      /**
+       * Anything may have changed; loads the whole catalog again.
+       */
+      void reload() throws SQLException;
+
+      /**
+       * The hotel row changed, or was added or deleted.
+       */
+      void hotelChanged(int hotelID) throws SQLException;
+
+      /**
+       * The room changed, or was added or deleted.
+       */
+      void roomChanged(int hotelID, int roomNumber) throws SQLException;
+   }//end Handler
+
+   private final ConnectionPool pool;
+   private final Handler handler;
+   private volatile boolean running = true;
+
+   // highest changeID read, and the lower ones not seen yet with when they were skipped
+   private int seenThrough;
+   private final Map<Integer, Long> pending = new TreeMap<Integer, Long>();
+   private long lastPrune = System.currentTimeMillis();
+
+   /**
+    * @param pool where to open the listening connection, and whose
+    *        connections make the changes to skip
+    * @param seenThrough highest changeID already reflected in the catalog,
+    *        read before the catalog was loaded
+    * @param handler told about every change
+    */
+   public CatalogListener(ConnectionPool pool, int seenThrough, Handler handler) {
+      super("catalog-listener");
+      setDaemon(true);
+      this.pool = pool;
+      this.seenThrough = seenThrough;
+      this.handler = handler;
+   }//end CatalogListener
+
+   public void run() {
+      boolean reconnect = false;
+      while (running) {
+         Connection conn = null;
+         try {
+            conn = pool.connect();
+            Statement stmt = conn.createStatement();
+            stmt.execute("LISTEN " + CHANNEL);
+            if (reconnect) {
+               // whatever happened while the connection was down is in the reload
+               seenThrough = latestChange(stmt);
+               pending.clear();
+               handler.reload();
+            }else {
+               // changes made between loading the catalog and listening
+               readChanges(stmt);
+            }//end if
+            reconnect = true;
+            while (running) {
+               Thread.sleep(POLL_MS);
+               stmt.execute("SELECT 1");
+               PGNotification[] notifications = ((PGConnection) conn).getNotifications();
+               if (notifications != null && fromOthers(notifications))
+                  readChanges(stmt);
+               prune(stmt);
+            }//end while
+         }catch (InterruptedException e) {
+            running = false;
+         }catch (Exception e) {
+            System.err.println("Catalog listener: " + e.getMessage());
+            pause(RETRY_MS);
+         }finally {
+            if (conn != null) {
+               try {
+                  conn.close();
+               }catch (SQLException e) {
+                  // the connection is gone either way
+               }//end try
+            }//end if
+         }//end try
+      }//end while
+   }//end run
+
+   /**
+    * Stops the thread and closes its connection.
+    */
+   public void shutdown() {
+      running = false;
+      interrupt();
+   }
+
+   // true unless every notification came from a connection of the pool
+   private boolean fromOthers(PGNotification[] notifications) {
+      for (PGNotification notification : notifications)
+         if (!pool.ownsBackend(notification.getPID()))
+            return true;
+      return false;
+   }//end fromOthers
+
+   private static int latestChange(Statement stmt) throws SQLException {
+      ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(changeID), 0) FROM CatalogChanges");
+      try {
+         rs.next();
+         return rs.getInt(1);
+      }finally {
+         rs.close();
+      }//end try
+   }//end latestChange
+
+   /**
+    * Reads the changes after seenThrough and the pending ones, and hands
+    * the hotels and rooms changed by other clients to the handler.
+    */
+   private void readChanges(Statement stmt) throws SQLException {
+      StringBuilder query = new StringBuilder("SELECT changeID, hotelID, roomNumber, pid FROM CatalogChanges WHERE changeID > ")
+         .append(seenThrough);
+      if (!pending.isEmpty()) {
+         query.append(" OR changeID IN (");
+         for (Iterator<Integer> it = pending.keySet().iterator(); it.hasNext(); )
+            query.append(it.next()).append(it.hasNext() ? "," : ")");
+      }//end if
+      query.append(" ORDER BY changeID");
+
+      // hotelID, or hotelID and roomNumber; in the order they changed
+      Set<List<Integer>> changed = new LinkedHashSet<List<Integer>>();
+      boolean reload = false;
+      long now = System.currentTimeMillis();
+      ResultSet rs = stmt.executeQuery(query.toString());
+      try {
+         while (rs.next()) {
+            int changeID = rs.getInt(1);
+            if (pending.remove(changeID) == null && changeID > seenThrough) {
+               if (changeID - seenThrough - 1 > MAX_PENDING - pending.size())
+                  reload = true;
+               else
+                  for (int skipped = seenThrough + 1; skipped < changeID; ++skipped)
+                     pending.put(skipped, now);
+               seenThrough = changeID;
+            }//end if
+            if (pool.ownsBackend(rs.getInt(4)))
+               continue;
+            int hotelID = rs.getInt(2);
+            if (rs.wasNull()) {
+               // a TRUNCATE or a bulk load
+               reload = true;
+               continue;
+            }//end if
+            int roomNumber = rs.getInt(3);
+            changed.add(rs.wasNull() ? Arrays.asList(hotelID) : Arrays.asList(hotelID, roomNumber));
+         }//end while
+      }finally {
+         rs.close();
+      }//end try
+
+      for (Iterator<Long> it = pending.values().iterator(); it.hasNext(); )
+         if (now - it.next() > PENDING_MS)
+            it.remove();
+      if (reload) {
+         // the reload covers the skipped changeIDs too
+         pending.clear();
+         handler.reload();
+      }else if (changed.size() > PATCH_LIMIT) {
+         handler.reload();
+      }else {
+         for (List<Integer> key : changed) {
+            if (key.size() == 1)
+               handler.hotelChanged(key.get(0));
+            else
+               handler.roomChanged(key.get(0), key.get(1));
+         }//end for
+      }//end if
+   }//end readChanges
+
+   // deletes the rows every listener has long read
+   private void prune(Statement stmt) throws SQLException {
+      long now = System.currentTimeMillis();
+      if (now - lastPrune < PRUNE_MS)
+         return;
+      lastPrune = now;
+      stmt.executeUpdate("DELETE FROM CatalogChanges WHERE changedAt < clock_timestamp() - interval '" + RETAIN_MS / 1000 + " seconds'");
+   }//end prune
+
+   private void pause(long millis) {
+      try {
+         Thread.sleep(millis);
+      }catch (InterruptedException e) {
+         running = false;
+      }//end try
+   }//end pause
+}//end CatalogListener
@@ -0,0 +1,435 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of physical PostgreSQL connections shared by every
+ * thread of one JVM.  Connections are borrowed for the duration of a
+ * single operation and handed back with release(), so concurrent callers
+ * no longer serialize behind one java.sql.Connection.
+ *
+ * The pool keeps at least minSize connections open, never opens more than
+ * maxSize, closes idle connections above minSize after idleTimeoutMs,
+ * validates a connection that has been idle for a while before handing it
+ * out, fails a borrow after acquireTimeoutMs and reports connections that
+ * have been held longer than leakThresholdMs together with the stack of
+ * the borrower.
+ *
+ * Each connection carries its own StatementCache; callers reach it
+ * through statementsFor() while they hold the connection.  The server
+ * process of each open connection is known, so changes this pool made can
+ * be told apart from those of other clients (see ownsBackend()).
+ */
+public class ConnectionPool {
+
+   // default sizing used by the Hotel(dbname, dbport, user, passwd) constructor
+   public static final int DEFAULT_MIN_SIZE = 1;
+   public static final int DEFAULT_MAX_SIZE = 10;
+   public static final long DEFAULT_ACQUIRE_TIMEOUT_MS = 30000;
+   public static final long DEFAULT_IDLE_TIMEOUT_MS = 600000;
+   public static final long DEFAULT_LEAK_THRESHOLD_MS = 60000;
+   public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+   public static final int DEFAULT_PREPARE_THRESHOLD = 5;
+
+   // a connection idle for less than this is handed out without a round trip
+   private static final long VALIDATION_INTERVAL_MS = 1000;
+   // how often the housekeeper evicts, refills and looks for leaks
+   private static final long HOUSEKEEPING_PERIOD_MS = 30000;
+
+   /**
+    * Book keeping for one physical connection.
+    */
+   private static class Entry {
+      final Connection connection;
+      final StatementCache statements;
+      // pg_backend_pid() of the connection, 0 when the server did not say
+      final int backendPID;
+      long lastUsed;
+      long borrowedAt;
+      Throwable borrower;
+      boolean leakReported;
+
+      Entry(Connection connection, StatementCache statements, int backendPID) {
+         this.connection = connection;
+         this.statements = statements;
+         this.backendPID = backendPID;
+         this.lastUsed = System.currentTimeMillis();
+      }
+   }//end Entry
+
+   private final String url;
+   private final String user;
+   private final String passwd;
+   private final int minSize;
+   private final int maxSize;
+   private final long acquireTimeoutMs;
+   private final long idleTimeoutMs;
+   private final long leakThresholdMs;
+   private final int statementCacheSize;
+   private final int prepareThreshold;
+   private final StatementCache.Stats statementStats = new StatementCache.Stats();
+
+   // time from calling borrow() to getting a connection, including opening one
+   private final LatencyHistogram waitTimes = new LatencyHistogram();
+
+   // one permit per connection that may still be handed out
+   private final Semaphore permits;
+   // most recently used connection first, so idle ones drift to the tail
+   private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<Entry>();
+   private final Map<Connection, Entry> borrowed = new ConcurrentHashMap<Connection, Entry>();
+   private final AtomicInteger openCount = new AtomicInteger();
+   private final Set<Integer> backendPIDs = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+   private final Timer housekeeper;
+   private volatile boolean closed = false;
+
+   /**
+    * Creates a new pool with the default statement cache settings.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize number of connections kept open even when idle
+    * @param maxSize upper bound on open connections
+    * @param acquireTimeoutMs how long borrow() waits for a free connection
+    * @param idleTimeoutMs idle time after which surplus connections are closed
+    * @param leakThresholdMs borrow time after which a connection is reported as leaked
+    * @throws java.sql.SQLException when the initial connections cannot be opened
+    */
+   public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+                         long acquireTimeoutMs, long idleTimeoutMs, long leakThresholdMs) throws SQLException {
+      this(url, user, passwd, minSize, maxSize, acquireTimeoutMs, idleTimeoutMs, leakThresholdMs,
+           DEFAULT_STATEMENT_CACHE_SIZE, DEFAULT_PREPARE_THRESHOLD);
+   }//end ConnectionPool
+
+   /**
+    * Creates a new pool and opens minSize connections eagerly.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize number of connections kept open even when idle
+    * @param maxSize upper bound on open connections
+    * @param acquireTimeoutMs how long borrow() waits for a free connection
+    * @param idleTimeoutMs idle time after which surplus connections are closed
+    * @param leakThresholdMs borrow time after which a connection is reported as leaked
+    * @param statementCacheSize prepared statements kept open per connection
+    * @param prepareThreshold uses after which a statement is prepared on the server
+    * @throws java.sql.SQLException when the initial connections cannot be opened
+    */
+   public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+                         long acquireTimeoutMs, long idleTimeoutMs, long leakThresholdMs,
+                         int statementCacheSize, int prepareThreshold) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.minSize = minSize;
+      this.maxSize = maxSize;
+      this.acquireTimeoutMs = acquireTimeoutMs;
+      this.idleTimeoutMs = idleTimeoutMs;
+      this.leakThresholdMs = leakThresholdMs;
+      this.statementCacheSize = statementCacheSize;
+      this.prepareThreshold = prepareThreshold;
+      this.permits = new Semaphore(maxSize, true);
+
+      for (int i = 0; i < minSize; ++i)
+         idle.addLast(open());
+
+      this.housekeeper = new Timer("ConnectionPool-housekeeper", true);
+      this.housekeeper.schedule(new TimerTask() {
+         public void run() {
+            housekeep();
+         }
+      }, HOUSEKEEPING_PERIOD_MS, HOUSEKEEPING_PERIOD_MS);
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection, waiting at most acquireTimeoutMs for one to
+    * become free.  Every successful borrow must be paired with release().
+    *
+    * @return a validated connection in autocommit mode
+    * @throws java.sql.SQLException when the pool is exhausted or a connection cannot be opened
+    */
+   public Connection borrow() throws SQLException {
+      if (closed)
+         throw new SQLException("Connection pool is closed");
+      long start = System.nanoTime();
+      try {
+         if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS))
+            throw new SQLException("Timed out after " + acquireTimeoutMs + " ms waiting for a database connection ("
+                                   + maxSize + " in use)");
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      }//end try
+
+      try {
+         Entry entry;
+         while ((entry = idle.pollFirst()) != null) {
+            if (validate(entry))
+               break;
+            discard(entry);
+         }//end while
+         if (entry == null)
+            entry = open();
+
+         entry.borrowedAt = System.currentTimeMillis();
+         entry.borrower = leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null;
+         entry.leakReported = false;
+         borrowed.put(entry.connection, entry);
+         waitTimes.recordNanos(System.nanoTime() - start);
+         return entry.connection;
+      }catch (SQLException e) {
+         permits.release();
+         throw e;
+      }catch (RuntimeException e) {
+         permits.release();
+         throw e;
+      }//end try
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back to the pool.  A connection left in a
+    * transaction is rolled back and put back into autocommit mode first; a
+    * connection that cannot be reset is closed instead of being reused.
+    *
+    * @param connection a connection obtained from borrow(), may be null
+    */
+   public void release(Connection connection) {
+      if (connection == null)
+         return;
+      Entry entry = borrowed.remove(connection);
+      if (entry == null)
+         return;
+      entry.borrower = null;
+      try {
+         if (!connection.getAutoCommit()) {
+            connection.rollback();
+            connection.setAutoCommit(true);
+         }//end if
+         entry.lastUsed = System.currentTimeMillis();
+         if (closed)
+            discard(entry);
+         else
+            idle.addFirst(entry);
+      }catch (SQLException e) {
+         discard(entry);
+      }finally {
+         permits.release();
+      }//end try
+   }//end release
+
+   /**
+    * Returns a borrowed connection that is known to be broken.  It is
+    * closed instead of being put back into the pool.
+    *
+    * @param connection a connection obtained from borrow(), may be null
+    */
+   public void invalidate(Connection connection) {
+      if (connection == null)
+         return;
+      Entry entry = borrowed.remove(connection);
+      if (entry == null)
+         return;
+      discard(entry);
+      permits.release();
+   }//end invalidate
+
+   /**
+    * Returns the statement cache of a connection the caller has borrowed.
+    *
+    * @param connection a connection obtained from borrow()
+    * @return the cache of prepared statements of that connection
+    * @throws java.sql.SQLException when the connection is not currently borrowed
+    */
+   public StatementCache statementsFor(Connection connection) throws SQLException {
+      Entry entry = borrowed.get(connection);
+      if (entry == null)
+         throw new SQLException("Connection was not borrowed from this pool");
+      return entry.statements;
+   }//end statementsFor
+
+   /**
+    * @return true when connection is currently borrowed from this pool
+    */
+   public boolean owns(Connection connection) {
+      return connection != null && borrowed.containsKey(connection);
+   }
+
+   /**
+    * @return true when pid is the server process of a connection this pool
+    *         has open
+    */
+   public boolean ownsBackend(int pid) {
+      return backendPIDs.contains(pid);
+   }
+
+   /**
+    * @return hit and miss counters of the statement caches of every connection
+    */
+   public StatementCache.Stats getStatementCacheStats() {
+      return statementStats;
+   }
+
+   /**
+    * @return how long borrow() took, for every connection handed out
+    */
+   public LatencyHistogram getWaitTimes() {
+      return waitTimes;
+   }
+
+   /**
+    * @return number of connections currently borrowed
+    */
+   public int getActiveCount() {
+      return borrowed.size();
+   }
+
+   /**
+    * @return number of open connections waiting in the pool
+    */
+   public int getIdleCount() {
+      return idle.size();
+   }
+
+   /**
+    * @return number of threads waiting in borrow()
+    */
+   public int getWaitingCount() {
+      return permits.getQueueLength();
+   }
+
+   /**
+    * Closes every idle connection and stops the housekeeper.  Connections
+    * still borrowed are closed when they are released.
+    */
+   public void close() {
+      closed = true;
+      housekeeper.cancel();
+      Entry entry;
+      while ((entry = idle.pollFirst()) != null)
+         discard(entry);
+   }//end close
+
+   /**
+    * Opens a connection to the same database that is not part of the pool
+    * and does not count towards maxSize, for sessions that stay open for
+    * the life of the process such as a LISTEN.  The caller closes it.
+    *
+    * @return a new connection
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public Connection connect() throws SQLException {
+      return DriverManager.getConnection(url, user, passwd);
+   }
+
+   private Entry open() throws SQLException {
+      Connection connection = DriverManager.getConnection(url, user, passwd);
+      int pid;
+      try {
+         pid = backendPID(connection);
+      }catch (SQLException e) {
+         connection.close();
+         throw e;
+      }//end try
+      openCount.incrementAndGet();
+      if (pid != 0)
+         backendPIDs.add(pid);
+      return new Entry(connection, new StatementCache(connection, statementCacheSize, prepareThreshold, statementStats), pid);
+   }//end open
+
+   // the pg73 driver keeps the pid of the session to itself, so ask the server
+   private static int backendPID(Connection connection) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery("SELECT pg_backend_pid()");
+         int pid = rs.next() ? rs.getInt(1) : 0;
+         rs.close();
+         return pid;
+      }finally {
+         stmt.close();
+      }//end try
+   }//end backendPID
+
+   // the count drops only once the connection is closed, so a refill never overlaps it
+   private void discard(Entry entry) {
+      if (entry.backendPID != 0)
+         backendPIDs.remove(entry.backendPID);
+      entry.statements.close();
+      try {
+         entry.connection.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+      openCount.decrementAndGet();
+   }//end discard
+
+   // the pg73 driver predates Connection.isValid(), so ask the server directly
+   private boolean validate(Entry entry) {
+      if (System.currentTimeMillis() - entry.lastUsed < VALIDATION_INTERVAL_MS)
+         return true;
+      try {
+         Statement stmt = entry.connection.createStatement();
+         try {
+            stmt.executeQuery("SELECT 1").close();
+         }finally {
+            stmt.close();
+         }//end try
+         return true;
+      }catch (SQLException e) {
+         return false;
+      }//end try
+   }//end validate
+
+   // runs on the housekeeper timer; package-private for the tests
+   void housekeep() {
+      if (closed)
+         return;
+      long now = System.currentTimeMillis();
+
+      // close surplus connections that sat idle for too long, oldest first
+      Iterator<Entry> it = idle.descendingIterator();
+      while (it.hasNext() && openCount.get() > minSize) {
+         Entry entry = it.next();
+         if (now - entry.lastUsed >= idleTimeoutMs && idle.remove(entry))
+            discard(entry);
+      }//end while
+
+      // refill up to the minimum, each new connection under a permit like a borrower's so the
+      // two never open more than maxSize between them; with every permit taken there is no need
+      while (!closed && openCount.get() < minSize && permits.tryAcquire()) {
+         try {
+            if (openCount.get() < minSize)
+               idle.addLast(open());
+         }catch (SQLException e) {
+            System.err.println("Unable to refill connection pool: " + e.getMessage());
+            break;
+         }finally {
+            permits.release();
+         }//end try
+      }//end while
+
+      for (Entry entry : borrowed.values()) {
+         Throwable borrower = entry.borrower;
+         if (!entry.leakReported && borrower != null && now - entry.borrowedAt >= leakThresholdMs) {
+            entry.leakReported = true;
+            System.err.println("Possible connection leak: held for " + (now - entry.borrowedAt) + " ms");
+            borrower.printStackTrace();
+         }//end if
+      }//end for
+   }//end housekeep
+}//end ConnectionPool
@@ -0,0 +1,277 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes a consistent set of the CSV fixtures loaded by load_data.sql at
+ * any size, for seeing the scaling behaviour the 20 hotel sample hides.
+ *
+ * Every file is streamed straight to disk; apart from the per-hotel
+ * manager table and a cache of formatted dates nothing is kept in memory,
+ * so 50M bookings take no more heap than 500.  Foreign keys always point
+ * at generated rows, a room is never booked twice for the same night, and
+ * the same seed always produces the same files.  load_data.sql derives the
+ * sequence restart values from the loaded rows, so it needs no edits.
+ *
+ * Usage: java DataGenerator <outputDir> [--hotels n] [--rooms-per-hotel n]
+ *        [--customers n] [--bookings n] [--companies n] [--repairs n]
+ *        [--updates n] [--seed n]
+ */
+public class DataGenerator {
+
+   // the sample data has one manager for about every four hotels
+   private static final int HOTELS_PER_MANAGER = 4;
+   // bookings are spread from this year up to a year from now
+   private static final int FIRST_BOOKING_YEAR = 2015;
+   // hotels are placed on real coordinates, which also fit the Hotel columns
+   private static final double MAX_LATITUDE = 90;
+   private static final double MAX_LONGITUDE = 180;
+
+   private final Random rnd;
+   private final int hotels;
+   private final int roomsPerHotel;
+   private final int customers;
+   private final long bookings;
+   private final int companies;
+   private final int repairs;
+   private final int updates;
+   private final int managers;
+   // managerUserID of every hotel, indexed by hotelID
+   private final int[] managerOf;
+   // M/d/yyyy text of every day from FIRST_BOOKING_YEAR on, indexed by day
+   private final String[] dates;
+
+   public DataGenerator(int hotels, int roomsPerHotel, int customers, long bookings,
+                        int companies, int repairs, int updates, long seed) {
+      if (hotels < 1 || roomsPerHotel < 1 || customers < 1 || companies < 1)
+         throw new IllegalArgumentException("hotels, rooms, customers and companies must be positive");
+      this.rnd = new Random(seed);
+      this.hotels = hotels;
+      this.roomsPerHotel = roomsPerHotel;
+      this.customers = customers;
+      this.bookings = bookings;
+      this.companies = companies;
+      this.repairs = repairs;
+      this.updates = updates;
+      this.managers = (hotels + HOTELS_PER_MANAGER - 1) / HOTELS_PER_MANAGER;
+      this.managerOf = new int[hotels + 1];
+
+      Calendar day = Calendar.getInstance();
+      day.clear();
+      day.set(FIRST_BOOKING_YEAR, Calendar.JANUARY, 1);
+      int span = RoomAvailabilityIndex.epochDay(new java.util.Date()) + 365 - RoomAvailabilityIndex.epochDay(day.getTime());
+      // a room with more bookings than nights needs a longer span
+      long perRoom = bookings / ((long) hotels * roomsPerHotel) + 1;
+      this.dates = new String[(int) Math.max(span, perRoom)];
+      for (int i = 0; i < dates.length; ++i) {
+         dates[i] = (day.get(Calendar.MONTH) + 1) + "/" + day.get(Calendar.DAY_OF_MONTH) + "/" + day.get(Calendar.YEAR);
+         day.add(Calendar.DAY_OF_MONTH, 1);
+      }//end for
+   }//end DataGenerator
+
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1 || args.length % 2 == 0) {
+         System.err.println("Usage: java " + DataGenerator.class.getName() + " <outputDir> [--hotels n] [--rooms-per-hotel n]" +
+                            " [--customers n] [--bookings n] [--companies n] [--repairs n] [--updates n] [--seed n]");
+         return;
+      }//end if
+      // defaults reproduce the size of the sample data
+      int hotels = 20, roomsPerHotel = 10, customers = 92, companies = 5, repairs = 10, updates = 50;
+      long bookings = 500, seed = 1;
+      for (int i = 1; i < args.length; i += 2) {
+         String option = args[i];
+         long value = Long.parseLong(args[i + 1]);
+         if (option.equals("--hotels")) hotels = (int) value;
+         else if (option.equals("--rooms-per-hotel")) roomsPerHotel = (int) value;
+         else if (option.equals("--customers")) customers = (int) value;
+         else if (option.equals("--bookings")) bookings = value;
+         else if (option.equals("--companies")) companies = (int) value;
+         else if (option.equals("--repairs")) repairs = (int) value;
+         else if (option.equals("--updates")) updates = (int) value;
+         else if (option.equals("--seed")) seed = value;
+         else throw new IllegalArgumentException("Unknown option " + option);
+      }//end for
+
+      File dir = new File(args[0]);
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("Cannot create " + dir);
+      long start = System.currentTimeMillis();
+      new DataGenerator(hotels, roomsPerHotel, customers, bookings, companies, repairs, updates, seed).generate(dir);
+      System.out.println("Generated data in " + dir + " in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+   }//end main
+
+   /**
+    * Writes all seven files into dir.  Hotels are written first because
+    * the files after them need to know who manages each hotel.
+    */
+   public void generate(File dir) throws IOException {
+      writeUsers(new File(dir, "users.csv"));
+      writeHotels(new File(dir, "hotels.csv"));
+      writeRooms(new File(dir, "rooms.csv"));
+      writeCompanies(new File(dir, "company.csv"));
+      writeBookings(new File(dir, "bookings.csv"));
+      writeRepairs(new File(dir, "roomRepairs.csv"), new File(dir, "roomRepairRequests.csv"));
+      writeUpdates(new File(dir, "roomUpdatesLog.csv"));
+   }//end generate
+
+   // userID 1 is the admin, then the managers, then the customers
+   private void writeUsers(File file) throws IOException {
+      Writer out = open(file, "userID,name,password,userType");
+      try {
+         line(out, "1,Admin,xyz,admin");
+         for (int i = 0; i < managers; ++i)
+            line(out, (2 + i) + "," + name(6) + ",xyz,manager");
+         for (int i = 0; i < customers; ++i)
+            line(out, firstCustomer() + i + "," + name(6) + ",xyz,customer");
+      }finally {
+         out.close();
+      }//end try
+   }//end writeUsers
+
+   // hotels keep the density of the sample data, so a 30 unit search finds a similar number,
+   // until they cover every latitude and longitude; more hotels than that are packed closer
+   private void writeHotels(File file) throws IOException {
+      double area = 100 * 100 * (hotels / 20.0);
+      double height = Math.min(Math.sqrt(area), 2 * MAX_LATITUDE);
+      double width = Math.min(area / height, 2 * MAX_LONGITUDE);
+      Writer out = open(file, "hotelID,hotelName,latitude,longitude,dateEstablished,managerUserID");
+      try {
+         for (int h = 1; h <= hotels; ++h) {
+            managerOf[h] = 2 + rnd.nextInt(managers);
+            line(out, h + "," + name(4) + "," + coordinate(height) + "," + coordinate(width) + ","
+                      + (rnd.nextInt(12) + 1) + "/" + (rnd.nextInt(28) + 1) + "/" + (1950 + rnd.nextInt(50)) + ","
+                      + managerOf[h]);
+         }//end for
+      }finally {
+         out.close();
+      }//end try
+   }//end writeHotels
+
+   private void writeRooms(File file) throws IOException {
+      Writer out = open(file, "hotelID,roomNumber,price,imageURL");
+      try {
+         for (int h = 1; h <= hotels; ++h)
+            for (int r = 1; r <= roomsPerHotel; ++r)
+               line(out, h + "," + r + "," + (100 + rnd.nextInt(1900)) + "," + name(4));
+      }finally {
+         out.close();
+      }//end try
+   }//end writeRooms
+
+   private void writeCompanies(File file) throws IOException {
+      Writer out = open(file, "companyID,name,address");
+      try {
+         for (int c = 1; c <= companies; ++c)
+            line(out, c + "," + name(1).toUpperCase() + c + "-com," + name(4));
+      }finally {
+         out.close();
+      }//end try
+   }//end writeCompanies
+
+   // each room gets its share of the bookings, one random night out of each of
+   // count equal slices of the span, which keeps (hotelID, roomNumber, bookingDate)
+   // unique without remembering anything
+   private void writeBookings(File file) throws IOException {
+      long rooms = (long) hotels * roomsPerHotel;
+      long perRoom = bookings / rooms;
+      long extra = bookings % rooms;
+      long span = dates.length;
+      long bookingID = 0;
+      Writer out = open(file, "bookingID,customerID,hotelID,roomNumber,bookingDate");
+      try {
+         long room = 0;
+         for (int h = 1; h <= hotels; ++h) {
+            for (int r = 1; r <= roomsPerHotel; ++r, ++room) {
+               long count = perRoom + (room < extra ? 1 : 0);
+               if (count == 0)
+                  continue;
+               for (long b = 0; b < count; ++b) {
+                  long from = b * span / count, to = (b + 1) * span / count;
+                  int day = (int) (from + rnd.nextInt((int) (to - from)));
+                  line(out, ++bookingID + "," + customer() + "," + h + "," + r + "," + dates[day]);
+               }//end for
+            }//end for
+         }//end for
+      }finally {
+         out.close();
+      }//end try
+   }//end writeBookings
+
+   // every repair is requested by the manager of its hotel
+   private void writeRepairs(File repairsFile, File requestsFile) throws IOException {
+      Writer out = open(repairsFile, "repairID,companyID,hotelID,roomNumber,repairDate");
+      Writer requests = open(requestsFile, "requestNumber,managerID,repairID");
+      try {
+         for (int i = 1; i <= repairs; ++i) {
+            int h = 1 + rnd.nextInt(hotels);
+            line(out, i + "," + (1 + rnd.nextInt(companies)) + "," + h + "," + (1 + rnd.nextInt(roomsPerHotel)) + ","
+                      + date(rnd));
+            line(requests, i + "," + managerOf[h] + "," + i);
+         }//end for
+      }finally {
+         out.close();
+         requests.close();
+      }//end try
+   }//end writeRepairs
+
+   private void writeUpdates(File file) throws IOException {
+      Writer out = open(file, "updateNumber,managerID,hotelID,roomNumber,updatedOn");
+      try {
+         for (int i = 1; i <= updates; ++i) {
+            int h = 1 + rnd.nextInt(hotels);
+            String[] mdy = date(rnd).split("/");
+            line(out, i + "," + managerOf[h] + "," + h + "," + (1 + rnd.nextInt(roomsPerHotel)) + ","
+                      + mdy[2] + "-" + pad(mdy[0]) + "-" + pad(mdy[1]) + " "
+                      + pad(Integer.toString(rnd.nextInt(24))) + ":" + pad(Integer.toString(rnd.nextInt(60))) + ":00");
+         }//end for
+      }finally {
+         out.close();
+      }//end try
+   }//end writeUpdates
+
+   private int firstCustomer() {
+      return 2 + managers;
+   }
+
+   private int customer() {
+      return firstCustomer() + rnd.nextInt(customers);
+   }
+
+   private String date(Random rnd) {
+      return dates[rnd.nextInt(dates.length)];
+   }
+
+   // a coordinate within span / 2 of zero
+   private String coordinate(double span) {
+      return String.format(Locale.ROOT, "%.5f", (rnd.nextDouble() - 0.5) * span);
+   }
+
+   private String name(int length) {
+      char[] chars = new char[length];
+      for (int i = 0; i < length; ++i)
+         chars[i] = (char) ('a' + rnd.nextInt(26));
+      return new String(chars);
+   }//end name
+
+   private static String pad(String number) {
+      return number.length() == 1 ? "0" + number : number;
+   }
+
+   // the sample files use CRLF line ends, keep it that way
+   private static void line(Writer out, String text) throws IOException {
+      out.write(text);
+      out.write("\r\n");
+   }
+
+   private static Writer open(File file, String header) throws IOException {
+      Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+      line(out, header);
+      return out;
+   }//end open
+}//end DataGenerator
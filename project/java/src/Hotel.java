@@ -1,218 +1,2162 @@
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
-import java.lang.Math
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.lang.Math;
 
 public class Hotel {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all callers.
+   private ConnectionPool _pool = null;
+
+   // sends reads to replicas that are current enough, everything else to _pool.
+   private ReplicaRouter _router = null;
+
+   // sends calls about a hotel to the database holding it, null when not sharded.
+   private volatile ShardRouter _shards = null;
+
+   // database, login and pool size, for connecting to replicas and shards.
+   private String _dbname = null;
+   private String _user = null;
+   private String _passwd = null;
+   private int _maxConnections = 0;
+
+   // hotels, rooms and the grid over hotel coordinates, loaded on first use.
+   private volatile CatalogCache _catalog = null;
+
+   // reloads the catalog when Hotel or Rooms change elsewhere.
+   private CatalogListener _catalogListener = null;
+
+   // booked nights of every room, built on first use.
+   private volatile RoomAvailabilityIndex _availability = null;
+
+   // the index a reload is building behind the one in use, null between reloads.
+   private volatile RoomAvailabilityIndex _availabilityLoading = null;
+
+   // when the last availability load started, and how often to load again.
+   private volatile long _availabilityLoadedAt = 0;
+   private volatile long _availabilityRefreshMs = AVAILABILITY_REFRESH_MS;
+
+   // set while a background reload of the availability index runs.
+   private final AtomicBoolean _availabilityReloading = new AtomicBoolean();
+
+   // booking counts per hotel and customer over recent windows, built on first use.
+   private volatile RegularCustomersIndex _regulars = null;
+
+   // writes RoomUpdatesLog entries in batches, started on first use.
+   private AuditLogWriter _audit = null;
+
+   // journal of the audit writer, null for none.
+   private File _auditJournal = null;
+
+   // latency, row and error counts of every database call.
+   private QueryMetrics _metrics = null;
+
+   // booked nights in columns for revenue and occupancy reports, built on first use.
+   private volatile AnalyticsEngine _analytics = null;
+
+   // recently read Users rows, for logins and role checks.
+   private final UserCache _users = new UserCache();
+
+   // handling the keyboard inputs through a BufferedReader
+   static BufferedReader in = new BufferedReader(
+                                new InputStreamReader(System.in));
+
+   /**
+    * Outcome of a single booking attempt.
+    */
+   public static class BookingResult {
+      // SKIPPED marks an item of a batch that failed because of another item
+      public enum Status { BOOKED, ALREADY_BOOKED, NO_SUCH_HOTEL, NO_SUCH_ROOM, SKIPPED }
+
+      public final Status status;
+      // key of the new RoomBookings row, -1 unless BOOKED
+      public final int bookingID;
+      // nightly price of the room, -1 when the room does not exist
+      public final int price;
+
+      public BookingResult(Status status, int bookingID, int price) {
+         this.status = status;
+         this.bookingID = bookingID;
+         this.price = price;
+      }
+   }//end BookingResult
+
+   /**
+    * One room for one night inside a batch booking.
+    */
+   public static class BookingRequest {
+      public final int hotelID;
+      public final int roomNumber;
+      public final java.sql.Date date;
+
+      public BookingRequest(int hotelID, int roomNumber, java.sql.Date date) {
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.date = date;
+      }
+
+      // key of the night this request books, for spotting duplicates within a batch
+      String key() {
+         return hotelID + "/" + roomNumber + "/" + date;
+      }
+   }//end BookingRequest
+
+   /**
+    * Receives the rows of a streamed query one at a time.  The ResultSet is
+    * positioned on the current row; read it with the typed getters and do
+    * not keep it past the call.
+    */
+   public interface RowHandler {
+      void handle(ResultSet row) throws SQLException;
+   }//end RowHandler
+
+   /**
+    * One page of a keyset-paginated listing.  Pass it back to get the
+    * page after it; the next page starts after the sort key of the last
+    * row instead of skipping an OFFSET, so deep pages cost the same as the
+    * first.
+    */
+   public static class Page {
+      public final List<List<String>> rows;
+      // sort key of the last row, null on the last page
+      final List<String> last;
+      // sort key of every row, for merging the pages of several shards
+      final List<List<String>> keys;
+
+      Page(List<List<String>> rows, List<String> last) {
+         this(rows, last, new ArrayList<List<String>>());
+      }
+
+      Page(List<List<String>> rows, List<String> last, List<List<String>> keys) {
+         this.rows = rows;
+         this.last = last;
+         this.keys = keys;
+      }
+
+      public boolean hasNext() {
+         return last != null;
+      }
+
+      /**
+       * @return text a client can hand back to fetch the next page, null on
+       *         the last page
+       */
+      public String nextCursor() {
+         if (last == null)
+            return null;
+         StringBuilder cursor = new StringBuilder();
+         for (String value : last)
+            cursor.append(cursor.length() == 0 ? "" : ",").append(value);
+         return cursor.toString();
+      }//end nextCursor
+
+      /**
+       * @return a page that continues after the one nextCursor() came from
+       */
+      public static Page after(String cursor) {
+         return new Page(new ArrayList<List<String>>(), Arrays.asList(cursor.split(",", -1)));
+      }
+   }//end Page
+
+   // longest cleanup() waits for the audit writer to write what is queued
+   public static final long AUDIT_CLOSE_TIMEOUT_MS = 10000;
+
+   // nights booked by other processes reach the availability index only
+   // through a reload, so it is read again in the background this often
+   public static final long AVAILABILITY_REFRESH_MS = 60000;
+
+   // inserts one repair per distinct room and a request for each, returning repairID, roomNumber
+   private static final String REQUEST_REPAIRS_SQL =
+      "WITH repairs AS (INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate) " +
+      "SELECT ?, ?, room, CURRENT_DATE FROM (SELECT DISTINCT unnest(CAST(? AS integer[])) AS room) rooms " +
+      "RETURNING repairID, roomNumber), " +
+      "requests AS (INSERT INTO RoomRepairRequests (managerID, repairID) SELECT ?, repairID FROM repairs) " +
+      "SELECT repairID, roomNumber FROM repairs";
+
+   // a replica whose pool has no free connection this soon is skipped for the primary
+   public static final long REPLICA_ACQUIRE_TIMEOUT_MS = 1000;
+
+   // rows fetched per round trip by executeQueryStreaming
+   public static final int DEFAULT_FETCH_SIZE = 500;
+
+   // items per statement of a batch booking
+   private static final int BOOKING_BATCH_CHUNK = 500;
+
+   /*
+    * The items of a batch go as three array literals, hotels, rooms and
+    * nights, so both statements keep one text whatever the batch size and
+    * take one entry each in the statement cache.
+    */
+   private static final String BOOKING_BATCH_ITEMS =
+      "unnest(CAST(? AS integer[]), CAST(? AS integer[]), CAST(? AS date[])) WITH ORDINALITY " +
+      "AS v(hotelID, roomNumber, bookingDate, idx)";
+
+   // resolves hotel, room, price and existing booking of every item; the
+   // constant date range limits the join to the months of the batch
+   private static final String CHECK_BOOKING_BATCH_SQL =
+      "SELECT v.idx, h.hotelID IS NOT NULL, r.price, b.bookingID FROM " + BOOKING_BATCH_ITEMS + " " +
+      "LEFT JOIN Hotel h ON h.hotelID = v.hotelID " +
+      "LEFT JOIN Rooms r ON r.hotelID = v.hotelID AND r.roomNumber = v.roomNumber " +
+      "LEFT JOIN RoomBookings b ON b.hotelID = v.hotelID AND b.roomNumber = v.roomNumber AND b.bookingDate = v.bookingDate " +
+      "AND b.bookingDate BETWEEN ? AND ?";
+
+   // a night booked since the check is left out instead of aborting the transaction
+   private static final String INSERT_BOOKING_BATCH_SQL =
+      "INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) " +
+      "SELECT ?, hotelID, roomNumber, bookingDate FROM " + BOOKING_BATCH_ITEMS + " " +
+      "ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING RETURNING bookingID, hotelID, roomNumber, bookingDate";
+
+   /*
+    * Books one room for one night in a single statement.  The room lookup,
+    * the insert and the price come back in one round trip; the unique key on
+    * RoomBookings(hotelID, roomNumber, bookingDate) turns a concurrent
+    * booking of the same night into a no-op instead of a double booking.
+    */
+   private static final String BOOK_ROOM_SQL =
+      "WITH room AS (SELECT hotelID, roomNumber, price FROM Rooms WHERE hotelID = ? AND roomNumber = ?), " +
+      "booked AS (INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) " +
+                 "SELECT ?, hotelID, roomNumber, ? FROM room " +
+                 "ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING RETURNING bookingID) " +
+      "SELECT EXISTS (SELECT 1 FROM Hotel WHERE hotelID = ?), (SELECT price FROM room), (SELECT bookingID FROM booked)";
+
+   /**
+    * Creates a new instance of Hotel with the default pool sizing
+    *
+    * @param dbname the name of the database
+    * @param dbport the port the PostgreSQL server listens on
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public Hotel(String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(dbname, dbport, user, passwd, ConnectionPool.DEFAULT_MIN_SIZE, ConnectionPool.DEFAULT_MAX_SIZE);
+   }//end Hotel
+
+   /**
+    * Creates a new instance of Hotel backed by a pool of at most
+    * maxConnections physical connections
+    *
+    * @param dbname the name of the database
+    * @param dbport the port the PostgreSQL server listens on
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minConnections connections kept open even when idle
+    * @param maxConnections upper bound on concurrently open connections
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public Hotel(String dbname, String dbport, String user, String passwd,
+                int minConnections, int maxConnections) throws SQLException {
+
+      System.out.print("Connecting to database...");
+      this._dbname = dbname;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxConnections = maxConnections;
+      try{
+         // constructs the connection URL
+         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         System.out.println ("Connection URL: " + url + "\n");
+
+         // open the pool of physical connections
+         this._pool = new ConnectionPool(url, user, passwd, minConnections, maxConnections,
+                                         ConnectionPool.DEFAULT_ACQUIRE_TIMEOUT_MS,
+                                         ConnectionPool.DEFAULT_IDLE_TIMEOUT_MS,
+                                         ConnectionPool.DEFAULT_LEAK_THRESHOLD_MS);
+         this._router = new ReplicaRouter(this._pool, ReplicaRouter.DEFAULT_MAX_LAG_MS);
+         this._metrics = new QueryMetrics(this._pool);
+         this._metrics.setReplicaRouter(this._router);
+         this._metrics.register();
+         System.out.println("Done");
+      }catch (Exception e){
+         System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
+         System.out.println("Make sure you started postgres on this machine");
+         System.exit(-1);
+      }//end catch
+   }//end Hotel
+
+   /**
+    * Adds a streaming replica of the database on this machine.  Reads are
+    * sent to it once it answers the lag check and is at most
+    * ReplicaRouter.DEFAULT_MAX_LAG_MS behind; writes stay on the primary.
+    *
+    * @param dbport the port the replica listens on
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public void addReplica(String dbport) throws SQLException {
+      String url = "jdbc:postgresql://localhost:" + dbport + "/" + this._dbname;
+      ConnectionPool replica = new ConnectionPool(url, this._user, this._passwd,
+                                                  ConnectionPool.DEFAULT_MIN_SIZE, this._maxConnections,
+                                                  REPLICA_ACQUIRE_TIMEOUT_MS,
+                                                  ConnectionPool.DEFAULT_IDLE_TIMEOUT_MS,
+                                                  ConnectionPool.DEFAULT_LEAK_THRESHOLD_MS);
+      this._router.addReplica(url, replica);
+   }//end addReplica
+
+   /**
+    * @return the router that picks the primary or a replica for each statement
+    */
+   public ReplicaRouter getReplicaRouter() {
+      return this._router;
+   }
+
+   /**
+    * Adds a shard on this machine whose hotels are placed by hash.  This
+    * database becomes the global node, which keeps Users and HotelShards;
+    * calls about hotels go to the shards from then on.
+    *
+    * @param dbport the port the shard listens on
+    * @throws java.sql.SQLException when HotelShards cannot be read
+    */
+   public void addShard(String dbport) throws SQLException {
+      shardRouter().addShard(new Hotel(this._dbname, dbport, this._user, this._passwd,
+                                       ConnectionPool.DEFAULT_MIN_SIZE, this._maxConnections));
+   }//end addShard
+
+   /**
+    * Adds a shard on this machine holding the hotelIDs from firstHotelID up
+    * to the first hotelID of the next shard added this way.
+    *
+    * @param dbport the port the shard listens on
+    * @param firstHotelID the lowest hotelID of the shard
+    * @throws java.sql.SQLException when HotelShards cannot be read
+    */
+   public void addShard(String dbport, int firstHotelID) throws SQLException {
+      shardRouter().addShard(new Hotel(this._dbname, dbport, this._user, this._passwd,
+                                       ConnectionPool.DEFAULT_MIN_SIZE, this._maxConnections), firstHotelID);
+   }//end addShard
+
+   /**
+    * @return the router of the shards, null when hotels are not sharded
+    */
+   public ShardRouter getShardRouter() {
+      return this._shards;
+   }
+
+   private synchronized ShardRouter shardRouter() throws SQLException {
+      if (this._shards == null)
+         this._shards = new ShardRouter(this);
+      return this._shards;
+   }//end shardRouter
+
+   // Method to calculate euclidean distance between two latitude, longitude pairs. 
+   public static double calculateDistance (double lat1, double long1, double lat2, double long2){
+      double t1 = (lat1 - lat2) * (lat1 - lat2);
+      double t2 = (long1 - long2) * (long1 - long2);
+      return Math.sqrt(t1 + t2); 
+   }
+
+   /**
+    * Borrows a connection of the primary for work that needs several
+    * statements on the same session (transactions, cursors, ...).  The
+    * connection must be handed back with releaseConnection().
+    *
+    * @return a connection in autocommit mode
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public Connection getConnection() throws SQLException {
+      return this._router.borrowWrite();
+   }
+
+   /**
+    * Hands a connection obtained from getConnection() back to the pool.
+    *
+    * @param conn the borrowed connection, may be null
+    */
+   public void releaseConnection(Connection conn) {
+      this._pool.release(conn);
+   }
+
+   // a replica connection when sql only reads and a replica is current
+   // enough for this thread, else a primary one
+   private Connection borrow(String sql) throws SQLException {
+      if (this._router.isRead(sql))
+         return this._router.borrowRead();
+      return this._router.borrowWrite();
+   }//end borrow
+
+   // hands a connection from borrow() back to the pool it came from
+   private void release(Connection conn) {
+      if (conn != null)
+         this._router.poolOf(conn).release(conn);
+   }
+
+   /**
+    * Fetches the cached statement for sql on a borrowed connection and
+    * binds the parameters to it.  The statement belongs to the cache and
+    * must not be closed.
+    *
+    * @param conn connection obtained from the pool
+    * @param sql the parameterized SQL string
+    * @param params values for the ? placeholders, in order
+    * @return the bound statement
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (Connection conn, String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = this._router.poolOf(conn).statementsFor(conn).prepare(sql);
+      bind(stmt, params);
+      return stmt;
+   }//end prepare
+
+   // sets the ? placeholders of a statement by the Java type of each value
+   private static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object param = params[i];
+         if (param == null)
+            stmt.setNull(i + 1, Types.VARCHAR);
+         else if (param instanceof Integer)
+            stmt.setInt(i + 1, (Integer) param);
+         else if (param instanceof Long)
+            stmt.setLong(i + 1, (Long) param);
+         else if (param instanceof Double)
+            stmt.setDouble(i + 1, (Double) param);
+         else if (param instanceof java.sql.Date)
+            stmt.setDate(i + 1, (java.sql.Date) param);
+         else if (param instanceof Timestamp)
+            stmt.setTimestamp(i + 1, (Timestamp) param);
+         else
+            stmt.setString(i + 1, param.toString());
+      }//end for
+   }//end bind
+
+   /**
+    * @return latency, row and error counts of the database calls made so far
+    */
+   public QueryMetrics getQueryMetrics() {
+      return this._metrics;
+   }
+
+   /**
+    * @return fraction of statement executions served from a statement cache
+    */
+   public double getStatementCacheHitRate() {
+      return this._pool.getStatementCacheStats().getHitRate();
+   }
+
+   /**
+    * Method to execute an update SQL statement.  Update SQL instructions
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    *
+    * @param sql the input SQL string, with ? for every value
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      QueryMetrics.Operation op = this._metrics.operation(sql);
+      Connection conn = this._router.borrowWrite();
+      long start = System.nanoTime();
+      int rows = 0;
+      boolean failed = true;
+      try {
+         // issues the update instruction on the cached statement
+         rows = prepare(conn, sql, params).executeUpdate ();
+         failed = false;
+         return rows;
+      }finally {
+         op.record(start, rows, failed);
+         this._pool.release(conn);
+      }//end try
+   }//end executeUpdate
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and outputs the results to
+    * standard out.
+    *
+    * @param query the input query string, with ? for every value
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      QueryMetrics.Operation op = this._metrics.operation(query);
+      Connection conn = borrow(query);
+      long start = System.nanoTime();
+      int rowCount = 0;
+      boolean failed = true;
+      try {
+         // issues the query instruction
+         ResultSet rs = prepare(conn, query, params).executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and output them to standard out.
+         boolean outputHeader = true;
+         while (rs.next()){
+            if(outputHeader){
+               for(int i = 1; i <= numCol; i++){
+                  System.out.print(rsmd.getColumnName(i) + "\t");
+               }
+               System.out.println();
+               outputHeader = false;
+            }
+            for (int i=1; i<=numCol; ++i)
+               System.out.print (rs.getString (i) + "\t");
+            System.out.println ();
+            ++rowCount;
+         }//end while
+         rs.close ();
+         failed = false;
+         return rowCount;
+      }finally {
+         op.record(start, rowCount, failed);
+         release(conn);
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the results as
+    * a list of records. Each record in turn is a list of attribute values
+    *
+    * @param query the input query string, with ? for every value
+    * @param params values for the ? placeholders, in order
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      QueryMetrics.Operation op = this._metrics.operation(query);
+      Connection conn = borrow(query);
+      long start = System.nanoTime();
+      int rowCount = 0;
+      boolean failed = true;
+      try {
+         // issues the query instruction
+         ResultSet rs = prepare(conn, query, params).executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and saves the data returned by the query.
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> record = new ArrayList<String>();
+            for (int i=1; i<=numCol; ++i)
+               record.add(rs.getString (i));
+            result.add(record);
+         }//end while
+         rs.close ();
+         rowCount = result.size();
+         failed = false;
+         return result;
+      }finally {
+         op.record(start, rowCount, failed);
+         release(conn);
+      }//end try
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and
+    * hand each row to a callback as it arrives, instead of collecting the
+    * whole result first.  The query is opened as a cursor inside a
+    * transaction and read with FETCH, fetchSize rows per round trip, so
+    * memory use does not grow with the number of rows.  The driver has no
+    * fetch size of its own to do this.
+    *
+    * @param query the input query string, with ? for every value
+    * @param fetchSize rows fetched per round trip
+    * @param handler called once per row
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query or the handler failed
+    */
+   public int executeQueryStreaming (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+      QueryMetrics.Operation op = this._metrics.operation(query);
+      Connection conn = borrow(query);
+      long start = System.nanoTime();
+      int rowCount = 0;
+      boolean failed = true;
+      try {
+         conn.setAutoCommit(false);
+         // not from the statement cache: a DECLARE cannot be prepared on the server
+         PreparedStatement declare = conn.prepareStatement("DECLARE hotel_stream NO SCROLL CURSOR FOR " + query);
+         try {
+            bind(declare, params);
+            declare.execute();
+         }finally {
+            declare.close();
+         }//end try
+
+         Statement stmt = conn.createStatement();
+         try {
+            int batch = Math.max(fetchSize, 1);
+            String fetch = "FETCH FORWARD " + batch + " FROM hotel_stream";
+            int fetched;
+            do {
+               fetched = 0;
+               ResultSet rs = stmt.executeQuery (fetch);
+               try {
+                  while (rs.next()){
+                     handler.handle(rs);
+                     ++fetched;
+                  }//end while
+               }finally {
+                  rs.close ();
+               }//end try
+               rowCount += fetched;
+            }while (fetched == batch);
+            stmt.execute("CLOSE hotel_stream");
+         }finally {
+            stmt.close();
+         }//end try
+         conn.commit();
+         failed = false;
+         return rowCount;
+      }finally {
+         // includes the time spent in the handler; release() rolls back a failed stream
+         op.record(start, rowCount, failed);
+         release(conn);
+      }//end try
+   }//end executeQueryStreaming
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the number of results.
+    * The rows are counted by the server, only the count is sent back.
+    *
+    * @param query the input query string, with ? for every value
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      return count(query, params);
+   }
+
+   /**
+    * Method to check whether a query returns any row.  The server stops at
+    * the first row it finds and sends back a single boolean.
+    *
+    * @param query the input query string, with ? for every value
+    * @param params values for the ? placeholders, in order
+    * @return true when the query returns at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean exists (String query, Object... params) throws SQLException {
+      QueryMetrics.Operation op = this._metrics.operation(query);
+      Connection conn = borrow(query);
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+         ResultSet rs = prepare(conn, "SELECT EXISTS (" + query + ")", params).executeQuery ();
+         try {
+            boolean found = rs.next() && rs.getBoolean(1);
+            failed = false;
+            return found;
+         }finally {
+            rs.close ();
+         }//end try
+      }finally {
+         op.record(start, 1, failed);
+         release(conn);
+      }//end try
+   }//end exists
+
+   /**
+    * Method to count the rows of a query on the server.
+    *
+    * @param query the input query string, with ? for every value
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows the query returns
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int count (String query, Object... params) throws SQLException {
+      Integer rows = queryForInt("SELECT COUNT(*) FROM (" + query + ") AS counted", params);
+      return rows == null ? 0 : rows;
+   }//end count
+
+   /**
+    * Method to fetch a single integer, the first column of the first row.
+    *
+    * @param query the input query string, with ? for every value
+    * @param params values for the ? placeholders, in order
+    * @return the value, or null when the query returns no row or a NULL
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Integer queryForInt (String query, Object... params) throws SQLException {
+      QueryMetrics.Operation op = this._metrics.operation(query);
+      Connection conn = borrow(query);
+      long start = System.nanoTime();
+      int rowCount = 0;
+      boolean failed = true;
+      try {
+         ResultSet rs = prepare(conn, query, params).executeQuery ();
+         try {
+            failed = false;
+            if (!rs.next())
+               return null;
+            rowCount = 1;
+            int value = rs.getInt(1);
+            return rs.wasNull() ? null : value;
+         }finally {
+            rs.close ();
+         }//end try
+      }finally {
+         op.record(start, rowCount, failed);
+         release(conn);
+      }//end try
+   }//end queryForInt
+
+   /**
+    * Method to book a room for one night.  Checking the hotel and room,
+    * inserting the booking and fetching the price is one statement, so it
+    * runs as one transaction in one round trip.
+    *
+    * @param customerID the user making the booking
+    * @param hotelID the hotel of the room
+    * @param roomNumber the room to book
+    * @param date the night to book
+    * @return the outcome of the booking
+    * @throws java.sql.SQLException when failed to execute the booking
+    */
+   public BookingResult bookRoom(int customerID, int hotelID, int roomNumber, java.sql.Date date) throws SQLException {
+      if (this._shards != null)
+         return this._shards.bookRoom(customerID, hotelID, roomNumber, date);
+      QueryMetrics.Operation op = this._metrics.operation(BOOK_ROOM_SQL);
+      Connection conn = this._router.borrowWrite();
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+         ResultSet rs = prepare(conn, BOOK_ROOM_SQL, hotelID, roomNumber, customerID, date, hotelID).executeQuery ();
+         try {
+            rs.next();
+            failed = false;
+            boolean hotelExists = rs.getBoolean(1);
+            int price = rs.getInt(2);
+            boolean roomExists = !rs.wasNull();
+            int bookingID = rs.getInt(3);
+            boolean booked = !rs.wasNull();
+
+            if (!hotelExists)
+               return new BookingResult(BookingResult.Status.NO_SUCH_HOTEL, -1, -1);
+            if (!roomExists)
+               return new BookingResult(BookingResult.Status.NO_SUCH_ROOM, -1, -1);
+            if (!booked)
+               return new BookingResult(BookingResult.Status.ALREADY_BOOKED, -1, price);
+            noteBooking(bookingID, customerID, hotelID, roomNumber, date);
+            return new BookingResult(BookingResult.Status.BOOKED, bookingID, price);
+         }finally {
+            rs.close ();
+         }//end try
+      }finally {
+         op.record(start, 1, failed);
+         this._pool.release(conn);
+      }//end try
+   }//end bookRoom
+
+   /**
+    * Method to book many rooms and/or nights at once, all or nothing.  One
+    * query checks every item against Hotel, Rooms and RoomBookings, then one
+    * INSERT writes the whole batch in the same transaction.  When
+    * any item cannot be booked nothing is written, the failing items report
+    * why and every other item reports SKIPPED.
+    *
+    * @param customerID the user making the booking
+    * @param requests the rooms and nights to book
+    * @return one result per request, in the same order
+    * @throws java.sql.SQLException when failed to execute the booking
+    */
+   public List<BookingResult> bookRoomBatch(int customerID, List<BookingRequest> requests) throws SQLException {
+      if (this._shards != null)
+         return this._shards.bookRoomBatch(customerID, requests);
+      List<BookingResult> results = new ArrayList<BookingResult>();
+      if (requests.isEmpty())
+         return results;
+
+      QueryMetrics.Operation op = this._metrics.operation("bookRoomBatch");
+      Connection conn = this._router.borrowWrite();
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+         conn.setAutoCommit(false);
+         // a concurrent booking can still win the race between check and
+         // insert; the insert then leaves that night out and the second pass reports it
+         for (int attempt = 0; attempt < 2; ++attempt) {
+            results = checkBookingBatch(conn, requests);
+            boolean ok = true;
+            for (BookingResult result : results)
+               ok &= result.status == BookingResult.Status.BOOKED;
+            if (!ok) {
+               conn.rollback();
+               for (int i = 0; i < results.size(); ++i)
+                  if (results.get(i).status == BookingResult.Status.BOOKED)
+                     results.set(i, new BookingResult(BookingResult.Status.SKIPPED, -1, results.get(i).price));
+               failed = false;
+               return results;
+            }//end if
+
+            if (!insertBookingBatch(conn, customerID, requests, results)) {
+               conn.rollback();
+               continue;
+            }//end if
+            conn.commit();
+            for (int i = 0; i < requests.size(); ++i) {
+               BookingRequest request = requests.get(i);
+               noteBooking(results.get(i).bookingID, customerID, request.hotelID, request.roomNumber, request.date);
+            }//end for
+            failed = false;
+            return results;
+         }//end for
+         throw new SQLException("Batch booking kept conflicting with concurrent bookings");
+      }finally {
+         op.record(start, requests.size(), failed);
+         this._pool.release(conn);
+      }//end try
+   }//end bookRoomBatch
+
+   // one round trip per chunk that resolves hotel, room, price and existing booking of every item
+   private List<BookingResult> checkBookingBatch(Connection conn, List<BookingRequest> requests) throws SQLException {
+      BookingResult[] results = new BookingResult[requests.size()];
+      for (int from = 0; from < requests.size(); from += BOOKING_BATCH_CHUNK) {
+         List<BookingRequest> chunk = requests.subList(from, Math.min(from + BOOKING_BATCH_CHUNK, requests.size()));
+         java.sql.Date first = null, last = null;
+         for (BookingRequest request : chunk) {
+            if (first == null || request.date.before(first))
+               first = request.date;
+            if (last == null || request.date.after(last))
+               last = request.date;
+         }//end for
+
+         Object[] items = bookingBatchItems(chunk);
+         ResultSet rs = prepare(conn, CHECK_BOOKING_BATCH_SQL, items[0], items[1], items[2], first, last).executeQuery ();
+         try {
+            while (rs.next()) {
+               // WITH ORDINALITY counts from 1
+               int idx = from + rs.getInt(1) - 1;
+               boolean hotelExists = rs.getBoolean(2);
+               int price = rs.getInt(3);
+               boolean roomExists = !rs.wasNull();
+               rs.getInt(4);
+               boolean booked = !rs.wasNull();
+               if (!hotelExists)
+                  results[idx] = new BookingResult(BookingResult.Status.NO_SUCH_HOTEL, -1, -1);
+               else if (!roomExists)
+                  results[idx] = new BookingResult(BookingResult.Status.NO_SUCH_ROOM, -1, -1);
+               else if (booked)
+                  results[idx] = new BookingResult(BookingResult.Status.ALREADY_BOOKED, -1, price);
+               else
+                  results[idx] = new BookingResult(BookingResult.Status.BOOKED, -1, price);
+            }//end while
+         }finally {
+            rs.close ();
+         }//end try
+      }//end for
+
+      // the same night twice in one batch conflicts with itself
+      Map<String, Integer> seen = new HashMap<String, Integer>();
+      for (int i = 0; i < results.length; ++i) {
+         if (seen.put(requests.get(i).key(), i) != null && results[i].status == BookingResult.Status.BOOKED)
+            results[i] = new BookingResult(BookingResult.Status.ALREADY_BOOKED, -1, results[i].price);
+      }//end for
+
+      List<BookingResult> list = new ArrayList<BookingResult>();
+      for (BookingResult result : results)
+         list.add(result);
+      return list;
+   }//end checkBookingBatch
+
+   // INSERT ... RETURNING per chunk, filling in the new keys; false when a night was taken meanwhile
+   private boolean insertBookingBatch(Connection conn, int customerID, List<BookingRequest> requests,
+                                      List<BookingResult> results) throws SQLException {
+      for (int from = 0; from < requests.size(); from += BOOKING_BATCH_CHUNK) {
+         List<BookingRequest> chunk = requests.subList(from, Math.min(from + BOOKING_BATCH_CHUNK, requests.size()));
+         Object[] items = bookingBatchItems(chunk);
+         // the check ruled out duplicates, so each returned night names one item
+         Map<String, Integer> keys = new HashMap<String, Integer>();
+         ResultSet rs = prepare(conn, INSERT_BOOKING_BATCH_SQL, customerID, items[0], items[1], items[2]).executeQuery ();
+         try {
+            while (rs.next()) {
+               BookingRequest booked = new BookingRequest(rs.getInt(2), rs.getInt(3), rs.getDate(4));
+               keys.put(booked.key(), rs.getInt(1));
+            }//end while
+         }finally {
+            rs.close ();
+         }//end try
+         if (keys.size() < chunk.size())
+            return false;
+         for (int i = from; i < from + chunk.size(); ++i)
+            results.set(i, new BookingResult(BookingResult.Status.BOOKED, keys.get(requests.get(i).key()), results.get(i).price));
+      }//end for
+      return true;
+   }//end insertBookingBatch
+
+   // the hotels, rooms and nights of a chunk as array literals, the driver has no array parameters
+   private static Object[] bookingBatchItems(List<BookingRequest> chunk) {
+      List<Integer> hotels = new ArrayList<Integer>();
+      List<Integer> rooms = new ArrayList<Integer>();
+      List<java.sql.Date> dates = new ArrayList<java.sql.Date>();
+      for (BookingRequest request : chunk) {
+         hotels.add(request.hotelID);
+         rooms.add(request.roomNumber);
+         dates.add(request.date);
+      }//end for
+      return new Object[] { arrayLiteral(hotels), arrayLiteral(rooms), arrayLiteral(dates) };
+   }//end bookingBatchItems
+
+   // {a,b,c} for values whose text needs no quoting, numbers and dates
+   private static String arrayLiteral(List<?> values) {
+      StringBuilder literal = new StringBuilder("{");
+      for (Object value : values)
+         literal.append(literal.length() == 1 ? "" : ",").append(value);
+      return literal.append('}').toString();
+   }//end arrayLiteral
+
+   /**
+    * Method to load every hotel for the in-memory catalog.  Hotels without
+    * coordinates get NaN for them and are left out of the spatial index.
+    *
+    * @return all hotels
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<HotelEntry> loadHotels() throws SQLException {
+      return selectHotels("");
+   }
+
+   /**
+    * Method to load one hotel for the in-memory catalog.
+    *
+    * @param hotelID the hotel
+    * @return the hotel, or null when there is no such hotel
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public HotelEntry loadHotel(int hotelID) throws SQLException {
+      List<HotelEntry> hotels = selectHotels(" WHERE hotelID = ?", hotelID);
+      return hotels.isEmpty() ? null : hotels.get(0);
+   }
+
+   private List<HotelEntry> selectHotels(String where, Object... params) throws SQLException {
+      // the caches load from the primary, a lagging replica could miss a change already announced
+      Connection conn = this._pool.borrow();
+      try {
+         ResultSet rs = prepare(conn, "SELECT hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID FROM Hotel" + where,
+                                params).executeQuery ();
+         List<HotelEntry> hotels = new ArrayList<HotelEntry>();
+         while (rs.next()) {
+            double lat = rs.getDouble(3);
+            if (rs.wasNull())
+               lat = Double.NaN;
+            double lng = rs.getDouble(4);
+            if (rs.wasNull())
+               lng = Double.NaN;
+            hotels.add(new HotelEntry(rs.getInt(1), rs.getString(2).trim(), lat, lng, rs.getDate(5), rs.getInt(6)));
+         }//end while
+         rs.close ();
+         return hotels;
+      }finally {
+         this._pool.release(conn);
+      }//end try
+   }//end selectHotels
+
+   /**
+    * Method to load every room for the in-memory catalog.  The rooms are
+    * read as one result like the hotels; a catalog fits in memory anyway.
+    *
+    * @return all rooms
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<RoomEntry> loadRooms() throws SQLException {
+      return selectRooms("");
+   }
+
+   /**
+    * Method to load one room for the in-memory catalog.
+    *
+    * @param hotelID the hotel
+    * @param roomNumber the room
+    * @return the room, or null when the hotel has no such room
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public RoomEntry loadRoom(int hotelID, int roomNumber) throws SQLException {
+      List<RoomEntry> rooms = selectRooms(" WHERE hotelID = ? AND roomNumber = ?", hotelID, roomNumber);
+      return rooms.isEmpty() ? null : rooms.get(0);
+   }
+
+   private List<RoomEntry> selectRooms(String where, Object... params) throws SQLException {
+      Connection conn = this._pool.borrow();
+      try {
+         ResultSet rs = prepare(conn, "SELECT hotelID, roomNumber, price, imageURL FROM Rooms" + where, params).executeQuery ();
+         List<RoomEntry> rooms = new ArrayList<RoomEntry>();
+         while (rs.next()) {
+            String imageURL = rs.getString(4);
+            rooms.add(new RoomEntry(rs.getInt(1), rs.getInt(2), rs.getInt(3), imageURL == null ? null : imageURL.trim()));
+         }//end while
+         rs.close ();
+         return rooms;
+      }finally {
+         this._pool.release(conn);
+      }//end try
+   }//end selectRooms
+
+   /**
+    * @return the catalog of hotels and rooms, loading it and starting the
+    *         listener that keeps it current on first use
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   public CatalogCache getCatalog() throws SQLException {
+      CatalogCache catalog = this._catalog;
+      if (catalog == null) {
+         synchronized (this) {
+            catalog = this._catalog;
+            if (catalog == null) {
+               // changes after this one are applied by the listener, the load may hold some of them already
+               int seenThrough = latestCatalogChange();
+               List<RoomEntry> rooms = loadRooms();
+               this._catalog = catalog = new CatalogCache(loadHotels(), rooms);
+               registerRooms(rooms);
+               this._catalogListener = new CatalogListener(this._pool, seenThrough, new CatalogListener.Handler() {
+                  public void reload() throws SQLException {
+                     refreshCatalog();
+                  }
+
+                  public void hotelChanged(int hotelID) throws SQLException {
+                     refreshHotel(hotelID);
+                  }
+
+                  public void roomChanged(int hotelID, int roomNumber) throws SQLException {
+                     refreshRoom(hotelID, roomNumber);
+                  }
+               });
+               this._catalogListener.start();
+            }//end if
+         }//end synchronized
+      }//end if
+      return catalog;
+   }//end getCatalog
+
+   // highest changeID of CatalogChanges, from the primary the catalog loads from
+   private int latestCatalogChange() throws SQLException {
+      Connection conn = this._pool.borrow();
+      try {
+         ResultSet rs = prepare(conn, "SELECT COALESCE(MAX(changeID), 0) FROM CatalogChanges").executeQuery ();
+         rs.next();
+         int changeID = rs.getInt(1);
+         rs.close ();
+         return changeID;
+      }finally {
+         this._pool.release(conn);
+      }//end try
+   }//end latestCatalogChange
+
+   /**
+    * Reloads the catalog from the Hotel and Rooms tables.  A room update
+    * that commits while the reload reads is corrected by the listener,
+    * which reads its change afterwards.
+    *
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   public void refreshCatalog() throws SQLException {
+      CatalogCache catalog = this._catalog;
+      if (catalog == null) {
+         getCatalog();
+      }else {
+         List<RoomEntry> rooms = loadRooms();
+         catalog.replace(loadHotels(), rooms);
+         registerRooms(rooms);
+      }//end if
+   }//end refreshCatalog
+
+   /**
+    * Loads one hotel into the catalog again, as after another client
+    * changed, added or deleted it.
+    *
+    * @throws java.sql.SQLException when the hotel cannot be loaded
+    */
+   public void refreshHotel(int hotelID) throws SQLException {
+      CatalogCache catalog = this._catalog;
+      if (catalog == null)
+         return;
+      HotelEntry hotel = loadHotel(hotelID);
+      if (hotel == null)
+         catalog.removeHotel(hotelID);
+      else
+         catalog.putHotel(hotel);
+   }//end refreshHotel
+
+   /**
+    * Loads one room into the catalog again, as after another client
+    * changed, added or deleted it.
+    *
+    * @throws java.sql.SQLException when the room cannot be loaded
+    */
+   public void refreshRoom(int hotelID, int roomNumber) throws SQLException {
+      CatalogCache catalog = this._catalog;
+      if (catalog == null)
+         return;
+      RoomEntry room = loadRoom(hotelID, roomNumber);
+      if (room == null) {
+         catalog.removeRoom(hotelID, roomNumber);
+      }else {
+         catalog.putRoom(room);
+         registerRooms(Collections.singletonList(room));
+      }//end if
+   }//end refreshRoom
+
+   // rooms created after the availability index was loaded join it here
+   private void registerRooms(List<RoomEntry> rooms) {
+      RoomAvailabilityIndex availability = this._availability;
+      if (availability == null)
+         return;
+      for (RoomEntry room : rooms)
+         availability.addRoom(room.hotelID, room.roomNumber);
+   }//end registerRooms
+
+   /**
+    * @return the spatial index over all located hotels, from the catalog
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   public HotelSpatialIndex getHotelIndex() throws SQLException {
+      return getCatalog().spatialIndex();
+   }
+
+   /**
+    * Rebuilds the spatial index from the Hotel table, together with the
+    * rest of the catalog.
+    *
+    * @throws java.sql.SQLException when the hotels cannot be loaded
+    */
+   public void refreshHotelIndex() throws SQLException {
+      refreshCatalog();
+   }
+
+   /**
+    * Method to find every hotel within radius of a point.
+    *
+    * @param lat latitude of the point
+    * @param lng longitude of the point
+    * @param radius maximum distance
+    * @return the hotels, nearest first
+    * @throws java.sql.SQLException when the index cannot be built
+    */
+   public List<HotelEntry> findHotelsWithin(double lat, double lng, double radius) throws SQLException {
+      if (this._shards != null)
+         return this._shards.findHotelsWithin(lat, lng, radius);
+      return getHotelIndex().withinRadius(lat, lng, radius);
+   }
+
+   /**
+    * Method to find the k hotels closest to a point.
+    *
+    * @param lat latitude of the point
+    * @param lng longitude of the point
+    * @param k number of hotels wanted
+    * @return at most k hotels, nearest first
+    * @throws java.sql.SQLException when the index cannot be built
+    */
+   public List<HotelEntry> findNearestHotels(double lat, double lng, int k) throws SQLException {
+      if (this._shards != null)
+         return this._shards.findNearestHotels(lat, lng, k);
+      return getHotelIndex().nearest(lat, lng, k);
+   }
+
+   /**
+    * Method to find every hotel within radius of a point on the database
+    * side.  The bounding box lets the Hotel_location index narrow the scan
+    * before the exact distance is computed.
+    *
+    * @param lat latitude of the point
+    * @param lng longitude of the point
+    * @param radius maximum distance
+    * @return hotelID, hotelName, latitude, longitude, dateEstablished, distance; nearest first
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> findHotelsWithinFromDatabase(double lat, double lng, double radius) throws SQLException {
+      if (this._shards != null)
+         return this._shards.findHotelsWithinFromDatabase(lat, lng, radius);
+      String query = "SELECT hotelID, hotelName, latitude, longitude, dateEstablished, dist FROM " +
+                     "(SELECT hotelID, hotelName, latitude, longitude, dateEstablished, " +
+                     "sqrt((latitude - ?) * (latitude - ?) + (longitude - ?) * (longitude - ?)) AS dist FROM Hotel " +
+                     "WHERE latitude BETWEEN ? AND ? AND longitude BETWEEN ? AND ?) h " +
+                     "WHERE dist <= ? ORDER BY dist";
+      return executeQueryAndReturnResult(query, lat, lat, lng, lng, lat - radius, lat + radius, lng - radius, lng + radius, radius);
+   }//end findHotelsWithinFromDatabase
+
+   /**
+    * Method to look up who manages a hotel.  Doubles as the existence
+    * check, and is answered from the catalog without a round trip.
+    *
+    * @param hotelID the hotel
+    * @return the managerUserID, or null when there is no such hotel
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   public Integer getHotelManager(int hotelID) throws SQLException {
+      if (this._shards != null)
+         return this._shards.getHotelManager(hotelID);
+      return getCatalog().manager(hotelID);
+   }
+
+   /**
+    * @return true when the hotel has a room with that number, from the catalog
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   public boolean roomExists(int hotelID, int roomNumber) throws SQLException {
+      if (this._shards != null)
+         return this._shards.roomExists(hotelID, roomNumber);
+      return getCatalog().room(hotelID, roomNumber) != null;
+   }
+
+   /**
+    * Method to list the customers with the most bookings at a hotel.  The
+    * counts are kept per hotel and customer in HotelCustomerBookings, so
+    * only the first limit entries of its index are read.
+    *
+    * @param hotelID the hotel
+    * @param limit number of customers wanted
+    * @return name, number of bookings; most bookings first
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> regularCustomers(int hotelID, int limit) throws SQLException {
+      if (this._shards != null)
+         return this._shards.regularCustomers(hotelID, limit);
+      String query = "SELECT u.name, s.numBookings FROM HotelCustomerBookings s JOIN Users u ON u.userID = s.customerID WHERE s.hotelID = ? AND u.userType = 'customer' ORDER BY s.numBookings DESC, s.customerID LIMIT ?";
+      return executeQueryAndReturnResult(query, hotelID, limit);
+   }//end regularCustomers
+
+   /**
+    * Method to list the customers with the most bookings at a hotel for
+    * nights from windowDays days ago on.  The windows of the regular
+    * customers index are answered from memory, any other from the
+    * bookings table.
+    *
+    * @param hotelID the hotel
+    * @param limit number of customers wanted
+    * @param windowDays length of the window in days
+    * @return name without padding, number of bookings; most bookings first
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> regularCustomers(int hotelID, int limit, int windowDays) throws SQLException {
+      if (this._shards != null)
+         return this._shards.regularCustomers(hotelID, limit, windowDays);
+      List<int[]> top = getRegularCustomersIndex().top(hotelID, windowDays, limit);
+      if (top == null) {
+         java.sql.Date from = RoomAvailabilityIndex.toDate(RoomAvailabilityIndex.epochDay(new java.util.Date()) - windowDays);
+         String query = "SELECT trim(u.name), COUNT(*) AS num_book FROM RoomBookings rb JOIN Users u ON rb.customerID = u.userID WHERE rb.hotelID = ? AND rb.bookingDate >= ? AND u.userType = 'customer' GROUP BY u.userID, u.name ORDER BY num_book DESC, u.userID LIMIT ?";
+         return executeQueryAndReturnResult(query, hotelID, from, limit);
+      }//end if
+
+      List<List<String>> result = new ArrayList<List<String>>();
+      for (int[] customer : top) {
+         UserEntry user = getUser(customer[0]);
+         List<String> row = new ArrayList<String>();
+         row.add(user == null ? Integer.toString(customer[0]) : user.name);
+         row.add(Integer.toString(customer[1]));
+         result.add(row);
+      }//end for
+      return result;
+   }//end regularCustomers
+
+   /**
+    * Method to look up a user, reading through the user cache.
+    *
+    * @param userID the user
+    * @return the user, or null when there is no such user
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public UserEntry getUser(int userID) throws SQLException {
+      UserEntry user = this._users.get(userID);
+      if (user != null)
+         return user;
+
+      String query = "SELECT userID, name, password, userType FROM Users WHERE userID = ?";
+      QueryMetrics.Operation op = this._metrics.operation(query);
+      Connection conn = borrow(query);
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+         ResultSet rs = prepare(conn, query, userID).executeQuery ();
+         try {
+            failed = false;
+            if (!rs.next())
+               return null;
+            user = new UserEntry(rs.getInt(1), rs.getString(2), rs.getString(3), UserEntry.Role.parse(rs.getString(4)));
+         }finally {
+            rs.close ();
+         }//end try
+      }finally {
+         op.record(start, user == null ? 0 : 1, failed);
+         release(conn);
+      }//end try
+      this._users.put(user);
+      return user;
+   }//end getUser
+
+   /**
+    * Method to check log in credentials.  Id, password and role come back
+    * from one query, or from the user cache without any.
+    *
+    * @param userID the user
+    * @param password the password typed by the user
+    * @return the user, or null when the id or password is wrong
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public UserEntry authenticate(int userID, String password) throws SQLException {
+      UserEntry user = getUser(userID);
+      if (user == null || !user.passwordMatches(password))
+         return null;
+      return user;
+   }//end authenticate
+
+   /**
+    * Method to create a customer account.  The INSERT returns the row it
+    * made, so the userID is this insert's own and the new user goes
+    * straight into the user cache.
+    *
+    * @param name the name of the user
+    * @param password the password of the user
+    * @return the userID of the new user
+    * @throws java.sql.SQLException when failed to insert the user
+    */
+   public int createUser(String name, String password) throws SQLException {
+      String query = "INSERT INTO Users (name, password, userType) VALUES (?, ?, 'customer') RETURNING userID, name, password, userType";
+      QueryMetrics.Operation op = this._metrics.operation(query);
+      Connection conn = this._router.borrowWrite();
+      long start = System.nanoTime();
+      boolean failed = true;
+      UserEntry user;
+      try {
+         ResultSet rs = prepare(conn, query, name, password).executeQuery ();
+         try {
+            rs.next();
+            user = new UserEntry(rs.getInt(1), rs.getString(2), rs.getString(3), UserEntry.Role.parse(rs.getString(4)));
+            failed = false;
+         }finally {
+            rs.close ();
+         }//end try
+      }finally {
+         op.record(start, 1, failed);
+         this._pool.release(conn);
+      }//end try
+      this._users.put(user);
+      // bookings and reports on the shards join Users
+      if (this._shards != null)
+         this._shards.copyUser(user);
+      return user.userID;
+   }//end createUser
+
+   /**
+    * Method to stream the bookings of every hotel a manager runs between
+    * two dates, both included.
+    *
+    * @param managerID the manager
+    * @param from first booking date
+    * @param to last booking date
+    * @param handler receives bookingID, name, hotelID, roomNumber, bookingDate per row
+    * @return the number of bookings
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int streamBookingHistory(int managerID, java.sql.Date from, java.sql.Date to, RowHandler handler) throws SQLException {
+      if (this._shards != null)
+         return this._shards.streamBookingHistory(managerID, from, to, handler);
+      String query = "SELECT rb.bookingID, u.name, rb.hotelID, rb.roomNumber, rb.bookingDate FROM RoomBookings rb JOIN Users u ON rb.customerID = u.userID JOIN Hotel h ON h.hotelID = rb.hotelID WHERE h.managerUserID = ? AND rb.bookingDate >= ? AND rb.bookingDate <= ?";
+      return executeQueryStreaming(query, DEFAULT_FETCH_SIZE, handler, managerID, from, to);
+   }//end streamBookingHistory
+
+   /**
+    * Method to list a customer's bookings, latest night first.  Served by
+    * the RoomBookings (customerID, bookingDate DESC, bookingID DESC) index.
+    *
+    * @param customerID the customer
+    * @param pageSize rows per page
+    * @param after the previous page, null for the first
+    * @return hotelID, roomNumber, price, bookingDate per row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Page customerBookings(int customerID, int pageSize, Page after) throws SQLException {
+      if (this._shards != null)
+         return this._shards.customerBookings(customerID, pageSize, after);
+      return fetchPage("SELECT rb.hotelID, rb.roomNumber, r.price, rb.bookingDate, rb.bookingDate, rb.bookingID FROM RoomBookings rb JOIN Rooms r ON rb.hotelID = r.hotelID AND rb.roomNumber = r.roomNumber WHERE rb.customerID = ?",
+                       "(rb.bookingDate, rb.bookingID) < (CAST(? AS date), CAST(? AS integer))", "rb.bookingDate DESC, rb.bookingID DESC",
+                       2, pageSize, after, customerID);
+   }//end customerBookings
+
+   /**
+    * Method to list the room updates made by a manager, latest first.
+    * Served by the RoomUpdatesLog (managerID, updatedOn DESC, updateNumber
+    * DESC) index.
+    *
+    * @param managerID the manager
+    * @param pageSize rows per page
+    * @param after the previous page, null for the first
+    * @return updateNumber, hotelID, roomNumber, updatedOn per row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Page managerUpdates(int managerID, int pageSize, Page after) throws SQLException {
+      if (this._shards != null)
+         return this._shards.managerUpdates(managerID, pageSize, after);
+      return fetchPage("SELECT updateNumber, hotelID, roomNumber, updatedOn, updatedOn, updateNumber FROM RoomUpdatesLog WHERE managerID = ?",
+                       "(updatedOn, updateNumber) < (CAST(? AS timestamp), CAST(? AS integer))", "updatedOn DESC, updateNumber DESC",
+                       2, pageSize, after, managerID);
+   }//end managerUpdates
+
+   /**
+    * Method to list the bookings of every hotel a manager runs between two
+    * dates, both included, in night order.  Served by the Hotel
+    * (managerUserID) and RoomBookings (hotelID, bookingDate, bookingID)
+    * indexes.
+    *
+    * @param managerID the manager
+    * @param from first booking date
+    * @param to last booking date
+    * @param pageSize rows per page
+    * @param after the previous page, null for the first
+    * @return bookingID, name, hotelID, roomNumber, bookingDate per row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Page bookingHistory(int managerID, java.sql.Date from, java.sql.Date to, int pageSize, Page after) throws SQLException {
+      if (this._shards != null)
+         return this._shards.bookingHistory(managerID, from, to, pageSize, after);
+      return fetchPage("SELECT rb.bookingID, u.name, rb.hotelID, rb.roomNumber, rb.bookingDate, rb.bookingDate, rb.bookingID FROM RoomBookings rb JOIN Users u ON rb.customerID = u.userID JOIN Hotel h ON h.hotelID = rb.hotelID WHERE h.managerUserID = ? AND rb.bookingDate >= ? AND rb.bookingDate <= ?",
+                       "(rb.bookingDate, rb.bookingID) > (CAST(? AS date), CAST(? AS integer))", "rb.bookingDate, rb.bookingID",
+                       2, pageSize, after, managerID, from, to);
+   }//end bookingHistory
+
+   /**
+    * Method to list the repairs a manager requested, newest request first,
+    * with the company doing each.  Every filter may be null.  Driven by the
+    * RoomRepairRequests (managerID, requestNumber) index; with a hotel
+    * filter the RoomRepairs (hotelID, roomNumber, repairDate) index can
+    * narrow the repairs first.
+    *
+    * @param managerID the manager
+    * @param hotelID only repairs in this hotel
+    * @param roomNumber only repairs of this room
+    * @param companyID only repairs by this company
+    * @param from first repair date
+    * @param to last repair date
+    * @param pageSize rows per page
+    * @param after the previous page, null for the first
+    * @return requestNumber, repairID, hotelID, roomNumber, companyID, company name without padding, repairDate per row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Page repairHistory(int managerID, Integer hotelID, Integer roomNumber, Integer companyID,
+                             java.sql.Date from, java.sql.Date to, int pageSize, Page after) throws SQLException {
+      if (this._shards != null)
+         return this._shards.repairHistory(managerID, hotelID, roomNumber, companyID, from, to, pageSize, after);
+      StringBuilder select = new StringBuilder(
+         "SELECT rr.requestNumber, rp.repairID, rp.hotelID, rp.roomNumber, mc.companyID, trim(mc.name), rp.repairDate, rr.requestNumber " +
+         "FROM RoomRepairRequests rr JOIN RoomRepairs rp ON rp.repairID = rr.repairID " +
+         "JOIN MaintenanceCompany mc ON mc.companyID = rp.companyID WHERE rr.managerID = ?");
+      List<Object> params = new ArrayList<Object>();
+      params.add(managerID);
+      if (hotelID != null) {
+         select.append(" AND rp.hotelID = ?");
+         params.add(hotelID);
+      }//end if
+      if (roomNumber != null) {
+         select.append(" AND rp.roomNumber = ?");
+         params.add(roomNumber);
+      }//end if
+      if (companyID != null) {
+         select.append(" AND rp.companyID = ?");
+         params.add(companyID);
+      }//end if
+      if (from != null) {
+         select.append(" AND rp.repairDate >= ?");
+         params.add(from);
+      }//end if
+      if (to != null) {
+         select.append(" AND rp.repairDate <= ?");
+         params.add(to);
+      }//end if
+      return fetchPage(select.toString(), "rr.requestNumber < CAST(? AS integer)", "rr.requestNumber DESC",
+                       1, pageSize, after, params.toArray());
+   }//end repairHistory
+
+   // runs one page of a keyset query: select ends in its WHERE clause and
+   // its last keyColumns columns are the sort key, which keyset compares
+   // against the key of the previous page's last row
+   private Page fetchPage(String select, String keyset, String order, int keyColumns,
+                          int pageSize, Page after, Object... params) throws SQLException {
+      List<Object> values = new ArrayList<Object>(Arrays.asList(params));
+      String query = select;
+      if (after != null) {
+         if (after.last == null)
+            return new Page(new ArrayList<List<String>>(), null);
+         query += " AND " + keyset;
+         values.addAll(after.last);
+      }//end if
+      query += " ORDER BY " + order + " LIMIT ?";
+      // one row more than asked tells whether there is a next page
+      values.add(pageSize + 1);
+
+      List<List<String>> rows = executeQueryAndReturnResult(query, values.toArray());
+      boolean more = rows.size() > pageSize;
+      if (more)
+         rows.remove(rows.size() - 1);
+      List<String> last = null;
+      List<List<String>> keys = new ArrayList<List<String>>(rows.size());
+      for (int i = 0; i < rows.size(); ++i) {
+         List<String> row = rows.get(i);
+         List<String> key = new ArrayList<String>(row.subList(row.size() - keyColumns, row.size()));
+         row.subList(row.size() - keyColumns, row.size()).clear();
+         keys.add(key);
+         if (more && i == rows.size() - 1)
+            last = key;
+      }//end for
+      return new Page(rows, last, keys);
+   }//end fetchPage
 
-   // handling the keyboard inputs through a BufferedReader
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   /**
+    * Method to change the price and image of a room and log the change.
+    * The log entry is handed to the audit writer, so the caller only waits
+    * for the UPDATE; it is written directly when the writer cannot take it.
+    *
+    * @param managerID the manager making the change
+    * @param hotelID the hotel
+    * @param roomNumber the room
+    * @param price the new price
+    * @param imageURL the new image
+    * @return false when there is no such room
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public boolean updateRoom(int managerID, int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      if (this._shards != null)
+         return this._shards.updateRoom(managerID, hotelID, roomNumber, price, imageURL);
+      String query = "UPDATE Rooms SET price = ?, imageURL = ? WHERE hotelID = ? AND roomNumber = ?";
+      if (executeUpdate(query, price, imageURL, hotelID, roomNumber) == 0)
+         return false;
+      // readers of this process see the change at once, others on the notification
+      CatalogCache catalog = this._catalog;
+      if (catalog != null)
+         catalog.putRoom(new RoomEntry(hotelID, roomNumber, price, imageURL == null ? null : imageURL.trim()));
+      try {
+         getAuditLog().record(managerID, hotelID, roomNumber, new Timestamp(System.currentTimeMillis()));
+         return true;
+      }catch (IOException e) {
+         System.err.println("Audit log: " + e.getMessage());
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+      executeUpdate("INSERT INTO RoomUpdatesLog (managerID,hotelID,roomNumber,updatedON) VALUES (?, ?, ?, CURRENT_TIMESTAMP)",
+                    managerID, hotelID, roomNumber);
+      return true;
+   }//end updateRoom
 
    /**
-    * Creates a new instance of Hotel 
+    * Sets the journal of the audit writer, so queued RoomUpdatesLog entries
+    * survive a crash.  Takes effect only before the first room update.
     *
-    * @param hostname the MySQL or PostgreSQL server hostname
-    * @param database the name of the database
-    * @param username the user name used to login to the database
-    * @param password the user login password
-    * @throws java.sql.SQLException when failed to make a connection.
+    * @param journal the journal file, or null for none
     */
-   public Hotel(String dbname, String dbport, String user, String passwd) throws SQLException {
+   public synchronized void setAuditJournal(File journal) {
+      this._auditJournal = journal;
+   }
 
-      System.out.print("Connecting to database...");
-      try{
-         // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-         System.out.println ("Connection URL: " + url + "\n");
+   /**
+    * @return the audit writer, starting it on first use
+    * @throws java.io.IOException when the journal cannot be opened
+    */
+   public synchronized AuditLogWriter getAuditLog() throws IOException {
+      if (this._audit == null)
+         this._audit = new AuditLogWriter(this._pool, this._auditJournal);
+      return this._audit;
+   }//end getAuditLog
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
-         System.out.println("Done");
-      }catch (Exception e){
-         System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
-         System.out.println("Make sure you started postgres on this machine");
-         System.exit(-1);
-      }//end catch
-   }//end Hotel
+   /**
+    * Method to record a repair of a room and the manager's request for it.
+    *
+    * @param managerID the manager requesting the repair
+    * @param hotelID the hotel
+    * @param roomNumber the room
+    * @param companyID the maintenance company
+    * @return the repairID of the new repair
+    * @throws java.sql.SQLException when failed to insert the repair
+    */
+   public int requestRepair(int managerID, int hotelID, int roomNumber, int companyID) throws SQLException {
+      return requestRepairs(managerID, hotelID, Arrays.asList(roomNumber), companyID).get(0);
+   }//end requestRepair
 
-   // Method to calculate euclidean distance between two latitude, longitude pairs. 
-   public double calculateDistance (double lat1, double long1, double lat2, double long2){
-      double t1 = (lat1 - lat2) * (lat1 - lat2);
-      double t2 = (long1 - long2) * (long1 - long2);
-      return Math.sqrt(t1 + t2); 
-   }
    /**
-    * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    * Method to record repairs of many rooms of a hotel by one company, such
+    * as a whole floor, with the manager's request for each.  Both INSERTs
+    * are one statement whose RETURNING hands the new repairIDs from the
+    * first to the second, so everything commits or fails together in one
+    * round trip whatever the number of rooms.
     *
-    * @param sql the input SQL string
-    * @throws java.sql.SQLException when update failed
+    * @param managerID the manager requesting the repairs
+    * @param hotelID the hotel
+    * @param roomNumbers the rooms; a room listed twice gets one repair
+    * @param companyID the maintenance company
+    * @return the repairID of each room, in the order of roomNumbers
+    * @throws java.sql.SQLException when failed to insert the repairs,
+    *         none are recorded then
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public List<Integer> requestRepairs(int managerID, int hotelID, List<Integer> roomNumbers, int companyID) throws SQLException {
+      if (this._shards != null)
+         return this._shards.requestRepairs(managerID, hotelID, roomNumbers, companyID);
+      List<Integer> result = new ArrayList<Integer>(roomNumbers.size());
+      if (roomNumbers.isEmpty())
+         return result;
+      // the driver has no array parameters, so the rooms go as an array literal
+      Map<Integer, Integer> repairOf = new HashMap<Integer, Integer>();
+      List<List<String>> rows = executeQueryAndReturnResult(REQUEST_REPAIRS_SQL, companyID, hotelID, arrayLiteral(roomNumbers), managerID);
+      for (List<String> row : rows)
+         repairOf.put(Integer.valueOf(row.get(1)), Integer.valueOf(row.get(0)));
+      for (Integer room : roomNumbers)
+         result.add(repairOf.get(room));
+      return result;
+   }//end requestRepairs
+
+   // keeps the in-memory indexes in step with a committed booking
+   private void noteBooking(int bookingID, int customerID, int hotelID, int roomNumber, java.sql.Date date) {
+      // the index in use and, during a reload, the one replacing it
+      for (RoomAvailabilityIndex availability : new RoomAvailabilityIndex[] { this._availability, this._availabilityLoading }) {
+         if (availability != null) {
+            // the booking shows the room exists, even one added since the index was loaded
+            availability.addRoom(hotelID, roomNumber);
+            availability.markBooked(hotelID, roomNumber, date);
+         }//end if
+      }//end for
+      RegularCustomersIndex regulars = this._regulars;
+      if (regulars != null)
+         regulars.addBooking(bookingID, customerID, hotelID, date);
+      AnalyticsEngine analytics = this._analytics;
+      CatalogCache catalog = this._catalog;
+      if (analytics != null && catalog != null) {
+         RoomEntry room = catalog.room(hotelID, roomNumber);
+         if (room != null)
+            analytics.addBooking(bookingID, hotelID, roomNumber, date, room.price);
+      }//end if
+   }//end noteBooking
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   /**
+    * @return the regular customers index, loading it on first use
+    * @throws java.sql.SQLException when the bookings cannot be loaded
+    */
+   public RegularCustomersIndex getRegularCustomersIndex() throws SQLException {
+      RegularCustomersIndex index = this._regulars;
+      if (index == null) {
+         synchronized (this) {
+            index = this._regulars;
+            if (index == null)
+               index = loadRegularCustomersIndex();
+         }//end synchronized
+      }//end if
+      return index;
+   }//end getRegularCustomersIndex
 
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
+   /**
+    * @return the analytics engine over all bookings, loading it on first use
+    * @throws java.sql.SQLException when the bookings cannot be loaded
+    */
+   public AnalyticsEngine getAnalyticsEngine() throws SQLException {
+      AnalyticsEngine engine = this._analytics;
+      // published while it loads, for noteBooking; readers wait for the load
+      if (engine == null || !engine.isReady()) {
+         synchronized (this) {
+            engine = this._analytics;
+            if (engine == null)
+               engine = loadAnalyticsEngine();
+         }//end synchronized
+      }//end if
+      return engine;
+   }//end getAnalyticsEngine
+
+   // published before the bookings are read, bookings after the highest
+   // bookingID seen then come from noteBooking instead of the query
+   private AnalyticsEngine loadAnalyticsEngine() throws SQLException {
+      getCatalog();
+      final AnalyticsEngine engine = new AnalyticsEngine();
+      // the high-water mark only holds when it is read where the bookings are made
+      long wrote = this._router.pinToPrimary();
+      boolean loaded = false;
+      try {
+         Integer through = queryForInt("SELECT MAX(bookingID) FROM RoomBookings");
+         engine.setLoadedThrough(through == null ? 0 : through);
+         this._analytics = engine;
+
+         executeQueryStreaming("SELECT b.hotelID, b.roomNumber, b.bookingDate, r.price FROM RoomBookings b " +
+                               "JOIN Rooms r ON r.hotelID = b.hotelID AND r.roomNumber = b.roomNumber WHERE b.bookingID <= ?",
+                               DEFAULT_FETCH_SIZE, new RowHandler() {
+            public void handle(ResultSet row) throws SQLException {
+               engine.append(row.getInt(1), row.getInt(2), RoomAvailabilityIndex.epochDay(row.getDate(3)), row.getInt(4));
+            }
+         }, through == null ? 0 : through);
+         engine.markReady();
+         loaded = true;
+      }finally {
+         // a failed load is withdrawn, so the next report tries again
+         if (!loaded && this._analytics == engine)
+            this._analytics = null;
+         this._router.setLastWrite(wrote);
+      }//end try
+      return engine;
+   }//end loadAnalyticsEngine
 
    /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and outputs the results to
-    * standard out.
+    * Method to report revenue, occupancy and average daily rate from the
+    * analytics engine, without querying the bookings.
     *
-    * @param query the input query string
-    * @return the number of rows returned
-    * @throws java.sql.SQLException when failed to execute the query
+    * @param hotelID the hotel, or 0 for every hotel
+    * @param first the first night
+    * @param last the last night
+    * @param grouping one row per hotel, per night or per month
+    * @return group, room nights sold, revenue, occupancy %, ADR
+    * @throws java.sql.SQLException when the engine cannot be loaded
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   public List<List<String>> revenueReport(int hotelID, java.sql.Date first, java.sql.Date last,
+                                           AnalyticsEngine.Grouping grouping) throws SQLException {
+      if (this._shards != null)
+         return this._shards.revenueReport(hotelID, first, last, grouping);
+      AnalyticsEngine engine = getAnalyticsEngine();
+      return engine.report(hotelID, first, last, grouping, getCatalog().roomCounts());
+   }//end revenueReport
+
+   // published before the bookings are read like the availability index;
+   // bookings seen both here and by noteBooking count once by bookingID.
+   // A failed load is withdrawn so the next report loads it again instead
+   // of falling back to the bookings table for good.
+   private RegularCustomersIndex loadRegularCustomersIndex() throws SQLException {
+      final RegularCustomersIndex index = new RegularCustomersIndex();
+      long wrote = this._router.pinToPrimary();
+      boolean loaded = false;
+      try {
+         for (List<String> row : executeQueryAndReturnResult("SELECT userID FROM Users WHERE userType <> 'customer'"))
+            index.ignoreCustomer(Integer.parseInt(row.get(0)));
+         this._regulars = index;
+
+         // a year of bookings is too many to hold as one result, so read
+         // them through the FETCH cursor of executeQueryStreaming
+         java.sql.Date from = RoomAvailabilityIndex.toDate(RoomAvailabilityIndex.epochDay(new java.util.Date()) - index.maxWindow());
+         executeQueryStreaming("SELECT bookingID, customerID, hotelID, bookingDate FROM RoomBookings WHERE bookingDate >= ?",
+                               DEFAULT_FETCH_SIZE, new RowHandler() {
+            public void handle(ResultSet row) throws SQLException {
+               index.addBooking(row.getInt(1), row.getInt(2), row.getInt(3), row.getDate(4));
+            }
+         }, from);
+         index.markReady();
+         loaded = true;
+      }finally {
+         if (!loaded && this._regulars == index)
+            this._regulars = null;
+         this._router.setLastWrite(wrote);
+      }//end try
+      return index;
+   }//end loadRegularCustomersIndex
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+   /**
+    * @return the availability index of every room, loading it on first use
+    *         and again in the background once it is older than the refresh
+    *         period
+    * @throws java.sql.SQLException when the rooms or bookings cannot be loaded
+    */
+   public RoomAvailabilityIndex getAvailabilityIndex() throws SQLException {
+      RoomAvailabilityIndex index = this._availability;
+      if (index == null) {
+         synchronized (this) {
+            index = this._availability;
+            if (index == null)
+               index = loadAvailabilityIndex();
+         }//end synchronized
+      }else if (System.currentTimeMillis() - this._availabilityLoadedAt > this._availabilityRefreshMs) {
+         reloadAvailabilityIndexInBackground();
+      }//end if
+      return index;
+   }//end getAvailabilityIndex
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end executeQuery
+   /**
+    * Rebuilds the availability index from the Rooms and RoomBookings tables.
+    * The current index keeps answering until the new one is ready.
+    *
+    * @throws java.sql.SQLException when the rooms or bookings cannot be loaded
+    */
+   public synchronized void refreshAvailabilityIndex() throws SQLException {
+      loadAvailabilityIndex();
+   }
 
    /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the results as
-    * a list of records. Each record in turn is a list of attribute values
+    * Sets how long the availability index is used before it is read again,
+    * which bounds how long a night booked by another process shows as free.
     *
-    * @param query the input query string
-    * @return the query result as a list of records
-    * @throws java.sql.SQLException when failed to execute the query
+    * @param refreshMs the refresh period in milliseconds
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public void setAvailabilityRefreshMs(long refreshMs) {
+      this._availabilityRefreshMs = refreshMs;
+   }
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   // one reload at a time, off the caller's thread; until it is done, and
+   // for another period when it fails, the current index keeps answering
+   private void reloadAvailabilityIndexInBackground() {
+      if (!this._availabilityReloading.compareAndSet(false, true))
+         return;
+      this._availabilityLoadedAt = System.currentTimeMillis();
+      Thread reload = new Thread("availability-reload") {
+         public void run() {
+            try {
+               refreshAvailabilityIndex();
+            }catch (SQLException e) {
+               System.err.println("Availability index not reloaded: " + e.getMessage());
+            }finally {
+               _availabilityReloading.set(false);
+            }//end try
+         }
+      };
+      reload.setDaemon(true);
+      reload.start();
+   }//end reloadAvailabilityIndexInBackground
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+   /**
+    * Forgets the availability index, the regular customers index and the
+    * analytics engine, so they are loaded again on first use.  For when
+    * bookings were written behind this Hotel's back, such as by a hotel
+    * moving between shards.
+    */
+   public synchronized void dropBookingCaches() {
+      this._availability = null;
+      this._availabilityLoading = null;
+      this._regulars = null;
+      this._analytics = null;
+   }//end dropBookingCaches
+
+   // the index is published before the bookings are read, so bookings made
+   // while it loads are recorded too; lookups wait for markReady().  A
+   // reload publishes it as _availabilityLoading instead and swaps it in
+   // once ready.  A failed load is withdrawn, so the next lookup loads it
+   // again instead of falling back to SQL for good.
+   private RoomAvailabilityIndex loadAvailabilityIndex() throws SQLException {
+      final RoomAvailabilityIndex index = new RoomAvailabilityIndex(new RoomAvailabilityIndex.Loader() {
+         public List<int[]> bookingsBetween(int firstDay, int lastDay) throws SQLException {
+            return loadBookingsBetween(firstDay, lastDay);
+         }
+      });
+      this._availabilityLoadedAt = System.currentTimeMillis();
+      long wrote = this._router.pinToPrimary();
+      boolean loaded = false;
+      try {
+         executeQueryStreaming("SELECT hotelID, roomNumber FROM Rooms", DEFAULT_FETCH_SIZE, new RowHandler() {
+            public void handle(ResultSet row) throws SQLException {
+               index.addRoom(row.getInt(1), row.getInt(2));
+            }
+         });
+         if (this._availability == null)
+            this._availability = index;
+         else
+            this._availabilityLoading = index;
+
+         // every booking from the lookback on, through the FETCH cursor
+         java.sql.Date from = RoomAvailabilityIndex.toDate(RoomAvailabilityIndex.epochDay(new java.util.Date()) - RoomAvailabilityIndex.DEFAULT_LOOKBACK_DAYS);
+         executeQueryStreaming("SELECT hotelID, roomNumber, bookingDate FROM RoomBookings WHERE bookingDate >= ?",
+                               DEFAULT_FETCH_SIZE, new RowHandler() {
+            public void handle(ResultSet row) throws SQLException {
+               index.markBooked(row.getInt(1), row.getInt(2), row.getDate(3));
+            }
+         }, from);
+         index.markReady();
+         this._availability = index;
+         loaded = true;
+      }finally {
+         if (this._availabilityLoading == index)
+            this._availabilityLoading = null;
+         if (!loaded && this._availability == index)
+            this._availability = null;
+         this._router.setLastWrite(wrote);
+      }//end try
+      return index;
+   }//end loadAvailabilityIndex
+
+   // the bookings of the nights the availability window moves over
+   private List<int[]> loadBookingsBetween(int firstDay, int lastDay) throws SQLException {
+      List<int[]> bookings = new ArrayList<int[]>();
+      Connection conn = this._pool.borrow();
+      try {
+         ResultSet rs = prepare(conn, "SELECT hotelID, roomNumber, bookingDate FROM RoomBookings WHERE bookingDate BETWEEN ? AND ?",
+                                RoomAvailabilityIndex.toDate(firstDay), RoomAvailabilityIndex.toDate(lastDay)).executeQuery ();
+         try {
+            while (rs.next())
+               bookings.add(new int[] { rs.getInt(1), rs.getInt(2), RoomAvailabilityIndex.epochDay(rs.getDate(3)) });
+         }finally {
+            rs.close ();
+         }//end try
+      }finally {
+         this._pool.release(conn);
+      }//end try
+      return bookings;
+   }//end loadBookingsBetween
+
+   /**
+    * Method to list the rooms of a hotel with their price and whether they
+    * are booked on a night.  Inside the availability window the bookings
+    * come from memory and the prices from the catalog, so no query is run.
+    *
+    * @param hotelID the hotel
+    * @param date the night
+    * @return roomNumber, price, 'Booked' or 'Available' per room
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> roomAvailability(int hotelID, java.sql.Date date) throws SQLException {
+      if (this._shards != null)
+         return this._shards.roomAvailability(hotelID, date);
+      List<int[]> booked = getAvailabilityIndex().bookedOn(hotelID, date);
+      if (booked == null) {
+         String query = "SELECT Rooms.roomNumber, Rooms.price, CASE WHEN EXISTS (SELECT 1 FROM RoomBookings WHERE RoomBookings.hotelID = Rooms.hotelID AND RoomBookings.roomNumber = Rooms.roomNumber AND RoomBookings.bookingDate = ?) THEN 'Booked' ELSE 'Available' END AS availability FROM Rooms WHERE Rooms.hotelID = ? ORDER BY Rooms.roomNumber";
+         return executeQueryAndReturnResult(query, date, hotelID);
+      }//end if
 
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
+      Map<Integer, Boolean> bookedRooms = new HashMap<Integer, Boolean>();
+      for (int[] room : booked)
+         bookedRooms.put(room[0], room[1] == 1);
+      List<List<String>> result = new ArrayList<List<String>>();
+      for (RoomEntry room : getCatalog().rooms(hotelID)) {
+         List<String> row = new ArrayList<String>(3);
+         row.add(Integer.toString(room.roomNumber));
+         row.add(Integer.toString(room.price));
+         row.add(Boolean.TRUE.equals(bookedRooms.get(room.roomNumber)) ? "Booked" : "Available");
+         result.add(row);
+      }//end for
       return result;
-   }//end executeQueryAndReturnResult
+   }//end roomAvailability
 
    /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
+    * Method to find the rooms of a hotel that are free every night from
+    * first to last, both included.
     *
-    * @param query the input query string
-    * @return the number of rows returned
+    * @param hotelID the hotel
+    * @param first the first night
+    * @param last the last night
+    * @return the free room numbers in order
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   public List<Integer> findRoomsFreeBetween(int hotelID, java.sql.Date first, java.sql.Date last) throws SQLException {
+      if (this._shards != null)
+         return this._shards.findRoomsFreeBetween(hotelID, first, last);
+      List<Integer> free = getAvailabilityIndex().freeBetween(hotelID, first, last);
+      if (free != null)
+         return free;
+
+      free = new ArrayList<Integer>();
+      String query = "SELECT r.roomNumber FROM Rooms r WHERE r.hotelID = ? AND NOT EXISTS (SELECT 1 FROM RoomBookings b WHERE b.hotelID = r.hotelID AND b.roomNumber = r.roomNumber AND b.bookingDate BETWEEN ? AND ?) ORDER BY r.roomNumber";
+      for (List<String> row : executeQueryAndReturnResult(query, hotelID, first, last))
+         free.add(Integer.valueOf(row.get(0)));
+      return free;
+   }//end findRoomsFreeBetween
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Order of the rooms found by searchFreeRooms().
+    */
+   public enum SearchOrder { DISTANCE, PRICE }
+
+   // one room found by searchFreeRooms() in memory, with its sort key
+   private static final class FreeRoom {
+      final HotelEntry hotel;
+      final RoomEntry room;
+      final double distance;
+      final double[] key;
+      // position of the distance in the key, the only part that is not whole
+      final int distanceAt;
+
+      FreeRoom(HotelEntry hotel, RoomEntry room, double distance, SearchOrder order) {
+         this.hotel = hotel;
+         this.room = room;
+         this.distance = distance;
+         this.key = order == SearchOrder.PRICE
+                  ? new double[] { room.price, distance, hotel.hotelID, room.roomNumber }
+                  : new double[] { distance, hotel.hotelID, room.roomNumber };
+         this.distanceAt = order == SearchOrder.PRICE ? 1 : 0;
+      }//end FreeRoom
+
+      // the key as a cursor holds it, the way the database prints it
+      List<String> cursor() {
+         List<String> values = new ArrayList<String>(key.length);
+         for (int i = 0; i < key.length; ++i)
+            values.add(i == distanceAt ? Double.toString(key[i]) : Long.toString((long) key[i]));
+         return values;
+      }//end cursor
+
+      static int compare(double[] a, double[] b) {
+         for (int i = 0; i < a.length; ++i) {
+            int c = Double.compare(a[i], b[i]);
+            if (c != 0)
+               return c;
+         }//end for
+         return 0;
+      }//end compare
+   }//end FreeRoom
 
-       int rowCount = 0;
+   /**
+    * Method to find the rooms free every night from first to last, both
+    * included, in the hotels within radius of a point and at most maxPrice
+    * a night.  Inside the availability window this is answered from the
+    * catalog and the availability index without a query: the spatial
+    * index finds the hotels, the availability index their free rooms and
+    * the catalog the prices.  Outside it one query does the same join.
+    *
+    * @param lat latitude of the point
+    * @param lng longitude of the point
+    * @param radius maximum distance
+    * @param first the first night
+    * @param last the last night
+    * @param maxPrice highest price a night, Integer.MAX_VALUE for any
+    * @param order nearest or cheapest first; ties go to the nearer hotel
+    * @param pageSize most rooms per page
+    * @param after the previous page, null for the first one
+    * @return hotelID, hotelName, roomNumber, price, distance
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Page searchFreeRooms(double lat, double lng, double radius, java.sql.Date first, java.sql.Date last,
+                               int maxPrice, SearchOrder order, int pageSize, Page after) throws SQLException {
+      if (this._shards != null)
+         return this._shards.searchFreeRooms(lat, lng, radius, first, last, maxPrice, order, pageSize, after);
+      RoomAvailabilityIndex availability = getAvailabilityIndex();
+      if (!availability.covers(first) || !availability.covers(last))
+         return searchFreeRoomsFromDatabase(lat, lng, radius, first, last, maxPrice, order, pageSize, after);
+      if (after != null && after.last == null)
+         return new Page(new ArrayList<List<String>>(), null);
+
+      CatalogCache catalog = getCatalog();
+      List<FreeRoom> found = new ArrayList<FreeRoom>();
+      for (HotelEntry hotel : catalog.spatialIndex().withinRadius(lat, lng, radius)) {
+         double distance = hotel.distanceTo(lat, lng);
+         for (Integer number : availability.freeBetween(hotel.hotelID, first, last)) {
+            RoomEntry room = catalog.room(hotel.hotelID, number);
+            if (room != null && room.price <= maxPrice)
+               found.add(new FreeRoom(hotel, room, distance, order));
+         }//end for
+      }//end for
+      Collections.sort(found, new Comparator<FreeRoom>() {
+         public int compare(FreeRoom a, FreeRoom b) {
+            return FreeRoom.compare(a.key, b.key);
+         }
+      });
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
+      double[] from = null;
+      if (after != null) {
+         from = new double[after.last.size()];
+         for (int i = 0; i < from.length; ++i)
+            from[i] = Double.parseDouble(after.last.get(i));
+      }//end if
+      List<List<String>> rows = new ArrayList<List<String>>();
+      List<List<String>> keys = new ArrayList<List<String>>();
+      List<String> lastKey = null;
+      FreeRoom previous = null;
+      for (FreeRoom free : found) {
+         if (from != null && FreeRoom.compare(free.key, from) <= 0)
+            continue;
+         if (rows.size() == pageSize) {
+            lastKey = previous.cursor();
+            break;
+         }//end if
+         previous = free;
+         keys.add(free.cursor());
+         rows.add(Arrays.asList(Integer.toString(free.hotel.hotelID), free.hotel.hotelName, Integer.toString(free.room.roomNumber),
+                                Integer.toString(free.room.price), String.format("%.3f", free.distance)));
+      }//end for
+      return new Page(rows, lastKey, keys);
+   }//end searchFreeRooms
 
    /**
-    * Method to fetch the last value from sequence. This
-    * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * Method to run searchFreeRooms() on the database side, for nights
+    * outside the availability window.  The bounding box narrows the hotels
+    * through the Hotel_location index before the exact distance is taken.
     *
-    * @param sequence name of the DB sequence
-    * @return current value of a sequence
+    * @return hotelID, hotelName without padding, roomNumber, price, distance
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int getCurrSeqVal(String sequence) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
+   public Page searchFreeRoomsFromDatabase(double lat, double lng, double radius, java.sql.Date first, java.sql.Date last,
+                                           int maxPrice, SearchOrder order, int pageSize, Page after) throws SQLException {
+      String keys = order == SearchOrder.PRICE ? "r.price, h.dist, h.hotelID, r.roomNumber" : "h.dist, h.hotelID, r.roomNumber";
+      String keyset = order == SearchOrder.PRICE
+                    ? "(r.price, h.dist, h.hotelID, r.roomNumber) > (CAST(? AS integer), CAST(? AS double precision), CAST(? AS integer), CAST(? AS integer))"
+                    : "(h.dist, h.hotelID, r.roomNumber) > (CAST(? AS double precision), CAST(? AS integer), CAST(? AS integer))";
+      String select = "SELECT h.hotelID, h.hotelName, r.roomNumber, r.price, round(CAST(h.dist AS numeric), 3), " + keys + " FROM " +
+                      "(SELECT hotelID, trim(hotelName) AS hotelName, " +
+                      "sqrt(CAST((latitude - ?) * (latitude - ?) + (longitude - ?) * (longitude - ?) AS double precision)) AS dist FROM Hotel " +
+                      "WHERE latitude BETWEEN ? AND ? AND longitude BETWEEN ? AND ?) h " +
+                      "JOIN Rooms r ON r.hotelID = h.hotelID " +
+                      "WHERE h.dist <= ? AND r.price <= ? AND NOT EXISTS (SELECT 1 FROM RoomBookings b WHERE b.hotelID = r.hotelID " +
+                      "AND b.roomNumber = r.roomNumber AND b.bookingDate BETWEEN ? AND ?)";
+      return fetchPage(select, keyset, keys, order == SearchOrder.PRICE ? 4 : 3, pageSize, after,
+                       lat, lat, lng, lng, lat - radius, lat + radius, lng - radius, lng + radius, radius, maxPrice, first, last);
+   }//end searchFreeRoomsFromDatabase
 
-      ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
-   }
+   /**
+    * Method to compare the availability index with the database for one
+    * hotel and night.
+    *
+    * @param hotelID the hotel
+    * @param date the night
+    * @return one line per room on which the index and the database disagree
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<String> verifyAvailability(int hotelID, java.sql.Date date) throws SQLException {
+      if (this._shards != null)
+         return this._shards.verifyAvailability(hotelID, date);
+      List<String> mismatches = new ArrayList<String>();
+      List<int[]> booked = getAvailabilityIndex().bookedOn(hotelID, date);
+      if (booked == null) {
+         mismatches.add(date + " is outside the availability window");
+         return mismatches;
+      }//end if
+
+      Map<Integer, Boolean> inMemory = new HashMap<Integer, Boolean>();
+      for (int[] room : booked)
+         inMemory.put(room[0], room[1] == 1);
+      String query = "SELECT r.roomNumber, EXISTS (SELECT 1 FROM RoomBookings b WHERE b.hotelID = r.hotelID AND b.roomNumber = r.roomNumber AND b.bookingDate = ?) FROM Rooms r WHERE r.hotelID = ?";
+      for (List<String> row : executeQueryAndReturnResult(query, date, hotelID)) {
+         Integer room = Integer.valueOf(row.get(0));
+         boolean inDatabase = "t".equals(row.get(1)) || "true".equals(row.get(1));
+         Boolean indexed = inMemory.remove(room);
+         if (indexed == null)
+            mismatches.add("room " + room + " is missing from the index");
+         else if (indexed.booleanValue() != inDatabase)
+            mismatches.add("room " + room + ": index says " + (indexed ? "booked" : "available") + ", database says " + (inDatabase ? "booked" : "available"));
+      }//end for
+      for (Integer room : inMemory.keySet())
+         mismatches.add("room " + room + " is in the index but not in the database");
+      return mismatches;
+   }//end verifyAvailability
 
-   public int getNewUserID(String sql) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
-      ResultSet rs = stmt.executeQuery (sql);
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
-   }
    /**
-    * Method to close the physical connection if it is open.
+    * Method to write the queued audit entries, stop the catalog listener
+    * and the replica lag checks and close every pooled connection, those
+    * of the shards included.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
+      synchronized (this) {
+         if (this._audit != null){
+            this._audit.close (AUDIT_CLOSE_TIMEOUT_MS);
          }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      }//end synchronized
+      if (this._catalogListener != null){
+         this._catalogListener.shutdown ();
+      }//end if
+      if (this._shards != null){
+         this._shards.close ();
+      }//end if
+      if (this._router != null){
+         this._router.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -243,7 +2187,7 @@ public class Hotel {
          String dbname = args[0];
          String dbport = args[1];
          String user = args[2];
-         String usertype = "";
+         UserEntry.Role role = null;
          int currID;
          esql = new Hotel (dbname, dbport, user, "");
    	 boolean admin = false;
@@ -259,16 +2203,16 @@ public class Hotel {
             String authorisedUser = null;
             switch (readChoice()){
                case 1: CreateUser(esql); break;
-               case 2: {authorisedUser = LogIn(esql); 
-                        usertype = Getusertype(esql,authorisedUser);
-                        //System.out.println(usertype.length());
-                        //System.out.printf("ID: %stest",authorisedUser);                                               
-                        //System.out.printf("Type: %s",usertype);
+               case 2: {UserEntry login = LogIn(esql);
+                        if (login != null) {
+                           authorisedUser = Integer.toString(login.userID);
+                           role = login.role;
+                        }
                         break;}
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
-            if (authorisedUser != null && (usertype.equals("manager   ") || usertype.equals("admin     "))) {//why
+            if (authorisedUser != null && (role == UserEntry.Role.MANAGER || role == UserEntry.Role.ADMIN)) {
               boolean usermenu = true;
               while(usermenu) {
                 System.out.println("MAIN MENU");
@@ -284,6 +2228,12 @@ public class Hotel {
                 System.out.println("8. View 5 regular Customers");
                 System.out.println("9. Place room repair Request to a company");
                 System.out.println("10. View room repair Requests history");
+                System.out.println("11. Book several rooms or nights");
+                System.out.println("12. View nearest Hotels");
+                System.out.println("13. View rooms free for a range of nights");
+                System.out.println("14. Check availability index against database");
+                System.out.println("15. Search free rooms near you");
+                System.out.println("16. Revenue and occupancy report");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
@@ -298,12 +2248,18 @@ public class Hotel {
                    case 8: viewRegularCustomers(esql,authorisedUser); break;
                    case 9: placeRoomRepairRequests(esql,authorisedUser); break;
                    case 10: viewRoomRepairHistory(esql,authorisedUser); break;
+                   case 11: bookRoomsForStay(esql,authorisedUser); break;
+                   case 12: viewNearestHotels(esql); break;
+                   case 13: viewRoomsFreeForStay(esql); break;
+                   case 14: checkAvailabilityIndex(esql); break;
+                   case 15: searchFreeRoomsNearby(esql); break;
+                   case 16: viewRevenueReport(esql,authorisedUser); break;
                    case 20: usermenu = false; break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
               }
             }
-            if (authorisedUser != null && usertype.equals("customer  ")) {
+            if (authorisedUser != null && role == UserEntry.Role.CUSTOMER) {
               boolean usermenu = true;
               while(usermenu) {
                 System.out.println("MAIN MENU");
@@ -319,6 +2275,10 @@ public class Hotel {
                 System.out.println("8. View 5 regular Customers");
                 System.out.println("9. Place room repair Request to a company");
                 System.out.println("10. View room repair Requests history");*/
+                System.out.println("11. Book several rooms or nights");
+                System.out.println("12. View nearest Hotels");
+                System.out.println("13. View rooms free for a range of nights");
+                System.out.println("15. Search free rooms near you");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
@@ -333,6 +2293,10 @@ public class Hotel {
                    case 8: viewRegularCustomers(esql,authorisedUser); break;
                    case 9: placeRoomRepairRequests(esql,authorisedUser); break;
                    case 10: viewRoomRepairHistory(esql,authorisedUser); break;*/
+                   case 11: bookRoomsForStay(esql,authorisedUser); break;
+                   case 12: viewNearestHotels(esql); break;
+                   case 13: viewRoomsFreeForStay(esql); break;
+                   case 15: searchFreeRoomsNearby(esql); break;
                    case 20: usermenu = false; break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
@@ -382,6 +2346,56 @@ public class Hotel {
       return input;
    }//end readChoice
 
+   // asks whether to show another page of a listing
+   static boolean wantsNextPage() throws IOException {
+      System.out.print("\tEnter n for the next page, anything else to stop: ");
+      String answer = in.readLine();
+      return answer != null && answer.trim().equalsIgnoreCase("n");
+   }//end wantsNextPage
+
+   /**
+    * Parses a list of room numbers such as "101,105,110-120".
+    *
+    * @return the rooms in the order given, ranges expanded
+    */
+   public static List<Integer> parseRoomNumbers(String input) {
+      List<Integer> rooms = new ArrayList<Integer>();
+      for (String part : input.split(",")) {
+         part = part.trim();
+         if (part.isEmpty())
+            continue;
+         int dash = part.indexOf('-', 1);
+         if (dash < 0) {
+            rooms.add(Integer.parseInt(part));
+            continue;
+         }//end if
+         int first = Integer.parseInt(part.substring(0, dash).trim());
+         int last = Integer.parseInt(part.substring(dash + 1).trim());
+         for (int room = first; room <= last; ++room)
+            rooms.add(room);
+      }//end for
+      return rooms;
+   }//end parseRoomNumbers
+
+   /*
+    * Parses a date typed as Month/Day/Year (or Year-Month-Day)
+    * @return the date as a SQL date
+    **/
+   public static java.sql.Date parseDate(String input) throws ParseException {
+      String text = input.trim();
+      SimpleDateFormat format = new SimpleDateFormat(text.indexOf('-') > 0 ? "yyyy-MM-dd" : "MM/dd/yyyy");
+      format.setLenient(false);
+      return new java.sql.Date(format.parse(text).getTime());
+   }//end parseDate
+
+   /*
+    * Parses a whole number typed by the user
+    * @return the number
+    **/
+   public static int parseInt(String input) {
+      return Integer.parseInt(input.trim());
+   }//end parseInt
+
    /*
     * Creates a new user
     **/
@@ -391,10 +2405,7 @@ public class Hotel {
          String name = in.readLine();
          System.out.print("\tEnter password: ");
          String password = in.readLine(); 
-         String type="Customer";
-			String query = String.format("INSERT INTO Users (name, password, userType) VALUES ('%s','%s', '%s')", name, password, type);
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created with userID = " + esql.getNewUserID("SELECT last_value FROM users_userID_seq"));
+         System.out.println ("User successfully created with userID = " + esql.createUser(name, password));
          
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -406,17 +2417,13 @@ public class Hotel {
     * Check log in credentials for an existing user
     * @return User login or null is the user does not exist
     **/
-   public static String LogIn(Hotel esql){
+   public static UserEntry LogIn(Hotel esql){
       try{
          System.out.print("\tEnter userID: ");
          String userID = in.readLine();
          System.out.print("\tEnter password: ");
          String password = in.readLine();
-         String query = String.format("SELECT * FROM Users WHERE userID = '%s' AND password = '%s'", userID, password);
-         int userNum = esql.executeQuery(query);
-         if (userNum > 0)
-            return userID;
-         return null;
+         return esql.authenticate(parseInt(userID), password);
       }catch(Exception e){
          System.err.println (e.getMessage ());
          return null;
@@ -426,84 +2433,147 @@ public class Hotel {
 // Rest of the functions definition go in here
 
    public static void viewHotels(Hotel esql) {
-  	try{
+      try{
+         System.out.print("\tEnter Latatude:");
+         double lat = Double.parseDouble(in.readLine().trim());
+         System.out.print("\tEnter Longitude:");
+         double lng = Double.parseDouble(in.readLine().trim());
+         printHotels(esql.findHotelsWithin(lat, lng, 30), lat, lng);
+         return;
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         return;
+      }
+
+   }
+
+   public static void viewNearestHotels(Hotel esql) {
+      try{
          System.out.print("\tEnter Latatude:");
-         String Lat = in.readLine();
+         double lat = Double.parseDouble(in.readLine().trim());
          System.out.print("\tEnter Longitude:");
-         String Long = in.readLine();
-	 String query = String.format("SELECT hotelID\t, hotelName\t,latitude\t,longitude\t,dateEstablished FROM Hotel WHERE calculate_distance(latitude, longitude, '%s', '%s') <= 30", Lat, Long);
-	List<List<String>> results = esql.executeQueryAndReturnResult(query);
-        System.out.println("Hotel_ID\tHotel_Name\t \t \tLatitude\tLongitude\tDate_Established");
-	for (List<String> row : results) {
-             System.out.printf("%s\t \t%s\t%s\t%s\t%s\n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4));
-        }
-	System.out.println("Total row(s): " + results.size());
-         return;
-	}catch(Exception e){
+         double lng = Double.parseDouble(in.readLine().trim());
+         System.out.print("\tEnter number of hotels:");
+         int k = parseInt(in.readLine());
+         printHotels(esql.findNearestHotels(lat, lng, k), lat, lng);
+         return;
+      }catch(Exception e){
          System.err.println (e.getMessage ());
          return;
       }
+   }
 
+   private static void printHotels(List<HotelEntry> hotels, double lat, double lng) {
+      System.out.println("Hotel_ID\tHotel_Name\t \t \tLatitude\tLongitude\tDate_Established\tDistance");
+      for (HotelEntry hotel : hotels) {
+         System.out.printf("%s\t \t%s\t%s\t%s\t%s\t%.2f\n", hotel.hotelID, hotel.hotelName, hotel.latitude, hotel.longitude,
+                           hotel.dateEstablished, hotel.distanceTo(lat, lng));
+      }
+      System.out.println("Total row(s): " + hotels.size());
    }
+
    public static void viewRooms(Hotel esql) {
-  	try{
+      try{
          System.out.print("\tEnter HotelId:");
-         String Id = in.readLine();
-	 System.out.print("\tEnter Date(Month/Day/Year):");
-         String Date = in.readLine();
-	 String query = String.format("SELECT Rooms.roomNumber, Rooms.price, CASE WHEN EXISTS (SELECT 1 FROM RoomBookings WHERE RoomBookings.hotelID = '%s' AND RoomBookings.roomNumber = Rooms.roomNumber AND RoomBookings.bookingDate = '%s') THEN 'Booked' ELSE 'Available' END AS availability FROM Rooms WHERE Rooms.hotelID = '%s'",Id,Date,Id);
-	 List<List<String>> results = esql.executeQueryAndReturnResult(query);
-        System.out.println("RoomNumber\tPrice \tAvalability");
-        for (List<String> row : results) {
-             System.out.printf("%s\t \t%s\t%s\n", row.get(0), row.get(1), row.get(2));
-        }
-        System.out.println("Total row(s): " + results.size());
-         return;
-        }catch(Exception e){
+         int id = parseInt(in.readLine());
+         System.out.print("\tEnter Date(Month/Day/Year):");
+         java.sql.Date date = parseDate(in.readLine());
+         List<List<String>> results = esql.roomAvailability(id, date);
+         System.out.println("RoomNumber\tPrice \tAvalability");
+         for (List<String> row : results) {
+            System.out.printf("%s\t \t%s\t%s\n", row.get(0), row.get(1), row.get(2));
+         }
+         System.out.println("Total row(s): " + results.size());
+         return;
+      }catch(Exception e){
          System.err.println (e.getMessage ());
          return;
       } 
    }
 
+   public static void searchFreeRoomsNearby(Hotel esql) {
+      try{
+         System.out.print("\tEnter Latatude:");
+         double lat = Double.parseDouble(in.readLine().trim());
+         System.out.print("\tEnter Longitude:");
+         double lng = Double.parseDouble(in.readLine().trim());
+         System.out.print("\tEnter Date(Month/Day/Year) of the first night:");
+         java.sql.Date first = parseDate(in.readLine());
+         System.out.print("\tEnter Date(Month/Day/Year) of the last night:");
+         java.sql.Date last = parseDate(in.readLine());
+         System.out.print("\tHighest price a night (blank for any):");
+         String price = in.readLine().trim();
+         System.out.print("\tSort by 1. distance 2. price:");
+         SearchOrder order = parseInt(in.readLine()) == 2 ? SearchOrder.PRICE : SearchOrder.DISTANCE;
+         int maxPrice = price.isEmpty() ? Integer.MAX_VALUE : parseInt(price);
+
+         Page page = null;
+         do {
+            page = esql.searchFreeRooms(lat, lng, 30, first, last, maxPrice, order, 20, page);
+            System.out.println("Hotel ID\tHotel Name\t \t \t \tRoom Number\tPrice\tDistance");
+            for (List<String> row : page.rows)
+               System.out.printf("%s\t \t%s\t%s\t \t%s\t%s\n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4));
+         } while (page.hasNext() && wantsNextPage());
+         return;
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         return;
+      }
+   }
+   public static void viewRoomsFreeForStay(Hotel esql) {
+      try{
+         System.out.print("\tEnter HotelId:");
+         int id = parseInt(in.readLine());
+         System.out.print("\tEnter Date(Month/Day/Year) of the first night:");
+         java.sql.Date first = parseDate(in.readLine());
+         System.out.print("\tEnter Date(Month/Day/Year) of the last night:");
+         java.sql.Date last = parseDate(in.readLine());
+         List<Integer> rooms = esql.findRoomsFreeBetween(id, first, last);
+         System.out.println("Rooms free every night: " + rooms);
+         System.out.println("Total row(s): " + rooms.size());
+         return;
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         return;
+      }
+   }
+
+   public static void checkAvailabilityIndex(Hotel esql) {
+      try{
+         System.out.print("\tEnter HotelId:");
+         int id = parseInt(in.readLine());
+         System.out.print("\tEnter Date(Month/Day/Year):");
+         java.sql.Date date = parseDate(in.readLine());
+         List<String> mismatches = esql.verifyAvailability(id, date);
+         for (String mismatch : mismatches)
+            System.out.println(mismatch);
+         System.out.println(mismatches.isEmpty() ? "Availability index matches the database" : "Mismatch(es): " + mismatches.size());
+         return;
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         return;
+      }
+   }
+
    public static void bookRooms(Hotel esql,String user) {
-   	try{
-	 System.out.print("\tEnter HotelId:");
-         String Id = in.readLine();
-	 System.out.print("\tEnter Room Number:");
-         String Room = in.readLine();
-	 System.out.print("\tEnter Date(Month/Day/Year) of your stay:");
-         String Date = in.readLine();
-	 String query = String.format("SELECT * FROM RoomBookings WHERE hotelID = '%s' AND roomNumber = '%s'  AND bookingDate = '%s' ",Id,Room,Date);
-	int check = esql.executeQuery(query);
-	if(check > 0){//checks if its already booked
-   System.out.print("\tRoom is already booked:\n");
-   return;
-	}else{
-	query = String.format("SELECT * FROM Hotel WHERE hotelID = '%s'",Id);
-	check = esql.executeQuery(query);
-	if(check > 0){//checks if hotel exists
-	query = String.format("SELECT * FROM Rooms WHERE hotelID = '%s' AND roomNumber = '%s'",Id,Room);
-   check = esql.executeQuery(query);
-	if(check > 0){//checks if room exists
-
-    query = String.format("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES ('%s','%s', '%s', '%s')", user, Id, Room, Date);
-
-   esql.executeUpdate(query);
-   System.out.println ("Room Booked\n");
-
-   query = String.format("SELECT price FROM Rooms WHERE hotelID = '%s' AND roomNumber = '%s'",Id,Room);
-   List<List<String>> results = esql.executeQueryAndReturnResult(query);
-   for (List<String> row : results) {
-             System.out.printf("Price: %s\n", row.get(0));
-   }
-   return;
-   }
-   System.out.print("\tThe Room does not exist in that hotel:\n");
-	return;
-	}
-	System.out.print("\tThat Hotel does not exist nice try bud:\n");
-	return;
-	}
+      try{
+         System.out.print("\tEnter HotelId:");
+         int id = parseInt(in.readLine());
+         System.out.print("\tEnter Room Number:");
+         int room = parseInt(in.readLine());
+         System.out.print("\tEnter Date(Month/Day/Year) of your stay:");
+         java.sql.Date date = parseDate(in.readLine());
+         Hotel.BookingResult result = esql.bookRoom(parseInt(user), id, room, date);
+         switch (result.status){
+            case ALREADY_BOOKED: System.out.print("\tRoom is already booked:\n"); break;
+            case NO_SUCH_HOTEL: System.out.print("\tThat Hotel does not exist nice try bud:\n"); break;
+            case NO_SUCH_ROOM: System.out.print("\tThe Room does not exist in that hotel:\n"); break;
+            default:
+               System.out.println ("Room Booked\n");
+               System.out.printf("Price: %s\n", result.price);
+               break;
+         }
+         return;
       }catch(Exception e){
          System.err.println (e.getMessage ());
          return;
@@ -511,16 +2581,59 @@ public class Hotel {
 
    }
 
+   public static void bookRoomsForStay(Hotel esql,String user) {
+      try{
+         System.out.print("\tEnter HotelId:");
+         int id = parseInt(in.readLine());
+         System.out.print("\tEnter Room Number(s), comma separated:");
+         String[] rooms = in.readLine().split(",");
+         System.out.print("\tEnter Date(Month/Day/Year) of the first night:");
+         java.sql.Date first = parseDate(in.readLine());
+         System.out.print("\tEnter number of nights:");
+         int nights = parseInt(in.readLine());
+
+         List<Hotel.BookingRequest> requests = new ArrayList<Hotel.BookingRequest>();
+         for (String room : rooms) {
+            Calendar night = Calendar.getInstance();
+            night.setTime(first);
+            for (int n = 0; n < nights; ++n) {
+               requests.add(new Hotel.BookingRequest(id, parseInt(room), new java.sql.Date(night.getTimeInMillis())));
+               night.add(Calendar.DAY_OF_MONTH, 1);
+            }
+         }
+
+         List<Hotel.BookingResult> results = esql.bookRoomBatch(parseInt(user), requests);
+         boolean booked = !results.isEmpty() && results.get(0).status == Hotel.BookingResult.Status.BOOKED;
+         long total = 0;
+         System.out.println("RoomNumber\tDate\t \tResult");
+         for (int i = 0; i < results.size(); ++i) {
+            Hotel.BookingResult result = results.get(i);
+            System.out.printf("%s\t \t%s\t%s\n", requests.get(i).roomNumber, requests.get(i).date, result.status);
+            total += Math.max(result.price, 0);
+         }
+         if (booked)
+            System.out.println("All rooms booked, total price: " + total + "\n");
+         else
+            System.out.println("Nothing was booked\n");
+         return;
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         return;
+      }
+   }
+
    public static void viewRecentBookingsfromCustomer(Hotel esql,String user) {
       try{
-      String query = String.format("SELECT rb.hotelID, rb.roomNumber, r.price, rb.bookingDate FROM RoomBookings rb JOIN Rooms r ON rb.hotelID = r.hotelID AND rb.roomNumber = r.roomNumber WHERE rb.customerID = '%s' ORDER BY rb.bookingDate DESC LIMIT 5;",user);
-       List<List<String>> results = esql.executeQueryAndReturnResult(query);
-       System.out.printf("HotelId\tRoomNumber\tPrice\tbookingDate\n");
-   for (List<String> row : results) {
-             System.out.printf("%s\t%s\t \t%s\t%s\n", row.get(0),row.get(1),row.get(2),row.get(3));
-   }
-   return;
-  }
+         Page page = null;
+         do {
+            page = esql.customerBookings(parseInt(user), 5, page);
+            System.out.printf("HotelId\tRoomNumber\tPrice\tbookingDate\n");
+            for (List<String> row : page.rows) {
+               System.out.printf("%s\t%s\t \t%s\t%s\n", row.get(0),row.get(1),row.get(2),row.get(3));
+            }
+         } while (page.hasNext() && wantsNextPage());
+         return;
+      }
       catch(Exception e){
          System.err.println (e.getMessage ());
          return;
@@ -532,49 +2645,32 @@ public class Hotel {
    public static void updateRoomInfo(Hotel esql, String cID) {
       try{
          System.out.print("\tEnter hotel ID:");
-         String hID = in.readLine();
+         int hID = parseInt(in.readLine());
 
-         String check = String.format("SELECT managerUserID FROM Hotel WHERE hotelID = %s", hID);
-         List<List<String>> bl = esql.executeQueryAndReturnResult(check);
-         
-         int tmp = esql.executeQuery(check); //Checks if hotel id exists
-         if(tmp == 0){System.out.print("hotel ID does not exist\n");return;}
+         Integer manager = esql.getHotelManager(hID); //Checks if hotel id exists
+         if(manager == null){System.out.print("hotel ID does not exist\n");return;}
 
          //checks if manager manages that hotel
-         if(!bl.get(0).get(0).equals(cID))
+         if(manager != parseInt(cID))
          {
             System.out.print("Don't have access to this hotel. \n");
             return;  
          }
 
          System.out.print("\tEnter room number:");
-         String rNum = in.readLine();
+         int rNum = parseInt(in.readLine());
          
          
-         String check2 = String.format("SELECT roomNumber FROM Rooms WHERE roomNumber = %s", rNum);
-         int tmp2 = esql.executeQuery(check2); //Checks if room number exists
-         if(tmp2 == 0){System.out.print("Room number does not exist\n");return;}
+         //Checks if room number exists in that hotel
+         if(!esql.roomExists(hID, rNum)){System.out.print("Room number does not exist\n");return;}
          
          System.out.print("\tEnter new price:");
-	      String pricetmp = in.readLine();		
+         int price = parseInt(in.readLine());
          System.out.print("\tEnter new URL:");
-		   String imagetmp = in.readLine();		
-
+         String imagetmp = in.readLine();
 
-         String query = String.format("UPDATE Rooms SET price = %s, imageURL = %s WHERE hotelID = %s AND roomNumber = %s", pricetmp, imagetmp, hID, rNum);
-    
-	      esql.executeUpdate(query);
+         if(!esql.updateRoom(parseInt(cID), hID, rNum, price, imagetmp)){System.out.print("Room number does not exist\n");return;}
          System.out.println("Room updated!\n");
-
-         /*String uNum = String.format("SELECT updateNumber FROM RoomUpdatesLog ORDER BY updateNumber DESC LIMIT 1");
-	      List<List<String>> upNum = esql.executeQueryAndReturnResult(uNum);
-         int reqNum = Integer.parseInt(rNum.get(0).get(0));
-         reqNum += 1;
-         String reqNum2 = Integer.toString(reqNum);*/
-
-         String query2 = String.format("INSERT INTO RoomUpdatesLog (managerID,hotelID,roomNumber,updatedON) VALUES ( %s, %s, %s, CURRENT_TIMESTAMP)", cID, hID, rNum);
-    
-	      esql.executeUpdate(query2);
          System.out.println("Logs updated!\n");
 
     }catch(Exception e){
@@ -586,15 +2682,16 @@ public class Hotel {
    public static void viewRecentUpdates(Hotel esql, String cID) {
    try{
 
-      String query = String.format("SELECT * FROM RoomUpdatesLog WHERE managerID = %s ORDER BY updatedOn DESC LIMIT 5", cID);
-      
-      List<List<String>> results = esql.executeQueryAndReturnResult(query);
+      Page page = null;
+      do {
+         page = esql.managerUpdates(parseInt(cID), 5, page);
          System.out.println("Printing last 5 updates: \n");
          System.out.println("Update Number\tHotel ID\tRoom Number\tUpdate Date");
-      for (List<String> row : results) {
-               System.out.printf("%s\t \t%s\t \t%s\t \t%s\t\n", row.get(0), row.get(2), row.get(3), row.get(4));
+         for (List<String> row : page.rows) {
+               System.out.printf("%s\t \t%s\t \t%s\t \t%s\t\n", row.get(0), row.get(1), row.get(2), row.get(3));
          }
-      System.out.println("Total row(s): " + results.size());
+         System.out.println("Total row(s): " + page.rows.size());
+      } while (page.hasNext() && wantsNextPage());
             return;
       }catch(Exception e){
             System.err.println (e.getMessage ());
@@ -605,18 +2702,30 @@ public class Hotel {
    public static void viewBookingHistoryofHotel(Hotel esql, String cID) {
       try{
          System.out.print("\tEnter start date of bookings:");
-         String st = in.readLine();
+         java.sql.Date st = parseDate(in.readLine());
          System.out.print("\tEnter end date of bookings:");
-         String nd = in.readLine();
+         java.sql.Date nd = parseDate(in.readLine());
+         System.out.print("\tRows per page (blank for all):");
+         String pageSize = in.readLine().trim();
+
+         if (!pageSize.isEmpty()) {
+            Page page = null;
+            do {
+               page = esql.bookingHistory(parseInt(cID), st, nd, parseInt(pageSize), page);
+               System.out.println("Booking ID\t Name\t \t \t \t \t \t Hotel ID\tRoom Number\t Booking Date");
+               for (List<String> row : page.rows)
+                  System.out.printf("%s\t \t %s\t %s\t%s\t %s\t\n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4));
+            } while (page.hasNext() && wantsNextPage());
+            return;
+         }
 
-         String query = String.format("SELECT rb.bookingID, u.name, rb.hotelID, rb.roomNumber, rb.bookingDate FROM RoomBookings rb JOIN Users u ON rb.customerID = u.userID JOIN Hotel h ON h.hotelID = rb.hotelID WHERE h.managerUserID = '%s' AND rb.bookingDate >= '%s' AND rb.bookingDate <= '%s'",cID, st, nd);
-    
-	List<List<String>> results = esql.executeQueryAndReturnResult(query);
-        System.out.println("Booking ID\t Name\t \t \t \t \t \t Hotel ID\tRoom Number\t Booking Date");
-    for (List<String> row : results) {
-             System.out.printf("%s\t \t %s\t %s\t%s\t %s\t\n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4));
-        }
-    System.out.println("Total row(s): " + results.size());
+         System.out.println("Booking ID\t Name\t \t \t \t \t \t Hotel ID\tRoom Number\t Booking Date");
+         int rows = esql.streamBookingHistory(parseInt(cID), st, nd, new Hotel.RowHandler() {
+            public void handle(ResultSet row) throws SQLException {
+               System.out.printf("%d\t \t %s\t %d\t%d\t %s\t\n", row.getInt(1), row.getString(2), row.getInt(3), row.getInt(4), row.getDate(5));
+            }
+         });
+         System.out.println("Total row(s): " + rows);
          return;
     }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -624,27 +2733,59 @@ public class Hotel {
       }
    }
    
+   public static void viewRevenueReport(Hotel esql, String cID) {
+      try{
+         System.out.print("\tEnter hotel ID:");
+         int hID = parseInt(in.readLine());
+
+         Integer manager = esql.getHotelManager(hID); //Checks if hotel id exists
+         if(manager == null){System.out.print("hotel ID does not exist\n");return;}
+
+         //checks if manager manages that hotel
+         if(manager != parseInt(cID))
+         {
+            System.out.print("Don't have access to this hotel. \n");
+            return;
+         }
+
+         System.out.print("\tEnter Date(Month/Day/Year) of the first night:");
+         java.sql.Date first = parseDate(in.readLine());
+         System.out.print("\tEnter Date(Month/Day/Year) of the last night:");
+         java.sql.Date last = parseDate(in.readLine());
+         System.out.print("\tOne row per 1. night 2. month:");
+         AnalyticsEngine.Grouping grouping = parseInt(in.readLine()) == 2 ? AnalyticsEngine.Grouping.MONTH : AnalyticsEngine.Grouping.DAY;
+
+         List<List<String>> results = esql.revenueReport(hID, first, last, grouping);
+         System.out.println("Period\t \tRoom Nights\tRevenue\tOccupancy %\tADR");
+         for (List<String> row : results) {
+            System.out.printf("%s\t%s\t \t%s\t%s\t \t%s\n", row.get(0), row.get(1), row.get(2), row.get(3), row.get(4));
+         }
+         System.out.println("Total row(s): " + results.size());
+         return;
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         return;
+      }
+   }
    public static void viewRegularCustomers(Hotel esql, String cID) {
       try{
          System.out.print("\tEnter hotel ID:");
-         String hID = in.readLine();
+         int hID = parseInt(in.readLine());
 
-         String check = String.format("SELECT managerUserID FROM Hotel WHERE hotelID = %s", hID);
-         List<List<String>> bl = esql.executeQueryAndReturnResult(check);
-         
-         int tmp = esql.executeQuery(check); //Checks if hotel id exists
-         if(tmp == 0){System.out.print("hotel ID does not exist\n");return;}
+         Integer manager = esql.getHotelManager(hID); //Checks if hotel id exists
+         if(manager == null){System.out.print("hotel ID does not exist\n");return;}
          
          //checks if manager manages that hotel
-         if(!bl.get(0).get(0).equals(cID))
+         if(manager != parseInt(cID))
          {
             System.out.print("Don't have access to this hotel. \n");
             return;  
          }
 
-         String query = String.format("SELECT u.name, COUNT(*) AS num_book FROM USERS u JOIN RoomBookings rb ON rb.customerID = u.userID WHERE rb.hotelID = %s AND u.userType = 'customer' GROUP BY u.name ORDER BY num_book DESC LIMIT 5", hID);
-    
-	      List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         System.out.print("\tBookings of the last how many days (30, 90, 365; blank for all time):");
+         String window = in.readLine().trim();
+         List<List<String>> results = window.isEmpty() ? esql.regularCustomers(hID, 5)
+                                                       : esql.regularCustomers(hID, 5, parseInt(window));
          System.out.println("User Name\t \t \t \t \tCount");
          for (List<String> row : results) {
             System.out.printf("%s\t%s\t\n", row.get(0), row.get(1));
@@ -661,49 +2802,26 @@ public class Hotel {
 public static void placeRoomRepairRequests(Hotel esql, String cID) {
       try{
          System.out.print("\tEnter hotel ID:");
-         String hID = in.readLine();
-
-         String check = String.format("SELECT managerUserID FROM Hotel WHERE hotelID = %s", hID);
+         int hID = parseInt(in.readLine());
 
-         List<List<String>> bl = esql.executeQueryAndReturnResult(check);
-      
-         int tmp = esql.executeQuery(check); //Checks if hotel id exists
-         if(tmp == 0){System.out.print("hotel ID does not exist\n");return;}
+         Integer manager = esql.getHotelManager(hID); //Checks if hotel id exists
+         if(manager == null){System.out.print("hotel ID does not exist\n");return;}
 
          //checks if manager manages that hotel
-         if(!bl.get(0).get(0).equals(cID))
+         if(manager != parseInt(cID))
          {
             System.out.print("Don't have access to this hotel. \n");
             return;  
          }
 
-         System.out.print("\tEnter room number:");
-         String rmNum = in.readLine();
+         System.out.print("\tEnter room numbers (e.g. 101 or 101,105 or 101-120):");
+         List<Integer> rooms = parseRoomNumbers(in.readLine());
          System.out.print("\tEnter company ID:");
-         String cmpID = in.readLine();
-
-	/* add one to repaid id and request id*/
-         /*String rqNum = String.format("SELECT requestNumber FROM RoomRepairRequests ORDER BY requestNumber DESC LIMIT 1");
-         String rpID = String.format("SELECT repairID FROM RoomRepairs ORDER BY repairID DESC LIMIT 1");
-	      List<List<String>> rNum = esql.executeQueryAndReturnResult(rqNum);
-	      List<List<String>> rID = esql.executeQueryAndReturnResult(rpID);
-         int reqNum = Integer.parseInt(rNum.get(0).get(0));
-         int repID = Integer.parseInt(rID.get(0).get(0));
-         reqNum += 1;
-         repID += 1;
-         String reqNum2 = Integer.toString(reqNum);
-         String repID2 = Integer.toString(repID);*/
-     
-     
-         String query1 = String.format("INSERT INTO RoomRepairs VALUES (%s, %s, %s, CURRENT_TIMESTAMP)", cmpID, hID, rmNum);
-         esql.executeQuery(query1);
-
-         String query2 = String.format("INSERT INTO RoomRepairRequests VALUES (%s, %s)", cID, cmpID);
-         esql.executeQuery(query2);
-	/*esql.executeQuery*/
-    
-
-    System.out.println("Room repair request sent");
+         int cmpID = parseInt(in.readLine());
+
+         List<Integer> repairs = esql.requestRepairs(parseInt(cID), hID, rooms, cmpID);
+
+    System.out.println("Room repair request sent for " + repairs.size() + " room(s), repair IDs " + repairs);
          return;
     }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -713,39 +2831,34 @@ public static void placeRoomRepairRequests(Hotel esql, String cID) {
 
    public static void viewRoomRepairHistory(Hotel esql, String cID) {
       try{
-     String query = String.format("SELECT rr.repairID, ru.hotelID, ru.roomNumber, ru.updatedOn FROM RoomUpdatesLog ru JOIN Hotel h ON h.hotelID = ru.hotelID JOIN RoomRepairRequests rr ON rr.managerID = ru.managerID WHERE ru.managerID = %s ",cID);
-    
-	List<List<String>> results = esql.executeQueryAndReturnResult(query);
-        System.out.println("Company ID\t Hotel ID\t Room Number\t Repair Date");
-    for (List<String> row : results) {
-             System.out.printf("%s\t \t %s\t \t %s\t \t %s\t\n", row.get(0), row.get(1), row.get(2), row.get(3));
-        }
-    System.out.println("Total row(s): " + results.size());
+         System.out.print("\tEnter hotel ID (blank for all):");
+         String hotel = in.readLine().trim();
+         System.out.print("\tEnter room number (blank for all):");
+         String room = in.readLine().trim();
+         System.out.print("\tEnter company ID (blank for all):");
+         String company = in.readLine().trim();
+         System.out.print("\tEnter first repair date (blank for any):");
+         String st = in.readLine().trim();
+         System.out.print("\tEnter last repair date (blank for any):");
+         String nd = in.readLine().trim();
+
+         Page page = null;
+         do {
+            page = esql.repairHistory(parseInt(cID), hotel.isEmpty() ? null : parseInt(hotel), room.isEmpty() ? null : parseInt(room),
+                                      company.isEmpty() ? null : parseInt(company), st.isEmpty() ? null : parseDate(st),
+                                      nd.isEmpty() ? null : parseDate(nd), 10, page);
+            System.out.println("Repair ID\t Hotel ID\t Room Number\t Company ID\t Company\t \t \t \t \t \t Repair Date");
+            for (List<String> row : page.rows) {
+               System.out.printf("%s\t \t %s\t \t %s\t \t %s\t \t %s\t %s\n", row.get(1), row.get(2), row.get(3), row.get(4), row.get(5), row.get(6));
+            }
+            System.out.println("Total row(s): " + page.rows.size());
+         } while (page.hasNext() && wantsNextPage());
          return;
     }catch(Exception e){
          System.err.println (e.getMessage ());
          return;
       }
    }
-
-   public static String Getusertype(Hotel esql,String user){
-    try{
-      String query = String.format("SELECT userType FROM Users WHERE userID = '%s'",user);
-      List<List<String>> results = esql.executeQueryAndReturnResult(query);
-       
-      for (List<String> row : results) {
-      //System.out.printf("%s\n",results.get(0).get(0));
-      //System.out.printf("%s\n",results.get(0).get(0).length());
-
-         return row.get(0);
-      }
-      return null;
-    }
-      catch(Exception e){
-         System.err.println (e.getMessage ());
-         return null;
-      } 
-   }
    }
    //end Hotel
 
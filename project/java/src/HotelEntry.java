@@ -0,0 +1,38 @@
+/**
+ * One row of the Hotel table, as held by the in-memory indexes.
+ * Instances are immutable so they can be shared between threads and
+ * snapshots without copying.
+ */
+public class HotelEntry {
+
+   public final int hotelID;
+   public final String hotelName;
+   public final double latitude;
+   public final double longitude;
+   public final java.sql.Date dateEstablished;
+   public final int managerUserID;
+
+   public HotelEntry(int hotelID, String hotelName, double latitude, double longitude,
+                     java.sql.Date dateEstablished, int managerUserID) {
+      this.hotelID = hotelID;
+      this.hotelName = hotelName;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.dateEstablished = dateEstablished;
+      this.managerUserID = managerUserID;
+   }
+
+   /**
+    * @return euclidean distance from this hotel to the given point
+    */
+   public double distanceTo(double lat, double lng) {
+      return Hotel.calculateDistance(latitude, longitude, lat, lng);
+   }
+
+   /**
+    * @return false when the hotel has no coordinates; they are NaN then
+    */
+   public boolean located() {
+      return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+   }
+}//end HotelEntry
@@ -0,0 +1,631 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the operations of the Hotel menu over HTTP, so one process can
+ * serve many kiosk and web clients at once instead of one console user.
+ *
+ * Requests take their arguments as query parameters or as a form encoded
+ * POST body and get JSON back.  POST /login returns a session token that
+ * the other calls pass in an "Authorization: Bearer" header (or a token
+ * parameter); sessions expire after SESSION_TTL_MS without use.  Failures
+ * come back as {"error": "..."} with a 4xx or 5xx status.
+ * GET /metrics returns the query metrics of the Hotel in the Prometheus
+ * text format.
+ *
+ * Each request runs on its own virtual thread when the JVM has them
+ * (Java 21 and later), otherwise on a fixed pool of WORKER_THREADS
+ * threads.  Either way requests share the Hotel's connection pool, which
+ * bounds how many of them are in the database at the same time.
+ *
+ * With replica ports given, read-only statements go to those replicas
+ * while they keep up (see ReplicaRouter).  A session remembers when it
+ * last wrote, so its next requests read their own writes whichever
+ * thread serves them.
+ *
+ * With shard ports given, the hotels are spread over those databases and
+ * the one named by port holds Users (see ShardRouter).  A shard given as
+ * port:firstHotelID holds a range of hotelIDs, one given as a bare port
+ * takes hotels by hash.  POST /shards/move moves a hotel to another shard
+ * while it is being served, POST /shards/prune deletes from each shard the
+ * hotels placed elsewhere; only admins may call them.
+ *
+ * Usage: java HotelService <dbname> <port> <user> [httpPort] [maxConnections] [auditJournal] [replicaPorts] [shardPorts]
+ */
+public class HotelService {
+
+   public static final int DEFAULT_HTTP_PORT = 8080;
+   public static final int DEFAULT_MAX_CONNECTIONS = 20;
+   // request threads when there are no virtual threads
+   public static final int WORKER_THREADS = 256;
+   public static final long SESSION_TTL_MS = 30 * 60 * 1000;
+   // rows per page of the history listings
+   public static final int PAGE_SIZE = 20;
+
+   /**
+    * A failed request, reported to the client with its HTTP status.
+    */
+   static class ApiException extends Exception {
+      private static final long serialVersionUID = 1L;
+
+      final int status;
+
+      ApiException(int status, String message) {
+         super(message);
+         this.status = status;
+      }
+   }//end ApiException
+
+   /**
+    * A logged in user.
+    */
+   static class Session {
+      final UserEntry user;
+      volatile long lastUsed = System.currentTimeMillis();
+      // when a request of this session last wrote to the primary
+      volatile long lastWrite = 0;
+
+      Session(UserEntry user) {
+         this.user = user;
+      }
+   }//end Session
+
+   /**
+    * The parameters and session of one request.
+    */
+   class Request {
+      final Map<String, String> params;
+      final String token;
+      Session session;
+
+      Request(Map<String, String> params, String token) {
+         this.params = params;
+         this.token = token;
+      }
+
+      String get(String name) throws ApiException {
+         String value = params.get(name);
+         if (value == null || value.trim().isEmpty())
+            throw new ApiException(400, "Missing parameter " + name);
+         return value.trim();
+      }//end get
+
+      String get(String name, String fallback) {
+         String value = params.get(name);
+         return value == null || value.trim().isEmpty() ? fallback : value.trim();
+      }
+
+      int getInt(String name) throws ApiException {
+         try {
+            return Integer.parseInt(get(name));
+         }catch (NumberFormatException e) {
+            throw new ApiException(400, name + " must be a number");
+         }//end try
+      }//end getInt
+
+      double getDouble(String name) throws ApiException {
+         try {
+            return Double.parseDouble(get(name));
+         }catch (NumberFormatException e) {
+            throw new ApiException(400, name + " must be a number");
+         }//end try
+      }//end getDouble
+
+      java.sql.Date getDate(String name) throws ApiException {
+         try {
+            return Hotel.parseDate(get(name));
+         }catch (ParseException e) {
+            throw new ApiException(400, name + " must be a date (MM/dd/yyyy or yyyy-MM-dd)");
+         }//end try
+      }//end getDate
+
+      UserEntry user() throws ApiException {
+         Session session = token == null ? null : sessions.get(token);
+         if (session == null || System.currentTimeMillis() - session.lastUsed > SESSION_TTL_MS)
+            throw new ApiException(401, "Log in first");
+         session.lastUsed = System.currentTimeMillis();
+         if (this.session == null) {
+            this.session = session;
+            esql.getReplicaRouter().setLastWrite(session.lastWrite);
+         }//end if
+         return session.user;
+      }//end user
+
+      UserEntry manager() throws ApiException {
+         UserEntry user = user();
+         if (!user.isManager())
+            throw new ApiException(403, "Only managers may do this");
+         return user;
+      }//end manager
+
+      // the manager, when the hotel exists and is theirs
+      UserEntry managerOf(int hotelID) throws ApiException, SQLException {
+         UserEntry user = manager();
+         Integer manager = esql.getHotelManager(hotelID);
+         if (manager == null)
+            throw new ApiException(404, "hotel ID does not exist");
+         if (manager != user.userID)
+            throw new ApiException(403, "Don't have access to this hotel");
+         return user;
+      }//end managerOf
+   }//end Request
+
+   /**
+    * One operation; returns the JSON body of a successful response.
+    */
+   abstract class Endpoint implements HttpHandler {
+      final String method;
+
+      Endpoint(String method) {
+         this.method = method;
+      }
+
+      abstract String call(Request request) throws ApiException, SQLException;
+
+      public void handle(HttpExchange exchange) throws IOException {
+         int status = 200;
+         String body;
+         Request request = null;
+         try {
+            if (!exchange.getRequestMethod().equalsIgnoreCase(method))
+               throw new ApiException(405, "Use " + method);
+            if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath()))
+               throw new ApiException(404, "No such operation");
+            request = parse(exchange);
+            body = call(request);
+         }catch (ApiException e) {
+            status = e.status;
+            body = "{\"error\":" + quote(e.getMessage()) + "}";
+         }catch (NumberFormatException e) {
+            status = 400;
+            body = "{\"error\":" + quote("Not a number: " + e.getMessage()) + "}";
+         }catch (Exception e) {
+            status = 500;
+            body = "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}";
+         }finally {
+            // the worker thread serves other sessions next
+            ReplicaRouter router = esql.getReplicaRouter();
+            if (request != null && request.session != null)
+               request.session.lastWrite = Math.max(request.session.lastWrite, router.getLastWrite());
+            router.setLastWrite(0);
+         }//end try
+         byte[] bytes = body.getBytes("UTF-8");
+         exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+         exchange.sendResponseHeaders(status, bytes.length);
+         OutputStream out = exchange.getResponseBody();
+         try {
+            out.write(bytes);
+         }finally {
+            out.close();
+         }//end try
+      }//end handle
+   }//end Endpoint
+
+   private final Hotel esql;
+   private final Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+   private final SecureRandom random = new SecureRandom();
+   private final Timer sweeper = new Timer("session-sweeper", true);
+   private HttpServer server;
+   private ExecutorService workers;
+
+   public HotelService(Hotel esql) {
+      this.esql = esql;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + HotelService.class.getName() +
+                            " <dbname> <port> <user> [httpPort] [maxConnections] [auditJournal] [replicaPorts] [shardPorts]");
+         return;
+      }//end if
+      int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_HTTP_PORT;
+      int maxConnections = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MAX_CONNECTIONS;
+
+      Class.forName("org.postgresql.Driver").newInstance();
+      final Hotel esql = new Hotel(args[0], args[1], args[2], "", 1, maxConnections);
+      if (args.length > 5 && !args[5].isEmpty())
+         esql.setAuditJournal(new java.io.File(args[5]));
+      // comma separated, such as 5433,5434
+      if (args.length > 6)
+         for (String replicaPort : args[6].split(","))
+            if (!replicaPort.trim().isEmpty())
+               esql.addReplica(replicaPort.trim());
+      // comma separated, such as 5441,5442 or 5441:1,5442:5000
+      if (args.length > 7)
+         for (String shard : args[7].split(",")) {
+            String[] portAndFirst = shard.trim().split(":");
+            if (portAndFirst[0].isEmpty())
+               continue;
+            if (portAndFirst.length > 1)
+               esql.addShard(portAndFirst[0], Integer.parseInt(portAndFirst[1]));
+            else
+               esql.addShard(portAndFirst[0]);
+         }//end for
+      final HotelService service = new HotelService(esql);
+      service.start(httpPort);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         public void run() {
+            service.stop();
+            esql.cleanup();
+         }
+      });
+      System.err.println("Serving on port " + httpPort + (service.usesVirtualThreads() ? " with virtual threads" : ""));
+   }//end main
+
+   /**
+    * Starts listening for requests.
+    */
+   public void start(int port) throws IOException {
+      server = HttpServer.create(new InetSocketAddress(port), 1024);
+      workers = newWorkers();
+      server.setExecutor(workers);
+      addEndpoints();
+      server.start();
+      sweeper.schedule(new TimerTask() {
+         public void run() {
+            long now = System.currentTimeMillis();
+            for (Iterator<Session> it = sessions.values().iterator(); it.hasNext(); )
+               if (now - it.next().lastUsed > SESSION_TTL_MS)
+                  it.remove();
+         }
+      }, 60000, 60000);
+   }//end start
+
+   /**
+    * Stops listening, letting running requests finish for up to a second.
+    */
+   public void stop() {
+      sweeper.cancel();
+      if (server != null)
+         server.stop(1);
+      if (workers != null)
+         workers.shutdown();
+   }//end stop
+
+   /**
+    * @return true when requests run on virtual threads
+    */
+   public boolean usesVirtualThreads() {
+      return workers != null && !(workers instanceof java.util.concurrent.ThreadPoolExecutor);
+   }
+
+   // Executors.newVirtualThreadPerTaskExecutor() is looked up by reflection
+   // so the service still compiles and runs on JVMs without it
+   private static ExecutorService newWorkers() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }catch (Exception e) {
+         return Executors.newFixedThreadPool(WORKER_THREADS);
+      }//end try
+   }//end newWorkers
+
+   private void addEndpoints() {
+      // plain text for Prometheus to scrape, no session needed
+      server.createContext("/metrics", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            byte[] bytes = esql.getQueryMetrics().dumpPrometheus().getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+               out.write(bytes);
+            }finally {
+               out.close();
+            }//end try
+         }
+      });
+      server.createContext("/login", new Endpoint("POST") {
+         String call(Request r) throws ApiException, SQLException {
+            UserEntry user = esql.authenticate(r.getInt("userID"), r.get("password"));
+            if (user == null)
+               throw new ApiException(401, "Wrong user ID or password");
+            String token = newToken();
+            sessions.put(token, new Session(user));
+            return "{\"token\":" + quote(token) + ",\"userID\":" + user.userID + ",\"name\":" + quote(user.name) +
+                   ",\"role\":" + quote(user.role.name().toLowerCase()) + "}";
+         }
+      });
+      server.createContext("/logout", new Endpoint("POST") {
+         String call(Request r) throws ApiException {
+            r.user();
+            sessions.remove(r.token);
+            return "{}";
+         }
+      });
+      server.createContext("/users", new Endpoint("POST") {
+         String call(Request r) throws ApiException, SQLException {
+            return "{\"userID\":" + esql.createUser(r.get("name"), r.get("password")) + "}";
+         }
+      });
+      server.createContext("/hotels", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            r.user();
+            double radius = Double.parseDouble(r.get("radius", "30"));
+            return hotels(esql.findHotelsWithin(r.getDouble("lat"), r.getDouble("lng"), radius));
+         }
+      });
+      server.createContext("/hotels/nearest", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            r.user();
+            int k = Integer.parseInt(r.get("k", "5"));
+            return hotels(esql.findNearestHotels(r.getDouble("lat"), r.getDouble("lng"), k));
+         }
+      });
+      server.createContext("/rooms", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            r.user();
+            return rows(esql.roomAvailability(r.getInt("hotelID"), r.getDate("date")), "roomNumber", "price", "availability");
+         }
+      });
+      server.createContext("/rooms/free", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            r.user();
+            StringBuilder json = new StringBuilder("[");
+            for (Integer room : esql.findRoomsFreeBetween(r.getInt("hotelID"), r.getDate("first"), r.getDate("last")))
+               json.append(json.length() == 1 ? "" : ",").append(room);
+            return json.append(']').toString();
+         }
+      });
+      server.createContext("/rooms/search", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            r.user();
+            double radius = Double.parseDouble(r.get("radius", "30"));
+            int maxPrice = Integer.parseInt(r.get("maxPrice", Integer.toString(Integer.MAX_VALUE)));
+            Hotel.SearchOrder order = "price".equals(r.get("sort", "distance")) ? Hotel.SearchOrder.PRICE : Hotel.SearchOrder.DISTANCE;
+            String cursor = r.get("cursor", null);
+            Hotel.Page page = esql.searchFreeRooms(r.getDouble("lat"), r.getDouble("lng"), radius, r.getDate("first"), r.getDate("last"),
+                                                   maxPrice, order, Integer.parseInt(r.get("pageSize", "20")),
+                                                   cursor == null ? null : Hotel.Page.after(cursor));
+            return page(page, "hotelID", "hotelName", "roomNumber", "price", "distance");
+         }
+      });
+      server.createContext("/reports/revenue", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            int hotelID = r.getInt("hotelID");
+            r.managerOf(hotelID);
+            AnalyticsEngine.Grouping grouping = AnalyticsEngine.Grouping.valueOf(r.get("by", "day").toUpperCase());
+            return rows(esql.revenueReport(hotelID, r.getDate("first"), r.getDate("last"), grouping),
+                        "period", "roomNights", "revenue", "occupancy", "adr");
+         }
+      });
+      server.createContext("/rooms/update", new Endpoint("POST") {
+         String call(Request r) throws ApiException, SQLException {
+            int hotelID = r.getInt("hotelID");
+            UserEntry manager = r.managerOf(hotelID);
+            if (!esql.updateRoom(manager.userID, hotelID, r.getInt("roomNumber"), r.getInt("price"), r.get("imageURL", "")))
+               throw new ApiException(404, "Room number does not exist");
+            return "{}";
+         }
+      });
+      server.createContext("/bookings", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            Hotel.Page page = esql.customerBookings(r.user().userID, PAGE_SIZE, after(r));
+            return page(page, "hotelID", "roomNumber", "price", "bookingDate");
+         }
+      });
+      server.createContext("/bookings/new", new Endpoint("POST") {
+         String call(Request r) throws ApiException, SQLException {
+            return book(r);
+         }
+      });
+      server.createContext("/history", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            Hotel.Page page = esql.bookingHistory(r.manager().userID, r.getDate("from"), r.getDate("to"), PAGE_SIZE, after(r));
+            return page(page, "bookingID", "name", "hotelID", "roomNumber", "bookingDate");
+         }
+      });
+      server.createContext("/repairs", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            String hotelID = r.get("hotelID", null), roomNumber = r.get("roomNumber", null), companyID = r.get("companyID", null);
+            Hotel.Page page = esql.repairHistory(r.manager().userID,
+                                                 hotelID == null ? null : Integer.valueOf(hotelID),
+                                                 roomNumber == null ? null : Integer.valueOf(roomNumber),
+                                                 companyID == null ? null : Integer.valueOf(companyID),
+                                                 r.get("from", null) == null ? null : r.getDate("from"),
+                                                 r.get("to", null) == null ? null : r.getDate("to"), PAGE_SIZE, after(r));
+            return page(page, "requestNumber", "repairID", "hotelID", "roomNumber", "companyID", "company", "repairDate");
+         }
+      });
+      server.createContext("/updates", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            Hotel.Page page = esql.managerUpdates(r.manager().userID, PAGE_SIZE, after(r));
+            return page(page, "updateNumber", "hotelID", "roomNumber", "updatedOn");
+         }
+      });
+      server.createContext("/customers/regular", new Endpoint("GET") {
+         String call(Request r) throws ApiException, SQLException {
+            int hotelID = r.getInt("hotelID");
+            r.managerOf(hotelID);
+            String window = r.get("days", null);
+            List<List<String>> top = window == null ? esql.regularCustomers(hotelID, 5)
+                                                    : esql.regularCustomers(hotelID, 5, Hotel.parseInt(window));
+            return rows(top, "name", "bookings");
+         }
+      });
+      server.createContext("/repairs/new", new Endpoint("POST") {
+         String call(Request r) throws ApiException, SQLException {
+            int hotelID = r.getInt("hotelID");
+            UserEntry manager = r.managerOf(hotelID);
+            String rooms = r.get("roomNumbers", null);
+            if (rooms == null)
+               return "{\"repairID\":" + esql.requestRepair(manager.userID, hotelID, r.getInt("roomNumber"), r.getInt("companyID")) + "}";
+            StringBuilder json = new StringBuilder("{\"repairIDs\":[");
+            for (Integer repairID : esql.requestRepairs(manager.userID, hotelID, Hotel.parseRoomNumbers(rooms), r.getInt("companyID")))
+               json.append(json.charAt(json.length() - 1) == '[' ? "" : ",").append(repairID);
+            return json.append("]}").toString();
+         }
+      });
+      server.createContext("/shards/move", new Endpoint("POST") {
+         String call(Request r) throws ApiException, SQLException {
+            if (r.user().role != UserEntry.Role.ADMIN)
+               throw new ApiException(403, "Only admins may do this");
+            ShardRouter shards = esql.getShardRouter();
+            if (shards == null)
+               throw new ApiException(404, "Hotels are not sharded");
+            int hotelID = r.getInt("hotelID");
+            int shard = r.getInt("shard");
+            if (shard < 0 || shard >= shards.getShards().size())
+               throw new ApiException(400, "shard must be from 0 to " + (shards.getShards().size() - 1));
+            shards.moveHotel(hotelID, shard);
+            return "{\"hotelID\":" + hotelID + ",\"shard\":" + shard + "}";
+         }
+      });
+      // after shards were loaded from full copies of one database
+      server.createContext("/shards/prune", new Endpoint("POST") {
+         String call(Request r) throws ApiException, SQLException {
+            if (r.user().role != UserEntry.Role.ADMIN)
+               throw new ApiException(403, "Only admins may do this");
+            ShardRouter shards = esql.getShardRouter();
+            if (shards == null)
+               throw new ApiException(404, "Hotels are not sharded");
+            return "{\"removed\":" + shards.removeMisplacedHotels() + "}";
+         }
+      });
+   }//end addEndpoints
+
+   // books one room for one night, or rooms (comma separated) for several
+   // nights all or nothing
+   private String book(Request r) throws ApiException, SQLException {
+      int customerID = r.user().userID;
+      int hotelID = r.getInt("hotelID");
+      String[] rooms = r.get("roomNumber").split(",");
+      java.sql.Date first = r.getDate("date");
+      int nights = Integer.parseInt(r.get("nights", "1"));
+      if (rooms.length == 1 && nights == 1) {
+         Hotel.BookingResult result = esql.bookRoom(customerID, hotelID, Hotel.parseInt(rooms[0]), first);
+         return booking(result);
+      }//end if
+
+      List<Hotel.BookingRequest> requests = new ArrayList<Hotel.BookingRequest>();
+      int day = RoomAvailabilityIndex.epochDay(first);
+      for (String room : rooms)
+         for (int n = 0; n < nights; ++n)
+            requests.add(new Hotel.BookingRequest(hotelID, Hotel.parseInt(room), RoomAvailabilityIndex.toDate(day + n)));
+      List<Hotel.BookingResult> results = esql.bookRoomBatch(customerID, requests);
+      StringBuilder json = new StringBuilder("[");
+      for (int i = 0; i < results.size(); ++i) {
+         String item = booking(results.get(i));
+         json.append(i == 0 ? "" : ",").append(item, 0, item.length() - 1)
+             .append(",\"roomNumber\":").append(requests.get(i).roomNumber)
+             .append(",\"date\":").append(quote(requests.get(i).date.toString())).append('}');
+      }//end for
+      return json.append(']').toString();
+   }//end book
+
+   private String newToken() {
+      byte[] bytes = new byte[16];
+      random.nextBytes(bytes);
+      StringBuilder token = new StringBuilder();
+      for (byte b : bytes)
+         token.append(String.format("%02x", b & 0xff));
+      return token.toString();
+   }//end newToken
+
+   private Request parse(HttpExchange exchange) throws IOException {
+      Map<String, String> params = new HashMap<String, String>();
+      decode(exchange.getRequestURI().getRawQuery(), params);
+      if (exchange.getRequestMethod().equalsIgnoreCase("POST"))
+         decode(readBody(exchange.getRequestBody()), params);
+      String token = params.get("token");
+      String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+      if (authorization != null && authorization.startsWith("Bearer "))
+         token = authorization.substring(7).trim();
+      return new Request(params, token);
+   }//end parse
+
+   private static String readBody(InputStream in) throws IOException {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n; (n = in.read(buffer)) > 0; )
+         body.write(buffer, 0, n);
+      return body.toString("UTF-8");
+   }//end readBody
+
+   private static void decode(String form, Map<String, String> params) throws UnsupportedEncodingException {
+      if (form == null || form.isEmpty())
+         return;
+      for (String pair : form.split("&")) {
+         int eq = pair.indexOf('=');
+         String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+         String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+         params.put(name, value);
+      }//end for
+   }//end decode
+
+   private static Hotel.Page after(Request r) {
+      String cursor = r.get("cursor", null);
+      return cursor == null ? null : Hotel.Page.after(cursor);
+   }
+
+   private static String booking(Hotel.BookingResult result) {
+      return "{\"status\":" + quote(result.status.name()) + ",\"bookingID\":" + result.bookingID + ",\"price\":" + result.price + "}";
+   }
+
+   private static String hotels(List<HotelEntry> hotels) {
+      StringBuilder json = new StringBuilder("[");
+      for (HotelEntry h : hotels) {
+         json.append(json.length() == 1 ? "" : ",")
+             .append("{\"hotelID\":").append(h.hotelID)
+             .append(",\"hotelName\":").append(quote(h.hotelName))
+             .append(",\"latitude\":").append(h.latitude)
+             .append(",\"longitude\":").append(h.longitude)
+             .append(",\"dateEstablished\":").append(quote(String.valueOf(h.dateEstablished)))
+             .append(",\"managerUserID\":").append(h.managerUserID).append('}');
+      }//end for
+      return json.append(']').toString();
+   }//end hotels
+
+   private static String page(Hotel.Page page, String... names) {
+      return "{\"rows\":" + rows(page.rows, names) + ",\"cursor\":" + quote(page.nextCursor()) + "}";
+   }
+
+   // rows as an array of objects with the given keys, values as strings
+   private static String rows(List<List<String>> rows, String... names) {
+      StringBuilder json = new StringBuilder("[");
+      for (List<String> row : rows) {
+         json.append(json.length() == 1 ? "{" : ",{");
+         for (int c = 0; c < names.length && c < row.size(); ++c)
+            json.append(c == 0 ? "" : ",").append(quote(names[c])).append(':').append(quote(row.get(c) == null ? null : row.get(c).trim()));
+         json.append('}');
+      }//end for
+      return json.append(']').toString();
+   }//end rows
+
+   static String quote(String value) {
+      if (value == null)
+         return "null";
+      StringBuilder json = new StringBuilder("\"");
+      for (int i = 0; i < value.length(); ++i) {
+         char c = value.charAt(i);
+         if (c == '"' || c == '\\')
+            json.append('\\').append(c);
+         else if (c < 0x20)
+            json.append(String.format("\\u%04x", (int) c));
+         else
+            json.append(c);
+      }//end for
+      return json.append('"').toString();
+   }//end quote
+}//end HotelService
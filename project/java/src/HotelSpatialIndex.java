@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A uniform grid over hotel coordinates for radius and nearest neighbour
+ * searches without scanning every hotel.  Each hotel is filed under the
+ * square cell of side cellSize that contains it, so a radius search only
+ * looks at the cells overlapping the search circle's bounding box and a
+ * k nearest search walks outwards ring by ring until no unvisited cell can
+ * hold anything closer.  Hotel.calculateDistance is used only for the
+ * exact check on the candidates.
+ *
+ * The index is immutable once built; rebuild it to pick up new hotels.
+ */
+public class HotelSpatialIndex {
+
+   // the menu searches within this radius, so it is also a good cell size
+   public static final double DEFAULT_CELL_SIZE = 30.0;
+
+   private final double cellSize;
+   private final Map<Long, List<HotelEntry>> cells = new HashMap<Long, List<HotelEntry>>();
+   private final int size;
+   private int minCellX = Integer.MAX_VALUE, maxCellX = Integer.MIN_VALUE;
+   private int minCellY = Integer.MAX_VALUE, maxCellY = Integer.MIN_VALUE;
+
+   /**
+    * @param hotels hotels to index
+    * @param cellSize side of one grid cell, in coordinate units
+    */
+   public HotelSpatialIndex(List<HotelEntry> hotels, double cellSize) {
+      if (cellSize <= 0)
+         throw new IllegalArgumentException("cellSize must be positive");
+      this.cellSize = cellSize;
+      for (HotelEntry hotel : hotels) {
+         int cx = cell(hotel.latitude);
+         int cy = cell(hotel.longitude);
+         minCellX = Math.min(minCellX, cx);
+         maxCellX = Math.max(maxCellX, cx);
+         minCellY = Math.min(minCellY, cy);
+         maxCellY = Math.max(maxCellY, cy);
+         Long key = key(cx, cy);
+         List<HotelEntry> bucket = cells.get(key);
+         if (bucket == null) {
+            bucket = new ArrayList<HotelEntry>();
+            cells.put(key, bucket);
+         }//end if
+         bucket.add(hotel);
+      }//end for
+      this.size = hotels.size();
+   }//end HotelSpatialIndex
+
+   public HotelSpatialIndex(List<HotelEntry> hotels) {
+      this(hotels, DEFAULT_CELL_SIZE);
+   }
+
+   /**
+    * @return number of hotels in the index
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Finds every hotel within radius of a point.
+    *
+    * @param lat latitude of the point
+    * @param lng longitude of the point
+    * @param radius maximum distance
+    * @return the hotels, nearest first
+    */
+   public List<HotelEntry> withinRadius(final double lat, final double lng, double radius) {
+      List<HotelEntry> found = new ArrayList<HotelEntry>();
+      if (size == 0)
+         return found;
+      int fromX = Math.max(cell(lat - radius), minCellX), toX = Math.min(cell(lat + radius), maxCellX);
+      int fromY = Math.max(cell(lng - radius), minCellY), toY = Math.min(cell(lng + radius), maxCellY);
+      for (int cx = fromX; cx <= toX; ++cx) {
+         for (int cy = fromY; cy <= toY; ++cy) {
+            List<HotelEntry> bucket = cells.get(key(cx, cy));
+            if (bucket == null)
+               continue;
+            for (HotelEntry hotel : bucket)
+               if (hotel.distanceTo(lat, lng) <= radius)
+                  found.add(hotel);
+         }//end for
+      }//end for
+      Collections.sort(found, byDistance(lat, lng));
+      return found;
+   }//end withinRadius
+
+   /**
+    * Finds the k hotels closest to a point.
+    *
+    * @param lat latitude of the point
+    * @param lng longitude of the point
+    * @param k number of hotels wanted
+    * @return at most k hotels, nearest first
+    */
+   public List<HotelEntry> nearest(final double lat, final double lng, int k) {
+      List<HotelEntry> found = new ArrayList<HotelEntry>();
+      if (size == 0 || k <= 0)
+         return found;
+
+      // max-heap on distance holding the best k candidates seen so far
+      PriorityQueue<HotelEntry> best = new PriorityQueue<HotelEntry>(k, Collections.reverseOrder(byDistance(lat, lng)));
+      int cx = cell(lat), cy = cell(lng);
+      int maxRing = Math.max(Math.max(Math.abs(cx - minCellX), Math.abs(maxCellX - cx)),
+                             Math.max(Math.abs(cy - minCellY), Math.abs(maxCellY - cy)));
+      for (int ring = 0; ring <= maxRing; ++ring) {
+         for (int x = cx - ring; x <= cx + ring; ++x) {
+            // only the border of the square is new on this ring
+            int step = (x == cx - ring || x == cx + ring) ? 1 : 2 * ring;
+            for (int y = cy - ring; y <= cy + ring; y += Math.max(step, 1)) {
+               List<HotelEntry> bucket = cells.get(key(x, y));
+               if (bucket == null)
+                  continue;
+               for (HotelEntry hotel : bucket) {
+                  best.add(hotel);
+                  if (best.size() > k)
+                     best.poll();
+               }//end for
+            }//end for
+         }//end for
+         // every cell beyond this ring is at least ring * cellSize away
+         if (best.size() == k && best.peek().distanceTo(lat, lng) <= ring * cellSize)
+            break;
+      }//end for
+
+      found.addAll(best);
+      Collections.sort(found, byDistance(lat, lng));
+      return found;
+   }//end nearest
+
+   private int cell(double coordinate) {
+      return (int) Math.floor(coordinate / cellSize);
+   }
+
+   private static Long key(int cx, int cy) {
+      return Long.valueOf(((long) cx << 32) | (cy & 0xffffffffL));
+   }
+
+   private static Comparator<HotelEntry> byDistance(final double lat, final double lng) {
+      return new Comparator<HotelEntry>() {
+         public int compare(HotelEntry a, HotelEntry b) {
+            return Double.compare(a.distanceTo(lat, lng), b.distanceTo(lat, lng));
+         }
+      };
+   }//end byDistance
+}//end HotelSpatialIndex
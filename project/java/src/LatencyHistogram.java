@@ -0,0 +1,113 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in microseconds in log-linear buckets, the way
+ * HdrHistogram does: below 16 us every value has its own bucket, above
+ * that every power of two is split into 16 equal buckets, so a bucket is
+ * never wider than 1/16 of its values and percentiles are off by at most
+ * that much.  Values up to about 2^40 us (12 days) are told apart.
+ *
+ * record() only increments counters, it never locks or allocates, so the
+ * histogram can sit on the path of every database call.  Reads see the
+ * counters as they are at that moment and are not atomic as a whole.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BITS = 4;
+   private static final int SUB_BUCKETS = 1 << SUB_BITS;
+   private static final int MAX_EXPONENT = 40;
+   private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLong sum = new AtomicLong();
+   private final AtomicLong max = new AtomicLong();
+
+   /**
+    * Records one latency.
+    *
+    * @param nanos the latency in nanoseconds
+    */
+   public void recordNanos(long nanos) {
+      long micros = Math.max(0, nanos / 1000);
+      counts.incrementAndGet(index(micros));
+      count.incrementAndGet();
+      sum.addAndGet(micros);
+      long m;
+      while (micros > (m = max.get()) && !max.compareAndSet(m, micros))
+         ;
+   }//end recordNanos
+
+   /**
+    * @return number of latencies recorded
+    */
+   public long getCount() {
+      return count.get();
+   }
+
+   /**
+    * @return sum of the latencies recorded, in microseconds
+    */
+   public long getSumMicros() {
+      return sum.get();
+   }
+
+   /**
+    * @return the largest latency recorded, in microseconds
+    */
+   public long getMaxMicros() {
+      return max.get();
+   }
+
+   /**
+    * @param quantile between 0 and 1, such as 0.99
+    * @return the latency, in microseconds, that this fraction of the
+    *         recorded ones did not exceed; 0 when nothing was recorded
+    */
+   public long percentileMicros(double quantile) {
+      long total = count.get();
+      if (total == 0)
+         return 0;
+      long wanted = Math.max(1, (long) Math.ceil(quantile * total));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += counts.get(i);
+         // the last bucket also holds everything above it
+         if (seen >= wanted)
+            return i == BUCKETS - 1 ? max.get() : Math.min(upperBound(i), max.get());
+      }//end for
+      return max.get();
+   }//end percentileMicros
+
+   /**
+    * @return number of latencies recorded at or below micros, counting a
+    *         bucket only when it lies wholly below
+    */
+   public long countAtMostMicros(long micros) {
+      long seen = 0;
+      for (int i = 0; i < BUCKETS && upperBound(i) <= micros; ++i)
+         seen += counts.get(i);
+      return seen;
+   }//end countAtMostMicros
+
+   private static int index(long micros) {
+      if (micros < SUB_BUCKETS)
+         return (int) micros;
+      int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+      int sub = (int) ((micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+      if (exponent == MAX_EXPONENT && micros >= (2L << MAX_EXPONENT))
+         sub = SUB_BUCKETS - 1;
+      return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+   }//end index
+
+   // largest value that falls in bucket i
+   private static long upperBound(int i) {
+      if (i < SUB_BUCKETS)
+         return i;
+      int exponent = i / SUB_BUCKETS + SUB_BITS - 1;
+      int sub = i % SUB_BUCKETS;
+      long width = 1L << (exponent - SUB_BITS);
+      return ((SUB_BUCKETS + sub) * width) + width - 1;
+   }//end upperBound
+}//end LatencyHistogram
@@ -0,0 +1,202 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the monthly partitions of RoomBookings and RoomUpdatesLog in shape:
+ * creates the partitions of the coming months ahead of time, and moves
+ * months older than the retention period out of the database into one
+ * gzip-compressed CSV file per partition.
+ *
+ * A partition is archived in two steps.  Its rows are first written to
+ * the archive file; then, in one transaction, it is detached, its row
+ * count is checked against the file and it is dropped.  A failure at any
+ * point leaves the partition in place, so the command can simply be run
+ * again.  Archive files have a header line and can be loaded back with
+ * COPY ... CSV HEADER after gunzip.
+ *
+ * Archived bookings still count towards the all-time totals in
+ * HotelCustomerBookings, since detaching does not fire the trigger.
+ *
+ * Usage: java PartitionMaintenance <dbname> <port> <user> [monthsAhead] [retainMonths] [archiveDir]
+ */
+public class PartitionMaintenance {
+
+   public static final int DEFAULT_MONTHS_AHEAD = 12;
+   public static final int DEFAULT_RETAIN_MONTHS = 36;
+
+   // partitioned table and its partition key
+   private static final String[][] TABLES = {
+      { "RoomBookings", "bookingDate" },
+      { "RoomUpdatesLog", "updatedOn" } };
+
+   private final Hotel esql;
+
+   public PartitionMaintenance(Hotel esql) {
+      this.esql = esql;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + PartitionMaintenance.class.getName() +
+                            " <dbname> <port> <user> [monthsAhead] [retainMonths] [archiveDir]");
+         return;
+      }//end if
+      int monthsAhead = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MONTHS_AHEAD;
+      int retainMonths = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_RETAIN_MONTHS;
+      File archiveDir = new File(args.length > 5 ? args[5] : "archive");
+
+      Class.forName("org.postgresql.Driver").newInstance();
+      Hotel esql = new Hotel(args[0], args[1], args[2], "", 1, 2);
+      try {
+         PartitionMaintenance maintenance = new PartitionMaintenance(esql);
+         System.err.println("Created " + maintenance.createPartitions(monthsAhead) + " partition(s)");
+         if (!archiveDir.isDirectory() && !archiveDir.mkdirs())
+            throw new IOException("Cannot create " + archiveDir);
+         for (String[] table : TABLES) {
+            for (String partition : maintenance.partitionsBefore(table[0], monthStart(-retainMonths))) {
+               long rows = maintenance.archive(table[0], partition, archiveDir);
+               System.err.println("Archived " + partition + " (" + rows + " rows)");
+            }//end for
+         }//end for
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end main
+
+   /**
+    * Creates the partitions from this month to monthsAhead months from now
+    * that do not exist yet, moving their rows out of the default partition.
+    *
+    * @return the number of partitions created
+    * @throws java.sql.SQLException when a partition cannot be created
+    */
+   public int createPartitions(int monthsAhead) throws SQLException {
+      int created = 0;
+      for (String[] table : TABLES)
+         created += esql.queryForInt("SELECT create_monthly_partitions(?, ?, CAST(? AS date), CAST(? AS date))",
+                                     table[0], table[1], monthStart(0), monthStart(monthsAhead));
+      return created;
+   }//end createPartitions
+
+   /**
+    * @return the monthly partitions of a table for months before the
+    *         given first day of a month, oldest first
+    * @throws java.sql.SQLException when the catalog cannot be read
+    */
+   public List<String> partitionsBefore(String table, java.sql.Date month) throws SQLException {
+      Pattern name = Pattern.compile(Pattern.quote(table.toLowerCase()) + "_y(\\d{4})m(\\d{2})");
+      String cutoff = new java.text.SimpleDateFormat("'y'yyyy'm'MM").format(month);
+      List<String> partitions = new ArrayList<String>();
+      String query = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = CAST(? AS regclass) ORDER BY c.relname";
+      for (List<String> row : esql.executeQueryAndReturnResult(query, table.toLowerCase())) {
+         String partition = row.get(0);
+         Matcher m = name.matcher(partition);
+         // the names sort by month, so comparing the suffix is enough
+         if (m.matches() && partition.substring(table.length() + 1).compareTo(cutoff) < 0)
+            partitions.add(partition);
+      }//end for
+      return partitions;
+   }//end partitionsBefore
+
+   /**
+    * Writes a partition to dir/partition.csv.gz, then detaches and drops it.
+    *
+    * @return the number of rows archived
+    * @throws java.sql.SQLException when the partition cannot be read or
+    *         changed while it was written; it is left attached
+    * @throws java.io.IOException when the archive cannot be written
+    */
+   public long archive(String table, String partition, File dir) throws SQLException, IOException {
+      File done = new File(dir, partition + ".csv.gz");
+      File temp = new File(dir, partition + ".csv.gz.tmp");
+      final Writer out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temp)), "UTF-8"), 1 << 16);
+      final IOException[] failure = new IOException[1];
+      int rows;
+      try {
+         rows = esql.executeQueryStreaming("SELECT * FROM " + partition, Hotel.DEFAULT_FETCH_SIZE, new Hotel.RowHandler() {
+            boolean header = true;
+
+            public void handle(ResultSet row) throws SQLException {
+               if (failure[0] != null)
+                  return;
+               try {
+                  ResultSetMetaData meta = row.getMetaData();
+                  if (header) {
+                     for (int c = 1; c <= meta.getColumnCount(); ++c)
+                        out.write((c == 1 ? "" : ",") + meta.getColumnName(c));
+                     out.write("\r\n");
+                     header = false;
+                  }//end if
+                  for (int c = 1; c <= meta.getColumnCount(); ++c)
+                     out.write((c == 1 ? "" : ",") + csv(row.getString(c)));
+                  out.write("\r\n");
+               }catch (IOException e) {
+                  failure[0] = e;
+               }//end try
+            }
+         });
+      }finally {
+         out.close();
+      }//end try
+      if (failure[0] != null)
+         throw failure[0];
+      if (!temp.renameTo(done))
+         throw new IOException("Cannot rename " + temp + " to " + done);
+
+      // one-off statements, kept out of the statement cache
+      Connection conn = esql.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         Statement stmt = conn.createStatement();
+         try {
+            stmt.executeUpdate("ALTER TABLE " + table + " DETACH PARTITION " + partition);
+            // anything written after the archive was taken would be lost
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + partition);
+            rs.next();
+            long count = rs.getLong(1);
+            rs.close();
+            if (count != rows)
+               throw new SQLException(partition + " has " + count + " rows but " + rows + " were archived");
+            stmt.executeUpdate("DROP TABLE " + partition);
+            conn.commit();
+         }finally {
+            stmt.close();
+         }//end try
+      }finally {
+         esql.releaseConnection(conn);
+      }//end try
+      return rows;
+   }//end archive
+
+   // first day of the month offset months from this one
+   private static java.sql.Date monthStart(int offset) {
+      Calendar month = Calendar.getInstance();
+      month.set(Calendar.DAY_OF_MONTH, 1);
+      month.add(Calendar.MONTH, offset);
+      return java.sql.Date.valueOf(month.get(Calendar.YEAR) + "-" + (month.get(Calendar.MONTH) + 1) + "-1");
+   }//end monthStart
+
+   // NULL is written as nothing, text with separators is quoted, as COPY does
+   private static String csv(String value) {
+      if (value == null)
+         return "";
+      if (value.isEmpty() || value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0)
+         return "\"" + value.replace("\"", "\"\"") + "\"";
+      return value;
+   }//end csv
+}//end PartitionMaintenance
@@ -0,0 +1,229 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+
+/**
+ * Latency, row and error counts of every database call made through
+ * Hotel, one Operation per SQL statement (or per name, for calls that
+ * build their SQL), plus the time callers waited for a pooled connection.
+ * Calls slower than the slow query threshold are also written to stderr.
+ *
+ * Recording a call looks its Operation up by the SQL string, which is a
+ * constant at every call site, and increments counters, so it allocates
+ * nothing; only the first call of a statement, and a slow call, does.
+ * At most MAX_OPERATIONS statements are told apart, later ones are
+ * counted under OTHER.
+ *
+ * The metrics can be read over JMX (see QueryMetricsMBean) and as a
+ * Prometheus text dump.
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+
+   public static final long DEFAULT_SLOW_QUERY_MS = 200;
+   public static final int MAX_OPERATIONS = 500;
+   public static final String OTHER = "other";
+
+   // upper bounds of the buckets in the Prometheus dump, in microseconds
+   private static final long[] EXPORT_BOUNDS_MICROS = {
+      500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+   /**
+    * Counters of one statement.
+    */
+   public final class Operation {
+      final String name;
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong rows = new AtomicLong();
+      final AtomicLong errors = new AtomicLong();
+
+      Operation(String name) {
+         this.name = name;
+      }
+
+      /**
+       * Records one call that started at startNanos (System.nanoTime()).
+       *
+       * @param startNanos when the call started
+       * @param rowCount rows returned or changed
+       * @param failed true when the call threw
+       */
+      public void record(long startNanos, long rowCount, boolean failed) {
+         long nanos = System.nanoTime() - startNanos;
+         latency.recordNanos(nanos);
+         rows.addAndGet(rowCount);
+         if (failed)
+            errors.incrementAndGet();
+         if (nanos >= slowNanos) {
+            slowQueries.incrementAndGet();
+            System.err.println("Slow query (" + nanos / 1000000 + " ms, " + rowCount + " rows" + (failed ? ", failed" : "") + "): " + name);
+         }//end if
+      }//end record
+   }//end Operation
+
+   private final Map<String, Operation> operations = new ConcurrentHashMap<String, Operation>();
+   private final ConnectionPool pool;
+   private volatile ReplicaRouter router = null;
+   private final AtomicLong slowQueries = new AtomicLong();
+   private volatile long slowNanos = DEFAULT_SLOW_QUERY_MS * 1000000;
+
+   /**
+    * @param pool the pool whose wait times are reported
+    */
+   public QueryMetrics(ConnectionPool pool) {
+      this.pool = pool;
+   }
+
+   /**
+    * Adds the reads served by replicas and by the primary to the dump.
+    */
+   public void setReplicaRouter(ReplicaRouter router) {
+      this.router = router;
+   }
+
+   /**
+    * @param name the SQL of the statement, or a name for calls that build theirs
+    * @return the counters of the statement, created on first use
+    */
+   public Operation operation(String name) {
+      Operation op = operations.get(name);
+      if (op != null)
+         return op;
+      synchronized (operations) {
+         op = operations.get(name);
+         if (op == null) {
+            if (operations.size() >= MAX_OPERATIONS && !OTHER.equals(name))
+               return operation(OTHER);
+            op = new Operation(name);
+            operations.put(name, op);
+         }//end if
+         return op;
+      }//end synchronized
+   }//end operation
+
+   /**
+    * Registers these metrics with the platform MBean server.  A name that
+    * is taken already, by another Hotel in this JVM, gets a number added.
+    */
+   public void register() {
+      try {
+         javax.management.MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName("Hotel:type=QueryMetrics");
+         for (int i = 2; server.isRegistered(name); ++i)
+            name = new ObjectName("Hotel:type=QueryMetrics,instance=" + i);
+         server.registerMBean(this, name);
+      }catch (Exception e) {
+         System.err.println("Query metrics are not available over JMX: " + e.getMessage());
+      }//end try
+   }//end register
+
+   public long getCalls() {
+      long calls = 0;
+      for (Operation op : operations.values())
+         calls += op.latency.getCount();
+      return calls;
+   }//end getCalls
+
+   public long getErrors() {
+      long errors = 0;
+      for (Operation op : operations.values())
+         errors += op.errors.get();
+      return errors;
+   }//end getErrors
+
+   public long getSlowQueries() {
+      return slowQueries.get();
+   }
+
+   public long getSlowQueryThresholdMs() {
+      return slowNanos / 1000000;
+   }
+
+   public void setSlowQueryThresholdMs(long thresholdMs) {
+      slowNanos = thresholdMs * 1000000;
+   }
+
+   public long getPoolWaitP99Micros() {
+      return pool.getWaitTimes().percentileMicros(0.99);
+   }
+
+   public String[] getOperations() {
+      List<String> lines = new ArrayList<String>();
+      for (Operation op : sorted()) {
+         LatencyHistogram h = op.latency;
+         lines.add(op.name + ": calls=" + h.getCount() + " errors=" + op.errors.get() + " rows=" + op.rows.get() +
+                   " p50=" + h.percentileMicros(0.5) + "us p99=" + h.percentileMicros(0.99) +
+                   "us p999=" + h.percentileMicros(0.999) + "us max=" + h.getMaxMicros() + "us");
+      }//end for
+      return lines.toArray(new String[lines.size()]);
+   }//end getOperations
+
+   /**
+    * Forgets every statement and count; pool wait times are kept.
+    */
+   public void reset() {
+      operations.clear();
+      slowQueries.set(0);
+   }
+
+   public String dumpPrometheus() {
+      StringBuilder out = new StringBuilder();
+      out.append("# HELP hotel_query_duration_seconds Time spent in a database call.\n");
+      out.append("# TYPE hotel_query_duration_seconds histogram\n");
+      List<Operation> ops = sorted();
+      for (Operation op : ops)
+         histogram(out, "hotel_query_duration_seconds", "query=\"" + label(op.name) + "\"", op.latency);
+      out.append("# HELP hotel_query_rows_total Rows returned or changed by database calls.\n");
+      out.append("# TYPE hotel_query_rows_total counter\n");
+      for (Operation op : ops)
+         out.append("hotel_query_rows_total{query=\"").append(label(op.name)).append("\"} ").append(op.rows.get()).append('\n');
+      out.append("# HELP hotel_query_errors_total Database calls that failed.\n");
+      out.append("# TYPE hotel_query_errors_total counter\n");
+      for (Operation op : ops)
+         out.append("hotel_query_errors_total{query=\"").append(label(op.name)).append("\"} ").append(op.errors.get()).append('\n');
+      out.append("# HELP hotel_slow_queries_total Database calls slower than the slow query threshold.\n");
+      out.append("# TYPE hotel_slow_queries_total counter\n");
+      out.append("hotel_slow_queries_total ").append(slowQueries.get()).append('\n');
+      out.append("# HELP hotel_pool_wait_seconds Time spent waiting for a pooled connection.\n");
+      out.append("# TYPE hotel_pool_wait_seconds histogram\n");
+      histogram(out, "hotel_pool_wait_seconds", null, pool.getWaitTimes());
+      ReplicaRouter r = router;
+      if (r != null) {
+         out.append("# HELP hotel_reads_total Read-only statements by where they ran.\n");
+         out.append("# TYPE hotel_reads_total counter\n");
+         out.append("hotel_reads_total{target=\"replica\"} ").append(r.getReplicaReads()).append('\n');
+         out.append("hotel_reads_total{target=\"primary\"} ").append(r.getPrimaryReads()).append('\n');
+      }//end if
+      return out.toString();
+   }//end dumpPrometheus
+
+   private List<Operation> sorted() {
+      List<Operation> ops = new ArrayList<Operation>(operations.values());
+      Collections.sort(ops, new java.util.Comparator<Operation>() {
+         public int compare(Operation a, Operation b) {
+            return a.name.compareTo(b.name);
+         }
+      });
+      return ops;
+   }//end sorted
+
+   private static void histogram(StringBuilder out, String metric, String labels, LatencyHistogram h) {
+      String prefix = labels == null ? "{" : "{" + labels + ",";
+      for (long bound : EXPORT_BOUNDS_MICROS)
+         out.append(metric).append("_bucket").append(prefix).append("le=\"").append(bound / 1e6).append("\"} ")
+            .append(h.countAtMostMicros(bound)).append('\n');
+      out.append(metric).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(h.getCount()).append('\n');
+      String plain = labels == null ? "" : "{" + labels + "}";
+      out.append(metric).append("_sum").append(plain).append(' ').append(h.getSumMicros() / 1e6).append('\n');
+      out.append(metric).append("_count").append(plain).append(' ').append(h.getCount()).append('\n');
+   }//end histogram
+
+   // one line of SQL, escaped as a Prometheus label value
+   private static String label(String sql) {
+      return sql.replaceAll("\\s+", " ").trim().replace("\\", "\\\\").replace("\"", "\\\"");
+   }
+}//end QueryMetrics
@@ -0,0 +1,29 @@
+/**
+ * What QueryMetrics shows over JMX, under Hotel:type=QueryMetrics.
+ */
+public interface QueryMetricsMBean {
+
+   long getCalls();
+
+   long getErrors();
+
+   long getSlowQueries();
+
+   long getSlowQueryThresholdMs();
+
+   void setSlowQueryThresholdMs(long thresholdMs);
+
+   long getPoolWaitP99Micros();
+
+   /**
+    * @return one line per operation: calls, errors, rows and latency percentiles
+    */
+   String[] getOperations();
+
+   /**
+    * @return every metric in the Prometheus text format
+    */
+   String dumpPrometheus();
+
+   void reset();
+}//end QueryMetricsMBean
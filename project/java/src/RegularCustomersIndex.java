@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Booking counts per hotel and customer over the last few windows of days
+ * (by default 30, 90 and 365), ranked so the top customers of a hotel are
+ * read off in the order they are wanted instead of grouping its bookings.
+ *
+ * A window of n days counts the bookings for nights from n days ago on,
+ * future nights included.  Each hotel keeps the bookings of its widest
+ * window by night; as days pass the nights that fall out of a window are
+ * subtracted from it.  Bookings are identified by bookingID, so recording
+ * one twice (from the loader and from the booking path) counts it once.
+ * Bookings made by users registered with ignoreCustomer() are not
+ * counted.  Deleted bookings are not noticed until the index is rebuilt.
+ */
+public class RegularCustomersIndex {
+
+   public static final int[] DEFAULT_WINDOWS = { 30, 90, 365 };
+
+   /**
+    * Counts of one window of one hotel.  The ranking holds one key per
+    * customer that sorts by count descending, then customerID.
+    */
+   private static class Window {
+      final int days;
+      int start;
+      final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+      final TreeSet<Long> ranking = new TreeSet<Long>();
+
+      Window(int days, int today) {
+         this.days = days;
+         this.start = today - days;
+      }
+
+      void add(int customerID, int delta) {
+         Integer old = counts.get(customerID);
+         int count = (old == null ? 0 : old) + delta;
+         if (old != null)
+            ranking.remove(key(old, customerID));
+         if (count > 0) {
+            counts.put(customerID, count);
+            ranking.add(key(count, customerID));
+         }else {
+            counts.remove(customerID);
+         }//end if
+      }//end add
+
+      static Long key(int count, int customerID) {
+         return Long.valueOf(((long) (Integer.MAX_VALUE - count) << 32) | (customerID & 0xffffffffL));
+      }
+   }//end Window
+
+   /**
+    * Every window of one hotel, guarded by its own monitor.
+    */
+   private static class Tally {
+      // night -> bookingID -> customerID, for the nights of the widest window
+      final TreeMap<Integer, Map<Integer, Integer>> nights = new TreeMap<Integer, Map<Integer, Integer>>();
+      final Window[] windows;
+
+      Tally(int[] days, int today) {
+         windows = new Window[days.length];
+         for (int i = 0; i < days.length; ++i)
+            windows[i] = new Window(days[i], today);
+      }//end Tally
+
+      synchronized void add(int bookingID, int customerID, int day) {
+         if (day < widest().start)
+            return;
+         Map<Integer, Integer> bookings = nights.get(day);
+         if (bookings == null) {
+            bookings = new HashMap<Integer, Integer>();
+            nights.put(day, bookings);
+         }//end if
+         if (bookings.put(bookingID, customerID) != null)
+            return;
+         for (Window w : windows)
+            if (day >= w.start)
+               w.add(customerID, 1);
+      }//end add
+
+      // subtracts the nights that dropped out of each window
+      synchronized void roll(int today) {
+         for (Window w : windows) {
+            int start = today - w.days;
+            if (start <= w.start)
+               continue;
+            for (Map<Integer, Integer> bookings : nights.subMap(w.start, start).values())
+               for (Integer customerID : bookings.values())
+                  w.add(customerID, -1);
+            w.start = start;
+         }//end for
+         nights.headMap(widest().start).clear();
+      }//end roll
+
+      synchronized List<int[]> top(Window w, int limit) {
+         List<int[]> result = new ArrayList<int[]>(Math.min(limit, w.ranking.size()));
+         Iterator<Long> it = w.ranking.iterator();
+         while (it.hasNext() && result.size() < limit) {
+            long key = it.next();
+            result.add(new int[] { (int) key, Integer.MAX_VALUE - (int) (key >>> 32) });
+         }//end while
+         return result;
+      }//end top
+
+      Window widest() {
+         Window widest = windows[0];
+         for (Window w : windows)
+            if (w.days > widest.days)
+               widest = w;
+         return widest;
+      }//end widest
+   }//end Tally
+
+   private final int[] windows;
+   private final ConcurrentHashMap<Integer, Tally> hotels = new ConcurrentHashMap<Integer, Tally>();
+   private final Set<Integer> ignored = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+   private volatile boolean ready = false;
+
+   /**
+    * @param windows window lengths in days
+    */
+   public RegularCustomersIndex(int... windows) {
+      if (windows.length == 0)
+         throw new IllegalArgumentException("at least one window is needed");
+      this.windows = windows.clone();
+   }//end RegularCustomersIndex
+
+   public RegularCustomersIndex() {
+      this(DEFAULT_WINDOWS);
+   }
+
+   /**
+    * @return the longest window, bookings before it are not kept
+    */
+   public int maxWindow() {
+      int max = 0;
+      for (int days : windows)
+         max = Math.max(max, days);
+      return max;
+   }//end maxWindow
+
+   /**
+    * Marks the index as fully loaded; lookups are refused before that.
+    */
+   public void markReady() {
+      ready = true;
+   }
+
+   /**
+    * @return true once loaded and when there is a window of that many days
+    */
+   public boolean covers(int windowDays) {
+      if (!ready)
+         return false;
+      for (int days : windows)
+         if (days == windowDays)
+            return true;
+      return false;
+   }//end covers
+
+   /**
+    * Stops counting the bookings of a user, such as a manager.
+    */
+   public void ignoreCustomer(int userID) {
+      ignored.add(userID);
+   }
+
+   /**
+    * Records a booking.  Nights before the widest window are ignored.
+    */
+   public void addBooking(int bookingID, int customerID, int hotelID, java.util.Date night) {
+      if (ignored.contains(customerID))
+         return;
+      Tally tally = hotels.get(hotelID);
+      if (tally == null) {
+         Tally created = new Tally(windows, today());
+         tally = hotels.putIfAbsent(hotelID, created);
+         if (tally == null)
+            tally = created;
+      }//end if
+      tally.add(bookingID, customerID, RoomAvailabilityIndex.epochDay(night));
+   }//end addBooking
+
+   /**
+    * Finds the customers of a hotel with the most bookings in a window.
+    *
+    * @param hotelID the hotel
+    * @param windowDays one of the window lengths
+    * @param limit number of customers wanted
+    * @return {customerID, bookings} pairs, most bookings first; null when
+    *         the index cannot answer for that window
+    */
+   public List<int[]> top(int hotelID, int windowDays, int limit) {
+      if (!covers(windowDays))
+         return null;
+      Tally tally = hotels.get(hotelID);
+      if (tally == null)
+         return new ArrayList<int[]>();
+      tally.roll(today());
+      for (Window w : tally.windows)
+         if (w.days == windowDays)
+            return tally.top(w, limit);
+      return null;
+   }//end top
+
+   private static int today() {
+      return RoomAvailabilityIndex.epochDay(new java.util.Date());
+   }
+}//end RegularCustomersIndex
@@ -0,0 +1,281 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Sends read-only statements to streaming replicas and everything else to
+ * the primary.
+ *
+ * A statement counts as a read when it is a SELECT, or a WITH that does not
+ * modify data, and calls none of WRITE_FUNCTIONS.  This is the same test
+ * pgpool uses, so the same caveat applies: a function that writes has to be
+ * listed.  Each SQL string is classified once.
+ *
+ * Every LAG_CHECK_MS the router asks each replica how far its replay is
+ * behind.  A replica is used only when it answers, is in recovery, and is
+ * at most maxLagMs behind.  For read-your-writes, the router remembers per
+ * thread when that thread last wrote.  A read is only sent to a replica
+ * that had replayed everything up to that time when it was last checked;
+ * otherwise it goes to the primary.  Callers that serve one user from many
+ * threads, such as HotelService, carry the time over with getLastWrite()
+ * and setLastWrite().  A replica reporting no lag is taken to be current as
+ * of the check, although WAL still in flight to it is not counted.
+ */
+public class ReplicaRouter {
+
+   public static final long DEFAULT_MAX_LAG_MS = 1000;
+   public static final long LAG_CHECK_MS = 500;
+
+   // functions with side effects that may appear in a SELECT
+   private static final Pattern WRITE_FUNCTIONS = Pattern.compile(
+      "\\b(nextval|setval|currval|pg_notify|create_monthly_partitions|recount_hotel_customer_bookings)\\s*\\(", Pattern.CASE_INSENSITIVE);
+   private static final Pattern MODIFIES = Pattern.compile("\\b(INSERT|UPDATE|DELETE|MERGE)\\b", Pattern.CASE_INSENSITIVE);
+
+   private static final String LAG_SQL =
+      "SELECT pg_is_in_recovery(), CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+      "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+
+   /**
+    * One replica and what its last check found.
+    */
+   private static final class Replica {
+      final String name;
+      final ConnectionPool pool;
+      volatile boolean usable = false;
+      volatile long lagMs = Long.MAX_VALUE;
+      // every write committed on the primary before this time has been replayed
+      volatile long caughtUpTo = 0;
+
+      Replica(String name, ConnectionPool pool) {
+         this.name = name;
+         this.pool = pool;
+      }
+   }//end Replica
+
+   private final ConnectionPool primary;
+   private final List<Replica> replicas = new ArrayList<Replica>();
+   private final long maxLagMs;
+   private final Map<String, Boolean> reads = new ConcurrentHashMap<String, Boolean>();
+   private final ThreadLocal<Long> lastWrite = new ThreadLocal<Long>();
+   private final AtomicInteger next = new AtomicInteger();
+   private final AtomicLong replicaReads = new AtomicLong();
+   private final AtomicLong primaryReads = new AtomicLong();
+   private final Timer checker = new Timer("replica-lag-check", true);
+
+   /**
+    * @param primary the pool of the primary
+    * @param maxLagMs replicas further behind than this are not used
+    */
+   public ReplicaRouter(ConnectionPool primary, long maxLagMs) {
+      this.primary = primary;
+      this.maxLagMs = maxLagMs;
+      checker.schedule(new TimerTask() {
+         public void run() {
+            checkReplicas();
+         }
+      }, 0, LAG_CHECK_MS);
+   }//end ReplicaRouter
+
+   /**
+    * Adds a replica.  It takes reads once its first lag check succeeds.
+    *
+    * @param name how the replica is reported, such as its URL
+    * @param pool the pool of the replica
+    */
+   public synchronized void addReplica(String name, ConnectionPool pool) {
+      replicas.add(new Replica(name, pool));
+   }
+
+   /**
+    * @return true when sql only reads and may run on a replica
+    */
+   public boolean isRead(String sql) {
+      if (sql == null)
+         return false;
+      Boolean read = reads.get(sql);
+      if (read == null) {
+         String text = sql.trim();
+         String head = text.length() < 6 ? text.toUpperCase() : text.substring(0, 6).toUpperCase();
+         read = (head.startsWith("SELECT") || head.startsWith("WITH") && !MODIFIES.matcher(text).find())
+                && !WRITE_FUNCTIONS.matcher(text).find();
+         reads.put(sql, read);
+      }//end if
+      return read;
+   }//end isRead
+
+   /**
+    * Borrows a connection for a read, from a replica that is current
+    * enough for this thread, else from the primary.
+    *
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public Connection borrowRead() throws SQLException {
+      Long wrote = lastWrite.get();
+      long since = wrote == null ? 0 : wrote;
+      List<Replica> candidates;
+      synchronized (this) {
+         candidates = new ArrayList<Replica>(replicas);
+      }//end synchronized
+      int n = candidates.size();
+      int first = n == 0 ? 0 : (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+      for (int i = 0; i < n; ++i) {
+         Replica replica = candidates.get((first + i) % n);
+         if (!replica.usable || replica.lagMs > maxLagMs || replica.caughtUpTo < since)
+            continue;
+         try {
+            Connection conn = replica.pool.borrow();
+            replicaReads.incrementAndGet();
+            return conn;
+         }catch (SQLException e) {
+            replica.usable = false;
+         }//end try
+      }//end for
+      primaryReads.incrementAndGet();
+      return primary.borrow();
+   }//end borrowRead
+
+   /**
+    * Borrows a connection of the primary for a write and notes the time,
+    * so this thread reads its own writes.
+    *
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public Connection borrowWrite() throws SQLException {
+      Connection conn = primary.borrow();
+      noteWrite();
+      return conn;
+   }//end borrowWrite
+
+   /**
+    * Notes that this thread just wrote to the primary.
+    */
+   public void noteWrite() {
+      lastWrite.set(System.currentTimeMillis());
+   }
+
+   /**
+    * Sends every read of this thread to the primary until setLastWrite()
+    * is given back the value returned, for loads that must not miss a
+    * write.
+    *
+    * @return when this thread last wrote, 0 when it has not
+    */
+   public long pinToPrimary() {
+      long wrote = getLastWrite();
+      lastWrite.set(Long.MAX_VALUE);
+      return wrote;
+   }//end pinToPrimary
+
+   /**
+    * @return when this thread last wrote, 0 when it has not
+    */
+   public long getLastWrite() {
+      Long wrote = lastWrite.get();
+      return wrote == null ? 0 : wrote;
+   }
+
+   /**
+    * Sets when the user served by this thread last wrote, 0 for never.
+    */
+   public void setLastWrite(long millis) {
+      if (millis == 0)
+         lastWrite.remove();
+      else
+         lastWrite.set(millis);
+   }//end setLastWrite
+
+   /**
+    * @return the pool a borrowed connection came from
+    */
+   public ConnectionPool poolOf(Connection conn) {
+      if (primary.owns(conn))
+         return primary;
+      synchronized (this) {
+         for (Replica replica : replicas)
+            if (replica.pool.owns(conn))
+               return replica.pool;
+      }//end synchronized
+      return primary;
+   }//end poolOf
+
+   /**
+    * @return reads served by replicas so far
+    */
+   public long getReplicaReads() {
+      return replicaReads.get();
+   }
+
+   /**
+    * @return reads sent to the primary because no replica was current enough
+    */
+   public long getPrimaryReads() {
+      return primaryReads.get();
+   }
+
+   /**
+    * @return one line per replica with what its last check found
+    */
+   public synchronized List<String> describe() {
+      List<String> lines = new ArrayList<String>();
+      for (Replica replica : replicas)
+         lines.add(replica.name + ": " + (replica.usable ? "lag " + replica.lagMs + " ms" : "not usable"));
+      return lines;
+   }//end describe
+
+   /**
+    * Stops the lag checks and closes the replica pools.
+    */
+   public synchronized void close() {
+      checker.cancel();
+      for (Replica replica : replicas)
+         replica.pool.close();
+   }//end close
+
+   private void checkReplicas() {
+      List<Replica> current;
+      synchronized (this) {
+         current = new ArrayList<Replica>(replicas);
+      }//end synchronized
+      for (Replica replica : current) {
+         long checkedAt = System.currentTimeMillis();
+         Connection conn = null;
+         try {
+            conn = replica.pool.borrow();
+            // not cached, a replica that is promoted must not keep a plan around
+            Statement stmt = conn.createStatement();
+            try {
+               // closed with stmt
+               ResultSet rs = stmt.executeQuery(LAG_SQL);
+               if (!rs.next())
+                  throw new SQLException("no answer to the lag check");
+               boolean inRecovery = rs.getBoolean(1);
+               long lag = (long) Math.ceil(rs.getDouble(2));
+               rs.close();
+               replica.lagMs = lag;
+               replica.caughtUpTo = checkedAt - lag;
+               if (!inRecovery && replica.usable)
+                  System.err.println("Replica " + replica.name + " is not in recovery, reads go elsewhere");
+               replica.usable = inRecovery;
+            }finally {
+               stmt.close();
+            }//end try
+         }catch (SQLException e) {
+            if (replica.usable)
+               System.err.println("Replica " + replica.name + ": " + e.getMessage());
+            replica.usable = false;
+         }finally {
+            replica.pool.release(conn);
+         }//end try
+      }//end for
+   }//end checkReplicas
+}//end ReplicaRouter
@@ -0,0 +1,318 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Which nights every room is booked, kept in memory as one bit per day.
+ *
+ * Each (hotelID, roomNumber) owns a bitmap covering a rolling window of
+ * horizonDays nights, starting lookbackDays before today.  The bitmap is a
+ * ring: night d lives at bit d mod horizonDays, so moving the window
+ * forward only clears the bits of the nights that dropped off the front
+ * instead of shifting every word.
+ *
+ * Bits are set with atomic operations under the read lock, so bookings
+ * and lookups from many threads run in parallel; only moving the window
+ * takes the write lock.  Nights outside the window are not answered and
+ * callers fall back to SQL for them.
+ *
+ * Bookings of nights beyond the window are not recorded, so the nights a
+ * move brings in are read through the Loader first.  When that fails the
+ * window stays where it was, still correct, and the move is retried later.
+ *
+ * The index only learns of the bookings it is loaded with and those its
+ * owner records through markBooked(), so it is exact only while that owner
+ * is the single writer of RoomBookings.  Nights booked or cancelled by any
+ * other process show wrongly until the index is loaded again, which Hotel
+ * does every AVAILABILITY_REFRESH_MS.  The unique booking key still stops a
+ * night shown as free from being booked twice.
+ */
+public class RoomAvailabilityIndex {
+
+   public static final int DEFAULT_HORIZON_DAYS = 512;
+   public static final int DEFAULT_LOOKBACK_DAYS = 31;
+   // wait after a failed load before moving the window again
+   private static final long ROLL_RETRY_MS = 60000;
+
+   /**
+    * Reads the bookings of the nights a moving window brings in.
+    */
+   public interface Loader {
+      /**
+       * @return {hotelID, roomNumber, epoch day} of every booking from
+       *         firstDay to lastDay, both included
+       */
+      List<int[]> bookingsBetween(int firstDay, int lastDay) throws SQLException;
+   }//end Loader
+
+   private final int horizonDays;
+   private final int lookbackDays;
+   private final Loader loader;
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+   // hotelID -> roomNumber -> booked bits, rooms kept in number order
+   private final ConcurrentHashMap<Integer, ConcurrentSkipListMap<Integer, AtomicLongArray>> hotels =
+      new ConcurrentHashMap<Integer, ConcurrentSkipListMap<Integer, AtomicLongArray>>();
+   // epoch day of the first night covered
+   private volatile int windowStart;
+   private volatile boolean ready = false;
+   private volatile long nextRollAttempt = 0;
+
+   /**
+    * @param horizonDays nights covered, rounded up to a multiple of 64
+    * @param lookbackDays nights before today still covered
+    * @param loader source of the bookings of nights entering the window,
+    *        null when every booking is recorded through markBooked()
+    */
+   public RoomAvailabilityIndex(int horizonDays, int lookbackDays, Loader loader) {
+      if (horizonDays <= lookbackDays)
+         throw new IllegalArgumentException("horizon must be longer than the lookback");
+      this.horizonDays = (horizonDays + 63) / 64 * 64;
+      this.lookbackDays = lookbackDays;
+      this.loader = loader;
+      this.windowStart = today() - lookbackDays;
+   }//end RoomAvailabilityIndex
+
+   public RoomAvailabilityIndex(Loader loader) {
+      this(DEFAULT_HORIZON_DAYS, DEFAULT_LOOKBACK_DAYS, loader);
+   }
+
+   /**
+    * @return days since 1970-01-01 of a date, in the local time zone
+    */
+   public static int epochDay(java.util.Date date) {
+      long millis = date.getTime();
+      return (int) TimeUnit.MILLISECONDS.toDays(millis + TimeZone.getDefault().getOffset(millis));
+   }//end epochDay
+
+   /**
+    * @return the date of an epoch day, in the local time zone
+    */
+   public static java.sql.Date toDate(int epochDay) {
+      Calendar cal = Calendar.getInstance();
+      cal.clear();
+      cal.set(1970, Calendar.JANUARY, 1);
+      cal.add(Calendar.DAY_OF_MONTH, epochDay);
+      return new java.sql.Date(cal.getTimeInMillis());
+   }//end toDate
+
+   private static int today() {
+      return epochDay(new java.util.Date());
+   }
+
+   /**
+    * Registers a room so it is reported even before its first booking.
+    * Registering a known room again changes nothing.
+    */
+   public void addRoom(int hotelID, int roomNumber) {
+      ConcurrentSkipListMap<Integer, AtomicLongArray> rooms = hotels.get(hotelID);
+      if (rooms == null) {
+         ConcurrentSkipListMap<Integer, AtomicLongArray> created = new ConcurrentSkipListMap<Integer, AtomicLongArray>();
+         rooms = hotels.putIfAbsent(hotelID, created);
+         if (rooms == null)
+            rooms = created;
+      }//end if
+      if (!rooms.containsKey(roomNumber))
+         rooms.putIfAbsent(roomNumber, new AtomicLongArray(horizonDays / 64));
+   }//end addRoom
+
+   /**
+    * Marks the index as fully loaded; lookups are refused before that.
+    */
+   public void markReady() {
+      ready = true;
+   }
+
+   /**
+    * @return true once loaded and when the night falls inside the window
+    */
+   public boolean covers(java.util.Date date) {
+      if (!ready)
+         return false;
+      roll();
+      int day = epochDay(date);
+      return day >= windowStart && day < windowStart + horizonDays;
+   }//end covers
+
+   /**
+    * @return true when the hotel is known to the index
+    */
+   public boolean hasHotel(int hotelID) {
+      return hotels.containsKey(hotelID);
+   }
+
+   /**
+    * Records a booking.  Bookings outside the window or of unknown rooms
+    * are ignored.
+    *
+    * @return true when the booking was recorded
+    */
+   public boolean markBooked(int hotelID, int roomNumber, java.util.Date date) {
+      AtomicLongArray bits = bitsOf(hotelID, roomNumber);
+      if (bits == null)
+         return false;
+      int day = epochDay(date);
+      lock.readLock().lock();
+      try {
+         if (day < windowStart || day >= windowStart + horizonDays)
+            return false;
+         set(bits, day);
+         return true;
+      }finally {
+         lock.readLock().unlock();
+      }//end try
+   }//end markBooked
+
+   /**
+    * @return whether the room is booked that night, or null when the index
+    *         cannot answer (unknown room or night outside the window)
+    */
+   public Boolean isBooked(int hotelID, int roomNumber, java.util.Date date) {
+      AtomicLongArray bits = bitsOf(hotelID, roomNumber);
+      if (bits == null || !covers(date))
+         return null;
+      int day = epochDay(date);
+      lock.readLock().lock();
+      try {
+         return booked(bits, day);
+      }finally {
+         lock.readLock().unlock();
+      }//end try
+   }//end isBooked
+
+   /**
+    * @return room numbers of a hotel with whether each is booked that
+    *         night, as {roomNumber, 0 or 1} pairs in room order; null when
+    *         the night is outside the window
+    */
+   public List<int[]> bookedOn(int hotelID, java.util.Date date) {
+      if (!covers(date))
+         return null;
+      List<int[]> result = new ArrayList<int[]>();
+      ConcurrentSkipListMap<Integer, AtomicLongArray> rooms = hotels.get(hotelID);
+      if (rooms == null)
+         return result;
+      int day = epochDay(date);
+      lock.readLock().lock();
+      try {
+         for (Map.Entry<Integer, AtomicLongArray> room : rooms.entrySet())
+            result.add(new int[] { room.getKey(), booked(room.getValue(), day) ? 1 : 0 });
+      }finally {
+         lock.readLock().unlock();
+      }//end try
+      return result;
+   }//end bookedOn
+
+   /**
+    * Finds the rooms of a hotel that are free every night from first to
+    * last, both included.
+    *
+    * @return the free room numbers in order, or null when part of the range
+    *         is outside the window
+    */
+   public List<Integer> freeBetween(int hotelID, java.util.Date first, java.util.Date last) {
+      if (!covers(first) || !covers(last))
+         return null;
+      List<Integer> result = new ArrayList<Integer>();
+      ConcurrentSkipListMap<Integer, AtomicLongArray> rooms = hotels.get(hotelID);
+      if (rooms == null)
+         return result;
+      int from = epochDay(first), to = epochDay(last);
+      lock.readLock().lock();
+      try {
+         for (Map.Entry<Integer, AtomicLongArray> room : rooms.entrySet()) {
+            boolean free = true;
+            for (int day = from; free && day <= to; ++day)
+               free = !booked(room.getValue(), day);
+            if (free)
+               result.add(room.getKey());
+         }//end for
+      }finally {
+         lock.readLock().unlock();
+      }//end try
+      return result;
+   }//end freeBetween
+
+   /**
+    * Moves the window forward when the date has changed, forgetting the
+    * nights that fell off the front and loading the ones added at the end.
+    */
+   public void roll() {
+      roll(today());
+   }
+
+   // roll() as of the given epoch day
+   void roll(int today) {
+      int target = today - lookbackDays;
+      if (target <= windowStart || System.currentTimeMillis() < nextRollAttempt)
+         return;
+      lock.writeLock().lock();
+      try {
+         int start = windowStart;
+         if (target <= start)
+            return;
+         // read under the write lock: a booking committed after the query
+         // is recorded by markBooked, which waits for the new window
+         int firstNew = Math.max(start + horizonDays, target);
+         List<int[]> bookings;
+         try {
+            bookings = loader == null ? new ArrayList<int[]>() : loader.bookingsBetween(firstNew, target + horizonDays - 1);
+         }catch (SQLException e) {
+            nextRollAttempt = System.currentTimeMillis() + ROLL_RETRY_MS;
+            System.err.println("Availability window not moved: " + e.getMessage());
+            return;
+         }//end try
+
+         // the slots of the dropped nights are reused for the new ones
+         int dropped = Math.min(target - start, horizonDays);
+         for (ConcurrentSkipListMap<Integer, AtomicLongArray> rooms : hotels.values()) {
+            for (AtomicLongArray bits : rooms.values()) {
+               for (int day = start; day < start + dropped; ++day) {
+                  int pos = position(day);
+                  int word = pos >>> 6;
+                  bits.set(word, bits.get(word) & ~(1L << (pos & 63)));
+               }//end for
+            }//end for
+         }//end for
+         windowStart = target;
+         for (int[] booking : bookings) {
+            AtomicLongArray bits = bitsOf(booking[0], booking[1]);
+            if (bits != null && booking[2] >= target && booking[2] < target + horizonDays)
+               set(bits, booking[2]);
+         }//end for
+      }finally {
+         lock.writeLock().unlock();
+      }//end try
+   }//end roll
+
+   private AtomicLongArray bitsOf(int hotelID, int roomNumber) {
+      ConcurrentSkipListMap<Integer, AtomicLongArray> rooms = hotels.get(hotelID);
+      return rooms == null ? null : rooms.get(roomNumber);
+   }
+
+   private void set(AtomicLongArray bits, int day) {
+      int pos = position(day);
+      long mask = 1L << (pos & 63);
+      int word = pos >>> 6;
+      long old;
+      do {
+         old = bits.get(word);
+      }while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask));
+   }//end set
+
+   private boolean booked(AtomicLongArray bits, int day) {
+      int pos = position(day);
+      return (bits.get(pos >>> 6) & (1L << (pos & 63))) != 0;
+   }
+
+   private int position(int day) {
+      return ((day % horizonDays) + horizonDays) % horizonDays;
+   }
+}//end RoomAvailabilityIndex
@@ -0,0 +1,18 @@
+/**
+ * One row of the Rooms table, as held by the catalog cache.  Instances are
+ * immutable; a change to a room replaces its entry.
+ */
+public class RoomEntry {
+
+   public final int hotelID;
+   public final int roomNumber;
+   public final int price;
+   public final String imageURL;
+
+   public RoomEntry(int hotelID, int roomNumber, int price, String imageURL) {
+      this.hotelID = hotelID;
+      this.roomNumber = roomNumber;
+      this.price = price;
+      this.imageURL = imageURL;
+   }
+}//end RoomEntry
@@ -0,0 +1,894 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Spreads the hotels over several PostgreSQL instances, the shards, and
+ * sends every call about a hotel to the shard that holds it.
+ *
+ * Every table but Users and MaintenanceCompany is keyed on hotelID, so a
+ * hotel lives on one shard together with its rooms, bookings, repairs and
+ * room updates.  Users are created on the global node, the database of
+ * the Hotel that owns this router, and copied to every shard, where
+ * bookings and reports join them; MaintenanceCompany is loaded on every
+ * node.  Each shard is a Hotel of its own, with its own pool and caches.
+ *
+ * A hotel listed in the HotelShards table of the global node is on the
+ * shard named there.  Any other hotel is placed by range when shards were
+ * added with the first hotelID they hold, else by a hash of its hotelID.
+ * The hash depends on the number of shards, so every shard is added
+ * before serving.  Run set_shard_key_range() on each shard, so serial keys
+ * are unique across shards and a hotel keeps its keys when it moves.
+ *
+ * Listings that span shards, such as nearby hotels, a customer's bookings
+ * or a manager's history, ask every shard in parallel and merge the
+ * answers in sort order.  A paged listing asks every shard for a page
+ * after the same cursor and keeps the first pageSize rows of them all.
+ *
+ * moveHotel() moves a hotel to another shard while it is being served.
+ * Its rows are copied while calls still go to the old shard; then calls
+ * on that hotel wait while the rows written meanwhile are copied and
+ * HotelShards is changed, and the old rows are deleted after that.  The
+ * wait holds in this process only.  Other processes on the same shards
+ * read HotelShards again every DIRECTORY_REFRESH_MS and must not write to
+ * a hotel while it moves.
+ */
+public class ShardRouter {
+
+   // how often HotelShards is read again, for moves made by other processes
+   public static final long DIRECTORY_REFRESH_MS = 10000;
+   // rows per INSERT when a hotel is copied
+   public static final int COPY_BATCH = 500;
+   // longest a move waits for the audit entries of the old shard
+   public static final long AUDIT_FLUSH_TIMEOUT_MS = 10000;
+
+   private static final int LOCK_STRIPES = 64;
+
+   // columns, filter and conflict handling of each table copied when a
+   // hotel moves, parents first; ? is the hotelID, then the high-water mark
+   private static final String[][] HOTEL_TABLES = {
+      { "Hotel", "hotelID, hotelName, latitude, longitude, dateEstablished, managerUserID", "hotelID = ?",
+        "ON CONFLICT (hotelID) DO UPDATE SET hotelName = EXCLUDED.hotelName, latitude = EXCLUDED.latitude, " +
+        "longitude = EXCLUDED.longitude, dateEstablished = EXCLUDED.dateEstablished, managerUserID = EXCLUDED.managerUserID" },
+      { "Rooms", "hotelID, roomNumber, price, imageURL", "hotelID = ?",
+        "ON CONFLICT (hotelID, roomNumber) DO UPDATE SET price = EXCLUDED.price, imageURL = EXCLUDED.imageURL" },
+      { "RoomBookings", "bookingID, customerID, hotelID, roomNumber, bookingDate", "hotelID = ? AND bookingID %s ?",
+        "ON CONFLICT DO NOTHING" },
+      { "RoomUpdatesLog", "updateNumber, managerID, hotelID, roomNumber, updatedOn", "hotelID = ? AND updateNumber %s ?",
+        "ON CONFLICT DO NOTHING" },
+      { "RoomRepairs", "repairID, companyID, hotelID, roomNumber, repairDate", "hotelID = ?",
+        "ON CONFLICT DO NOTHING" },
+      { "RoomRepairRequests", "requestNumber, managerID, repairID", "repairID IN (SELECT repairID FROM RoomRepairs WHERE hotelID = ?)",
+        "ON CONFLICT DO NOTHING" } };
+
+   // rows of a hotel per table, compared on both shards before a move is committed
+   private static final String[] HOTEL_COUNTS = {
+      "SELECT COUNT(*) FROM Rooms WHERE hotelID = ?",
+      "SELECT COUNT(*) FROM RoomBookings WHERE hotelID = ?",
+      "SELECT COUNT(*) FROM RoomUpdatesLog WHERE hotelID = ?",
+      "SELECT COUNT(*) FROM RoomRepairs WHERE hotelID = ?",
+      "SELECT COUNT(*) FROM RoomRepairRequests WHERE repairID IN (SELECT repairID FROM RoomRepairs WHERE hotelID = ?)" };
+
+   // children first, so no foreign key is in the way
+   private static final String[] DELETE_HOTEL = {
+      "DELETE FROM RoomRepairRequests WHERE repairID IN (SELECT repairID FROM RoomRepairs WHERE hotelID = ?)",
+      "DELETE FROM RoomRepairs WHERE hotelID = ?",
+      "DELETE FROM RoomUpdatesLog WHERE hotelID = ?",
+      "DELETE FROM RoomBookings WHERE hotelID = ?",
+      "DELETE FROM HotelCustomerBookings WHERE hotelID = ?",
+      "DELETE FROM Rooms WHERE hotelID = ?",
+      "DELETE FROM Hotel WHERE hotelID = ?" };
+
+   /**
+    * Work done on one shard.
+    */
+   interface ShardCall<T> {
+      T call(Hotel shard) throws SQLException;
+   }//end ShardCall
+
+   // one row of a shard's page with its sort key
+   private static final class Keyed {
+      final List<String> row;
+      final List<String> key;
+
+      Keyed(List<String> row, List<String> key) {
+         this.row = row;
+         this.key = key;
+      }
+   }//end Keyed
+
+   private final Hotel global;
+   private final List<Hotel> shards = new CopyOnWriteArrayList<Hotel>();
+   // first hotelID of a range -> shard, empty when hotels are hashed
+   private volatile TreeMap<Integer, Integer> ranges = new TreeMap<Integer, Integer>();
+   // HotelShards: hotelID -> shard
+   private volatile Map<Integer, Integer> directory = new HashMap<Integer, Integer>();
+   // calls on a hotel hold the read lock of its stripe, a move the write lock
+   private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[LOCK_STRIPES];
+   private final ExecutorService fanOut;
+   private final Timer refresher = new Timer("shard-directory-refresh", true);
+
+   /**
+    * Creates a router without shards and reads HotelShards.
+    *
+    * @param global the Hotel of the global node, which holds Users and HotelShards
+    * @throws java.sql.SQLException when HotelShards cannot be read
+    */
+   public ShardRouter(Hotel global) throws SQLException {
+      this.global = global;
+      for (int i = 0; i < LOCK_STRIPES; ++i)
+         locks[i] = new ReentrantReadWriteLock();
+      this.fanOut = Executors.newCachedThreadPool(new ThreadFactory() {
+         public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      reloadDirectory();
+      refresher.schedule(new TimerTask() {
+         public void run() {
+            try {
+               reloadDirectory();
+            }catch (SQLException e) {
+               System.err.println("Shard directory reload failed: " + e.getMessage());
+            }//end try
+         }
+      }, DIRECTORY_REFRESH_MS, DIRECTORY_REFRESH_MS);
+   }//end ShardRouter
+
+   /**
+    * Adds a shard whose hotels are placed by hash.
+    */
+   public synchronized void addShard(Hotel shard) {
+      shards.add(shard);
+   }
+
+   /**
+    * Adds a shard holding the hotelIDs from firstHotelID up to the first
+    * hotelID of the next range.
+    */
+   public synchronized void addShard(Hotel shard, int firstHotelID) {
+      TreeMap<Integer, Integer> next = new TreeMap<Integer, Integer>(ranges);
+      next.put(firstHotelID, shards.size());
+      shards.add(shard);
+      ranges = next;
+   }//end addShard
+
+   /**
+    * @return the shards, in the order they were added
+    */
+   public List<Hotel> getShards() {
+      return Collections.unmodifiableList(shards);
+   }
+
+   /**
+    * @return the number of the shard that holds a hotel
+    */
+   public int shardOf(int hotelID) {
+      int n = shards.size();
+      if (n == 0)
+         throw new IllegalStateException("No shards");
+      Integer placed = directory.get(hotelID);
+      if (placed != null && placed >= 0 && placed < n)
+         return placed;
+      TreeMap<Integer, Integer> r = ranges;
+      if (!r.isEmpty()) {
+         Map.Entry<Integer, Integer> range = r.floorEntry(hotelID);
+         return (range == null ? r.firstEntry() : range).getValue();
+      }//end if
+      // mixed first, so consecutive hotelIDs spread over the shards
+      int h = hotelID * 0x9E3779B9;
+      return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % n;
+   }//end shardOf
+
+   /**
+    * Reads HotelShards again.
+    *
+    * @throws java.sql.SQLException when HotelShards cannot be read
+    */
+   public synchronized void reloadDirectory() throws SQLException {
+      Map<Integer, Integer> next = new HashMap<Integer, Integer>();
+      // from the primary, a replica may not have the last move yet
+      ReplicaRouter router = global.getReplicaRouter();
+      long wrote = router.pinToPrimary();
+      try {
+         for (List<String> row : global.executeQueryAndReturnResult("SELECT hotelID, shard FROM HotelShards"))
+            next.put(Integer.valueOf(row.get(0)), Integer.valueOf(row.get(1)));
+      }finally {
+         router.setLastWrite(wrote);
+      }//end try
+      directory = next;
+   }//end reloadDirectory
+
+   /**
+    * Stops the directory reloads and closes every shard.
+    */
+   public void close() {
+      refresher.cancel();
+      fanOut.shutdown();
+      for (Hotel shard : shards)
+         shard.cleanup();
+   }//end close
+
+   // --- users, kept on the global node and copied to every shard
+
+   /**
+    * Copies a user created on the global node to every shard.
+    *
+    * @throws java.sql.SQLException when a shard could not take the user
+    */
+   public void copyUser(UserEntry user) throws SQLException {
+      String query = "INSERT INTO Users (userID, name, password, userType) VALUES (?, ?, ?, ?) ON CONFLICT (userID) DO NOTHING";
+      for (Hotel shard : shards)
+         shard.executeUpdate(query, user.userID, user.name, user.password, user.role.name().toLowerCase());
+   }//end copyUser
+
+   /**
+    * Copies every user of the global node to every shard that lacks it,
+    * for setting up a new shard or after copyUser() failed.
+    *
+    * @return rows read from the global node, once per shard
+    * @throws java.sql.SQLException when a copy failed
+    */
+   public int copyUsers() throws SQLException {
+      int rows = 0;
+      for (Hotel shard : shards)
+         rows += copyRows(global, shard, "Users", "userID, name, password, userType", "userID > ?",
+                          "ON CONFLICT (userID) DO NOTHING", 0);
+      return rows;
+   }//end copyUsers
+
+   // --- calls on one hotel, sent to the shard that holds it
+
+   public Hotel.BookingResult bookRoom(int customerID, int hotelID, int roomNumber, java.sql.Date date) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.bookRoom(customerID, hotelID, roomNumber, date);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end bookRoom
+
+   /**
+    * Books a batch on the shard of its hotels.  All or nothing only holds
+    * within one database, so a batch whose hotels are on different shards
+    * is refused.
+    */
+   public List<Hotel.BookingResult> bookRoomBatch(int customerID, List<Hotel.BookingRequest> requests) throws SQLException {
+      TreeSet<Integer> stripes = new TreeSet<Integer>();
+      for (Hotel.BookingRequest request : requests)
+         stripes.add(stripe(request.hotelID));
+      // in stripe order, so two batches never wait for each other
+      List<Integer> held = new ArrayList<Integer>();
+      try {
+         for (Integer s : stripes) {
+            locks[s].readLock().lock();
+            held.add(s);
+         }//end for
+         Integer shard = null;
+         for (Hotel.BookingRequest request : requests) {
+            int owner = shardOf(request.hotelID);
+            if (shard != null && shard != owner)
+               throw new SQLException("The rooms of one batch booking must be on the same shard");
+            shard = owner;
+         }//end for
+         if (shard == null)
+            return new ArrayList<Hotel.BookingResult>();
+         return shards.get(shard).bookRoomBatch(customerID, requests);
+      }finally {
+         for (Integer s : held)
+            locks[s].readLock().unlock();
+      }//end try
+   }//end bookRoomBatch
+
+   public Integer getHotelManager(int hotelID) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.getHotelManager(hotelID);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end getHotelManager
+
+   public boolean roomExists(int hotelID, int roomNumber) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.roomExists(hotelID, roomNumber);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end roomExists
+
+   public List<List<String>> regularCustomers(int hotelID, int limit) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.regularCustomers(hotelID, limit);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end regularCustomers
+
+   public List<List<String>> regularCustomers(int hotelID, int limit, int windowDays) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.regularCustomers(hotelID, limit, windowDays);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end regularCustomers
+
+   public boolean updateRoom(int managerID, int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.updateRoom(managerID, hotelID, roomNumber, price, imageURL);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end updateRoom
+
+   public List<Integer> requestRepairs(int managerID, int hotelID, List<Integer> roomNumbers, int companyID) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.requestRepairs(managerID, hotelID, roomNumbers, companyID);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end requestRepairs
+
+   public List<List<String>> roomAvailability(int hotelID, java.sql.Date date) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.roomAvailability(hotelID, date);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end roomAvailability
+
+   public List<Integer> findRoomsFreeBetween(int hotelID, java.sql.Date first, java.sql.Date last) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.findRoomsFreeBetween(hotelID, first, last);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end findRoomsFreeBetween
+
+   public List<String> verifyAvailability(int hotelID, java.sql.Date date) throws SQLException {
+      Hotel shard = enter(hotelID);
+      try {
+         return shard.verifyAvailability(hotelID, date);
+      }finally {
+         leave(hotelID);
+      }//end try
+   }//end verifyAvailability
+
+   // --- listings over every shard, merged
+
+   public List<HotelEntry> findHotelsWithin(final double lat, final double lng, final double radius) throws SQLException {
+      List<List<HotelEntry>> found = everyShard(new ShardCall<List<HotelEntry>>() {
+         public List<HotelEntry> call(Hotel shard) throws SQLException {
+            return shard.findHotelsWithin(lat, lng, radius);
+         }
+      });
+      return nearestFirst(found, lat, lng, Integer.MAX_VALUE);
+   }//end findHotelsWithin
+
+   public List<HotelEntry> findNearestHotels(final double lat, final double lng, final int k) throws SQLException {
+      List<List<HotelEntry>> found = everyShard(new ShardCall<List<HotelEntry>>() {
+         public List<HotelEntry> call(Hotel shard) throws SQLException {
+            return shard.findNearestHotels(lat, lng, k);
+         }
+      });
+      return nearestFirst(found, lat, lng, k);
+   }//end findNearestHotels
+
+   public List<List<String>> findHotelsWithinFromDatabase(final double lat, final double lng, final double radius) throws SQLException {
+      List<List<List<String>>> found = everyShard(new ShardCall<List<List<String>>>() {
+         public List<List<String>> call(Hotel shard) throws SQLException {
+            return shard.findHotelsWithinFromDatabase(lat, lng, radius);
+         }
+      });
+      Map<String, List<String>> byHotel = new LinkedHashMap<String, List<String>>();
+      for (List<List<String>> rows : found)
+         for (List<String> row : rows)
+            if (!byHotel.containsKey(row.get(0)))
+               byHotel.put(row.get(0), row);
+      List<List<String>> result = new ArrayList<List<String>>(byHotel.values());
+      Collections.sort(result, new Comparator<List<String>>() {
+         public int compare(List<String> a, List<String> b) {
+            return compareValues(a.get(5), b.get(5));
+         }
+      });
+      return result;
+   }//end findHotelsWithinFromDatabase
+
+   public Hotel.Page searchFreeRooms(final double lat, final double lng, final double radius, final java.sql.Date first,
+                                     final java.sql.Date last, final int maxPrice, final Hotel.SearchOrder order,
+                                     final int pageSize, final Hotel.Page after) throws SQLException {
+      return merge(everyShard(new ShardCall<Hotel.Page>() {
+         public Hotel.Page call(Hotel shard) throws SQLException {
+            return shard.searchFreeRooms(lat, lng, radius, first, last, maxPrice, order, pageSize, after);
+         }
+      }), pageSize, false);
+   }//end searchFreeRooms
+
+   public Hotel.Page customerBookings(final int customerID, final int pageSize, final Hotel.Page after) throws SQLException {
+      return merge(everyShard(new ShardCall<Hotel.Page>() {
+         public Hotel.Page call(Hotel shard) throws SQLException {
+            return shard.customerBookings(customerID, pageSize, after);
+         }
+      }), pageSize, true);
+   }//end customerBookings
+
+   public Hotel.Page managerUpdates(final int managerID, final int pageSize, final Hotel.Page after) throws SQLException {
+      return merge(everyShard(new ShardCall<Hotel.Page>() {
+         public Hotel.Page call(Hotel shard) throws SQLException {
+            return shard.managerUpdates(managerID, pageSize, after);
+         }
+      }), pageSize, true);
+   }//end managerUpdates
+
+   public Hotel.Page bookingHistory(final int managerID, final java.sql.Date from, final java.sql.Date to,
+                                    final int pageSize, final Hotel.Page after) throws SQLException {
+      return merge(everyShard(new ShardCall<Hotel.Page>() {
+         public Hotel.Page call(Hotel shard) throws SQLException {
+            return shard.bookingHistory(managerID, from, to, pageSize, after);
+         }
+      }), pageSize, false);
+   }//end bookingHistory
+
+   /**
+    * Lists repairs from the shard of the hotel when one is given, else
+    * from every shard.
+    */
+   public Hotel.Page repairHistory(final int managerID, final Integer hotelID, final Integer roomNumber, final Integer companyID,
+                                   final java.sql.Date from, final java.sql.Date to, final int pageSize,
+                                   final Hotel.Page after) throws SQLException {
+      if (hotelID != null) {
+         Hotel shard = enter(hotelID);
+         try {
+            return shard.repairHistory(managerID, hotelID, roomNumber, companyID, from, to, pageSize, after);
+         }finally {
+            leave(hotelID);
+         }//end try
+      }//end if
+      return merge(everyShard(new ShardCall<Hotel.Page>() {
+         public Hotel.Page call(Hotel shard) throws SQLException {
+            return shard.repairHistory(managerID, hotelID, roomNumber, companyID, from, to, pageSize, after);
+         }
+      }), pageSize, true);
+   }//end repairHistory
+
+   /**
+    * Streams a manager's bookings shard after shard, on the calling
+    * thread, so rows are in order within a shard only.
+    */
+   public int streamBookingHistory(int managerID, java.sql.Date from, java.sql.Date to, Hotel.RowHandler handler) throws SQLException {
+      int rows = 0;
+      for (Hotel shard : shards)
+         rows += shard.streamBookingHistory(managerID, from, to, handler);
+      return rows;
+   }//end streamBookingHistory
+
+   /**
+    * Reports on one hotel from its shard.  For every hotel the shards
+    * report in parallel: per hotel their rows are put together, per night
+    * or month nights and revenue are added up and occupancy and ADR are
+    * worked out again over the rooms of every shard.
+    */
+   public List<List<String>> revenueReport(int hotelID, final java.sql.Date first, final java.sql.Date last,
+                                           final AnalyticsEngine.Grouping grouping) throws SQLException {
+      if (hotelID != 0) {
+         Hotel shard = enter(hotelID);
+         try {
+            return shard.revenueReport(hotelID, first, last, grouping);
+         }finally {
+            leave(hotelID);
+         }//end try
+      }//end if
+      List<List<List<String>>> reports = everyShard(new ShardCall<List<List<String>>>() {
+         public List<List<String>> call(Hotel shard) throws SQLException {
+            return shard.revenueReport(0, first, last, grouping);
+         }
+      });
+
+      if (grouping == AnalyticsEngine.Grouping.HOTEL) {
+         // a hotel that is being moved is on two shards, report it once
+         Map<String, List<String>> byHotel = new TreeMap<String, List<String>>(new Comparator<String>() {
+            public int compare(String a, String b) {
+               return compareValues(a, b);
+            }
+         });
+         for (List<List<String>> report : reports)
+            for (List<String> row : report)
+               if (!byHotel.containsKey(row.get(0)))
+                  byHotel.put(row.get(0), row);
+         return new ArrayList<List<String>>(byHotel.values());
+      }//end if
+
+      Map<Integer, Integer> roomCounts = new HashMap<Integer, Integer>();
+      for (Hotel shard : shards)
+         roomCounts.putAll(shard.getCatalog().roomCounts());
+      long rooms = 0;
+      for (Integer count : roomCounts.values())
+         rooms += count;
+      Map<String, long[]> sums = new LinkedHashMap<String, long[]>();
+      for (List<List<String>> report : reports)
+         for (List<String> row : report) {
+            long[] sum = sums.get(row.get(0));
+            if (sum == null)
+               sums.put(row.get(0), sum = new long[2]);
+            sum[0] += Long.parseLong(row.get(1));
+            sum[1] += Long.parseLong(row.get(2));
+         }//end for
+      Map<String, Integer> nightsIn = nightsPerGroup(first, last, grouping);
+      List<List<String>> result = new ArrayList<List<String>>();
+      for (Map.Entry<String, long[]> group : sums.entrySet()) {
+         long nights = group.getValue()[0], revenue = group.getValue()[1];
+         Integer days = nightsIn.get(group.getKey());
+         long capacity = rooms * (days == null ? 0 : days);
+         List<String> row = new ArrayList<String>(5);
+         row.add(group.getKey());
+         row.add(Long.toString(nights));
+         row.add(Long.toString(revenue));
+         row.add(capacity == 0 ? "-" : String.format("%.1f", 100.0 * nights / capacity));
+         row.add(nights == 0 ? "-" : String.format("%.2f", (double) revenue / nights));
+         result.add(row);
+      }//end for
+      return result;
+   }//end revenueReport
+
+   // --- moving a hotel
+
+   /**
+    * Moves a hotel to another shard while it is being served.
+    *
+    * @param hotelID the hotel
+    * @param to the number of the shard to move it to
+    * @throws java.sql.SQLException when a copy or the delete failed; a
+    *         move that fails before HotelShards is changed leaves the hotel
+    *         where it was
+    */
+   public synchronized void moveHotel(int hotelID, int to) throws SQLException {
+      if (to < 0 || to >= shards.size())
+         throw new IllegalArgumentException("No shard " + to);
+      int from = shardOf(hotelID);
+      if (from == to)
+         return;
+      Hotel source = shards.get(from), target = shards.get(to);
+      if (source.getHotelManager(hotelID) == null)
+         throw new SQLException("hotel ID does not exist");
+
+      ReplicaRouter router = source.getReplicaRouter();
+      long wrote = router.pinToPrimary();
+      try {
+         // the bulk, while the hotel is served from the source
+         int bookingMark = highWaterMark(source, "SELECT MAX(bookingID) FROM RoomBookings WHERE hotelID = ?", hotelID);
+         int updateMark = highWaterMark(source, "SELECT MAX(updateNumber) FROM RoomUpdatesLog WHERE hotelID = ?", hotelID);
+         try {
+            copyHotel(source, target, hotelID, "<=", bookingMark, updateMark);
+         }catch (SQLException e) {
+            abandon(target, hotelID);
+            throw e;
+         }//end try
+
+         // then what was written meanwhile, with the hotel's calls held back
+         ReentrantReadWriteLock lock = locks[stripe(hotelID)];
+         lock.writeLock().lock();
+         try {
+            try {
+               if (!source.getAuditLog().flush(AUDIT_FLUSH_TIMEOUT_MS))
+                  throw new SQLException("The audit log of shard " + from + " is behind, try again");
+               copyHotel(source, target, hotelID, ">", bookingMark, updateMark);
+               for (String count : HOTEL_COUNTS) {
+                  Integer expected = source.queryForInt(count, hotelID), copied = target.queryForInt(count, hotelID);
+                  if (expected == null ? copied != null : !expected.equals(copied))
+                     throw new SQLException("Shard " + to + " took " + copied + " of " + expected + " rows for \"" + count +
+                                            "\", are the shards' key ranges apart (set_shard_key_range)?");
+               }//end for
+               target.refreshCatalog();
+            }catch (SQLException e) {
+               abandon(target, hotelID);
+               throw e;
+            }catch (java.io.IOException e) {
+               abandon(target, hotelID);
+               throw new SQLException("Audit log: " + e.getMessage());
+            }catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               abandon(target, hotelID);
+               throw new SQLException("Interrupted while moving hotel " + hotelID);
+            }//end try
+            global.executeUpdate("INSERT INTO HotelShards (hotelID, shard) VALUES (?, ?) " +
+                                 "ON CONFLICT (hotelID) DO UPDATE SET shard = EXCLUDED.shard", hotelID, to);
+            Map<Integer, Integer> next = new HashMap<Integer, Integer>(directory);
+            next.put(hotelID, to);
+            directory = next;
+         }finally {
+            lock.writeLock().unlock();
+         }//end try
+      }finally {
+         router.setLastWrite(wrote);
+      }//end try
+
+      deleteHotel(source, hotelID);
+      source.refreshCatalog();
+      // the bookings were written behind the caches' back
+      source.dropBookingCaches();
+      target.dropBookingCaches();
+   }//end moveHotel
+
+   /**
+    * Deletes the hotels a shard holds but the placement puts elsewhere,
+    * for setting up shards from full copies of one database.
+    *
+    * @return the number of hotels deleted
+    * @throws java.sql.SQLException when a delete failed
+    */
+   public synchronized int removeMisplacedHotels() throws SQLException {
+      int removed = 0;
+      for (int i = 0; i < shards.size(); ++i) {
+         Hotel shard = shards.get(i);
+         boolean changed = false;
+         for (HotelEntry hotel : shard.loadHotels())
+            if (shardOf(hotel.hotelID) != i) {
+               deleteHotel(shard, hotel.hotelID);
+               changed = true;
+               ++removed;
+            }//end if
+         if (changed) {
+            shard.refreshCatalog();
+            shard.dropBookingCaches();
+         }//end if
+      }//end for
+      return removed;
+   }//end removeMisplacedHotels
+
+   // --- helpers
+
+   private int stripe(int hotelID) {
+      return (hotelID & Integer.MAX_VALUE) % LOCK_STRIPES;
+   }
+
+   // the shard of a hotel, held there until leave()
+   private Hotel enter(int hotelID) {
+      locks[stripe(hotelID)].readLock().lock();
+      try {
+         return shards.get(shardOf(hotelID));
+      }catch (RuntimeException e) {
+         locks[stripe(hotelID)].readLock().unlock();
+         throw e;
+      }//end try
+   }//end enter
+
+   private void leave(int hotelID) {
+      locks[stripe(hotelID)].readLock().unlock();
+   }
+
+   // runs call on every shard at once and returns the answers in shard order
+   private <T> List<T> everyShard(final ShardCall<T> call) throws SQLException {
+      List<Future<T>> futures = new ArrayList<Future<T>>();
+      for (final Hotel shard : shards)
+         futures.add(fanOut.submit(new Callable<T>() {
+            public T call() throws SQLException {
+               return call.call(shard);
+            }
+         }));
+      List<T> results = new ArrayList<T>(futures.size());
+      try {
+         for (Future<T> future : futures)
+            results.add(future.get());
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for the shards");
+      }catch (ExecutionException e) {
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw new SQLException("A shard failed: " + e.getCause(), e.getCause());
+      }//end try
+      return results;
+   }//end everyShard
+
+   // the first pageSize rows of the shards' pages in key order; a row on
+   // two shards, as while a hotel is being moved, has the same key and is
+   // listed once
+   static Hotel.Page merge(List<Hotel.Page> pages, int pageSize, final boolean descending) {
+      List<Keyed> all = new ArrayList<Keyed>();
+      boolean more = false;
+      for (Hotel.Page page : pages) {
+         more |= page.hasNext();
+         for (int i = 0; i < page.rows.size(); ++i)
+            all.add(new Keyed(page.rows.get(i), page.keys.get(i)));
+      }//end for
+      Collections.sort(all, new Comparator<Keyed>() {
+         public int compare(Keyed a, Keyed b) {
+            int c = compareKeys(a.key, b.key);
+            return descending ? -c : c;
+         }
+      });
+      List<List<String>> rows = new ArrayList<List<String>>();
+      List<List<String>> keys = new ArrayList<List<String>>();
+      for (Keyed keyed : all) {
+         if (!keys.isEmpty() && compareKeys(keys.get(keys.size() - 1), keyed.key) == 0)
+            continue;
+         if (rows.size() == pageSize) {
+            more = true;
+            break;
+         }//end if
+         rows.add(keyed.row);
+         keys.add(keyed.key);
+      }//end for
+      return new Hotel.Page(rows, more && !keys.isEmpty() ? keys.get(keys.size() - 1) : null, keys);
+   }//end merge
+
+   static int compareKeys(List<String> a, List<String> b) {
+      for (int i = 0; i < Math.min(a.size(), b.size()); ++i) {
+         int c = compareValues(a.get(i), b.get(i));
+         if (c != 0)
+            return c;
+      }//end for
+      return a.size() - b.size();
+   }//end compareKeys
+
+   // numbers by value, anything else (dates, timestamps) as printed
+   static int compareValues(String a, String b) {
+      if (a == null || b == null)
+         return a == null ? (b == null ? 0 : -1) : 1;
+      try {
+         return Double.compare(Double.parseDouble(a), Double.parseDouble(b));
+      }catch (NumberFormatException e) {
+         return a.compareTo(b);
+      }//end try
+   }//end compareValues
+
+   private static List<HotelEntry> nearestFirst(List<List<HotelEntry>> found, final double lat, final double lng, int k) {
+      Map<Integer, HotelEntry> byID = new LinkedHashMap<Integer, HotelEntry>();
+      for (List<HotelEntry> hotels : found)
+         for (HotelEntry hotel : hotels)
+            if (!byID.containsKey(hotel.hotelID))
+               byID.put(hotel.hotelID, hotel);
+      List<HotelEntry> hotels = new ArrayList<HotelEntry>(byID.values());
+      Collections.sort(hotels, new Comparator<HotelEntry>() {
+         public int compare(HotelEntry a, HotelEntry b) {
+            return Double.compare(a.distanceTo(lat, lng), b.distanceTo(lat, lng));
+         }
+      });
+      return hotels.size() > k ? new ArrayList<HotelEntry>(hotels.subList(0, k)) : hotels;
+   }//end nearestFirst
+
+   // nights of the range in each row of a report, by the row's label
+   private static Map<String, Integer> nightsPerGroup(java.sql.Date first, java.sql.Date last, AnalyticsEngine.Grouping grouping) {
+      Map<String, Integer> nights = new HashMap<String, Integer>();
+      Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+      for (int day = RoomAvailabilityIndex.epochDay(first); day <= RoomAvailabilityIndex.epochDay(last); ++day) {
+         String label;
+         if (grouping == AnalyticsEngine.Grouping.DAY) {
+            label = RoomAvailabilityIndex.toDate(day).toString();
+         }else {
+            calendar.setTimeInMillis(day * 86400000L);
+            label = String.format("%04d-%02d", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1);
+         }//end if
+         Integer n = nights.get(label);
+         nights.put(label, n == null ? 1 : n + 1);
+      }//end for
+      return nights;
+   }//end nightsPerGroup
+
+   private static int highWaterMark(Hotel shard, String query, int hotelID) throws SQLException {
+      Integer mark = shard.queryForInt(query, hotelID);
+      return mark == null ? 0 : mark;
+   }
+
+   // copies every table of a hotel; op picks the rows up to the marks or after them
+   private void copyHotel(Hotel source, Hotel target, int hotelID, String op, int bookingMark, int updateMark) throws SQLException {
+      for (String[] table : HOTEL_TABLES) {
+         if (table[2].contains("%s")) {
+            int mark = table[0].equals("RoomBookings") ? bookingMark : updateMark;
+            copyRows(source, target, table[0], table[1], String.format(table[2], op), table[3], hotelID, mark);
+         }else {
+            copyRows(source, target, table[0], table[1], table[2], table[3], hotelID);
+         }//end if
+      }//end for
+   }//end copyHotel
+
+   // streams the rows of table matching where from source and inserts them
+   // into target COPY_BATCH at a time
+   private static int copyRows(Hotel source, final Hotel target, final String table, final String columns, String where,
+                               final String onConflict, Object... params) throws SQLException {
+      final int width = columns.split(",").length;
+      final List<Object[]> batch = new ArrayList<Object[]>(COPY_BATCH);
+      int rows = source.executeQueryStreaming("SELECT " + columns + " FROM " + table + " WHERE " + where, COPY_BATCH,
+                                              new Hotel.RowHandler() {
+         public void handle(ResultSet row) throws SQLException {
+            Object[] values = new Object[width];
+            for (int i = 0; i < width; ++i)
+               values[i] = row.getObject(i + 1);
+            batch.add(values);
+            if (batch.size() == COPY_BATCH) {
+               insertRows(target, table, columns, onConflict, batch);
+               batch.clear();
+            }//end if
+         }
+      }, params);
+      if (!batch.isEmpty())
+         insertRows(target, table, columns, onConflict, batch);
+      return rows;
+   }//end copyRows
+
+   private static void insertRows(Hotel target, String table, String columns, String onConflict, List<Object[]> rows) throws SQLException {
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (").append(columns).append(") VALUES ");
+      for (int r = 0; r < rows.size(); ++r) {
+         sql.append(r == 0 ? "(" : ", (");
+         for (int c = 0; c < rows.get(r).length; ++c)
+            sql.append(c == 0 ? "?" : ", ?");
+         sql.append(')');
+      }//end for
+      sql.append(' ').append(onConflict);
+      Connection conn = target.getConnection();
+      try {
+         // a one-off statement per batch size, kept out of the statement cache
+         PreparedStatement stmt = conn.prepareStatement(sql.toString());
+         try {
+            int p = 0;
+            for (Object[] row : rows)
+               for (Object value : row) {
+                  if (value == null)
+                     stmt.setNull(++p, Types.VARCHAR);
+                  else
+                     stmt.setObject(++p, value);
+               }//end for
+            stmt.executeUpdate();
+         }finally {
+            stmt.close();
+         }//end try
+      }finally {
+         target.releaseConnection(conn);
+      }//end try
+   }//end insertRows
+
+   // deletes a hotel and everything about it from one shard, in one transaction
+   private static void deleteHotel(Hotel shard, int hotelID) throws SQLException {
+      Connection conn = shard.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         for (String delete : DELETE_HOTEL)
+            shard.prepare(conn, delete, hotelID).executeUpdate();
+         conn.commit();
+      }finally {
+         shard.releaseConnection(conn);
+      }//end try
+   }//end deleteHotel
+
+   // removes a partial copy from the target of a failed move
+   private static void abandon(Hotel target, int hotelID) {
+      try {
+         deleteHotel(target, hotelID);
+         target.refreshCatalog();
+      }catch (SQLException e) {
+         System.err.println("Hotel " + hotelID + " is partly copied to a shard it is not placed on: " + e.getMessage());
+      }//end try
+   }//end abandon
+}//end ShardRouter
@@ -0,0 +1,133 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGStatement;
+
+/**
+ * A least recently used cache of PreparedStatements for one physical
+ * connection, keyed by the SQL text (the query shape, since every value is
+ * bound as a parameter).  Once a statement has been used prepareThreshold
+ * times it is switched to a server side prepared statement so PostgreSQL
+ * stops parsing and planning it on every execution.
+ *
+ * Like the connection it belongs to, a cache is only ever used by the
+ * thread that borrowed the connection, so it is not synchronized.
+ * Statements handed out by prepare() are owned by the cache and must not
+ * be closed by the caller.
+ */
+public class StatementCache {
+
+   /**
+    * Hit and miss counters shared by every cache of one pool.
+    */
+   public static class Stats {
+      final AtomicLong hits = new AtomicLong();
+      final AtomicLong misses = new AtomicLong();
+
+      public long getHits() {
+         return hits.get();
+      }
+
+      public long getMisses() {
+         return misses.get();
+      }
+
+      /**
+       * @return fraction of prepare() calls served from a cache, 0 when unused
+       */
+      public double getHitRate() {
+         long h = hits.get();
+         long total = h + misses.get();
+         return total == 0 ? 0.0 : (double) h / total;
+      }
+   }//end Stats
+
+   private static class Cached {
+      final PreparedStatement statement;
+      int uses;
+
+      Cached(PreparedStatement statement) {
+         this.statement = statement;
+      }
+   }//end Cached
+
+   private final Connection connection;
+   private final int prepareThreshold;
+   private final Stats stats;
+   private final LinkedHashMap<String, Cached> statements;
+
+   /**
+    * @param connection the connection the statements are prepared on
+    * @param capacity maximum number of statements kept open
+    * @param prepareThreshold uses after which a statement is prepared on the server, 0 to never
+    * @param stats counters to record hits and misses in
+    */
+   public StatementCache(Connection connection, final int capacity, int prepareThreshold, Stats stats) {
+      this.connection = connection;
+      this.prepareThreshold = prepareThreshold;
+      this.stats = stats;
+      this.statements = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            if (size() <= capacity)
+               return false;
+            closeQuietly(eldest.getValue().statement);
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the cached statement for sql, preparing it on a miss.  The
+    * parameters of a cached statement are cleared before it is returned.
+    *
+    * @param sql the parameterized SQL text
+    * @return a statement owned by this cache
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      Cached cached = statements.get(sql);
+      if (cached == null) {
+         stats.misses.incrementAndGet();
+         cached = new Cached(connection.prepareStatement(sql));
+         statements.put(sql, cached);
+      }else {
+         stats.hits.incrementAndGet();
+         cached.statement.clearParameters();
+      }//end if
+
+      if (++cached.uses == prepareThreshold && cached.statement instanceof PGStatement)
+         ((PGStatement) cached.statement).setUseServerPrepare(true);
+      return cached.statement;
+   }//end prepare
+
+   /**
+    * @return number of statements currently cached
+    */
+   public int size() {
+      return statements.size();
+   }
+
+   /**
+    * Closes every cached statement.
+    */
+   public void close() {
+      Iterator<Cached> it = statements.values().iterator();
+      while (it.hasNext()) {
+         closeQuietly(it.next().statement);
+         it.remove();
+      }//end while
+   }//end close
+
+   private static void closeQuietly(PreparedStatement statement) {
+      try {
+         statement.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+}//end StatementCache
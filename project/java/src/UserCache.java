@@ -0,0 +1,67 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, read-through cache of Users rows keyed by userID.  The least
+ * recently used entry is dropped when the cache is full and an entry older
+ * than ttlMs is treated as missing, so a changed password or role is picked
+ * up after at most ttlMs even without an explicit invalidate().
+ *
+ * Lookups are short, so a single lock around the LRU map is enough even
+ * when a whole shift logs in at once.
+ */
+public class UserCache {
+
+   public static final int DEFAULT_CAPACITY = 10000;
+   public static final long DEFAULT_TTL_MS = 300000;
+
+   private final long ttlMs;
+   private final LinkedHashMap<Integer, UserEntry> entries;
+
+   /**
+    * @param capacity maximum number of users kept
+    * @param ttlMs how long an entry is trusted
+    */
+   public UserCache(final int capacity, long ttlMs) {
+      this.ttlMs = ttlMs;
+      this.entries = new LinkedHashMap<Integer, UserEntry>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<Integer, UserEntry> eldest) {
+            return size() > capacity;
+         }
+      };
+   }//end UserCache
+
+   public UserCache() {
+      this(DEFAULT_CAPACITY, DEFAULT_TTL_MS);
+   }
+
+   /**
+    * @return the cached user, or null when absent or expired
+    */
+   public synchronized UserEntry get(int userID) {
+      UserEntry entry = entries.get(userID);
+      if (entry == null)
+         return null;
+      if (System.currentTimeMillis() - entry.loadedAt >= ttlMs) {
+         entries.remove(userID);
+         return null;
+      }//end if
+      return entry;
+   }//end get
+
+   public synchronized void put(UserEntry entry) {
+      entries.put(entry.userID, entry);
+   }
+
+   public synchronized void invalidate(int userID) {
+      entries.remove(userID);
+   }
+
+   public synchronized void clear() {
+      entries.clear();
+   }
+
+   public synchronized int size() {
+      return entries.size();
+   }
+}//end UserCache
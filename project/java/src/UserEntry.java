@@ -0,0 +1,63 @@
+/**
+ * One row of the Users table as held by the UserCache.  Padding of the
+ * char columns is stripped when the entry is built.
+ */
+public class UserEntry {
+
+   /**
+    * What a user may do; parsed from the free-text userType column.
+    */
+   public enum Role {
+      CUSTOMER, MANAGER, ADMIN;
+
+      /**
+       * @return the role for a userType value, ignoring case and padding;
+       *         anything unknown is treated as a customer
+       */
+      public static Role parse(String userType) {
+         String type = userType == null ? "" : userType.trim().toLowerCase();
+         if (type.equals("manager"))
+            return MANAGER;
+         if (type.equals("admin"))
+            return ADMIN;
+         return CUSTOMER;
+      }//end parse
+   }//end Role
+
+   public final int userID;
+   public final String name;
+   public final String password;
+   public final Role role;
+   // System.currentTimeMillis() when the row was read
+   final long loadedAt;
+
+   public UserEntry(int userID, String name, String password, Role role) {
+      this.userID = userID;
+      this.name = name == null ? null : name.trim();
+      this.password = password == null ? "" : stripTrailing(password);
+      this.role = role;
+      this.loadedAt = System.currentTimeMillis();
+   }
+
+   /**
+    * @return true when the given password matches, comparing the way a
+    *         char column does (trailing blanks are not significant)
+    */
+   public boolean passwordMatches(String candidate) {
+      return candidate != null && password.equals(stripTrailing(candidate));
+   }
+
+   /**
+    * @return true for managers and admins
+    */
+   public boolean isManager() {
+      return role == Role.MANAGER || role == Role.ADMIN;
+   }
+
+   private static String stripTrailing(String s) {
+      int end = s.length();
+      while (end > 0 && s.charAt(end - 1) == ' ')
+         --end;
+      return s.substring(0, end);
+   }
+}//end UserEntry
@@ -0,0 +1,164 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AnalyticsEngineTest {
+
+   private static final Date JAN_1 = Date.valueOf("2030-01-01");
+   private static final Date JAN_31 = Date.valueOf("2030-01-31");
+
+   private static int day(String date) {
+      return RoomAvailabilityIndex.epochDay(Date.valueOf(date));
+   }
+
+   private static Map<Integer, Integer> roomCounts(int... hotelsAndCounts) {
+      Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+      for (int i = 0; i < hotelsAndCounts.length; i += 2)
+         counts.put(hotelsAndCounts[i], hotelsAndCounts[i + 1]);
+      return counts;
+   }//end roomCounts
+
+   @Test
+   public void hotelsReportNightsRevenueOccupancyAndRate() {
+      AnalyticsEngine engine = new AnalyticsEngine();
+      engine.append(1, 1, day("2030-01-01"), 100);
+      engine.append(1, 2, day("2030-01-01"), 200);
+      engine.append(1, 1, day("2030-01-31"), 100);
+      engine.append(2, 1, day("2030-01-15"), 50);
+      // outside the range
+      engine.append(1, 1, day("2030-02-01"), 1000);
+      engine.append(3, 1, day("2029-12-31"), 1000);
+      engine.markReady();
+
+      Map<Integer, Integer> rooms = roomCounts(1, 2, 2, 1, 3, 5);
+      List<List<String>> report = engine.report(0, JAN_1, JAN_31, AnalyticsEngine.Grouping.HOTEL, rooms);
+      assertEquals(Arrays.asList(Arrays.asList("1", "3", "400", "4.8", "133.33"), Arrays.asList("2", "1", "50", "3.2", "50.00")),
+                   report);
+      assertEquals(Arrays.asList(Arrays.asList("2", "1", "50", "3.2", "50.00")),
+                   engine.report(2, JAN_1, JAN_31, AnalyticsEngine.Grouping.HOTEL, rooms));
+      assertTrue(engine.report(0, JAN_31, JAN_1, AnalyticsEngine.Grouping.HOTEL, rooms).isEmpty());
+   }//end hotelsReportNightsRevenueOccupancyAndRate
+
+   @Test
+   public void daysAndMonthsListEveryGroupInTheRange() {
+      AnalyticsEngine engine = new AnalyticsEngine();
+      engine.append(1, 1, day("2030-01-31"), 100);
+      engine.append(1, 2, day("2030-02-01"), 300);
+      engine.append(2, 1, day("2030-02-01"), 50);
+      Map<Integer, Integer> rooms = roomCounts(1, 2, 2, 2);
+
+      List<List<String>> days = engine.report(1, Date.valueOf("2030-01-30"), Date.valueOf("2030-02-01"),
+                                              AnalyticsEngine.Grouping.DAY, rooms);
+      assertEquals(Arrays.asList(Arrays.asList("2030-01-30", "0", "0", "0.0", "-"),
+                                 Arrays.asList("2030-01-31", "1", "100", "50.0", "100.00"),
+                                 Arrays.asList("2030-02-01", "1", "300", "50.0", "300.00")), days);
+
+      // 4 rooms over 2 nights of January and 28 of February
+      List<List<String>> months = engine.report(0, Date.valueOf("2030-01-30"), Date.valueOf("2030-02-28"),
+                                                AnalyticsEngine.Grouping.MONTH, rooms);
+      assertEquals(Arrays.asList(Arrays.asList("2030-01", "1", "100", "12.5", "100.00"),
+                                 Arrays.asList("2030-02", "2", "350", "1.8", "175.00")), months);
+   }//end daysAndMonthsListEveryGroupInTheRange
+
+   @Test
+   public void bookingsUpToTheLoadedOneComeFromTheLoaderOnly() {
+      AnalyticsEngine engine = new AnalyticsEngine();
+      engine.setLoadedThrough(10);
+      engine.addBooking(10, 1, 1, JAN_1, 100);
+      assertEquals(0, engine.size());
+      engine.addBooking(11, 1, 1, JAN_1, 100);
+      assertEquals(1, engine.size());
+   }//end bookingsUpToTheLoadedOneComeFromTheLoaderOnly
+
+   @Test
+   public void slicesAddUpToASingleScan() {
+      Random random = new Random(7);
+      AnalyticsEngine engine = new AnalyticsEngine();
+      long[] nights = new long[4];
+      long[] revenue = new long[4];
+      int first = day("2030-01-01");
+      for (int i = 0; i < 3 * AnalyticsEngine.SLICE + 5; ++i) {
+         int hotel = 1 + random.nextInt(3);
+         int price = 1 + random.nextInt(500);
+         engine.append(hotel, 1, first + random.nextInt(365), price);
+         ++nights[hotel];
+         revenue[hotel] += price;
+      }//end for
+      List<List<String>> report = engine.report(0, Date.valueOf("2030-01-01"), Date.valueOf("2030-12-31"),
+                                                AnalyticsEngine.Grouping.HOTEL, roomCounts(1, 1000, 2, 1000, 3, 1000));
+      assertEquals(3, report.size());
+      for (List<String> row : report) {
+         int hotel = Integer.parseInt(row.get(0));
+         assertEquals(Long.toString(nights[hotel]), row.get(1));
+         assertEquals(Long.toString(revenue[hotel]), row.get(2));
+      }//end for
+   }//end slicesAddUpToASingleScan
+
+   @Test
+   public void theSampleBookingsMatchTheDatabase() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      Hotel esql = TestDatabase.open();
+      try {
+         Date first = Date.valueOf("2001-01-01"), last = Date.valueOf("2017-12-31");
+         List<List<String>> report = esql.revenueReport(0, first, last, AnalyticsEngine.Grouping.HOTEL);
+         List<String> expected = new ArrayList<String>(), actual = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult(
+                 "SELECT b.hotelID, count(*), sum(r.price) FROM RoomBookings b JOIN Rooms r ON r.hotelID = b.hotelID " +
+                 "AND r.roomNumber = b.roomNumber WHERE b.bookingDate BETWEEN ? AND ? GROUP BY b.hotelID ORDER BY b.hotelID",
+                 first, last))
+            expected.add(row.get(0) + ":" + row.get(1) + ":" + row.get(2));
+         for (List<String> row : report)
+            actual.add(row.get(0) + ":" + row.get(1) + ":" + row.get(2));
+         assertTrue(expected.size() > 1);
+         assertEquals(expected, actual);
+
+         // a booking made after the load counts once
+         String before = report.get(0).get(1);
+         int hotelID = Integer.parseInt(report.get(0).get(0));
+         esql.bookRoom(2, hotelID, 1, Date.valueOf("2016-06-06"));
+         assertEquals(Integer.parseInt(before) + 1,
+                      Integer.parseInt(esql.revenueReport(hotelID, first, last, AnalyticsEngine.Grouping.HOTEL).get(0).get(1)));
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end theSampleBookingsMatchTheDatabase
+
+   @Test
+   public void aFailedLoadIsRetried() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      Hotel esql = TestDatabase.open();
+      try {
+         esql.getCatalog();
+         TestDatabase.execute("ALTER TABLE RoomBookings RENAME TO RoomBookingsAway");
+         try {
+            esql.getAnalyticsEngine();
+            fail("loaded without RoomBookings");
+         }catch (SQLException e) {
+            // expected
+         }finally {
+            TestDatabase.execute("ALTER TABLE RoomBookingsAway RENAME TO RoomBookings");
+         }//end try
+         AnalyticsEngine engine = esql.getAnalyticsEngine();
+         assertTrue(engine.isReady());
+         assertTrue(engine.size() > 0);
+         esql.dropBookingCaches();
+         assertNotSame(engine, esql.getAnalyticsEngine());
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end aFailedLoadIsRetried
+}//end AnalyticsEngineTest
@@ -0,0 +1,182 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The writer over a pool of one fake connection, whose statements are
+ * counted for the rows of each INSERT, and once over hotel_test.
+ */
+public class AuditLogWriterTest {
+
+   private static final Timestamp NOW = new Timestamp(1500000000000L);
+
+   private ConnectionPool pool;
+   private FakeDriver.FakeConnection fake;
+   private AuditLogWriter audit;
+   private File journal;
+
+   @Before
+   public void setUp() throws Exception {
+      FakeDriver.register();
+      FakeDriver.reset();
+      pool = new ConnectionPool(FakeDriver.URL, "user", "", 1, 1, 1000, 600000, 60000);
+      Connection conn = pool.borrow();
+      fake = FakeDriver.of(conn);
+      pool.release(conn);
+      journal = File.createTempFile("audit", ".journal");
+      journal.delete();
+   }//end setUp
+
+   @After
+   public void tearDown() {
+      if (audit != null)
+         audit.close(1000);
+      pool.close();
+      journal.delete();
+   }//end tearDown
+
+   // rows of each INSERT the fake connection ran, in order
+   private static List<Integer> batches(FakeDriver.FakeConnection fake) {
+      List<Integer> rows = new ArrayList<Integer>();
+      synchronized (fake.executed) {
+         for (String sql : fake.executed)
+            if (sql.startsWith("INSERT INTO RoomUpdatesLog"))
+               rows.add(sql.split("\\(\\?").length - 1);
+      }//end synchronized
+      return rows;
+   }//end batches
+
+   private static void write(File file, String text) throws IOException {
+      Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+      try {
+         out.write(text);
+      }finally {
+         out.close();
+      }//end try
+   }//end write
+
+   @Test
+   public void fullBatchesGoAtOnceAndTheRestAfterTheInterval() throws Exception {
+      // an interval long enough that only a full batch or flush moves things
+      audit = new AuditLogWriter(pool, 100, 3, 60000, null);
+      for (int i = 0; i < 3; ++i)
+         audit.record(25, 1, i, NOW);
+      long until = System.currentTimeMillis() + 5000;
+      while (batches(fake).isEmpty() && System.currentTimeMillis() < until)
+         Thread.sleep(10);
+      assertEquals("[3]", batches(fake).toString());
+
+      // the first writer is still waiting out its interval, with nothing to write
+      audit.close(1);
+      audit = new AuditLogWriter(pool, 100, 3, 100, null);
+      audit.record(25, 1, 4, NOW);
+      audit.record(25, 1, 5, NOW);
+      assertTrue(audit.flush(5000));
+      assertEquals("[3, 2]", batches(fake).toString());
+      assertEquals(0, audit.pending());
+   }//end fullBatchesGoAtOnceAndTheRestAfterTheInterval
+
+   @Test
+   public void aFailedBatchIsKeptAndRetried() throws Exception {
+      audit = new AuditLogWriter(pool, 100, 10, 50, null);
+      fake.break_();
+      audit.record(25, 1, 1, NOW);
+      audit.record(25, 1, 2, NOW);
+      // the broken connection is discarded, the retry opens another one
+      assertFalse(audit.flush(AuditLogWriter.RETRY_MS / 2));
+      assertTrue(audit.flush(AuditLogWriter.RETRY_MS * 3));
+      assertEquals(2, FakeDriver.opened());
+      Connection conn = pool.borrow();
+      try {
+         assertEquals("[2]", batches(FakeDriver.of(conn)).toString());
+      }finally {
+         pool.release(conn);
+      }//end try
+   }//end aFailedBatchIsKeptAndRetried
+
+   @Test
+   public void theJournalIsEmptiedOnceEverythingIsWritten() throws Exception {
+      audit = new AuditLogWriter(pool, 100, 10, 50, journal);
+      audit.record(25, 1, 1, NOW);
+      audit.record(25, 1, 2, NOW);
+      assertTrue(audit.flush(5000));
+      assertEquals(0, journal.length());
+   }//end theJournalIsEmptiedOnceEverythingIsWritten
+
+   @Test
+   public void entriesAfterTheLastCheckpointAreReplayed() throws Exception {
+      write(journal, "E 1,25,1,1,1500000000000\nE 2,25,1,2,1500000000000\nC 2\n" +
+                     "E 3,25,1,3,1500000000000\nE 4,25,1,4,1500000000000\nE 5,25,1,");
+      audit = new AuditLogWriter(pool, 100, 10, 50, journal);
+      audit.record(25, 1, 6, NOW);
+      assertTrue(audit.flush(5000));
+      // 3, 4 and 6; 5 was cut short by the crash
+      int rows = 0;
+      for (int batch : batches(fake))
+         rows += batch;
+      assertEquals(3, rows);
+      assertEquals(0, journal.length());
+   }//end entriesAfterTheLastCheckpointAreReplayed
+
+   @Test
+   public void recordFailsAfterClose() throws Exception {
+      audit = new AuditLogWriter(pool, 100, 10, 50, null);
+      audit.close(1000);
+      try {
+         audit.record(25, 1, 1, NOW);
+         fail("recorded after close");
+      }catch (IllegalStateException e) {
+         // expected
+      }//end try
+   }//end recordFailsAfterClose
+
+   @Test
+   public void closeWritesWhatIsQueued() throws Exception {
+      audit = new AuditLogWriter(pool, 100, 10, 200, null);
+      for (int i = 0; i < 4; ++i)
+         audit.record(25, 1, i, NOW);
+      audit.close(5000);
+      assertEquals("[4]", batches(fake).toString());
+   }//end closeWritesWhatIsQueued
+
+   @Test
+   public void roomUpdatesReachRoomUpdatesLog() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      Hotel esql = TestDatabase.open();
+      try {
+         String count = "SELECT count(*) FROM RoomUpdatesLog WHERE hotelID = 1 AND roomNumber = 3";
+         int before = TestDatabase.queryForInt(count);
+         File dir = Files.createTempDirectory("audit").toFile();
+         esql.setAuditJournal(new File(dir, "audit.journal"));
+         assertTrue(esql.updateRoom(25, 1, 3, 1600, null));
+         assertTrue(esql.updateRoom(25, 1, 3, 1700, null));
+         assertTrue(esql.getAuditLog().flush(5000));
+         assertEquals(before + 2, TestDatabase.queryForInt(count));
+         assertEquals(0, new File(dir, "audit.journal").length());
+         esql.cleanup();
+         esql = null;
+         new File(dir, "audit.journal").delete();
+         dir.delete();
+      }finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end roomUpdatesReachRoomUpdatesLog
+}//end AuditLogWriterTest
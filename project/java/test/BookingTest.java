@@ -0,0 +1,223 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Bookings against the sample data: customer 2 books rooms of hotel 1,
+ * whose room 1 costs 1501.
+ */
+public class BookingTest {
+
+   private static final int CUSTOMER = 2;
+
+   private static Hotel esql;
+
+   @BeforeClass
+   public static void setUpClass() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      esql = TestDatabase.open();
+   }
+
+   @AfterClass
+   public static void tearDownClass() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   private static int bookingsOf(int hotelID, int roomNumber, String date) throws Exception {
+      return TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings WHERE hotelID = " + hotelID +
+                                      " AND roomNumber = " + roomNumber + " AND bookingDate = '" + date + "'");
+   }
+
+   @Test
+   public void aFreeNightIsBookedAtTheRoomPrice() throws Exception {
+      Hotel.BookingResult result = esql.bookRoom(CUSTOMER, 1, 1, Date.valueOf("2030-01-10"));
+      assertEquals(Hotel.BookingResult.Status.BOOKED, result.status);
+      assertEquals(1501, result.price);
+      assertEquals(CUSTOMER, TestDatabase.queryForInt("SELECT customerID FROM RoomBookings WHERE bookingID = " + result.bookingID));
+   }//end aFreeNightIsBookedAtTheRoomPrice
+
+   @Test
+   public void aBookedNightIsNotBookedTwice() throws Exception {
+      Date night = Date.valueOf("2030-01-11");
+      assertEquals(Hotel.BookingResult.Status.BOOKED, esql.bookRoom(CUSTOMER, 1, 1, night).status);
+      Hotel.BookingResult again = esql.bookRoom(3, 1, 1, night);
+      assertEquals(Hotel.BookingResult.Status.ALREADY_BOOKED, again.status);
+      assertEquals(-1, again.bookingID);
+      assertEquals(1, bookingsOf(1, 1, "2030-01-11"));
+   }//end aBookedNightIsNotBookedTwice
+
+   @Test
+   public void unknownHotelsAndRoomsAreReported() throws Exception {
+      Date night = Date.valueOf("2030-01-12");
+      assertEquals(Hotel.BookingResult.Status.NO_SUCH_HOTEL, esql.bookRoom(CUSTOMER, 99999, 1, night).status);
+      assertEquals(Hotel.BookingResult.Status.NO_SUCH_ROOM, esql.bookRoom(CUSTOMER, 1, 99999, night).status);
+      assertEquals(0, bookingsOf(1, 99999, "2030-01-12"));
+   }//end unknownHotelsAndRoomsAreReported
+
+   @Test
+   public void concurrentBookingsOfOneNightHaveOneWinner() throws Exception {
+      final Date night = Date.valueOf("2030-01-13");
+      ExecutorService threads = Executors.newFixedThreadPool(8);
+      List<Future<Hotel.BookingResult>> results = new ArrayList<Future<Hotel.BookingResult>>();
+      for (int i = 0; i < 8; ++i) {
+         results.add(threads.submit(new Callable<Hotel.BookingResult>() {
+            public Hotel.BookingResult call() throws Exception {
+               return esql.bookRoom(CUSTOMER, 1, 2, night);
+            }
+         }));
+      }//end for
+      int booked = 0;
+      for (Future<Hotel.BookingResult> result : results) {
+         Hotel.BookingResult.Status status = result.get().status;
+         assertTrue(status.toString(), status == Hotel.BookingResult.Status.BOOKED
+                                       || status == Hotel.BookingResult.Status.ALREADY_BOOKED);
+         if (status == Hotel.BookingResult.Status.BOOKED)
+            ++booked;
+      }//end for
+      threads.shutdown();
+      assertEquals(1, booked);
+      assertEquals(1, bookingsOf(1, 2, "2030-01-13"));
+   }//end concurrentBookingsOfOneNightHaveOneWinner
+
+   @Test
+   public void aNightTakenBetweenCheckAndInsertFailsOnlyTheBatch() throws Exception {
+      Connection other = TestDatabase.connect();
+      try {
+         other.setAutoCommit(false);
+         Statement stmt = other.createStatement();
+         // invisible to the check until committed, then it wins the unique key
+         stmt.executeUpdate("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES (3, 1, 8, '2030-06-02')");
+         ExecutorService threads = Executors.newSingleThreadExecutor();
+         Future<List<Hotel.BookingResult>> batch = threads.submit(new Callable<List<Hotel.BookingResult>>() {
+            public List<Hotel.BookingResult> call() throws Exception {
+               return esql.bookRoomBatch(CUSTOMER, nights(1, 8, "2030-06-01", 3));
+            }
+         });
+         Thread.sleep(500);
+         other.commit();
+         stmt.close();
+         List<Hotel.BookingResult> results = batch.get();
+         threads.shutdown();
+         assertEquals(Hotel.BookingResult.Status.SKIPPED, results.get(0).status);
+         assertEquals(Hotel.BookingResult.Status.ALREADY_BOOKED, results.get(1).status);
+         assertEquals(Hotel.BookingResult.Status.SKIPPED, results.get(2).status);
+      }finally {
+         other.close();
+      }//end try
+      assertEquals(0, bookingsOf(1, 8, "2030-06-01") + bookingsOf(1, 8, "2030-06-03"));
+      assertEquals(3, TestDatabase.queryForInt("SELECT customerID FROM RoomBookings WHERE hotelID = 1 AND roomNumber = 8 " +
+                                               "AND bookingDate = '2030-06-02'"));
+   }//end aNightTakenBetweenCheckAndInsertFailsOnlyTheBatch
+
+   @Test
+   public void concurrentBatchesOfTheSameNightsHaveOneWinner() throws Exception {
+      ExecutorService threads = Executors.newFixedThreadPool(8);
+      List<Future<List<Hotel.BookingResult>>> batches = new ArrayList<Future<List<Hotel.BookingResult>>>();
+      for (int i = 0; i < 8; ++i) {
+         batches.add(threads.submit(new Callable<List<Hotel.BookingResult>>() {
+            public List<Hotel.BookingResult> call() throws Exception {
+               return esql.bookRoomBatch(CUSTOMER, nights(1, 9, "2030-07-01", 3));
+            }
+         }));
+      }//end for
+      int won = 0;
+      for (Future<List<Hotel.BookingResult>> batch : batches) {
+         int booked = 0;
+         for (Hotel.BookingResult result : batch.get())
+            if (result.status == Hotel.BookingResult.Status.BOOKED)
+               ++booked;
+         assertTrue("booked " + booked + " of 3", booked == 0 || booked == 3);
+         if (booked == 3)
+            ++won;
+      }//end for
+      threads.shutdown();
+      assertEquals(1, won);
+      assertEquals(3, TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings WHERE hotelID = 1 AND roomNumber = 9 " +
+                                               "AND bookingDate BETWEEN '2030-07-01' AND '2030-07-03'"));
+   }//end concurrentBatchesOfTheSameNightsHaveOneWinner
+
+   private static List<Hotel.BookingRequest> nights(int hotelID, int roomNumber, String first, int count) {
+      List<Hotel.BookingRequest> requests = new ArrayList<Hotel.BookingRequest>();
+      long day = Date.valueOf(first).getTime();
+      for (int i = 0; i < count; ++i)
+         requests.add(new Hotel.BookingRequest(hotelID, roomNumber, new Date(day + i * 86400000L)));
+      return requests;
+   }//end nights
+
+   @Test
+   public void aBatchBooksEveryItem() throws Exception {
+      List<Hotel.BookingRequest> requests = nights(1, 3, "2030-02-01", 3);
+      requests.addAll(nights(1, 4, "2030-02-01", 3));
+      List<Hotel.BookingResult> results = esql.bookRoomBatch(CUSTOMER, requests);
+      assertEquals(6, results.size());
+      for (int i = 0; i < results.size(); ++i) {
+         Hotel.BookingResult result = results.get(i);
+         assertEquals(Hotel.BookingResult.Status.BOOKED, result.status);
+         Hotel.BookingRequest request = requests.get(i);
+         // each key belongs to the item at the same position
+         assertEquals(request.roomNumber, TestDatabase.queryForInt("SELECT roomNumber FROM RoomBookings WHERE bookingID = " + result.bookingID));
+         assertEquals(request.date.toString(), TestDatabase.queryForString("SELECT bookingDate FROM RoomBookings WHERE bookingID = " + result.bookingID));
+      }//end for
+   }//end aBatchBooksEveryItem
+
+   @Test
+   public void aBatchWithOneTakenNightBooksNothing() throws Exception {
+      assertEquals(Hotel.BookingResult.Status.BOOKED, esql.bookRoom(3, 1, 5, Date.valueOf("2030-03-02")).status);
+      List<Hotel.BookingResult> results = esql.bookRoomBatch(CUSTOMER, nights(1, 5, "2030-03-01", 3));
+      assertEquals(Hotel.BookingResult.Status.SKIPPED, results.get(0).status);
+      assertEquals(Hotel.BookingResult.Status.ALREADY_BOOKED, results.get(1).status);
+      assertEquals(Hotel.BookingResult.Status.SKIPPED, results.get(2).status);
+      assertEquals(0, bookingsOf(1, 5, "2030-03-01") + bookingsOf(1, 5, "2030-03-03"));
+   }//end aBatchWithOneTakenNightBooksNothing
+
+   @Test
+   public void aBatchNamingOneNightTwiceBooksNothing() throws Exception {
+      List<Hotel.BookingRequest> requests = nights(1, 6, "2030-04-01", 2);
+      requests.add(requests.get(0));
+      List<Hotel.BookingResult> results = esql.bookRoomBatch(CUSTOMER, requests);
+      assertEquals(Hotel.BookingResult.Status.ALREADY_BOOKED, results.get(2).status);
+      assertEquals(0, bookingsOf(1, 6, "2030-04-01"));
+   }//end aBatchNamingOneNightTwiceBooksNothing
+
+   @Test
+   public void aBatchWithAnUnknownRoomBooksNothing() throws Exception {
+      List<Hotel.BookingRequest> requests = nights(1, 7, "2030-05-01", 2);
+      requests.add(new Hotel.BookingRequest(1, 99999, Date.valueOf("2030-05-01")));
+      List<Hotel.BookingResult> results = esql.bookRoomBatch(CUSTOMER, requests);
+      assertEquals(Hotel.BookingResult.Status.NO_SUCH_ROOM, results.get(2).status);
+      assertEquals(0, bookingsOf(1, 7, "2030-05-01"));
+   }//end aBatchWithAnUnknownRoomBooksNothing
+
+   @Test
+   public void aBatchLargerThanOneStatementSpansMonths() throws Exception {
+      // 10 rooms for 60 nights, more than one chunk of 500 items
+      List<Hotel.BookingRequest> requests = new ArrayList<Hotel.BookingRequest>();
+      for (int room = 1; room <= 10; ++room)
+         requests.addAll(nights(1, room, "2031-01-01", 60));
+      List<Hotel.BookingResult> results = esql.bookRoomBatch(CUSTOMER, requests);
+      for (Hotel.BookingResult result : results)
+         assertEquals(Hotel.BookingResult.Status.BOOKED, result.status);
+      assertEquals(600, TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings WHERE hotelID = 1 " +
+                                                 "AND bookingDate BETWEEN '2031-01-01' AND '2031-03-01'"));
+   }//end aBatchLargerThanOneStatementSpansMonths
+
+   @Test
+   public void anEmptyBatchBooksNothing() throws Exception {
+      assertTrue(esql.bookRoomBatch(CUSTOMER, new ArrayList<Hotel.BookingRequest>()).isEmpty());
+   }
+}//end BookingTest
@@ -0,0 +1,105 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class BulkImporterTest {
+
+   // fetched by the build, see pom.xml
+   private static final File COPY_DRIVER = new File("target/lib/postgresql.jar");
+
+   private static int csvRows(String file) throws IOException {
+      return Files.readAllLines(new File(TestDatabase.DATA_DIR, file).toPath(), Charset.forName("UTF-8")).size() - 1;
+   }
+
+   // every table holds the rows of its file and its sequence continues after them
+   private static void assertLoaded() throws Exception {
+      for (List<BulkImporter.Table> stage : BulkImporter.STAGES) {
+         for (BulkImporter.Table table : stage) {
+            assertEquals(table.name, csvRows(table.file), TestDatabase.queryForInt("SELECT count(*) FROM " + table.name));
+            if (table.serialColumn != null)
+               assertEquals(table.name, TestDatabase.queryForInt("SELECT MAX(" + table.serialColumn + ") + 1 FROM " + table.name),
+                            TestDatabase.queryForInt("SELECT nextval(pg_get_serial_sequence('" + table.name + "', '"
+                                                     + table.serialColumn.toLowerCase() + "'))"));
+         }//end for
+      }//end for
+      // the booking counts the trigger keeps were taken again after the load
+      assertEquals(0, TestDatabase.queryForInt("SELECT count(*) FROM (SELECT hotelID, customerID, count(*) FROM RoomBookings " +
+                                               "GROUP BY hotelID, customerID EXCEPT SELECT hotelID, customerID, numBookings " +
+                                               "FROM HotelCustomerBookings) AS missing"));
+   }//end assertLoaded
+
+   @Test
+   public void readStatementsSplitsAScriptAndDropsComments() throws IOException {
+      File script = File.createTempFile("indexes", ".sql");
+      try {
+         Files.write(script.toPath(), ("-- indexes\nDROP INDEX IF EXISTS a;\nCREATE INDEX a\n  ON t (x); -- on x\n\n")
+                                      .getBytes("UTF-8"));
+         List<String> statements = new BulkImporter(null, 1).readStatements(script);
+         assertEquals(Arrays.asList("DROP INDEX IF EXISTS a", "CREATE INDEX a\n  ON t (x)"), statements);
+      }finally {
+         script.delete();
+      }//end try
+   }//end readStatementsSplitsAScriptAndDropsComments
+
+   @Test
+   public void theBundledDriverLoadsThroughInserts() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      assertLoaded();
+      Hotel esql = TestDatabase.open();
+      BulkImporter importer = new BulkImporter(esql, 1);
+      try {
+         assertFalse(importer.usesCopy());
+      }finally {
+         importer.close();
+         esql.cleanup();
+      }//end try
+   }//end theBundledDriverLoadsThroughInserts
+
+   @Test
+   public void aNewerDriverLoadsThroughCopy() throws Exception {
+      TestDatabase.assumeAvailable();
+      Assume.assumeTrue("no " + COPY_DRIVER, COPY_DRIVER.isFile());
+      TestDatabase.recreate(TestDatabase.NAME, TestDatabase.port());
+      Connection conn = TestDatabase.connect();
+      try {
+         TestDatabase.runScript(conn, new File(TestDatabase.SQL_DIR, "create_tables.sql"));
+      }finally {
+         conn.close();
+      }//end try
+
+      // the way bulk_import.sh runs it, without the 7.3 driver
+      ProcessBuilder builder = new ProcessBuilder(
+         new File(System.getProperty("java.home"), "bin/java").getPath(),
+         "-cp", "target/classes" + File.pathSeparator + COPY_DRIVER.getPath(), "BulkImporter",
+         TestDatabase.NAME, TestDatabase.port(), TestDatabase.user(), TestDatabase.DATA_DIR.getPath(), "4",
+         new File(TestDatabase.SQL_DIR, "create_indexes.sql").getPath());
+      builder.redirectErrorStream(true);
+      Process importer = builder.start();
+      String output = read(importer.getInputStream());
+      assertEquals(output, 0, importer.waitFor());
+      assertTrue(output, output.contains("Loading through COPY"));
+      assertLoaded();
+   }//end aNewerDriverLoadsThroughCopy
+
+   private static String read(InputStream in) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n; (n = in.read(buffer)) > 0; )
+         out.write(buffer, 0, n);
+      return out.toString("UTF-8");
+   }//end read
+}//end BulkImporterTest
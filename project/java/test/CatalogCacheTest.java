@@ -0,0 +1,108 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CatalogCacheTest {
+
+   private CatalogCache catalog;
+
+   private static HotelEntry hotel(int hotelID, double lat, double lng) {
+      return new HotelEntry(hotelID, "hotel" + hotelID, lat, lng, java.sql.Date.valueOf("2000-01-01"), 100 + hotelID);
+   }
+
+   private static RoomEntry room(int hotelID, int roomNumber, int price) {
+      return new RoomEntry(hotelID, roomNumber, price, null);
+   }
+
+   private static int[] ids(List<HotelEntry> hotels) {
+      int[] ids = new int[hotels.size()];
+      for (int i = 0; i < ids.length; ++i)
+         ids[i] = hotels.get(i).hotelID;
+      return ids;
+   }//end ids
+
+   @Before
+   public void setUp() {
+      catalog = new CatalogCache(Arrays.asList(hotel(1, 0, 0), hotel(2, 10, 10), hotel(3, Double.NaN, Double.NaN)),
+                                 Arrays.asList(room(1, 2, 200), room(1, 1, 100), room(2, 1, 300)));
+   }
+
+   @Test
+   public void lookupsAnswerFromTheLoadedRows() {
+      assertEquals(Integer.valueOf(101), catalog.manager(1));
+      assertNull(catalog.manager(9));
+      assertEquals(100, catalog.room(1, 1).price);
+      assertNull(catalog.room(1, 3));
+      assertNull(catalog.room(9, 1));
+      assertEquals(Arrays.asList(1, 2), Arrays.asList(catalog.rooms(1).get(0).roomNumber, catalog.rooms(1).get(1).roomNumber));
+      assertEquals(0, catalog.rooms(9).size());
+      assertEquals(Integer.valueOf(2), catalog.roomCounts().get(1));
+      assertEquals(3, catalog.hotels().size());
+      // the hotel without coordinates is left out of the grid
+      assertEquals(2, catalog.spatialIndex().size());
+   }//end lookupsAnswerFromTheLoadedRows
+
+   @Test
+   public void aRoomIsReplacedAddedAndRemovedWithoutTouchingOthers() {
+      List<RoomEntry> before = catalog.rooms(1);
+      catalog.putRoom(room(1, 1, 150));
+      catalog.putRoom(room(3, 7, 70));
+      assertEquals(150, catalog.room(1, 1).price);
+      assertEquals(70, catalog.room(3, 7).price);
+      assertEquals(100, before.get(0).price);
+      assertEquals(300, catalog.room(2, 1).price);
+
+      catalog.removeRoom(1, 2);
+      catalog.removeRoom(3, 7);
+      catalog.removeRoom(9, 9);
+      assertNull(catalog.room(1, 2));
+      assertEquals(1, catalog.rooms(1).size());
+      assertNull(catalog.roomCounts().get(3));
+   }//end aRoomIsReplacedAddedAndRemovedWithoutTouchingOthers
+
+   @Test
+   public void aHotelUpdateMovesItInTheGrid() {
+      HotelSpatialIndex before = catalog.spatialIndex();
+      long loadedAt = catalog.getLoadedAt();
+      catalog.putHotel(hotel(1, 50, 50));
+      assertTrue(Arrays.equals(new int[] { 2 }, ids(catalog.spatialIndex().withinRadius(0, 0, 20))));
+      assertTrue(Arrays.equals(new int[] { 1 }, ids(catalog.spatialIndex().withinRadius(50, 50, 1))));
+      // readers holding the old grid keep it
+      assertTrue(Arrays.equals(new int[] { 1, 2 }, ids(before.withinRadius(0, 0, 20))));
+
+      catalog.putHotel(hotel(4, 10.5, 10.5));
+      assertTrue(Arrays.equals(new int[] { 4, 2 }, ids(catalog.spatialIndex().withinRadius(10.6, 10.6, 2))));
+      catalog.removeHotel(2);
+      catalog.removeHotel(9);
+      assertNull(catalog.hotel(2));
+      assertTrue(Arrays.equals(new int[] { 4 }, ids(catalog.spatialIndex().withinRadius(10.6, 10.6, 2))));
+      // rooms leave with their own changes, and patches are not reloads
+      assertEquals(300, catalog.room(2, 1).price);
+      assertEquals(loadedAt, catalog.getLoadedAt());
+   }//end aHotelUpdateMovesItInTheGrid
+
+   @Test
+   public void roomUpdatesShareTheGrid() {
+      HotelSpatialIndex index = catalog.spatialIndex();
+      catalog.putRoom(room(1, 1, 1));
+      catalog.removeRoom(1, 1);
+      assertSame(index, catalog.spatialIndex());
+   }//end roomUpdatesShareTheGrid
+
+   @Test
+   public void aReplaceStartsOver() {
+      catalog.replace(Collections.singletonList(hotel(5, 1, 1)), Collections.singletonList(room(5, 1, 10)));
+      assertNull(catalog.hotel(1));
+      assertNull(catalog.room(1, 1));
+      assertEquals(10, catalog.room(5, 1).price);
+      assertEquals(1, catalog.spatialIndex().size());
+   }//end aReplaceStartsOver
+}//end CatalogCacheTest
@@ -0,0 +1,178 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The catalog of a Hotel on the sample data, kept current by its listener
+ * while other clients change Hotel and Rooms through connections of their
+ * own.  Hotel 1 at (94.77143, 25.58018) has rooms 1 to 10 and manager 25.
+ */
+public class CatalogListenerTest {
+
+   // a few polls of the listener
+   private static final long WAIT_MS = 10 * CatalogListener.POLL_MS;
+
+   private Hotel esql;
+
+   @Before
+   public void setUp() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      esql = TestDatabase.open();
+   }
+
+   @After
+   public void tearDown() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   private static boolean eventually(Callable<Boolean> condition) throws Exception {
+      long until = System.currentTimeMillis() + WAIT_MS;
+      while (!condition.call()) {
+         if (System.currentTimeMillis() > until)
+            return false;
+         Thread.sleep(50);
+      }//end while
+      return true;
+   }//end eventually
+
+   private Callable<Boolean> priceIs(final int hotelID, final int roomNumber, final int price) {
+      return new Callable<Boolean>() {
+         public Boolean call() throws Exception {
+            RoomEntry room = esql.getCatalog().room(hotelID, roomNumber);
+            return room != null && room.price == price;
+         }
+      };
+   }//end priceIs
+
+   @Test
+   public void theCatalogLoadsThroughTheBundledDriver() throws Exception {
+      assertEquals(Integer.valueOf(25), esql.getHotelManager(1));
+      assertNull(esql.getHotelManager(99999));
+      assertTrue(esql.roomExists(1, 10));
+      assertFalse(esql.roomExists(1, 11));
+      assertEquals(1, esql.findHotelsWithin(94.77143, 25.58018, 0.001).get(0).hotelID);
+      assertEquals(TestDatabase.queryForInt("SELECT count(*) FROM Rooms"), sum(esql.getCatalog().roomCounts().values()));
+
+      List<List<String>> rooms = esql.roomAvailability(1, Date.valueOf("2031-01-01"));
+      assertEquals(10, rooms.size());
+      assertEquals("1501", rooms.get(0).get(1));
+      assertEquals("Available", rooms.get(0).get(2));
+   }//end theCatalogLoadsThroughTheBundledDriver
+
+   private static int sum(Iterable<Integer> values) {
+      int sum = 0;
+      for (int value : values)
+         sum += value;
+      return sum;
+   }
+
+   @Test
+   public void anotherClientsChangesArePatchedIn() throws Exception {
+      final CatalogCache catalog = esql.getCatalog();
+      esql.getAvailabilityIndex();
+      long loadedAt = catalog.getLoadedAt();
+
+      TestDatabase.execute("UPDATE Rooms SET price = 1777 WHERE hotelID = 1 AND roomNumber = 3");
+      assertTrue(eventually(priceIs(1, 3, 1777)));
+
+      TestDatabase.execute("INSERT INTO Rooms (hotelID, roomNumber, price) VALUES (1, 11, 1111)");
+      assertTrue(eventually(priceIs(1, 11, 1111)));
+      assertTrue(esql.roomExists(1, 11));
+      boolean indexed = false;
+      for (int[] room : esql.getAvailabilityIndex().bookedOn(1, new java.util.Date()))
+         indexed |= room[0] == 11;
+      assertTrue("the new room is in the availability index", indexed);
+
+      TestDatabase.execute("DELETE FROM Rooms WHERE hotelID = 1 AND roomNumber = 11");
+      assertTrue(eventually(new Callable<Boolean>() {
+         public Boolean call() throws Exception {
+            return catalog.room(1, 11) == null;
+         }
+      }));
+
+      TestDatabase.execute("UPDATE Hotel SET latitude = -10, longitude = -20, managerUserID = 20 WHERE hotelID = 1");
+      assertTrue(eventually(new Callable<Boolean>() {
+         public Boolean call() throws Exception {
+            return Integer.valueOf(20).equals(catalog.manager(1));
+         }
+      }));
+      assertEquals(1, esql.findHotelsWithin(-10, -20, 0.001).get(0).hotelID);
+      assertTrue(esql.findHotelsWithin(94.77143, 25.58018, 0.001).isEmpty());
+
+      // every change was patched in, none reloaded the catalog
+      assertEquals(loadedAt, catalog.getLoadedAt());
+   }//end anotherClientsChangesArePatchedIn
+
+   @Test
+   public void changesMadeThroughThePoolAreSkipped() throws Exception {
+      esql.getCatalog();
+      // not through updateRoom, so this process's catalog only changes if the listener reads it
+      esql.executeUpdate("UPDATE Rooms SET price = 1234 WHERE hotelID = 1 AND roomNumber = 4");
+      TestDatabase.execute("UPDATE Rooms SET price = 1555 WHERE hotelID = 1 AND roomNumber = 5");
+      assertTrue(eventually(priceIs(1, 5, 1555)));
+      assertEquals(614, esql.getCatalog().room(1, 4).price);
+
+      assertTrue(esql.updateRoom(25, 1, 6, 1666, null));
+      assertEquals(1666, esql.getCatalog().room(1, 6).price);
+   }//end changesMadeThroughThePoolAreSkipped
+
+   @Test
+   public void aChangeCommittedLateIsNotMissed() throws Exception {
+      esql.getCatalog();
+      Connection slow = TestDatabase.connect();
+      try {
+         slow.setAutoCommit(false);
+         Statement stmt = slow.createStatement();
+         // takes the lower changeID but commits after the next change
+         stmt.executeUpdate("UPDATE Rooms SET price = 1007 WHERE hotelID = 1 AND roomNumber = 7");
+         TestDatabase.execute("UPDATE Rooms SET price = 1008 WHERE hotelID = 1 AND roomNumber = 8");
+         assertTrue(eventually(priceIs(1, 8, 1008)));
+         slow.commit();
+         stmt.close();
+      }finally {
+         slow.close();
+      }//end try
+      assertTrue(eventually(priceIs(1, 7, 1007)));
+   }//end aChangeCommittedLateIsNotMissed
+
+   @Test
+   public void aTruncateOrBulkLoadReloadsEverything() throws Exception {
+      final CatalogCache catalog = esql.getCatalog();
+      final long loadedAt = catalog.getLoadedAt();
+      // what BulkImporter leaves behind
+      TestDatabase.execute("UPDATE Rooms SET price = 999 WHERE hotelID = 2");
+      TestDatabase.execute("INSERT INTO CatalogChanges (hotelID) VALUES (NULL); NOTIFY " + CatalogListener.CHANNEL);
+      assertTrue(eventually(new Callable<Boolean>() {
+         public Boolean call() {
+            return catalog.getLoadedAt() != loadedAt;
+         }
+      }));
+      assertEquals(999, catalog.room(2, 1).price);
+   }//end aTruncateOrBulkLoadReloadsEverything
+
+   @Test
+   public void everyChangedRowIsRecorded() throws Exception {
+      int before = TestDatabase.queryForInt("SELECT COALESCE(MAX(changeID), 0) FROM CatalogChanges");
+      TestDatabase.execute("UPDATE Rooms SET price = price + 1 WHERE hotelID = 1 AND roomNumber IN (1, 2)");
+      TestDatabase.execute("UPDATE Rooms SET roomNumber = 12 WHERE hotelID = 1 AND roomNumber = 10");
+      TestDatabase.execute("UPDATE Hotel SET hotelName = 'renamed' WHERE hotelID = 2");
+      assertEquals("1/1,1/2,1/10,1/12,2/", TestDatabase.queryForString(
+         "SELECT string_agg(hotelID || '/' || COALESCE(roomNumber::text, ''), ',' ORDER BY changeID) FROM CatalogChanges " +
+         "WHERE changeID > " + before));
+      assertEquals(0, TestDatabase.queryForInt("SELECT count(*) FROM CatalogChanges WHERE changeID > " + before +
+                                               " AND pid = pg_backend_pid()"));
+   }//end everyChangedRowIsRecorded
+}//end CatalogListenerTest
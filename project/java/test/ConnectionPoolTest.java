@@ -0,0 +1,266 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+   private ConnectionPool pool;
+
+   @Before
+   public void setUp() {
+      FakeDriver.register();
+      FakeDriver.reset();
+   }
+
+   @After
+   public void tearDown() {
+      if (pool != null)
+         pool.close();
+   }
+
+   private ConnectionPool pool(int min, int max, long acquireTimeoutMs) throws SQLException {
+      return pool = new ConnectionPool(FakeDriver.URL, "user", "", min, max, acquireTimeoutMs, 600000, 60000);
+   }
+
+   @Test
+   public void opensTheMinimumEagerlyAndReusesReleasedConnections() throws SQLException {
+      pool(2, 4, 1000);
+      assertEquals(2, FakeDriver.opened());
+      assertEquals(2, pool.getIdleCount());
+
+      Connection first = pool.borrow();
+      assertTrue(pool.owns(first));
+      pool.release(first);
+      assertFalse(pool.owns(first));
+      // most recently used first
+      assertSame(first, pool.borrow());
+      assertEquals(2, FakeDriver.opened());
+   }//end opensTheMinimumEagerlyAndReusesReleasedConnections
+
+   @Test
+   public void borrowTimesOutWhenEveryConnectionIsInUse() throws SQLException {
+      pool(0, 2, 100);
+      pool.borrow();
+      pool.borrow();
+      long start = System.currentTimeMillis();
+      try {
+         pool.borrow();
+         fail("borrowed a third connection from a pool of two");
+      }catch (SQLException e) {
+         assertTrue(e.getMessage(), e.getMessage().contains("Timed out"));
+      }//end try
+      assertTrue(System.currentTimeMillis() - start >= 90);
+      assertEquals(2, FakeDriver.opened());
+   }//end borrowTimesOutWhenEveryConnectionIsInUse
+
+   @Test
+   public void releaseRollsBackAnOpenTransaction() throws SQLException {
+      pool(1, 1, 1000);
+      Connection conn = pool.borrow();
+      conn.setAutoCommit(false);
+      pool.release(conn);
+
+      FakeDriver.FakeConnection fake = FakeDriver.of(conn);
+      assertEquals(1, fake.rollbacks.get());
+      assertTrue(fake.autoCommit);
+      assertSame(conn, pool.borrow());
+   }//end releaseRollsBackAnOpenTransaction
+
+   @Test
+   public void aConnectionThatCannotBeResetIsClosed() throws SQLException {
+      pool(1, 1, 1000);
+      Connection conn = pool.borrow();
+      conn.setAutoCommit(false);
+      FakeDriver.of(conn).break_();
+      pool.release(conn);
+
+      assertEquals(1, FakeDriver.closed());
+      assertNotSame(conn, pool.borrow());
+      assertEquals(2, FakeDriver.opened());
+   }//end aConnectionThatCannotBeResetIsClosed
+
+   @Test
+   public void invalidateClosesTheConnectionAndFreesItsPlace() throws SQLException {
+      pool(0, 1, 100);
+      Connection conn = pool.borrow();
+      pool.invalidate(conn);
+      assertTrue(FakeDriver.of(conn).closed);
+      assertNotSame(conn, pool.borrow());
+   }//end invalidateClosesTheConnectionAndFreesItsPlace
+
+   @Test
+   public void aBrokenIdleConnectionIsReplacedOnBorrow() throws Exception {
+      pool(1, 1, 1000);
+      Connection conn = pool.borrow();
+      pool.release(conn);
+      FakeDriver.of(conn).break_();
+      // connections idle for less than a second are handed out unchecked
+      Thread.sleep(1100);
+      Connection next = pool.borrow();
+      assertNotSame(conn, next);
+      assertTrue(FakeDriver.of(conn).closed);
+   }//end aBrokenIdleConnectionIsReplacedOnBorrow
+
+   @Test
+   public void statementsForRefusesConnectionsNotBorrowed() throws SQLException {
+      pool(1, 1, 1000);
+      Connection conn = pool.borrow();
+      assertEquals(0, pool.statementsFor(conn).size());
+      pool.release(conn);
+      try {
+         pool.statementsFor(conn);
+         fail("statementsFor() accepted a released connection");
+      }catch (SQLException e) {
+         // expected
+      }//end try
+   }//end statementsForRefusesConnectionsNotBorrowed
+
+   @Test
+   public void closeClosesIdleConnectionsAndLaterReleases() throws SQLException {
+      pool(2, 2, 1000);
+      Connection held = pool.borrow();
+      pool.close();
+      assertEquals(1, FakeDriver.closed());
+      pool.release(held);
+      assertEquals(2, FakeDriver.closed());
+      try {
+         pool.borrow();
+         fail("borrowed from a closed pool");
+      }catch (SQLException e) {
+         // expected
+      }//end try
+   }//end closeClosesIdleConnectionsAndLaterReleases
+
+   @Test
+   public void concurrentBorrowersNeverShareOrExceedTheMaximum() throws Exception {
+      pool(0, 4, 10000);
+      final Set<Connection> inUse = new HashSet<Connection>();
+      final AtomicInteger mostInUse = new AtomicInteger();
+      ExecutorService threads = Executors.newFixedThreadPool(16);
+      List<Future<Void>> done = new ArrayList<Future<Void>>();
+      for (int t = 0; t < 16; ++t) {
+         done.add(threads.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+               for (int i = 0; i < 200; ++i) {
+                  Connection conn = pool.borrow();
+                  try {
+                     synchronized (inUse) {
+                        assertTrue("connection handed out twice", inUse.add(conn));
+                        mostInUse.set(Math.max(mostInUse.get(), inUse.size()));
+                     }//end synchronized
+                     Thread.yield();
+                     synchronized (inUse) {
+                        inUse.remove(conn);
+                     }//end synchronized
+                  }finally {
+                     pool.release(conn);
+                  }//end try
+               }//end for
+               return null;
+            }
+         }));
+      }//end for
+      for (Future<Void> f : done)
+         f.get();
+      threads.shutdown();
+      assertTrue(threads.awaitTermination(10, TimeUnit.SECONDS));
+
+      assertTrue(mostInUse.get() <= 4);
+      assertTrue(FakeDriver.opened() <= 4);
+      assertEquals(0, pool.getActiveCount());
+      assertEquals(3200, pool.getWaitTimes().getCount());
+   }//end concurrentBorrowersNeverShareOrExceedTheMaximum
+
+   @Test
+   public void theRefillNeverOpensPastTheMaximum() throws Exception {
+      pool(1, 1, 1000);
+      pool.invalidate(pool.borrow());
+      FakeDriver.slowConnects(500);
+      ExecutorService threads = Executors.newSingleThreadExecutor();
+      Future<Connection> borrowed = threads.submit(new Callable<Connection>() {
+         public Connection call() throws SQLException {
+            return pool.borrow();
+         }
+      });
+      // the borrower holds the only permit while it connects, the pool is one short of its minimum
+      Thread.sleep(100);
+      pool.housekeep();
+      pool.release(borrowed.get());
+      threads.shutdown();
+
+      assertEquals(1, FakeDriver.opened() - FakeDriver.closed());
+      assertEquals(1, pool.getIdleCount());
+   }//end theRefillNeverOpensPastTheMaximum
+
+   @Test
+   public void pooledSessionsOfTheBundledDriverAreSeparate() throws SQLException {
+      TestDatabase.assumeAvailable();
+      pool = new ConnectionPool("jdbc:postgresql://localhost:" + TestDatabase.port() + "/postgres", TestDatabase.user(), "",
+                                2, 2, 1000, 600000, 60000);
+      Connection a = pool.borrow();
+      Connection b = pool.borrow();
+      try {
+         assertFalse(backendPid(a) == backendPid(b));
+      }finally {
+         pool.release(a);
+         pool.release(b);
+      }//end try
+   }//end pooledSessionsOfTheBundledDriverAreSeparate
+
+   @Test
+   public void concurrentCreateUserGetsItsOwnKey() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      final Hotel esql = TestDatabase.open();
+      ExecutorService threads = Executors.newFixedThreadPool(8);
+      try {
+         List<Future<Integer>> ids = new ArrayList<Future<Integer>>();
+         for (int i = 0; i < 40; ++i) {
+            final String name = "pooled" + i;
+            ids.add(threads.submit(new Callable<Integer>() {
+               public Integer call() throws SQLException {
+                  return esql.createUser(name, "pw");
+               }
+            }));
+         }//end for
+         Set<Integer> distinct = new HashSet<Integer>();
+         for (int i = 0; i < ids.size(); ++i) {
+            int id = ids.get(i).get();
+            assertTrue(distinct.add(id));
+            assertEquals("pooled" + i, TestDatabase.queryForString("SELECT trim(name) FROM Users WHERE userID = " + id));
+         }//end for
+      }finally {
+         threads.shutdown();
+         esql.cleanup();
+      }//end try
+   }//end concurrentCreateUserGetsItsOwnKey
+
+   private static int backendPid(Connection conn) throws SQLException {
+      ResultSet rs = conn.createStatement().executeQuery("SELECT pg_backend_pid()");
+      rs.next();
+      int pid = rs.getInt(1);
+      rs.close();
+      return pid;
+   }//end backendPid
+}//end ConnectionPoolTest
@@ -0,0 +1,52 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Counting and existence checks done by the server, against the sample
+ * data.
+ */
+public class CountQueryTest {
+
+   private static Hotel esql;
+
+   @BeforeClass
+   public static void setUpClass() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      esql = TestDatabase.open();
+   }
+
+   @AfterClass
+   public static void tearDownClass() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   @Test
+   public void executeQueryCountsWhatTheQueryReturns() throws Exception {
+      String query = "SELECT roomNumber, price FROM Rooms WHERE hotelID = ? ORDER BY price DESC";
+      assertEquals(esql.executeQueryAndReturnResult(query, 1).size(), esql.executeQuery(query, 1));
+      assertEquals(TestDatabase.queryForInt("SELECT count(*) FROM Users"), esql.executeQuery("SELECT * FROM Users"));
+      assertEquals(3, esql.count("SELECT userID FROM Users LIMIT ?", 3));
+      assertEquals(0, esql.executeQuery("SELECT 1 FROM Rooms WHERE hotelID = ?", -1));
+   }//end executeQueryCountsWhatTheQueryReturns
+
+   @Test
+   public void existsReportsWhetherAnyRowMatches() throws Exception {
+      assertTrue(esql.exists("SELECT 1 FROM Rooms WHERE hotelID = ? AND roomNumber = ?", 1, 1));
+      assertFalse(esql.exists("SELECT 1 FROM Rooms WHERE hotelID = ? AND roomNumber = ?", 1, -1));
+   }//end existsReportsWhetherAnyRowMatches
+
+   @Test
+   public void queryForIntTellsNoRowAndNullApart() throws Exception {
+      assertEquals(1501, (int) esql.queryForInt("SELECT price FROM Rooms WHERE hotelID = ? AND roomNumber = ?", 1, 1));
+      assertNull(esql.queryForInt("SELECT price FROM Rooms WHERE hotelID = ?", -1));
+      assertNull(esql.queryForInt("SELECT CAST(NULL AS integer)"));
+   }//end queryForIntTellsNoRowAndNullApart
+}//end CountQueryTest
@@ -0,0 +1,95 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataGeneratorTest {
+
+   private File dir;
+
+   @Before
+   public void setUp() throws IOException {
+      dir = Files.createTempDirectory("generated").toFile();
+   }
+
+   @After
+   public void tearDown() {
+      for (File file : dir.listFiles())
+         file.delete();
+      dir.delete();
+   }
+
+   private List<String> rows(String file) throws IOException {
+      List<String> lines = Files.readAllLines(new File(dir, file).toPath(), java.nio.charset.Charset.forName("UTF-8"));
+      return lines.subList(1, lines.size());
+   }
+
+   @Test
+   public void coordinatesStayOnTheGlobeAtAnyScale() throws IOException {
+      for (int hotels : new int[] { 20, 200, 5000 }) {
+         new DataGenerator(hotels, 1, 10, 10, 1, 0, 0, 1).generate(dir);
+         List<String> rows = rows("hotels.csv");
+         assertEquals(hotels, rows.size());
+         for (String row : rows) {
+            String[] fields = row.split(",");
+            double lat = Double.parseDouble(fields[2]), lng = Double.parseDouble(fields[3]);
+            assertTrue(row, Math.abs(lat) <= 90);
+            assertTrue(row, Math.abs(lng) <= 180);
+         }//end for
+      }//end for
+   }//end coordinatesStayOnTheGlobeAtAnyScale
+
+   @Test
+   public void bookingsPointAtGeneratedRoomsAndNeverCollide() throws IOException {
+      int hotels = 50, rooms = 4;
+      new DataGenerator(hotels, rooms, 30, 3000, 2, 10, 10, 7).generate(dir);
+      assertEquals(hotels * rooms, rows("rooms.csv").size());
+      Set<Integer> customers = new HashSet<Integer>();
+      for (String row : rows("users.csv")) {
+         String[] fields = row.split(",");
+         if (fields[3].equals("customer"))
+            customers.add(Integer.valueOf(fields[0]));
+      }//end for
+
+      List<String> bookings = rows("bookings.csv");
+      assertEquals(3000, bookings.size());
+      Set<String> nights = new HashSet<String>();
+      for (String row : bookings) {
+         String[] fields = row.split(",");
+         assertTrue(row, customers.contains(Integer.valueOf(fields[1])));
+         int hotel = Integer.parseInt(fields[2]), room = Integer.parseInt(fields[3]);
+         assertTrue(row, hotel >= 1 && hotel <= hotels && room >= 1 && room <= rooms);
+         assertTrue("booked twice: " + row, nights.add(fields[2] + "," + fields[3] + "," + fields[4]));
+      }//end for
+   }//end bookingsPointAtGeneratedRoomsAndNeverCollide
+
+   @Test
+   public void theSameSeedWritesTheSameFiles() throws IOException {
+      new DataGenerator(30, 2, 10, 100, 1, 5, 5, 3).generate(dir);
+      byte[] first = Files.readAllBytes(new File(dir, "bookings.csv").toPath());
+      byte[] hotels = Files.readAllBytes(new File(dir, "hotels.csv").toPath());
+      new DataGenerator(30, 2, 10, 100, 1, 5, 5, 3).generate(dir);
+      assertArrayEquals(first, Files.readAllBytes(new File(dir, "bookings.csv").toPath()));
+      assertArrayEquals(hotels, Files.readAllBytes(new File(dir, "hotels.csv").toPath()));
+   }//end theSameSeedWritesTheSameFiles
+
+   @Test
+   public void aLargerScaleLoads() throws Exception {
+      TestDatabase.assumeAvailable();
+      new DataGenerator(400, 5, 200, 4000, 5, 40, 100, 1).generate(dir);
+      TestDatabase.create(TestDatabase.NAME, TestDatabase.port(), dir);
+      assertEquals(400, TestDatabase.queryForInt("SELECT count(*) FROM Hotel"));
+      assertEquals(4000, TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings"));
+      assertEquals(0, TestDatabase.queryForInt("SELECT count(*) FROM Hotel WHERE abs(latitude) > 90 OR abs(longitude) > 180"));
+   }//end aLargerScaleLoads
+}//end DataGeneratorTest
@@ -0,0 +1,246 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.postgresql.PGStatement;
+
+/**
+ * A JDBC driver for URLs starting with jdbc:fake: whose connections talk
+ * to no database.  Statements succeed and return no rows, unless the
+ * connection was broken with break_(); it records what was done to it,
+ * for tests of the code that manages connections.
+ */
+public class FakeDriver implements Driver {
+
+   public static final String URL = "jdbc:fake:test";
+
+   private static final AtomicInteger opened = new AtomicInteger();
+   private static final AtomicInteger closed = new AtomicInteger();
+   private static volatile long connectDelayMs = 0;
+   private static final List<FakeConnection> connections = Collections.synchronizedList(new ArrayList<FakeConnection>());
+
+   static {
+      try {
+         DriverManager.registerDriver(new FakeDriver());
+      }catch (SQLException e) {
+         throw new ExceptionInInitializerError(e);
+      }//end try
+   }
+
+   /**
+    * What one fake connection was asked to do.
+    */
+   public static class FakeConnection implements InvocationHandler {
+      public final Connection proxy;
+      public volatile boolean autoCommit = true;
+      public volatile boolean closed = false;
+      public volatile boolean broken = false;
+      public final AtomicInteger rollbacks = new AtomicInteger();
+      public final AtomicInteger prepares = new AtomicInteger();
+      public final AtomicInteger statementsClosed = new AtomicInteger();
+      public final List<String> serverPrepared = Collections.synchronizedList(new ArrayList<String>());
+      public final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+      FakeConnection() {
+         this.proxy = (Connection) Proxy.newProxyInstance(FakeDriver.class.getClassLoader(),
+                                                         new Class<?>[] { Connection.class }, this);
+      }
+
+      /**
+       * Makes every later call on the connection fail, as after a lost session.
+       */
+      public void break_() {
+         broken = true;
+      }
+
+      public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+         String name = method.getName();
+         if (name.equals("close")) {
+            if (!closed)
+               FakeDriver.closed.incrementAndGet();
+            closed = true;
+            return null;
+         }//end if
+         if (name.equals("isClosed"))
+            return closed;
+         if (name.equals("hashCode"))
+            return System.identityHashCode(self);
+         if (name.equals("equals"))
+            return self == args[0];
+         if (name.equals("toString"))
+            return "FakeConnection@" + System.identityHashCode(self);
+         if (broken || closed)
+            throw new SQLException("connection is " + (closed ? "closed" : "broken"));
+         if (name.equals("getAutoCommit"))
+            return autoCommit;
+         if (name.equals("setAutoCommit")) {
+            autoCommit = (Boolean) args[0];
+            return null;
+         }//end if
+         if (name.equals("rollback")) {
+            rollbacks.incrementAndGet();
+            return null;
+         }//end if
+         if (name.equals("commit"))
+            return null;
+         if (name.equals("createStatement"))
+            return statement(Statement.class, null);
+         if (name.equals("prepareStatement")) {
+            prepares.incrementAndGet();
+            return statement(PreparedStatement.class, (String) args[0]);
+         }//end if
+         throw new UnsupportedOperationException(name);
+      }//end invoke
+
+      private Object statement(Class<?> type, final String sql) {
+         return Proxy.newProxyInstance(FakeDriver.class.getClassLoader(), new Class<?>[] { type, PGStatement.class },
+                                       new InvocationHandler() {
+            public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+               String name = method.getName();
+               if (name.equals("setUseServerPrepare")) {
+                  if ((Boolean) args[0])
+                     serverPrepared.add(sql);
+                  return null;
+               }//end if
+               if (name.equals("hashCode"))
+                  return System.identityHashCode(self);
+               if (name.equals("equals"))
+                  return self == args[0];
+               if (name.equals("close")) {
+                  statementsClosed.incrementAndGet();
+                  return null;
+               }//end if
+               if (name.startsWith("set") || name.equals("clearParameters"))
+                  return null;
+               if (broken || closed)
+                  throw new SQLException("connection is " + (closed ? "closed" : "broken"));
+               if (name.startsWith("execute")) {
+                  executed.add(args != null && args.length > 0 ? (String) args[0] : sql);
+                  if (name.equals("executeQuery"))
+                     return emptyResultSet();
+                  return name.equals("executeUpdate") ? (Object) 0 : (Object) false;
+               }//end if
+               throw new UnsupportedOperationException(name);
+            }
+         });
+      }//end statement
+   }//end FakeConnection
+
+   /**
+    * Loads the driver; call before handing URL to a pool.
+    */
+   public static void register() {
+      // the static initializer does the work
+   }
+
+   /**
+    * Forgets the connections opened so far.
+    */
+   public static void reset() {
+      opened.set(0);
+      closed.set(0);
+      connectDelayMs = 0;
+      connections.clear();
+   }//end reset
+
+   /**
+    * Makes every later connect take this long, like a slow server.
+    */
+   public static void slowConnects(long delayMs) {
+      connectDelayMs = delayMs;
+   }
+
+   public static int opened() {
+      return opened.get();
+   }
+
+   public static int closed() {
+      return closed.get();
+   }
+
+   /**
+    * @return the fake behind a connection handed out by this driver
+    */
+   public static FakeConnection of(Connection conn) {
+      synchronized (connections) {
+         for (FakeConnection fake : connections)
+            if (fake.proxy == conn)
+               return fake;
+      }//end synchronized
+      throw new IllegalArgumentException("not a fake connection: " + conn);
+   }//end of
+
+   public Connection connect(String url, Properties info) throws SQLException {
+      if (!acceptsURL(url))
+         return null;
+      if (connectDelayMs > 0) {
+         try {
+            Thread.sleep(connectDelayMs);
+         }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while connecting");
+         }//end try
+      }//end if
+      FakeConnection conn = new FakeConnection();
+      connections.add(conn);
+      opened.incrementAndGet();
+      return conn.proxy;
+   }//end connect
+
+   public boolean acceptsURL(String url) {
+      return url != null && url.startsWith("jdbc:fake:");
+   }
+
+   public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+      return new DriverPropertyInfo[0];
+   }
+
+   public int getMajorVersion() {
+      return 1;
+   }
+
+   public int getMinorVersion() {
+      return 0;
+   }
+
+   public boolean jdbcCompliant() {
+      return false;
+   }
+
+   public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      throw new SQLFeatureNotSupportedException();
+   }
+
+   private static ResultSet emptyResultSet() {
+      return (ResultSet) Proxy.newProxyInstance(FakeDriver.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                                                new InvocationHandler() {
+         public Object invoke(Object self, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("next"))
+               return false;
+            if (name.equals("close"))
+               return null;
+            if (name.equals("hashCode"))
+               return System.identityHashCode(self);
+            if (name.equals("equals"))
+               return self == args[0];
+            throw new UnsupportedOperationException(name);
+         }
+      });
+   }//end emptyResultSet
+}//end FakeDriver
@@ -0,0 +1,124 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * searchFreeRooms around (10, 15) on the sample data, where hotels 3, 10
+ * and 11 lie within a radius of 10.  Inside the availability window the
+ * search runs in memory and must page exactly like the query it replaces.
+ */
+public class FreeRoomSearchTest {
+
+   private static final double LAT = 10;
+   private static final double LNG = 15;
+   private static final double RADIUS = 10;
+   private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+   private Hotel esql;
+   private Date first;
+   private Date last;
+
+   @Before
+   public void setUp() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      esql = TestDatabase.open();
+      first = RoomAvailabilityIndex.toDate(RoomAvailabilityIndex.epochDay(new java.util.Date()) + 7);
+      last = new Date(first.getTime() + 2 * DAY_MS);
+   }//end setUp
+
+   @After
+   public void tearDown() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   // every row, paging pageSize at a time through the cursor a client gets
+   private List<List<String>> all(boolean inMemory, Date first, Date last, int maxPrice, Hotel.SearchOrder order,
+                                  int pageSize) throws Exception {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      Hotel.Page page = null;
+      do {
+         Hotel.Page after = page == null ? null : Hotel.Page.after(page.nextCursor());
+         page = inMemory ? esql.searchFreeRooms(LAT, LNG, RADIUS, first, last, maxPrice, order, pageSize, after)
+                         : esql.searchFreeRoomsFromDatabase(LAT, LNG, RADIUS, first, last, maxPrice, order, pageSize, after);
+         assertTrue(page.rows.size() <= pageSize);
+         rows.addAll(page.rows);
+      }while (page.hasNext());
+      return rows;
+   }//end all
+
+   private static List<String> hotels(List<List<String>> rows) {
+      List<String> hotels = new ArrayList<String>();
+      for (List<String> row : rows)
+         if (!hotels.contains(row.get(0)))
+            hotels.add(row.get(0));
+      return hotels;
+   }//end hotels
+
+   @Test
+   public void theWindowAndTheDatabaseAgree() throws Exception {
+      assertTrue(esql.getAvailabilityIndex().covers(last));
+      for (Hotel.SearchOrder order : Hotel.SearchOrder.values()) {
+         List<List<String>> expected = all(false, first, last, Integer.MAX_VALUE, order, 1000);
+         assertFalse(expected.isEmpty());
+         for (int pageSize : new int[] { 1, 3, 1000 })
+            assertEquals(order + " by " + pageSize, expected, all(true, first, last, Integer.MAX_VALUE, order, pageSize));
+      }//end for
+      assertEquals("[3, 10, 11]", hotels(all(true, first, last, Integer.MAX_VALUE, Hotel.SearchOrder.DISTANCE, 4)).toString());
+   }//end theWindowAndTheDatabaseAgree
+
+   @Test
+   public void cheapestFirstRespectsTheMaximumPrice() throws Exception {
+      List<List<String>> rows = all(true, first, last, 1000, Hotel.SearchOrder.PRICE, 2);
+      assertFalse(rows.isEmpty());
+      int previous = 0;
+      for (List<String> row : rows) {
+         int price = Integer.parseInt(row.get(3));
+         assertTrue(row.toString(), price >= previous && price <= 1000);
+         previous = price;
+      }//end for
+      assertEquals(rows, all(false, first, last, 1000, Hotel.SearchOrder.PRICE, 2));
+   }//end cheapestFirstRespectsTheMaximumPrice
+
+   @Test
+   public void aRoomBookedOnAnyNightIsLeftOut() throws Exception {
+      List<String> room = all(true, first, last, Integer.MAX_VALUE, Hotel.SearchOrder.DISTANCE, 1000).get(0);
+      int hotelID = Integer.parseInt(room.get(0));
+      int roomNumber = Integer.parseInt(room.get(2));
+      esql.bookRoom(2, hotelID, roomNumber, new Date(first.getTime() + DAY_MS));
+
+      for (boolean inMemory : new boolean[] { true, false })
+         for (List<String> row : all(inMemory, first, last, Integer.MAX_VALUE, Hotel.SearchOrder.DISTANCE, 5))
+            assertFalse(row.toString(), row.get(0).equals(room.get(0)) && row.get(2).equals(room.get(2)));
+      // free again the night after the booking
+      Date after = new Date(last.getTime() + DAY_MS);
+      assertEquals(room, all(true, after, after, Integer.MAX_VALUE, Hotel.SearchOrder.DISTANCE, 1000).get(0));
+   }//end aRoomBookedOnAnyNightIsLeftOut
+
+   @Test
+   public void nightsPastTheWindowAreSearchedInTheDatabase() throws Exception {
+      Date far = Date.valueOf("2040-01-01");
+      assertFalse(esql.getAvailabilityIndex().covers(far));
+      List<List<String>> rows = all(true, far, far, Integer.MAX_VALUE, Hotel.SearchOrder.DISTANCE, 7);
+      assertEquals(all(false, far, far, Integer.MAX_VALUE, Hotel.SearchOrder.DISTANCE, 1000), rows);
+      assertEquals(TestDatabase.queryForInt("SELECT count(*) FROM Rooms WHERE hotelID IN (3, 10, 11)"), rows.size());
+   }//end nightsPastTheWindowAreSearchedInTheDatabase
+
+   @Test
+   public void nothingNearbyIsAnEmptyLastPage() throws Exception {
+      Hotel.Page page = esql.searchFreeRooms(-50, -50, 1, first, last, Integer.MAX_VALUE, Hotel.SearchOrder.DISTANCE, 10, null);
+      assertTrue(page.rows.isEmpty());
+      assertFalse(page.hasNext());
+      assertNull(page.nextCursor());
+   }//end nothingNearbyIsAnEmptyLastPage
+}//end FreeRoomSearchTest
@@ -0,0 +1,160 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The HTTP service over the sample data: user 2 is customer Amy, user 25
+ * the manager of hotel 1 and user 20 the manager of hotel 2, all with
+ * password xyz.
+ */
+public class HotelServiceTest {
+
+   private static Hotel esql;
+   private static HotelService service;
+   private static int port;
+
+   /**
+    * Status and body of one response.
+    */
+   private static class Response {
+      final int status;
+      final String body;
+
+      Response(int status, String body) {
+         this.status = status;
+         this.body = body;
+      }
+   }//end Response
+
+   @BeforeClass
+   public static void setUpClass() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      esql = TestDatabase.open();
+      ServerSocket free = new ServerSocket(0);
+      port = free.getLocalPort();
+      free.close();
+      service = new HotelService(esql);
+      service.start(port);
+   }//end setUpClass
+
+   @AfterClass
+   public static void tearDownClass() {
+      if (service != null)
+         service.stop();
+      if (esql != null)
+         esql.cleanup();
+   }//end tearDownClass
+
+   private static Response call(String method, String path, String token, String form) throws IOException {
+      HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+      conn.setRequestMethod(method);
+      if (token != null)
+         conn.setRequestProperty("Authorization", "Bearer " + token);
+      if (form != null) {
+         conn.setDoOutput(true);
+         conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+         OutputStream out = conn.getOutputStream();
+         out.write(form.getBytes("UTF-8"));
+         out.close();
+      }//end if
+      int status = conn.getResponseCode();
+      InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n; in != null && (n = in.read(buffer)) > 0; )
+         body.write(buffer, 0, n);
+      if (in != null)
+         in.close();
+      return new Response(status, body.toString("UTF-8"));
+   }//end call
+
+   private static String login(int userID) throws IOException {
+      Response response = call("POST", "/login", null, "userID=" + userID + "&password=xyz");
+      assertEquals(response.body, 200, response.status);
+      Matcher token = Pattern.compile("\"token\":\"([0-9a-f]+)\"").matcher(response.body);
+      assertTrue(response.body, token.find());
+      return token.group(1);
+   }//end login
+
+   @Test
+   public void quoteEscapesJson() {
+      assertEquals("null", HotelService.quote(null));
+      assertEquals("\"a\\\"b\\\\c\\u000a\"", HotelService.quote("a\"b\\c\n"));
+   }
+
+   @Test
+   public void loginChecksThePassword() throws IOException {
+      Response wrong = call("POST", "/login", null, "userID=2&password=nope");
+      assertEquals(401, wrong.status);
+      assertEquals("{\"error\":\"Wrong user ID or password\"}", wrong.body);
+      assertEquals(400, call("POST", "/login", null, "userID=two&password=xyz").status);
+      Response right = call("POST", "/login", null, "userID=2&password=xyz");
+      assertTrue(right.body, right.body.contains("\"name\":\"Amy\"") && right.body.contains("\"role\":\"customer\""));
+   }//end loginChecksThePassword
+
+   @Test
+   public void callsNeedASessionTheRightMethodAndAKnownPath() throws IOException {
+      assertEquals(401, call("GET", "/hotels?lat=0&lng=0", null, null).status);
+      assertEquals(401, call("GET", "/hotels?lat=0&lng=0", "0123", null).status);
+      assertEquals(405, call("GET", "/login", null, null).status);
+      assertEquals(404, call("GET", "/hotels/unknown", login(2), null).status);
+
+      String token = login(2);
+      assertEquals(200, call("POST", "/logout", token, "").status);
+      assertEquals(401, call("GET", "/hotels?lat=0&lng=0", token, null).status);
+   }//end callsNeedASessionTheRightMethodAndAKnownPath
+
+   @Test
+   public void aCustomerFindsHotelsAndBooksARoom() throws IOException {
+      String token = login(2);
+      Response hotels = call("GET", "/hotels?lat=94.77143&lng=25.58018&radius=0.001", token, null);
+      assertEquals(hotels.body, 200, hotels.status);
+      assertTrue(hotels.body, hotels.body.startsWith("[{\"hotelID\":1,"));
+
+      Response booked = call("POST", "/bookings/new", token, "hotelID=1&roomNumber=1&date=2031-05-01");
+      assertEquals("{\"status\":\"BOOKED\",\"bookingID\":", booked.body.substring(0, booked.body.indexOf(':', 20) + 1));
+      assertTrue(booked.body, booked.body.endsWith(",\"price\":1501}"));
+      Response again = call("POST", "/bookings/new", token, "hotelID=1&roomNumber=1&date=2031-05-01");
+      assertTrue(again.body, again.body.contains("\"ALREADY_BOOKED\""));
+
+      Response rooms = call("GET", "/rooms?hotelID=1&date=2031-05-01", token, null);
+      assertEquals(rooms.body, 200, rooms.status);
+      assertTrue(rooms.body, rooms.body.contains("{\"roomNumber\":\"1\",\"price\":\"1501\",\"availability\":\"Booked\"}"));
+
+      Response mine = call("GET", "/bookings", token, null);
+      assertTrue(mine.body, mine.body.contains("\"bookingDate\":\"2031-05-01\""));
+   }//end aCustomerFindsHotelsAndBooksARoom
+
+   @Test
+   public void onlyTheHotelsManagerSeesItsReports() throws IOException {
+      assertEquals(403, call("GET", "/customers/regular?hotelID=1", login(2), null).status);
+      assertEquals(403, call("GET", "/customers/regular?hotelID=1", login(20), null).status);
+      assertEquals(404, call("GET", "/customers/regular?hotelID=99999", login(25), null).status);
+      Response regulars = call("GET", "/customers/regular?hotelID=1", login(25), null);
+      assertEquals(regulars.body, 200, regulars.status);
+      assertTrue(regulars.body, regulars.body.startsWith("[{\"name\":"));
+      assertEquals(403, call("POST", "/shards/move", login(25), "hotelID=1&shard=0").status);
+   }//end onlyTheHotelsManagerSeesItsReports
+
+   @Test
+   public void metricsNeedNoSession() throws IOException {
+      login(2);
+      Response metrics = call("GET", "/metrics", null, null);
+      assertEquals(200, metrics.status);
+      assertTrue(metrics.body, metrics.body.contains("# TYPE"));
+   }//end metricsNeedNoSession
+}//end HotelServiceTest
@@ -0,0 +1,111 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HotelSpatialIndexTest {
+
+   private static HotelEntry hotel(int id, double lat, double lng) {
+      return new HotelEntry(id, "h" + id, lat, lng, null, 1);
+   }
+
+   private static List<HotelEntry> randomHotels(Random random, int count) {
+      List<HotelEntry> hotels = new ArrayList<HotelEntry>();
+      for (int i = 0; i < count; ++i)
+         hotels.add(hotel(i, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+      return hotels;
+   }//end randomHotels
+
+   private static List<HotelEntry> bruteForce(List<HotelEntry> hotels, final double lat, final double lng) {
+      List<HotelEntry> sorted = new ArrayList<HotelEntry>(hotels);
+      Collections.sort(sorted, new Comparator<HotelEntry>() {
+         public int compare(HotelEntry a, HotelEntry b) {
+            return Double.compare(a.distanceTo(lat, lng), b.distanceTo(lat, lng));
+         }
+      });
+      return sorted;
+   }//end bruteForce
+
+   private static List<Double> distances(List<HotelEntry> hotels, double lat, double lng) {
+      List<Double> distances = new ArrayList<Double>();
+      for (HotelEntry hotel : hotels)
+         distances.add(hotel.distanceTo(lat, lng));
+      return distances;
+   }//end distances
+
+   @Test
+   public void radiusSearchMatchesAFullScan() {
+      Random random = new Random(5);
+      List<HotelEntry> hotels = randomHotels(random, 2000);
+      HotelSpatialIndex index = new HotelSpatialIndex(hotels, 7.5);
+      for (int q = 0; q < 200; ++q) {
+         double lat = random.nextDouble() * 200 - 100, lng = random.nextDouble() * 400 - 200;
+         double radius = random.nextDouble() * 40;
+         List<HotelEntry> expected = new ArrayList<HotelEntry>();
+         for (HotelEntry hotel : bruteForce(hotels, lat, lng))
+            if (hotel.distanceTo(lat, lng) <= radius)
+               expected.add(hotel);
+         List<HotelEntry> found = index.withinRadius(lat, lng, radius);
+         assertEquals(distances(expected, lat, lng), distances(found, lat, lng));
+         assertEquals(expected.size(), found.size());
+      }//end for
+   }//end radiusSearchMatchesAFullScan
+
+   @Test
+   public void nearestMatchesAFullScan() {
+      Random random = new Random(11);
+      List<HotelEntry> hotels = randomHotels(random, 2000);
+      for (double cellSize : new double[] { 1, 30, 500 }) {
+         HotelSpatialIndex index = new HotelSpatialIndex(hotels, cellSize);
+         for (int q = 0; q < 100; ++q) {
+            // some queries far outside the hotels
+            double lat = random.nextDouble() * 600 - 300, lng = random.nextDouble() * 600 - 300;
+            int k = 1 + random.nextInt(20);
+            List<HotelEntry> expected = bruteForce(hotels, lat, lng).subList(0, k);
+            assertEquals(distances(expected, lat, lng), distances(index.nearest(lat, lng, k), lat, lng));
+         }//end for
+      }//end for
+   }//end nearestMatchesAFullScan
+
+   @Test
+   public void nearestReturnsEveryHotelWhenKExceedsTheIndex() {
+      List<HotelEntry> hotels = new ArrayList<HotelEntry>();
+      hotels.add(hotel(1, 10, 10));
+      hotels.add(hotel(2, -50, 170));
+      hotels.add(hotel(3, 0, 0));
+      HotelSpatialIndex index = new HotelSpatialIndex(hotels);
+      List<HotelEntry> found = index.nearest(1, 1, 10);
+      assertEquals(3, found.size());
+      assertEquals(3, found.get(0).hotelID);
+      assertEquals(1, found.get(1).hotelID);
+      assertEquals(2, found.get(2).hotelID);
+   }//end nearestReturnsEveryHotelWhenKExceedsTheIndex
+
+   @Test
+   public void theRadiusBoundaryIsIncluded() {
+      List<HotelEntry> hotels = new ArrayList<HotelEntry>();
+      hotels.add(hotel(1, 30, 40));
+      HotelSpatialIndex index = new HotelSpatialIndex(hotels);
+      assertEquals(1, index.withinRadius(0, 0, 50).size());
+      assertEquals(0, index.withinRadius(0, 0, 49.99).size());
+   }//end theRadiusBoundaryIsIncluded
+
+   @Test
+   public void anEmptyIndexFindsNothing() {
+      HotelSpatialIndex index = new HotelSpatialIndex(new ArrayList<HotelEntry>());
+      assertEquals(0, index.size());
+      assertTrue(index.withinRadius(0, 0, 100).isEmpty());
+      assertTrue(index.nearest(0, 0, 5).isEmpty());
+   }//end anEmptyIndexFindsNothing
+
+   @Test(expected = IllegalArgumentException.class)
+   public void theCellSizeMustBePositive() {
+      new HotelSpatialIndex(new ArrayList<HotelEntry>(), 0);
+   }
+}//end HotelSpatialIndexTest
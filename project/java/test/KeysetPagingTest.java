@@ -0,0 +1,123 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Paging through the keyset listings against the sample data, with rows
+ * added that share a sort date so the second key column decides.  Every
+ * listing read a few rows at a time must match the same listing read in
+ * one page.
+ */
+public class KeysetPagingTest {
+
+   private static final int CUSTOMER = 3;
+   private static final int MANAGER = 25;
+
+   private static Hotel esql;
+
+   private interface Listing {
+      Hotel.Page page(int pageSize, Hotel.Page after) throws Exception;
+   }
+
+   @BeforeClass
+   public static void setUpClass() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      TestDatabase.execute("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) " +
+                           "SELECT " + CUSTOMER + ", 1, room, DATE '2029-03-01' + night FROM generate_series(1, 10) room, " +
+                           "generate_series(0, 2) night");
+      TestDatabase.execute("INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) " +
+                           "SELECT " + MANAGER + ", 1, 1 + n % 10, TIMESTAMP '2029-03-01 10:00:00.25' + (n / 4) * interval '1 hour' " +
+                           "FROM generate_series(0, 22) n");
+      esql = TestDatabase.open();
+   }//end setUpClass
+
+   @AfterClass
+   public static void tearDownClass() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   // every row of the listing, read pageSize rows at a time through the text cursor
+   private static List<List<String>> readAll(Listing listing, int pageSize) throws Exception {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      Hotel.Page page = listing.page(pageSize, null);
+      while (true) {
+         assertTrue(page.rows.size() <= pageSize);
+         rows.addAll(page.rows);
+         if (!page.hasNext())
+            break;
+         assertEquals(pageSize, page.rows.size());
+         page = listing.page(pageSize, Hotel.Page.after(page.nextCursor()));
+      }//end while
+      return rows;
+   }//end readAll
+
+   private static void assertPagesMatchOneRead(Listing listing, int expected) throws Exception {
+      Hotel.Page whole = listing.page(10000, null);
+      assertFalse(whole.hasNext());
+      assertNull(whole.nextCursor());
+      assertEquals(expected, whole.rows.size());
+      for (int pageSize : new int[] { 1, 4, 7, expected - 1, expected })
+         assertEquals("page size " + pageSize, whole.rows, readAll(listing, pageSize));
+   }//end assertPagesMatchOneRead
+
+   @Test
+   public void customerBookingsPageAcrossNightsBookedSeveralTimes() throws Exception {
+      int expected = TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings WHERE customerID = " + CUSTOMER);
+      assertTrue(expected >= 30);
+      assertPagesMatchOneRead(new Listing() {
+         public Hotel.Page page(int pageSize, Hotel.Page after) throws Exception {
+            return esql.customerBookings(CUSTOMER, pageSize, after);
+         }
+      }, expected);
+      // latest night first
+      assertEquals("2029-03-03", esql.customerBookings(CUSTOMER, 1, null).rows.get(0).get(3));
+   }//end customerBookingsPageAcrossNightsBookedSeveralTimes
+
+   @Test
+   public void managerUpdatesPageAcrossEqualTimestamps() throws Exception {
+      int expected = TestDatabase.queryForInt("SELECT count(*) FROM RoomUpdatesLog WHERE managerID = " + MANAGER);
+      assertTrue(expected >= 23);
+      assertPagesMatchOneRead(new Listing() {
+         public Hotel.Page page(int pageSize, Hotel.Page after) throws Exception {
+            return esql.managerUpdates(MANAGER, pageSize, after);
+         }
+      }, expected);
+   }//end managerUpdatesPageAcrossEqualTimestamps
+
+   @Test
+   public void bookingHistoryPagesWithinItsDates() throws Exception {
+      final Date from = Date.valueOf("2029-03-01"), to = Date.valueOf("2029-03-02");
+      int expected = TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings rb JOIN Hotel h ON h.hotelID = rb.hotelID " +
+                                              "WHERE h.managerUserID = " + MANAGER + " AND rb.bookingDate BETWEEN '2029-03-01' AND '2029-03-02'");
+      assertEquals(20, expected);
+      assertPagesMatchOneRead(new Listing() {
+         public Hotel.Page page(int pageSize, Hotel.Page after) throws Exception {
+            return esql.bookingHistory(MANAGER, from, to, pageSize, after);
+         }
+      }, expected);
+      // night order
+      assertEquals("2029-03-01", esql.bookingHistory(MANAGER, from, to, 1, null).rows.get(0).get(4));
+   }//end bookingHistoryPagesWithinItsDates
+
+   @Test
+   public void aCursorIsComparedAsATimestampNotAsText() throws Exception {
+      // as text "2029-03-01 10:00:00.250" sorts after "2029-03-01 10:00:00.25",
+      // as a timestamp they are the same instant
+      Hotel.Page page = esql.managerUpdates(MANAGER, 100, Hotel.Page.after("2029-03-01 10:00:00.250," + Integer.MAX_VALUE));
+      assertEquals(TestDatabase.queryForInt("SELECT count(*) FROM RoomUpdatesLog WHERE managerID = " + MANAGER +
+                                            " AND updatedOn <= '2029-03-01 10:00:00.25'"), page.rows.size());
+      for (List<String> row : page.rows)
+         assertTrue(row.toString(), row.get(3).compareTo("2029-03-01 10:00:00.25") <= 0);
+   }//end aCursorIsComparedAsATimestampNotAsText
+}//end KeysetPagingTest
@@ -0,0 +1,76 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+   @Test
+   public void anEmptyHistogramReportsZero() {
+      LatencyHistogram h = new LatencyHistogram();
+      assertEquals(0, h.getCount());
+      assertEquals(0, h.percentileMicros(0.99));
+      assertEquals(0, h.countAtMostMicros(Long.MAX_VALUE));
+   }//end anEmptyHistogramReportsZero
+
+   @Test
+   public void smallValuesAreExact() {
+      LatencyHistogram h = new LatencyHistogram();
+      for (int micros = 0; micros < 16; ++micros)
+         h.recordNanos(micros * 1000L + 999);
+      assertEquals(16, h.getCount());
+      assertEquals(120, h.getSumMicros());
+      assertEquals(15, h.getMaxMicros());
+      assertEquals(7, h.percentileMicros(0.5));
+      assertEquals(8, h.countAtMostMicros(7));
+      // a negative clock difference counts as no time at all
+      h.recordNanos(-5000);
+      assertEquals(1 + 8, h.countAtMostMicros(7));
+   }//end smallValuesAreExact
+
+   @Test
+   public void aBucketHoldsASixteenthOfItsValues() {
+      LatencyHistogram h = new LatencyHistogram();
+      for (int i = 0; i < 100; ++i)
+         h.recordNanos(1000 * 1000L);
+      h.recordNanos(50000 * 1000L);
+      // 1000 us falls in the bucket from 992 to 1023
+      assertEquals(1023, h.percentileMicros(0.5));
+      assertEquals(1023, h.percentileMicros(0.99));
+      assertEquals(50000, h.percentileMicros(1.0));
+      assertEquals(0, h.countAtMostMicros(1000));
+      assertEquals(100, h.countAtMostMicros(1023));
+      assertEquals(101, h.countAtMostMicros(Long.MAX_VALUE));
+   }//end aBucketHoldsASixteenthOfItsValues
+
+   @Test
+   public void percentilesStayWithinTheBucketWidth() {
+      Random random = new Random(42);
+      long[] micros = new long[10000];
+      LatencyHistogram h = new LatencyHistogram();
+      for (int i = 0; i < micros.length; ++i) {
+         micros[i] = (long) Math.exp(random.nextDouble() * Math.log(1e8));
+         h.recordNanos(micros[i] * 1000);
+      }//end for
+      Arrays.sort(micros);
+      for (double q : new double[] { 0.1, 0.5, 0.9, 0.99, 0.999 }) {
+         long exact = micros[(int) Math.ceil(q * micros.length) - 1];
+         long reported = h.percentileMicros(q);
+         assertTrue(q + ": " + reported + " for " + exact, reported >= exact && reported <= exact + exact / 16 + 1);
+      }//end for
+      assertEquals(micros[micros.length - 1], h.percentileMicros(1.0));
+   }//end percentilesStayWithinTheBucketWidth
+
+   @Test
+   public void hugeValuesLandInTheLastBucket() {
+      LatencyHistogram h = new LatencyHistogram();
+      h.recordNanos(Long.MAX_VALUE);
+      h.recordNanos(1L << 52);
+      assertEquals(Long.MAX_VALUE / 1000, h.getMaxMicros());
+      assertEquals(Long.MAX_VALUE / 1000, h.percentileMicros(1.0));
+      assertEquals(0, h.countAtMostMicros(1L << 40));
+   }//end hugeValuesLandInTheLastBucket
+}//end LatencyHistogramTest
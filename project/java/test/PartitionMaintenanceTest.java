@@ -0,0 +1,182 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The partition functions and the booking count trigger of
+ * create_tables.sql, and the PartitionMaintenance command on top of them.
+ * The sample data only has partitions from 2015 on; older rows sit in
+ * the default partitions.
+ */
+public class PartitionMaintenanceTest {
+
+   private Hotel esql;
+   private PartitionMaintenance maintenance;
+
+   @Before
+   public void setUp() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      esql = TestDatabase.open();
+      maintenance = new PartitionMaintenance(esql);
+   }
+
+   @After
+   public void tearDown() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   private static String partitionOf(String table, String where) throws Exception {
+      return TestDatabase.queryForString("SELECT tableoid::regclass FROM " + table + " WHERE " + where);
+   }
+
+   private static int createMonthlyPartitions(String table, String key, String first, String last) throws Exception {
+      return TestDatabase.queryForInt("SELECT create_monthly_partitions('" + table + "', '" + key + "', '" + first + "', '" + last + "')");
+   }
+
+   private static int customerBookings(int hotelID, int customerID) throws Exception {
+      String count = TestDatabase.queryForString("SELECT numBookings FROM HotelCustomerBookings WHERE hotelID = " + hotelID +
+                                                 " AND customerID = " + customerID);
+      return count == null ? 0 : Integer.parseInt(count.trim());
+   }//end customerBookings
+
+   private static List<String> gunzip(File file) throws IOException {
+      BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+      try {
+         List<String> lines = new ArrayList<String>();
+         for (String line; (line = in.readLine()) != null; )
+            lines.add(line);
+         return lines;
+      }finally {
+         in.close();
+      }//end try
+   }//end gunzip
+
+   @Test
+   public void aNewMonthTakesItsRowsOutOfTheDefaultPartition() throws Exception {
+      TestDatabase.execute("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES " +
+                           "(2, 1, 1, '2040-05-01'), (2, 1, 2, '2040-05-31'), (2, 1, 3, '2040-06-01')");
+      assertEquals("roombookings_default", partitionOf("RoomBookings", "bookingDate = '2040-05-31'"));
+
+      assertEquals(1, createMonthlyPartitions("RoomBookings", "bookingDate", "2040-05-17", "2040-05-17"));
+      assertEquals("roombookings_y2040m05", partitionOf("RoomBookings", "bookingDate = '2040-05-01'"));
+      assertEquals("roombookings_y2040m05", partitionOf("RoomBookings", "bookingDate = '2040-05-31'"));
+      assertEquals("roombookings_default", partitionOf("RoomBookings", "bookingDate = '2040-06-01'"));
+      assertEquals(0, TestDatabase.queryForInt("SELECT count(*) FROM roombookings_default WHERE bookingDate < '2040-06-01' " +
+                                               "AND bookingDate >= '2040-05-01'"));
+
+      // existing months are left alone
+      assertEquals(1, createMonthlyPartitions("RoomBookings", "bookingDate", "2040-05-01", "2040-06-01"));
+      assertEquals(0, createMonthlyPartitions("RoomBookings", "bookingDate", "2040-05-01", "2040-06-30"));
+      assertEquals("roombookings_y2040m06", partitionOf("RoomBookings", "bookingDate = '2040-06-01'"));
+      assertEquals(3, TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings WHERE bookingDate >= '2040-05-01'"));
+   }//end aNewMonthTakesItsRowsOutOfTheDefaultPartition
+
+   @Test
+   public void timestampKeysSplitAtMidnightOfTheFirst() throws Exception {
+      TestDatabase.execute("INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES " +
+                           "(25, 1, 1, '2040-07-31 23:59:59.999'), (25, 1, 1, '2040-08-01 00:00:00')");
+      // mixed case names are folded like the unquoted names of create_tables.sql
+      assertEquals(1, createMonthlyPartitions("RoomUpdatesLog", "updatedOn", "2040-07-01", "2040-07-01"));
+      assertEquals("roomupdateslog_y2040m07", partitionOf("RoomUpdatesLog", "updatedOn = '2040-07-31 23:59:59.999'"));
+      assertEquals("roomupdateslog_default", partitionOf("RoomUpdatesLog", "updatedOn = '2040-08-01'"));
+   }//end timestampKeysSplitAtMidnightOfTheFirst
+
+   @Test
+   public void createPartitionsKeepsBothTablesAheadOfTheCalendar() throws Exception {
+      // create_tables.sql runs a year ahead, two more months add two partitions to each table
+      assertEquals(0, maintenance.createPartitions(PartitionMaintenance.DEFAULT_MONTHS_AHEAD));
+      assertEquals(4, maintenance.createPartitions(PartitionMaintenance.DEFAULT_MONTHS_AHEAD + 2));
+      assertEquals(0, maintenance.createPartitions(PartitionMaintenance.DEFAULT_MONTHS_AHEAD + 2));
+   }//end createPartitionsKeepsBothTablesAheadOfTheCalendar
+
+   @Test
+   public void onlyMonthlyPartitionsBeforeTheCutoffAreListed() throws Exception {
+      List<String> old = maintenance.partitionsBefore("RoomBookings", Date.valueOf("2015-04-01"));
+      assertEquals(Arrays.asList("roombookings_y2015m01", "roombookings_y2015m02", "roombookings_y2015m03"), old);
+      assertEquals(0, maintenance.partitionsBefore("RoomUpdatesLog", Date.valueOf("2015-01-01")).size());
+      assertEquals("roomupdateslog_y2015m01", maintenance.partitionsBefore("RoomUpdatesLog", Date.valueOf("2015-02-01")).get(0));
+   }//end onlyMonthlyPartitionsBeforeTheCutoffAreListed
+
+   @Test
+   public void anArchivedMonthIsWrittenOutAndDropped() throws Exception {
+      TestDatabase.execute("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES " +
+                           "(3, 1, 1, '2015-02-03'), (3, 1, 2, '2015-02-04'), (4, 1, 1, '2015-02-28')");
+      int rows = TestDatabase.queryForInt("SELECT count(*) FROM roombookings_y2015m02");
+      int total = TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings");
+      int counted = customerBookings(1, 3);
+      String line = TestDatabase.queryForString("SELECT bookingID || ',3,1,2,2015-02-04' FROM RoomBookings " +
+                                                "WHERE hotelID = 1 AND roomNumber = 2 AND bookingDate = '2015-02-04'");
+      File dir = Files.createTempDirectory("archive").toFile();
+      try {
+         assertEquals(rows, maintenance.archive("RoomBookings", "roombookings_y2015m02", dir));
+         File archive = new File(dir, "roombookings_y2015m02.csv.gz");
+         assertTrue(archive.isFile());
+         assertFalse(new File(dir, "roombookings_y2015m02.csv.gz.tmp").exists());
+
+         List<String> lines = gunzip(archive);
+         assertEquals("bookingid,customerid,hotelid,roomnumber,bookingdate", lines.get(0));
+         assertEquals(rows + 1, lines.size());
+         assertTrue(lines.toString(), lines.contains(line));
+
+         assertNull(TestDatabase.queryForString("SELECT to_regclass('roombookings_y2015m02')"));
+         assertEquals(total - rows, TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings"));
+         // detaching does not fire the trigger, archived bookings keep counting
+         assertEquals(counted, customerBookings(1, 3));
+      }finally {
+         for (File file : dir.listFiles())
+            file.delete();
+         dir.delete();
+      }//end try
+   }//end anArchivedMonthIsWrittenOutAndDropped
+
+   @Test
+   public void theCountTriggerFollowsInsertsMovesAndDeletes() throws Exception {
+      int before = customerBookings(2, 5);
+      TestDatabase.execute("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES " +
+                           "(5, 2, 1, '2030-02-01'), (5, 2, 2, '2030-02-01')");
+      assertEquals(before + 2, customerBookings(2, 5));
+
+      int other = customerBookings(2, 6);
+      TestDatabase.execute("UPDATE RoomBookings SET customerID = 6 WHERE hotelID = 2 AND roomNumber = 2 AND bookingDate = '2030-02-01'");
+      assertEquals(before + 1, customerBookings(2, 5));
+      assertEquals(other + 1, customerBookings(2, 6));
+
+      // moving a booking to another month moves it between partitions
+      TestDatabase.execute("UPDATE RoomBookings SET bookingDate = '2030-03-01' WHERE hotelID = 2 AND roomNumber = 1 AND bookingDate = '2030-02-01'");
+      assertEquals(before + 1, customerBookings(2, 5));
+
+      TestDatabase.execute("DELETE FROM RoomBookings WHERE customerID IN (5, 6) AND hotelID = 2");
+      assertEquals(0, customerBookings(2, 5));
+      assertEquals(0, TestDatabase.queryForInt("SELECT count(*) FROM HotelCustomerBookings WHERE hotelID = 2 AND customerID IN (5, 6)"));
+   }//end theCountTriggerFollowsInsertsMovesAndDeletes
+
+   @Test
+   public void aRecountMatchesTheTrigger() throws Exception {
+      TestDatabase.execute("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES (7, 3, 1, '2030-04-01')");
+      String counts = "SELECT string_agg(hotelID || ':' || customerID || ':' || numBookings, ',' ORDER BY hotelID, customerID) " +
+                      "FROM HotelCustomerBookings";
+      String kept = TestDatabase.queryForString(counts);
+      TestDatabase.execute("UPDATE HotelCustomerBookings SET numBookings = 0");
+      TestDatabase.execute("SELECT recount_hotel_customer_bookings()");
+      assertEquals(kept, TestDatabase.queryForString(counts));
+   }//end aRecountMatchesTheTrigger
+}//end PartitionMaintenanceTest
@@ -0,0 +1,116 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryMetricsTest {
+
+   private ConnectionPool pool;
+   private QueryMetrics metrics;
+
+   @Before
+   public void setUp() throws SQLException {
+      FakeDriver.register();
+      FakeDriver.reset();
+      pool = new ConnectionPool(FakeDriver.URL, "user", "", 1, 2, 1000, 600000, 60000);
+      metrics = new QueryMetrics(pool);
+   }
+
+   @After
+   public void tearDown() {
+      pool.close();
+   }
+
+   @Test
+   public void callsRowsAndErrorsAddUpPerStatement() {
+      QueryMetrics.Operation select = metrics.operation("SELECT 1");
+      assertSame(select, metrics.operation("SELECT 1"));
+      long now = System.nanoTime();
+      select.record(now, 3, false);
+      select.record(now, 2, true);
+      metrics.operation("UPDATE t SET x = 1").record(now, 7, false);
+      assertEquals(3, metrics.getCalls());
+      assertEquals(1, metrics.getErrors());
+
+      String[] lines = metrics.getOperations();
+      assertEquals(2, lines.length);
+      assertTrue(lines[0], lines[0].startsWith("SELECT 1: calls=2 errors=1 rows=5 p50="));
+      assertTrue(lines[1], lines[1].startsWith("UPDATE t SET x = 1: calls=1 errors=0 rows=7 "));
+
+      metrics.reset();
+      assertEquals(0, metrics.getCalls());
+      assertEquals(0, metrics.getOperations().length);
+   }//end callsRowsAndErrorsAddUpPerStatement
+
+   @Test
+   public void callsOverTheThresholdAreSlow() {
+      assertEquals(QueryMetrics.DEFAULT_SLOW_QUERY_MS, metrics.getSlowQueryThresholdMs());
+      metrics.operation("fast").record(System.nanoTime(), 0, false);
+      assertEquals(0, metrics.getSlowQueries());
+      metrics.setSlowQueryThresholdMs(0);
+      metrics.operation("fast").record(System.nanoTime(), 0, false);
+      assertEquals(1, metrics.getSlowQueries());
+   }//end callsOverTheThresholdAreSlow
+
+   @Test
+   public void statementsPastTheLimitShareOneOperation() {
+      for (int i = 0; i < QueryMetrics.MAX_OPERATIONS; ++i)
+         metrics.operation("SELECT " + i);
+      QueryMetrics.Operation other = metrics.operation(QueryMetrics.OTHER);
+      assertSame(other, metrics.operation("SELECT one too many"));
+      assertSame(other, metrics.operation("SELECT two too many"));
+      assertEquals(QueryMetrics.MAX_OPERATIONS + 1, metrics.getOperations().length);
+   }//end statementsPastTheLimitShareOneOperation
+
+   @Test
+   public void thePrometheusDumpHasCumulativeBucketsAndEscapedLabels() throws SQLException {
+      QueryMetrics.Operation op = metrics.operation("SELECT *\n  FROM t WHERE name = \"x\\y\"");
+      op.record(System.nanoTime(), 4, false);
+      pool.release(pool.borrow());
+      String dump = metrics.dumpPrometheus();
+      String label = "{query=\"SELECT * FROM t WHERE name = \\\"x\\\\y\\\"\"";
+      assertTrue(dump, dump.contains("hotel_query_duration_seconds_bucket" + label + ",le=\"10.0\"} 1\n"));
+      assertTrue(dump, dump.contains("hotel_query_duration_seconds_bucket" + label + ",le=\"+Inf\"} 1\n"));
+      assertTrue(dump, dump.contains("hotel_query_duration_seconds_count" + label + "} 1\n"));
+      assertTrue(dump, dump.contains("hotel_query_rows_total" + label + "} 4\n"));
+      assertTrue(dump, dump.contains("hotel_query_errors_total" + label + "} 0\n"));
+      assertTrue(dump, dump.contains("hotel_pool_wait_seconds_count 1\n"));
+      // a bucket never counts less than the ones below it
+      long last = 0;
+      for (String line : dump.split("\n")) {
+         if (!line.startsWith("hotel_query_duration_seconds_bucket"))
+            continue;
+         long count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+         assertTrue(line, count >= last);
+         last = count;
+      }//end for
+   }//end thePrometheusDumpHasCumulativeBucketsAndEscapedLabels
+
+   @Test
+   public void hotelCallsAreCounted() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      Hotel esql = TestDatabase.open();
+      try {
+         QueryMetrics metrics = esql.getQueryMetrics();
+         String sql = "UPDATE Rooms SET price = price WHERE hotelID = ?";
+         assertEquals(10, esql.executeUpdate(sql, 1));
+         try {
+            esql.executeUpdate("UPDATE NoSuchTable SET x = 1");
+         }catch (SQLException e) {
+            // counted as an error
+         }//end try
+         String lines = java.util.Arrays.toString(metrics.getOperations());
+         assertTrue(lines, lines.contains(sql + ": calls=1 errors=0 rows=10 "));
+         assertTrue(lines, lines.contains("UPDATE NoSuchTable SET x = 1: calls=1 errors=1 rows=0 "));
+         assertTrue(metrics.getCalls() >= 2);
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end hotelCallsAreCounted
+}//end QueryMetricsTest
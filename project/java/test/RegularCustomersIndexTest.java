@@ -0,0 +1,164 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RegularCustomersIndexTest {
+
+   private static final int TODAY = RoomAvailabilityIndex.epochDay(new java.util.Date());
+
+   private static Date daysFromToday(int days) {
+      return RoomAvailabilityIndex.toDate(TODAY + days);
+   }
+
+   private static RegularCustomersIndex ready(int... windows) {
+      RegularCustomersIndex index = new RegularCustomersIndex(windows);
+      index.markReady();
+      return index;
+   }
+
+   private static void assertTop(List<int[]> top, int... pairs) {
+      assertEquals(pairs.length / 2, top.size());
+      for (int i = 0; i < top.size(); ++i)
+         assertEquals("rank " + i, Arrays.toString(new int[] { pairs[2 * i], pairs[2 * i + 1] }), Arrays.toString(top.get(i)));
+   }//end assertTop
+
+   @Test
+   public void nothingIsAnsweredBeforeTheIndexIsReady() {
+      RegularCustomersIndex index = new RegularCustomersIndex();
+      index.addBooking(1, 2, 1, daysFromToday(-1));
+      assertFalse(index.covers(30));
+      assertNull(index.top(1, 30, 5));
+      index.markReady();
+      assertTrue(index.covers(30));
+      assertTop(index.top(1, 30, 5), 2, 1);
+   }//end nothingIsAnsweredBeforeTheIndexIsReady
+
+   @Test
+   public void onlyTheConfiguredWindowsAreCovered() {
+      RegularCustomersIndex index = ready(7, 28);
+      assertEquals(28, index.maxWindow());
+      assertTrue(index.covers(7));
+      assertFalse(index.covers(30));
+      assertNull(index.top(1, 30, 5));
+      assertEquals(0, index.top(1, 7, 5).size());
+   }//end onlyTheConfiguredWindowsAreCovered
+
+   @Test(expected = IllegalArgumentException.class)
+   public void anIndexNeedsAWindow() {
+      new RegularCustomersIndex(new int[0]);
+   }
+
+   @Test
+   public void eachWindowCountsTheNightsFromItsStartOn() {
+      RegularCustomersIndex index = ready(RegularCustomersIndex.DEFAULT_WINDOWS);
+      index.addBooking(1, 10, 1, daysFromToday(-10));
+      index.addBooking(2, 10, 1, daysFromToday(-60));
+      index.addBooking(3, 10, 1, daysFromToday(-200));
+      index.addBooking(4, 11, 1, daysFromToday(-20));
+      index.addBooking(5, 11, 1, daysFromToday(-25));
+      // future nights count in every window, nights before the widest in none
+      index.addBooking(6, 12, 1, daysFromToday(40));
+      index.addBooking(7, 12, 1, daysFromToday(-400));
+
+      assertTop(index.top(1, 30, 10), 11, 2, 10, 1, 12, 1);
+      assertTop(index.top(1, 90, 10), 10, 2, 11, 2, 12, 1);
+      assertTop(index.top(1, 365, 10), 10, 3, 11, 2, 12, 1);
+   }//end eachWindowCountsTheNightsFromItsStartOn
+
+   @Test
+   public void theRankingBreaksTiesByCustomerAndHonoursTheLimit() {
+      RegularCustomersIndex index = ready(30);
+      int bookingID = 0;
+      for (int customer : new int[] { 9, 3, 7, 3, 9, 5 })
+         index.addBooking(++bookingID, customer, 1, daysFromToday(-bookingID));
+      assertTop(index.top(1, 30, 10), 3, 2, 9, 2, 5, 1, 7, 1);
+      assertTop(index.top(1, 30, 3), 3, 2, 9, 2, 5, 1);
+      assertEquals(0, index.top(1, 30, 0).size());
+   }//end theRankingBreaksTiesByCustomerAndHonoursTheLimit
+
+   @Test
+   public void aBookingRecordedTwiceCountsOnce() {
+      RegularCustomersIndex index = ready(30);
+      index.addBooking(1, 10, 1, daysFromToday(-1));
+      index.addBooking(1, 10, 1, daysFromToday(-1));
+      index.addBooking(2, 10, 1, daysFromToday(-1));
+      assertTop(index.top(1, 30, 5), 10, 2);
+   }//end aBookingRecordedTwiceCountsOnce
+
+   @Test
+   public void hotelsAreCountedApartAndIgnoredUsersNotAtAll() {
+      RegularCustomersIndex index = ready(30);
+      index.ignoreCustomer(25);
+      index.addBooking(1, 10, 1, daysFromToday(-1));
+      index.addBooking(2, 11, 2, daysFromToday(-1));
+      index.addBooking(3, 25, 1, daysFromToday(-2));
+      assertTop(index.top(1, 30, 5), 10, 1);
+      assertTop(index.top(2, 30, 5), 11, 1);
+      assertEquals(0, index.top(3, 30, 5).size());
+   }//end hotelsAreCountedApartAndIgnoredUsersNotAtAll
+
+   @Test
+   public void theReportIsAnsweredFromTheLoadedIndex() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      // the sample bookings are years old, so book recent nights at hotel 2
+      TestDatabase.execute("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES " +
+                           "(3, 2, 1, CURRENT_DATE - 5), (3, 2, 2, CURRENT_DATE - 5), (3, 2, 1, CURRENT_DATE - 100), " +
+                           "(4, 2, 1, CURRENT_DATE - 60), (4, 2, 2, CURRENT_DATE - 61), (5, 2, 3, CURRENT_DATE - 1)");
+      Hotel esql = TestDatabase.open();
+      try {
+         assertEquals(Arrays.asList(Arrays.asList("Bob", "2"), Arrays.asList("Natalie_Braun", "1")),
+                      esql.regularCustomers(2, 5, 30));
+         RegularCustomersIndex index = esql.getRegularCustomersIndex();
+         for (int days : RegularCustomersIndex.DEFAULT_WINDOWS)
+            assertTrue("window " + days, index.covers(days));
+         assertEquals(Arrays.asList(Arrays.asList("Bob", "2"), Arrays.asList("Marshall.Johns", "2"),
+                                    Arrays.asList("Natalie_Braun", "1")), esql.regularCustomers(2, 5, 90));
+         assertEquals(Arrays.asList(Arrays.asList("Bob", "3"), Arrays.asList("Marshall.Johns", "2")),
+                      esql.regularCustomers(2, 2, 365));
+
+         // a new booking is counted without reloading, and the same
+         // answer comes from the bookings table for a window not kept
+         assertEquals(Hotel.BookingResult.Status.BOOKED, esql.bookRoom(5, 2, 4, daysFromToday(-2)).status);
+         assertSame(index, esql.getRegularCustomersIndex());
+         assertEquals(Arrays.asList(Arrays.asList("Bob", "2"), Arrays.asList("Natalie_Braun", "2")),
+                      esql.regularCustomers(2, 5, 30));
+         assertEquals(esql.regularCustomers(2, 5, 30), esql.regularCustomers(2, 5, 31));
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end theReportIsAnsweredFromTheLoadedIndex
+
+   @Test
+   public void aFailedLoadIsTriedAgain() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      TestDatabase.execute("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES (3, 2, 1, CURRENT_DATE)");
+      Hotel esql = TestDatabase.open();
+      try {
+         TestDatabase.execute("ALTER TABLE RoomBookings RENAME TO RoomBookingsAway");
+         try {
+            esql.regularCustomers(2, 5, 30);
+            fail("the bookings were loaded from a missing table");
+         }catch (SQLException e) {
+            // expected
+         }finally {
+            TestDatabase.execute("ALTER TABLE RoomBookingsAway RENAME TO RoomBookings");
+         }//end try
+         assertEquals(Arrays.asList(Arrays.asList("Bob", "1")), esql.regularCustomers(2, 5, 30));
+         assertTrue(esql.getRegularCustomersIndex().covers(30));
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end aFailedLoadIsTriedAgain
+}//end RegularCustomersIndexTest
@@ -0,0 +1,112 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * repairHistory over the sample repairs plus eight more requested by
+ * manager 25 for rooms 1 to 4 of hotel 1, by companies 1 to 3, on the
+ * nights from 2030-01-01 to 2030-01-08.
+ */
+public class RepairHistoryTest {
+
+   private Hotel esql;
+
+   @Before
+   public void setUp() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      TestDatabase.execute("WITH r AS (INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate) " +
+                           "SELECT 1 + i % 3, 1, 1 + i % 4, DATE '2030-01-01' + i FROM generate_series(0, 7) i RETURNING repairID) " +
+                           "INSERT INTO RoomRepairRequests (managerID, repairID) SELECT 25, repairID FROM r ORDER BY repairID");
+      // another manager's request for one of them, and audit rows the old join multiplied by
+      TestDatabase.execute("INSERT INTO RoomRepairRequests (managerID, repairID) SELECT 20, MAX(repairID) FROM RoomRepairs");
+      TestDatabase.execute("INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES " +
+                           "(25, 1, 1, '2030-01-01'), (25, 1, 2, '2030-01-02')");
+      esql = TestDatabase.open();
+   }//end setUp
+
+   @After
+   public void tearDown() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   private List<List<String>> all(Integer hotelID, Integer roomNumber, Integer companyID, Date from, Date to,
+                                  int pageSize) throws Exception {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      Hotel.Page page = null;
+      do {
+         page = esql.repairHistory(25, hotelID, roomNumber, companyID, from, to, pageSize,
+                                   page == null ? null : Hotel.Page.after(page.nextCursor()));
+         assertTrue(page.rows.size() <= pageSize);
+         rows.addAll(page.rows);
+      }while (page.hasNext());
+      return rows;
+   }//end all
+
+   private static int count(String where) throws Exception {
+      return TestDatabase.queryForInt("SELECT count(*) FROM RoomRepairRequests rr JOIN RoomRepairs rp ON rp.repairID = rr.repairID " +
+                                      "WHERE rr.managerID = 25" + where);
+   }
+
+   @Test
+   public void everyRequestIsOneRowNewestFirst() throws Exception {
+      List<List<String>> rows = all(null, null, null, null, null, 100);
+      assertEquals(count(""), rows.size());
+      assertEquals(9, rows.size());
+      for (int i = 1; i < rows.size(); ++i)
+         assertTrue(Integer.parseInt(rows.get(i - 1).get(0)) > Integer.parseInt(rows.get(i).get(0)));
+      // the sample request comes last, with its company's name unpadded
+      assertEquals(Arrays.asList("1", "1", "1", "1", "1", "A-com", "2020-02-11"), rows.get(8));
+      assertEquals("2030-01-08", rows.get(0).get(6));
+   }//end everyRequestIsOneRowNewestFirst
+
+   @Test
+   public void pagesJoinUpAtAnySize() throws Exception {
+      List<List<String>> expected = all(null, null, null, null, null, 100);
+      for (int pageSize : new int[] { 1, 2, 4, 9 })
+         assertEquals("by " + pageSize, expected, all(null, null, null, null, null, pageSize));
+      Hotel.Page page = esql.repairHistory(25, null, null, null, null, null, 9, null);
+      assertFalse(page.hasNext());
+   }//end pagesJoinUpAtAnySize
+
+   @Test
+   public void filtersNarrowTheRepairs() throws Exception {
+      List<List<String>> room = all(1, 2, null, null, null, 1);
+      assertEquals(count(" AND rp.hotelID = 1 AND rp.roomNumber = 2"), room.size());
+      for (List<String> row : room)
+         assertEquals("2", row.get(3));
+
+      List<List<String>> company = all(null, null, 2, null, null, 2);
+      assertEquals(count(" AND rp.companyID = 2"), company.size());
+      for (List<String> row : company)
+         assertEquals("B-com", row.get(5));
+
+      List<List<String>> dates = all(1, null, null, Date.valueOf("2030-01-03"), Date.valueOf("2030-01-05"), 2);
+      assertEquals(3, dates.size());
+      assertEquals("2030-01-05", dates.get(0).get(6));
+      assertEquals("2030-01-03", dates.get(2).get(6));
+
+      assertTrue(all(2, null, null, null, null, 5).isEmpty());
+      assertEquals(1, all(1, 3, 3, Date.valueOf("2030-01-01"), null, 5).size());
+   }//end filtersNarrowTheRepairs
+
+   @Test
+   public void anotherManagersRequestIsTheirs() throws Exception {
+      Hotel.Page page = esql.repairHistory(20, null, null, null, null, null, 10, null);
+      List<String> ids = new ArrayList<String>();
+      for (List<String> row : page.rows)
+         ids.add(row.get(1));
+      assertEquals(3, ids.size());
+      assertEquals(TestDatabase.queryForString("SELECT MAX(repairID) FROM RoomRepairs"), ids.get(0));
+   }//end anotherManagersRequestIsTheirs
+}//end RepairHistoryTest
@@ -0,0 +1,124 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * requestRepairs and createUser on the sample data, where manager 25 runs
+ * hotel 1 with rooms 1 to 10.
+ */
+public class RepairRequestsTest {
+
+   private static final String REPAIRS = "SELECT count(*) FROM RoomRepairs";
+   private static final String REQUESTS = "SELECT count(*) FROM RoomRepairRequests";
+
+   private Hotel esql;
+
+   @Before
+   public void setUp() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      esql = TestDatabase.open();
+   }
+
+   @After
+   public void tearDown() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   @Test
+   public void everyRoomGetsOneRepairAndOneRequest() throws Exception {
+      int repairs = TestDatabase.queryForInt(REPAIRS);
+      List<Integer> ids = esql.requestRepairs(25, 1, Arrays.asList(3, 1, 3, 2), 4);
+      assertEquals(4, ids.size());
+      // a room listed twice gets one repair
+      assertEquals(ids.get(0), ids.get(2));
+      assertEquals(3, new HashSet<Integer>(ids).size());
+      assertEquals(repairs + 3, TestDatabase.queryForInt(REPAIRS));
+
+      for (int i = 0; i < ids.size(); ++i) {
+         int room = Arrays.asList(3, 1, 3, 2).get(i);
+         assertEquals("4,1," + room + ",true", TestDatabase.queryForString(
+            "SELECT companyID || ',' || hotelID || ',' || roomNumber || ',' || (repairDate = CURRENT_DATE) FROM RoomRepairs " +
+            "WHERE repairID = " + ids.get(i)));
+         assertEquals(1, TestDatabase.queryForInt("SELECT count(*) FROM RoomRepairRequests WHERE managerID = 25 AND repairID = " +
+                                                  ids.get(i)));
+      }//end for
+      // and shows in the manager's history, newest first
+      assertEquals(Integer.toString(Collections.max(ids)),
+                   esql.repairHistory(25, 1, null, null, null, null, 1, null).rows.get(0).get(1));
+   }//end everyRoomGetsOneRepairAndOneRequest
+
+   @Test
+   public void aRoomThatDoesNotExistFailsTheWholeBatch() throws Exception {
+      int repairs = TestDatabase.queryForInt(REPAIRS), requests = TestDatabase.queryForInt(REQUESTS);
+      try {
+         esql.requestRepairs(25, 1, Arrays.asList(1, 2, 99), 1);
+         fail("repaired a room that does not exist");
+      }catch (SQLException e) {
+         // expected
+      }//end try
+      assertEquals(repairs, TestDatabase.queryForInt(REPAIRS));
+      assertEquals(requests, TestDatabase.queryForInt(REQUESTS));
+   }//end aRoomThatDoesNotExistFailsTheWholeBatch
+
+   @Test
+   public void noRoomsIsNoStatement() throws Exception {
+      long calls = esql.getQueryMetrics().getCalls();
+      assertTrue(esql.requestRepairs(25, 1, new ArrayList<Integer>(), 1).isEmpty());
+      assertEquals(calls, esql.getQueryMetrics().getCalls());
+   }//end noRoomsIsNoStatement
+
+   @Test
+   public void oneRepairGoesThroughTheBatch() throws Exception {
+      int id = esql.requestRepair(25, 1, 5, 2);
+      assertEquals("5", TestDatabase.queryForString("SELECT roomNumber FROM RoomRepairs WHERE repairID = " + id));
+   }//end oneRepairGoesThroughTheBatch
+
+   @Test
+   public void concurrentUsersGetTheirOwnKeys() throws Exception {
+      ExecutorService threads = Executors.newFixedThreadPool(4);
+      try {
+         List<Future<Integer>> created = new ArrayList<Future<Integer>>();
+         for (int i = 0; i < 20; ++i) {
+            final String name = "new user " + i;
+            created.add(threads.submit(new Callable<Integer>() {
+               public Integer call() throws SQLException {
+                  return esql.createUser(name, "pw");
+               }
+            }));
+         }//end for
+         Set<Integer> ids = new HashSet<Integer>();
+         for (int i = 0; i < created.size(); ++i) {
+            int id = created.get(i).get();
+            assertTrue(ids.add(id));
+            assertEquals("new user " + i, TestDatabase.queryForString("SELECT trim(name) FROM Users WHERE userID = " + id));
+            // straight into the cache, with the stored role
+            UserEntry user = esql.getUser(id);
+            assertNotNull(user);
+            assertEquals(UserEntry.Role.CUSTOMER, user.role);
+         }//end for
+         // no key of another insert was handed out
+         assertEquals(20, TestDatabase.queryForInt("SELECT count(*) FROM Users WHERE userID >= " + Collections.min(ids)));
+      }finally {
+         threads.shutdown();
+      }//end try
+   }//end concurrentUsersGetTheirOwnKeys
+}//end RepairRequestsTest
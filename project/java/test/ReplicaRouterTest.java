@@ -0,0 +1,161 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The router over pools of fake connections, and once over hotel_test
+ * and the replica given with -Dhotel.test.replicaport.
+ */
+public class ReplicaRouterTest {
+
+   private ConnectionPool primary;
+   private ReplicaRouter router;
+
+   @Before
+   public void setUp() throws SQLException {
+      FakeDriver.register();
+      FakeDriver.reset();
+      primary = new ConnectionPool(FakeDriver.URL, "user", "", 1, 4, 1000, 600000, 60000);
+      router = new ReplicaRouter(primary, ReplicaRouter.DEFAULT_MAX_LAG_MS);
+   }
+
+   @After
+   public void tearDown() {
+      router.close();
+      primary.close();
+   }
+
+   @Test
+   public void onlySelectsAndReadingWithsAreReads() {
+      assertTrue(router.isRead("SELECT 1"));
+      assertTrue(router.isRead("  select * FROM Rooms"));
+      assertTrue(router.isRead("WITH h AS (SELECT 1) SELECT * FROM h"));
+      assertFalse(router.isRead("WITH r AS (INSERT INTO RoomRepairs VALUES (1) RETURNING repairID) SELECT * FROM r"));
+      assertFalse(router.isRead("UPDATE Rooms SET price = 1"));
+      assertFalse(router.isRead("SELECT nextval('users_userid_seq')"));
+      assertFalse(router.isRead("SELECT create_monthly_partitions ('RoomBookings', 'bookingDate', '2030-01-01', '2030-01-01')"));
+      assertFalse(router.isRead("SELECT pg_notify('c', 'x')"));
+      assertFalse(router.isRead(""));
+      assertFalse(router.isRead(null));
+   }//end onlySelectsAndReadingWithsAreReads
+
+   @Test
+   public void withoutAReplicaReadsGoToThePrimary() throws SQLException {
+      Connection conn = router.borrowRead();
+      try {
+         assertTrue(primary.owns(conn));
+         assertSame(primary, router.poolOf(conn));
+      }finally {
+         primary.release(conn);
+      }//end try
+      assertEquals(1, router.getPrimaryReads());
+      assertEquals(0, router.getReplicaReads());
+   }//end withoutAReplicaReadsGoToThePrimary
+
+   @Test
+   public void aReplicaThatDoesNotAnswerTheLagCheckIsNotUsed() throws Exception {
+      ConnectionPool replica = new ConnectionPool(FakeDriver.URL, "user", "", 1, 4, 1000, 600000, 60000);
+      router.addReplica("fake", replica);
+      Thread.sleep(3 * ReplicaRouter.LAG_CHECK_MS);
+      assertEquals("[fake: not usable]", router.describe().toString());
+      Connection conn = router.borrowRead();
+      assertTrue(primary.owns(conn));
+      primary.release(conn);
+
+      router.close();
+      try {
+         replica.borrow();
+         fail("the replica pool is still open");
+      }catch (SQLException e) {
+         // closed with the router
+      }//end try
+   }//end aReplicaThatDoesNotAnswerTheLagCheckIsNotUsed
+
+   @Test
+   public void writesArePerThreadAndPinningHoldsUntilGivenBack() throws Exception {
+      assertEquals(0, router.getLastWrite());
+      primary.release(router.borrowWrite());
+      long wrote = router.getLastWrite();
+      assertTrue(wrote > 0);
+
+      ExecutorService other = Executors.newSingleThreadExecutor();
+      try {
+         assertEquals(Long.valueOf(0), other.submit(new Callable<Long>() {
+            public Long call() {
+               return router.getLastWrite();
+            }
+         }).get());
+      }finally {
+         other.shutdown();
+      }//end try
+
+      assertEquals(wrote, router.pinToPrimary());
+      assertEquals(Long.MAX_VALUE, router.getLastWrite());
+      router.setLastWrite(wrote);
+      assertEquals(wrote, router.getLastWrite());
+      router.setLastWrite(0);
+      assertEquals(0, router.getLastWrite());
+   }//end writesArePerThreadAndPinningHoldsUntilGivenBack
+
+   // waits for the replica's first lag check and for it to replay the new hotel_test
+   private static void awaitReplica(Hotel esql) throws Exception {
+      long until = System.currentTimeMillis() + 30000;
+      while (true) {
+         List<String> state = esql.getReplicaRouter().describe();
+         if (state.get(0).contains(": lag ") && !state.get(0).contains("lag " + Long.MAX_VALUE))
+            return;
+         if (System.currentTimeMillis() > until)
+            fail("replica not usable: " + state);
+         Thread.sleep(100);
+      }//end while
+   }//end awaitReplica
+
+   @Test
+   public void readsGoToTheReplicaAndEachThreadReadsItsOwnWrites() throws Exception {
+      TestDatabase.assumeReplica();
+      TestDatabase.create();
+      final Hotel esql = TestDatabase.open();
+      try {
+         esql.addReplica(TestDatabase.replicaPort());
+         awaitReplica(esql);
+         final ReplicaRouter router = esql.getReplicaRouter();
+         ExecutorService user = Executors.newSingleThreadExecutor();
+         try {
+            user.submit(new Callable<Void>() {
+               public Void call() throws Exception {
+                  long before = router.getReplicaReads();
+                  assertEquals(1, esql.executeQueryAndReturnResult("SELECT pg_is_in_recovery() FROM Users WHERE userID = 2").size());
+                  assertEquals("t", esql.executeQueryAndReturnResult("SELECT pg_is_in_recovery()").get(0).get(0));
+                  assertEquals(before + 2, router.getReplicaReads());
+
+                  for (int price = 2001; price <= 2020; ++price) {
+                     esql.executeUpdate("UPDATE Rooms SET price = ? WHERE hotelID = 1 AND roomNumber = 1", price);
+                     assertEquals(Integer.toString(price),
+                                  esql.executeQueryAndReturnResult("SELECT price FROM Rooms WHERE hotelID = 1 AND roomNumber = 1").get(0).get(0));
+                  }//end for
+                  // a WITH that writes runs on the primary
+                  assertEquals(1, esql.requestRepairs(25, 1, java.util.Arrays.asList(2), 1).size());
+                  return null;
+               }
+            }).get();
+         }finally {
+            user.shutdown();
+         }//end try
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end readsGoToTheReplicaAndEachThreadReadsItsOwnWrites
+}//end ReplicaRouterTest
@@ -0,0 +1,241 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RoomAvailabilityIndexTest {
+
+   // a window of 64 nights from yesterday
+   private static final int HORIZON = 64;
+
+   private int today;
+   private final List<int[]> stored = new ArrayList<int[]>();
+   private final List<int[]> asked = new ArrayList<int[]>();
+   private boolean failing = false;
+   private RoomAvailabilityIndex index;
+
+   @Before
+   public void setUp() {
+      today = RoomAvailabilityIndex.epochDay(new java.util.Date());
+      index = new RoomAvailabilityIndex(HORIZON, 1, new RoomAvailabilityIndex.Loader() {
+         public List<int[]> bookingsBetween(int firstDay, int lastDay) throws SQLException {
+            asked.add(new int[] { firstDay, lastDay });
+            if (failing)
+               throw new SQLException("database down");
+            List<int[]> found = new ArrayList<int[]>();
+            for (int[] booking : stored)
+               if (booking[2] >= firstDay && booking[2] <= lastDay)
+                  found.add(booking);
+            return found;
+         }
+      });
+      index.addRoom(1, 1);
+      index.addRoom(1, 2);
+      index.addRoom(2, 1);
+      index.markReady();
+   }//end setUp
+
+   private static java.sql.Date night(int day) {
+      return RoomAvailabilityIndex.toDate(day);
+   }
+
+   @Test
+   public void epochDaysRoundTrip() {
+      java.sql.Date date = java.sql.Date.valueOf("2024-02-29");
+      assertEquals(date, RoomAvailabilityIndex.toDate(RoomAvailabilityIndex.epochDay(date)));
+      assertEquals(0, RoomAvailabilityIndex.epochDay(java.sql.Date.valueOf("1970-01-01")));
+   }//end epochDaysRoundTrip
+
+   @Test
+   public void bookedNightsAreReported() {
+      assertTrue(index.markBooked(1, 2, night(today + 3)));
+      assertEquals(Boolean.TRUE, index.isBooked(1, 2, night(today + 3)));
+      assertEquals(Boolean.FALSE, index.isBooked(1, 2, night(today + 4)));
+      assertEquals(Boolean.FALSE, index.isBooked(1, 1, night(today + 3)));
+      // marking twice is harmless
+      assertTrue(index.markBooked(1, 2, night(today + 3)));
+      assertEquals(Boolean.TRUE, index.isBooked(1, 2, night(today + 3)));
+   }//end bookedNightsAreReported
+
+   @Test
+   public void unknownRoomsAndNightsOutsideTheWindowAreNotAnswered() {
+      assertNull(index.isBooked(1, 9, night(today)));
+      assertNull(index.isBooked(1, 1, night(today - 2)));
+      assertNull(index.isBooked(1, 1, night(today - 1 + HORIZON)));
+      assertFalse(index.markBooked(1, 1, night(today - 1 + HORIZON)));
+      assertFalse(index.markBooked(3, 1, night(today)));
+      assertNull(index.bookedOn(1, night(today + HORIZON)));
+      assertNull(index.freeBetween(1, night(today), night(today + HORIZON)));
+   }//end unknownRoomsAndNightsOutsideTheWindowAreNotAnswered
+
+   @Test
+   public void nothingIsAnsweredBeforeTheIndexIsReady() {
+      RoomAvailabilityIndex loading = new RoomAvailabilityIndex(HORIZON, 1, null);
+      loading.addRoom(1, 1);
+      assertNull(loading.isBooked(1, 1, night(today)));
+      loading.markReady();
+      assertEquals(Boolean.FALSE, loading.isBooked(1, 1, night(today)));
+   }//end nothingIsAnsweredBeforeTheIndexIsReady
+
+   @Test
+   public void bookedOnListsRoomsInOrder() {
+      index.addRoom(1, 0);
+      index.markBooked(1, 1, night(today));
+      List<int[]> rooms = index.bookedOn(1, night(today));
+      assertEquals(3, rooms.size());
+      assertArrayEquals(new int[] { 0, 0 }, rooms.get(0));
+      assertArrayEquals(new int[] { 1, 1 }, rooms.get(1));
+      assertArrayEquals(new int[] { 2, 0 }, rooms.get(2));
+      assertTrue(index.bookedOn(7, night(today)).isEmpty());
+   }//end bookedOnListsRoomsInOrder
+
+   @Test
+   public void freeBetweenNeedsEveryNightFree() {
+      index.markBooked(1, 1, night(today + 5));
+      assertEquals(Arrays.asList(2), index.freeBetween(1, night(today + 3), night(today + 5)));
+      assertEquals(Arrays.asList(1, 2), index.freeBetween(1, night(today + 6), night(today + 9)));
+   }//end freeBetweenNeedsEveryNightFree
+
+   @Test
+   public void addingAKnownRoomKeepsItsBookings() {
+      index.markBooked(1, 1, night(today));
+      index.addRoom(1, 1);
+      assertEquals(Boolean.TRUE, index.isBooked(1, 1, night(today)));
+   }//end addingAKnownRoomKeepsItsBookings
+
+   @Test
+   public void rollingLoadsTheBookingsOfTheNewNights() {
+      // yesterday's slot is reused for the first night past the old window
+      int firstNew = today - 1 + HORIZON;
+      index.markBooked(1, 1, night(today - 1));
+      stored.add(new int[] { 1, 2, firstNew + 1 });
+      stored.add(new int[] { 2, 1, firstNew + 4 });
+      // bookings of rooms the index does not know are skipped
+      stored.add(new int[] { 9, 9, firstNew + 2 });
+
+      index.roll(today + 5);
+
+      assertEquals(1, asked.size());
+      assertArrayEquals(new int[] { firstNew, today + 4 + HORIZON - 1 }, asked.get(0));
+      assertNull(index.isBooked(1, 1, night(today - 1)));
+      assertEquals(Boolean.FALSE, index.isBooked(1, 1, night(firstNew)));
+      assertEquals(Boolean.TRUE, index.isBooked(1, 2, night(firstNew + 1)));
+      assertEquals(Boolean.TRUE, index.isBooked(2, 1, night(firstNew + 4)));
+      assertEquals(Boolean.FALSE, index.isBooked(1, 2, night(firstNew + 4)));
+   }//end rollingLoadsTheBookingsOfTheNewNights
+
+   @Test
+   public void rollingPastTheWholeWindowReloadsIt() {
+      index.markBooked(1, 1, night(today + 10));
+      int start = today + 200;
+      stored.add(new int[] { 1, 1, start + 10 });
+      index.roll(start + 1);
+      assertArrayEquals(new int[] { start, start + HORIZON - 1 }, asked.get(0));
+      assertEquals(Boolean.TRUE, index.isBooked(1, 1, night(start + 10)));
+      assertEquals(Arrays.asList(1, 2), index.freeBetween(1, night(start), night(start + 9)));
+   }//end rollingPastTheWholeWindowReloadsIt
+
+   @Test
+   public void aFailedLoadKeepsTheOldWindow() {
+      index.markBooked(1, 1, night(today + 3));
+      failing = true;
+      index.roll(today + 5);
+      // still answered from the old window, which is still right
+      assertEquals(Boolean.TRUE, index.isBooked(1, 1, night(today + 3)));
+      assertEquals(Boolean.FALSE, index.isBooked(1, 1, night(today - 1)));
+      assertNull(index.isBooked(1, 1, night(today - 1 + HORIZON)));
+      // and the move is not tried again at once
+      failing = false;
+      index.roll(today + 5);
+      assertEquals(1, asked.size());
+   }//end aFailedLoadKeepsTheOldWindow
+
+   @Test
+   public void rollingToAnEarlierDayChangesNothing() {
+      index.roll(today - 10);
+      assertTrue(asked.isEmpty());
+      assertEquals(Boolean.FALSE, index.isBooked(1, 1, night(today - 1)));
+   }//end rollingToAnEarlierDayChangesNothing
+
+   @Test
+   public void concurrentBookingsAreAllRecorded() throws Exception {
+      final int rooms = 8;
+      for (int room = 1; room <= rooms; ++room)
+         index.addRoom(5, room);
+      ExecutorService threads = Executors.newFixedThreadPool(rooms);
+      for (int t = 0; t < rooms; ++t) {
+         final int offset = t;
+         threads.execute(new Runnable() {
+            public void run() {
+               // every thread writes to every room, in the same words
+               for (int room = 1; room <= rooms; ++room)
+                  for (int day = offset; day < HORIZON - 1; day += rooms)
+                     index.markBooked(5, room, night(today - 1 + day));
+            }
+         });
+      }//end for
+      threads.shutdown();
+      assertTrue(threads.awaitTermination(10, TimeUnit.SECONDS));
+      assertTrue(index.freeBetween(5, night(today - 1), night(today + HORIZON - 3)).isEmpty());
+      for (int room = 1; room <= rooms; ++room)
+         assertEquals(Boolean.FALSE, index.isBooked(5, room, night(today + HORIZON - 2)));
+   }//end concurrentBookingsAreAllRecorded
+
+   @Test
+   public void aFailedLoadIsTriedAgain() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      Hotel esql = TestDatabase.open();
+      try {
+         TestDatabase.execute("ALTER TABLE RoomBookings RENAME TO RoomBookingsAway");
+         try {
+            esql.getAvailabilityIndex();
+            fail("the bookings were loaded from a missing table");
+         }catch (SQLException e) {
+            // expected
+         }finally {
+            TestDatabase.execute("ALTER TABLE RoomBookingsAway RENAME TO RoomBookings");
+         }//end try
+         // not left half loaded, which would send every lookup to SQL
+         assertTrue(esql.getAvailabilityIndex().covers(night(today)));
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end aFailedLoadIsTriedAgain
+
+   @Test
+   public void nightsBookedElsewhereShowAfterTheRefreshPeriod() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      Hotel esql = TestDatabase.open();
+      try {
+         esql.setAvailabilityRefreshMs(200);
+         java.sql.Date night = night(today + 5);
+         assertEquals("Available", esql.roomAvailability(1, night).get(0).get(2));
+         // another process, so this Hotel records nothing itself
+         TestDatabase.execute("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES (3, 1, 1, '" + night + "')");
+         long until = System.currentTimeMillis() + 10000;
+         while (!"Booked".equals(esql.roomAvailability(1, night).get(0).get(2))) {
+            assertTrue("the booking never showed", System.currentTimeMillis() < until);
+            // the old index answers while the new one loads
+            assertTrue(esql.getAvailabilityIndex().covers(night));
+            Thread.sleep(50);
+         }//end while
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end nightsBookedElsewhereShowAfterTheRefreshPeriod
+}//end RoomAvailabilityIndexTest
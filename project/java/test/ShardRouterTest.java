@@ -0,0 +1,184 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * hotel_test spread over two servers by range: hotels 1 to 10 on shard 0,
+ * which is also the global node, and 11 to 20 on shard 1, the server
+ * given with -Dhotel.test.shardport.  Both start as full copies of the
+ * sample data; removeMisplacedHotels() leaves each shard its hotels.
+ */
+public class ShardRouterTest {
+
+   private Hotel esql;
+   private ShardRouter router;
+
+   @Before
+   public void setUp() throws Exception {
+      TestDatabase.assumeShard();
+      TestDatabase.create();
+      TestDatabase.create(TestDatabase.NAME, TestDatabase.shardPort(), TestDatabase.DATA_DIR);
+      TestDatabase.execute("SELECT set_shard_key_range(0)");
+      query(TestDatabase.shardPort(), "SELECT set_shard_key_range(1)");
+      esql = TestDatabase.open();
+   }//end setUp
+
+   @After
+   public void tearDown() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   // splits the sample data over the two shards
+   private void shard() throws SQLException {
+      esql.addShard(TestDatabase.port(), 1);
+      esql.addShard(TestDatabase.shardPort(), 11);
+      router = esql.getShardRouter();
+      assertEquals(20, router.removeMisplacedHotels());
+   }//end shard
+
+   // the first column of the first row of a query on one shard, null without rows
+   private static String query(String port, String sql) throws SQLException {
+      Connection conn = TestDatabase.connect(TestDatabase.NAME, port);
+      try {
+         Statement stmt = conn.createStatement();
+         ResultSet rs = stmt.executeQuery(sql);
+         String value = rs.next() ? rs.getString(1) : null;
+         stmt.close();
+         return value;
+      }finally {
+         conn.close();
+      }//end try
+   }//end query
+
+   private static int count(String port, String sql) throws SQLException {
+      return Integer.parseInt(query(port, sql));
+   }
+
+   private static List<Integer> ids(List<HotelEntry> hotels) {
+      List<Integer> ids = new ArrayList<Integer>();
+      for (HotelEntry hotel : hotels)
+         ids.add(hotel.hotelID);
+      return ids;
+   }//end ids
+
+   private List<List<String>> customerBookings(int customerID, int pageSize) throws SQLException {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      Hotel.Page page = null;
+      do {
+         page = esql.customerBookings(customerID, pageSize, page == null ? null : Hotel.Page.after(page.nextCursor()));
+         rows.addAll(page.rows);
+      }while (page.hasNext());
+      return rows;
+   }//end customerBookings
+
+   @Test
+   public void hotelsArePlacedByRange() throws Exception {
+      shard();
+      assertEquals(0, router.shardOf(1));
+      assertEquals(0, router.shardOf(10));
+      assertEquals(1, router.shardOf(11));
+      assertEquals(1, router.shardOf(5000));
+      assertEquals(10, count(TestDatabase.port(), "SELECT count(*) FROM Hotel"));
+      assertEquals("11", query(TestDatabase.shardPort(), "SELECT MIN(hotelID) FROM Hotel"));
+      assertEquals(0, count(TestDatabase.shardPort(), "SELECT count(*) FROM Rooms WHERE hotelID <= 10"));
+
+      assertEquals(Integer.valueOf(25), esql.getHotelManager(1));
+      assertEquals(Integer.valueOf(25), esql.getHotelManager(19));
+      assertTrue(esql.roomExists(15, 1));
+      assertFalse(esql.roomExists(15, 99));
+   }//end hotelsArePlacedByRange
+
+   @Test
+   public void listingsAcrossShardsMergeInOrder() throws Exception {
+      // hotels 3 and 10 on shard 0 and 11 on shard 1 lie around (10, 15)
+      List<Integer> nearby = ids(esql.findHotelsWithin(10, 15, 10));
+      List<List<String>> bookings = customerBookings(2, 1000);
+      Date first = Date.valueOf("2040-01-01");
+      Hotel.Page free = esql.searchFreeRooms(10, 15, 10, first, first, Integer.MAX_VALUE, Hotel.SearchOrder.DISTANCE, 1000, null);
+      List<List<String>> revenue = esql.revenueReport(0, Date.valueOf("2001-01-01"), Date.valueOf("2017-12-31"),
+                                                      AnalyticsEngine.Grouping.HOTEL);
+      assertEquals("[3, 10, 11]", nearby.toString());
+      assertTrue(bookings.size() > 3);
+      shard();
+
+      assertEquals(nearby, ids(esql.findHotelsWithin(10, 15, 10)));
+      for (int pageSize : new int[] { 1, 3, 1000 })
+         assertEquals("by " + pageSize, bookings, customerBookings(2, pageSize));
+      assertEquals(free.rows, esql.searchFreeRooms(10, 15, 10, first, first, Integer.MAX_VALUE, Hotel.SearchOrder.DISTANCE,
+                                                   1000, null).rows);
+      assertEquals(revenue, esql.revenueReport(0, Date.valueOf("2001-01-01"), Date.valueOf("2017-12-31"),
+                                               AnalyticsEngine.Grouping.HOTEL));
+   }//end listingsAcrossShardsMergeInOrder
+
+   @Test
+   public void writesLandOnTheShardOfTheirHotel() throws Exception {
+      shard();
+      Hotel.BookingResult booked = esql.bookRoom(2, 15, 1, Date.valueOf("2031-03-03"));
+      assertEquals(1, count(TestDatabase.shardPort(), "SELECT count(*) FROM RoomBookings WHERE bookingDate = '2031-03-03'"));
+      assertEquals(0, count(TestDatabase.port(), "SELECT count(*) FROM RoomBookings WHERE bookingDate = '2031-03-03'"));
+      // serial keys of shard 1 start past those of shard 0
+      assertTrue(booked.toString(), count(TestDatabase.shardPort(), "SELECT MAX(bookingID) FROM RoomBookings") > 100000000);
+
+      int userID = esql.createUser("sharded", "pw");
+      assertEquals("sharded", query(TestDatabase.shardPort(), "SELECT trim(name) FROM Users WHERE userID = " + userID));
+      esql.bookRoom(userID, 15, 2, Date.valueOf("2031-03-03"));
+      assertEquals(1, customerBookings(userID, 10).size());
+   }//end writesLandOnTheShardOfTheirHotel
+
+   @Test
+   public void aMovedHotelTakesItsRowsAlong() throws Exception {
+      shard();
+      esql.bookRoom(2, 3, 1, Date.valueOf("2031-04-04"));
+      assertTrue(esql.updateRoom(10, 3, 2, 777, null));
+      esql.requestRepair(10, 3, 3, 1);
+      String[] counts = {
+         "SELECT count(*) FROM Rooms WHERE hotelID = 3",
+         "SELECT count(*) FROM RoomBookings WHERE hotelID = 3",
+         "SELECT count(*) FROM RoomUpdatesLog WHERE hotelID = 3",
+         "SELECT count(*) FROM RoomRepairs WHERE hotelID = 3",
+         "SELECT count(*) FROM RoomRepairRequests WHERE repairID IN (SELECT repairID FROM RoomRepairs WHERE hotelID = 3)" };
+      // the audit entry of the update is written behind
+      assertTrue(router.getShards().get(0).getAuditLog().flush(5000));
+      int[] before = new int[counts.length];
+      for (int i = 0; i < counts.length; ++i)
+         before[i] = count(TestDatabase.port(), counts[i]);
+
+      router.moveHotel(3, 1);
+      assertEquals(1, router.shardOf(3));
+      assertEquals("1", TestDatabase.queryForString("SELECT shard FROM HotelShards WHERE hotelID = 3"));
+      for (int i = 0; i < counts.length; ++i) {
+         assertEquals(counts[i], before[i], count(TestDatabase.shardPort(), counts[i]));
+         assertEquals(counts[i], 0, count(TestDatabase.port(), counts[i]));
+      }//end for
+      assertEquals(0, count(TestDatabase.port(), "SELECT count(*) FROM Hotel WHERE hotelID = 3"));
+
+      assertEquals(Integer.valueOf(10), esql.getHotelManager(3));
+      List<List<String>> rooms = esql.roomAvailability(3, Date.valueOf("2031-04-04"));
+      assertEquals("Booked", rooms.get(0).get(2));
+      assertEquals("777", rooms.get(1).get(1));
+
+      // another process finds the hotel through HotelShards
+      Hotel other = TestDatabase.open();
+      try {
+         other.addShard(TestDatabase.port(), 1);
+         other.addShard(TestDatabase.shardPort(), 11);
+         assertEquals(1, other.getShardRouter().shardOf(3));
+         assertEquals(Integer.valueOf(10), other.getHotelManager(3));
+      }finally {
+         other.cleanup();
+      }//end try
+   }//end aMovedHotelTakesItsRowsAlong
+}//end ShardRouterTest
@@ -0,0 +1,132 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+   private FakeDriver.FakeConnection fake;
+   private StatementCache.Stats stats;
+
+   @Before
+   public void setUp() throws SQLException {
+      FakeDriver.register();
+      FakeDriver.reset();
+      fake = FakeDriver.of(DriverManager.getConnection(FakeDriver.URL));
+      stats = new StatementCache.Stats();
+   }
+
+   @Test
+   public void theSameSqlIsPreparedOnce() throws SQLException {
+      StatementCache cache = new StatementCache(fake.proxy, 4, 0, stats);
+      PreparedStatement first = cache.prepare("SELECT 1 WHERE ? = ?");
+      assertSame(first, cache.prepare("SELECT 1 WHERE ? = ?"));
+      assertNotSame(first, cache.prepare("SELECT 2"));
+
+      assertEquals(2, fake.prepares.get());
+      assertEquals(1, stats.getHits());
+      assertEquals(2, stats.getMisses());
+      assertEquals(1.0 / 3, stats.getHitRate(), 1e-9);
+      assertEquals(2, cache.size());
+   }//end theSameSqlIsPreparedOnce
+
+   @Test
+   public void theLeastRecentlyUsedStatementIsClosedWhenFull() throws SQLException {
+      StatementCache cache = new StatementCache(fake.proxy, 2, 0, stats);
+      PreparedStatement a = cache.prepare("a");
+      cache.prepare("b");
+      assertSame(a, cache.prepare("a"));
+      // b is now the eldest
+      cache.prepare("c");
+
+      assertEquals(2, cache.size());
+      assertEquals(1, fake.statementsClosed.get());
+      assertSame(a, cache.prepare("a"));
+      cache.prepare("b");
+      assertEquals(4, fake.prepares.get());
+   }//end theLeastRecentlyUsedStatementIsClosedWhenFull
+
+   @Test
+   public void closeClosesEveryStatement() throws SQLException {
+      StatementCache cache = new StatementCache(fake.proxy, 4, 0, stats);
+      cache.prepare("a");
+      cache.prepare("b");
+      cache.close();
+      assertEquals(0, cache.size());
+      assertEquals(2, fake.statementsClosed.get());
+   }//end closeClosesEveryStatement
+
+   @Test
+   public void anUnusedCacheHasNoHitRate() {
+      assertEquals(0.0, stats.getHitRate(), 0.0);
+   }
+
+   @Test
+   public void aStatementIsPreparedOnTheServerAtTheThreshold() throws SQLException {
+      StatementCache cache = new StatementCache(fake.proxy, 4, 3, stats);
+      for (int i = 0; i < 5; ++i)
+         cache.prepare("SELECT 1 WHERE ? = ?");
+      cache.prepare("SELECT 2");
+      assertEquals(Arrays.asList("SELECT 1 WHERE ? = ?"), fake.serverPrepared);
+   }//end aStatementIsPreparedOnTheServerAtTheThreshold
+
+   @Test
+   public void aZeroThresholdNeverPreparesOnTheServer() throws SQLException {
+      StatementCache cache = new StatementCache(fake.proxy, 4, 0, stats);
+      for (int i = 0; i < 5; ++i)
+         cache.prepare("SELECT 1");
+      assertTrue(fake.serverPrepared.isEmpty());
+   }//end aZeroThresholdNeverPreparesOnTheServer
+
+   @Test
+   public void cachedStatementsOfTheBundledDriverCanBeReused() throws SQLException {
+      TestDatabase.assumeAvailable();
+      Connection conn = TestDatabase.connect("postgres", TestDatabase.port());
+      try {
+         StatementCache cache = new StatementCache(conn, 4, 3, stats);
+         for (int i = 0; i < 5; ++i) {
+            PreparedStatement stmt = cache.prepare("SELECT relname FROM pg_class WHERE relname = ? AND relkind = ?");
+            stmt.setString(1, "pg_class");
+            stmt.setString(2, "r");
+            ResultSet rs = stmt.executeQuery();
+            assertTrue(rs.next());
+            assertEquals("pg_class", rs.getString(1));
+            assertFalse(rs.next());
+            rs.close();
+         }//end for
+         assertEquals(1, stats.getMisses());
+         cache.close();
+      }finally {
+         conn.close();
+      }//end try
+   }//end cachedStatementsOfTheBundledDriverCanBeReused
+
+   @Test
+   public void menuQueriesKeepWorkingOnceServerPrepared() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      Hotel esql = TestDatabase.open();
+      try {
+         int userID = esql.createUser("prepared", "secret");
+         // past the pool's threshold of five uses
+         for (int i = 0; i < 8; ++i) {
+            assertTrue(esql.exists("SELECT 1 FROM Users WHERE userID = ? AND userType = 'customer'", userID));
+            assertEquals(userID, (int) esql.queryForInt("SELECT userID FROM Users WHERE userID = ?", userID));
+         }//end for
+         assertTrue(esql.getStatementCacheHitRate() > 0.5);
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end menuQueriesKeepWorkingOnceServerPrepared
+}//end StatementCacheTest
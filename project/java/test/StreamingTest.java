@@ -0,0 +1,95 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * executeQueryStreaming through the bundled driver, which has no fetch
+ * size of its own.
+ */
+public class StreamingTest {
+
+   private static Hotel esql;
+
+   @BeforeClass
+   public static void setUpClass() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      esql = TestDatabase.open();
+   }
+
+   @AfterClass
+   public static void tearDownClass() {
+      if (esql != null)
+         esql.cleanup();
+   }
+
+   private static List<Integer> stream(String query, int fetchSize, Object... params) throws SQLException {
+      final List<Integer> values = new ArrayList<Integer>();
+      int rows = esql.executeQueryStreaming(query, fetchSize, new Hotel.RowHandler() {
+         public void handle(ResultSet row) throws SQLException {
+            values.add(row.getInt(1));
+         }
+      }, params);
+      assertEquals(values.size(), rows);
+      return values;
+   }//end stream
+
+   @Test
+   public void everyRowArrivesInOrderAcrossFetches() throws SQLException {
+      List<Integer> values = stream("SELECT g FROM generate_series(1, ?) g WHERE g % ? = 0 ORDER BY g", 100, 2469, 2);
+      assertEquals(1234, values.size());
+      for (int i = 0; i < values.size(); ++i)
+         assertEquals(2 * (i + 1), (int) values.get(i));
+   }//end everyRowArrivesInOrderAcrossFetches
+
+   @Test
+   public void aResultOfWholeFetchesEnds() throws SQLException {
+      assertEquals(1000, stream("SELECT g FROM generate_series(1, 1000) g", 100).size());
+      assertEquals(0, stream("SELECT g FROM generate_series(1, 0) g", 100).size());
+      assertEquals(3, stream("SELECT g FROM generate_series(1, 3) g", 0).size());
+   }//end aResultOfWholeFetchesEnds
+
+   @Test
+   public void aFailingHandlerLeavesTheConnectionsUsable() throws SQLException {
+      try {
+         esql.executeQueryStreaming("SELECT g FROM generate_series(1, 1000) g", 10, new Hotel.RowHandler() {
+            public void handle(ResultSet row) throws SQLException {
+               if (row.getInt(1) == 25)
+                  throw new SQLException("handler gave up");
+            }
+         });
+         fail("the handler's exception was swallowed");
+      }catch (SQLException e) {
+         assertEquals("handler gave up", e.getMessage());
+      }//end try
+      // every pooled connection can open the cursor again
+      for (int i = 0; i < 20; ++i)
+         assertEquals(50, stream("SELECT g FROM generate_series(1, 50) g", 7).size());
+   }//end aFailingHandlerLeavesTheConnectionsUsable
+
+   @Test
+   public void bookingHistoryStreams() throws Exception {
+      // sample manager 25 runs hotel 1
+      final List<Integer> bookings = new ArrayList<Integer>();
+      int rows = esql.streamBookingHistory(25, java.sql.Date.valueOf("2000-01-01"), java.sql.Date.valueOf("2030-01-01"),
+                                           new Hotel.RowHandler() {
+         public void handle(ResultSet row) throws SQLException {
+            bookings.add(row.getInt(1));
+         }
+      });
+      int expected = TestDatabase.queryForInt("SELECT count(*) FROM RoomBookings b JOIN Hotel h ON h.hotelID = b.hotelID " +
+                                              "WHERE h.managerUserID = 25 AND b.bookingDate BETWEEN '2000-01-01' AND '2030-01-01'");
+      assertTrue(expected > 0);
+      assertEquals(expected, rows);
+      assertEquals(expected, bookings.size());
+   }//end bookingHistoryStreams
+}//end StreamingTest
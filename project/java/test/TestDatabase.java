@@ -0,0 +1,250 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+
+/**
+ * The database the integration tests run against: hotel_test on the
+ * server given with -Dhotel.test.dbport, reached through the bundled
+ * pg73 driver.  See pom.xml.
+ */
+public class TestDatabase {
+
+   public static final String NAME = "hotel_test";
+   // the scripts and the sample data, relative to the java directory tests run in
+   public static final File SQL_DIR = new File("../sql/src");
+   public static final File DATA_DIR = new File("../data");
+
+   static {
+      try {
+         Class.forName("org.postgresql.Driver");
+      }catch (ClassNotFoundException e) {
+         throw new ExceptionInInitializerError(e);
+      }//end try
+   }
+
+   /**
+    * @return the port of the test server, null when none was given
+    */
+   public static String port() {
+      return System.getProperty("hotel.test.dbport");
+   }
+
+   /**
+    * @return the port of a streaming replica of the test server, null
+    *         when none was given
+    */
+   public static String replicaPort() {
+      return System.getProperty("hotel.test.replicaport");
+   }
+
+   /**
+    * @return the port of a second test server, for shards, null when none
+    *         was given
+    */
+   public static String shardPort() {
+      return System.getProperty("hotel.test.shardport");
+   }
+
+   public static String user() {
+      return System.getProperty("hotel.test.user", System.getProperty("user.name"));
+   }
+
+   /**
+    * Skips the calling test when no test server was given.
+    */
+   public static void assumeAvailable() {
+      Assume.assumeTrue("no -Dhotel.test.dbport given", port() != null);
+   }
+
+   /**
+    * Skips the calling test when no test server or no replica of it was given.
+    */
+   public static void assumeReplica() {
+      assumeAvailable();
+      Assume.assumeTrue("no -Dhotel.test.replicaport given", replicaPort() != null);
+   }
+
+   /**
+    * Skips the calling test when no test server or no second server was given.
+    */
+   public static void assumeShard() {
+      assumeAvailable();
+      Assume.assumeTrue("no -Dhotel.test.shardport given", shardPort() != null);
+   }
+
+   /**
+    * Creates hotel_test from scratch: create_tables.sql, the sample data
+    * through BulkImporter and create_indexes.sql.
+    */
+   public static void create() throws Exception {
+      create(NAME, port(), DATA_DIR);
+   }
+
+   /**
+    * Creates a database from scratch on a server, loaded from dataDir.
+    */
+   public static void create(String dbname, String dbport, File dataDir) throws Exception {
+      recreate(dbname, dbport);
+      Connection conn = connect(dbname, dbport);
+      try {
+         runScript(conn, new File(SQL_DIR, "create_tables.sql"));
+      }finally {
+         conn.close();
+      }//end try
+      Hotel esql = new Hotel(dbname, dbport, user(), "", 1, 4);
+      BulkImporter importer = new BulkImporter(esql, 4);
+      try {
+         List<String> indexes = importer.readStatements(new File(SQL_DIR, "create_indexes.sql"));
+         importer.dropIndexes(indexes);
+         List<BulkImporter.Result> results = importer.importDirectory(dataDir);
+         importer.createIndexes(indexes);
+         importer.finish(results);
+      }finally {
+         importer.close();
+         esql.cleanup();
+      }//end try
+   }//end create
+
+   /**
+    * Drops a database, closing its sessions first, and creates it empty.
+    */
+   public static void recreate(String dbname, String dbport) throws SQLException {
+      Connection admin = connect(System.getProperty("hotel.test.admindb", "postgres"), dbport);
+      try {
+         Statement stmt = admin.createStatement();
+         stmt.executeQuery("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = '" + dbname + "'").close();
+         stmt.execute("DROP DATABASE IF EXISTS " + dbname);
+         stmt.execute("CREATE DATABASE " + dbname);
+         stmt.close();
+      }finally {
+         admin.close();
+      }//end try
+   }//end recreate
+
+   /**
+    * @return a Hotel on hotel_test with up to 8 connections
+    */
+   public static Hotel open() throws SQLException {
+      return new Hotel(NAME, port(), user(), "", 1, 8);
+   }
+
+   /**
+    * @return a plain connection to hotel_test, outside any pool
+    */
+   public static Connection connect() throws SQLException {
+      return connect(NAME, port());
+   }
+
+   public static Connection connect(String dbname, String dbport) throws SQLException {
+      return DriverManager.getConnection("jdbc:postgresql://localhost:" + dbport + "/" + dbname, user(), "");
+   }
+
+   /**
+    * @return the first column of the first row of a query on hotel_test
+    */
+   public static String queryForString(String sql) throws SQLException {
+      Connection conn = connect();
+      try {
+         Statement stmt = conn.createStatement();
+         ResultSet rs = stmt.executeQuery(sql);
+         String value = rs.next() ? rs.getString(1) : null;
+         stmt.close();
+         return value;
+      }finally {
+         conn.close();
+      }//end try
+   }//end queryForString
+
+   public static int queryForInt(String sql) throws SQLException {
+      return Integer.parseInt(queryForString(sql).trim());
+   }
+
+   /**
+    * Runs the statements of a script on hotel_test.
+    */
+   public static void execute(String sql) throws SQLException {
+      Connection conn = connect();
+      try {
+         Statement stmt = conn.createStatement();
+         for (String statement : statements(sql))
+            stmt.execute(statement);
+         stmt.close();
+      }finally {
+         conn.close();
+      }//end try
+   }//end execute
+
+   /**
+    * Runs a script such as create_tables.sql one statement at a time, the
+    * driver taking one result per call.
+    */
+   public static void runScript(Connection conn, File script) throws IOException, SQLException {
+      String sql = new String(Files.readAllBytes(script.toPath()), Charset.forName("UTF-8"));
+      Statement stmt = conn.createStatement();
+      try {
+         for (String statement : statements(sql))
+            stmt.execute(statement);
+      }finally {
+         stmt.close();
+      }//end try
+   }//end runScript
+
+   /**
+    * Splits SQL text at the semicolons outside quotes and dollar quoted
+    * function bodies, leaving out -- comments.
+    */
+   static List<String> statements(String sql) {
+      List<String> statements = new ArrayList<String>();
+      StringBuilder statement = new StringBuilder();
+      String dollar = null;
+      boolean quoted = false;
+      for (int i = 0; i < sql.length(); ++i) {
+         char c = sql.charAt(i);
+         if (dollar != null) {
+            if (sql.startsWith(dollar, i)) {
+               statement.append(dollar);
+               i += dollar.length() - 1;
+               dollar = null;
+            }else {
+               statement.append(c);
+            }//end if
+         }else if (quoted) {
+            statement.append(c);
+            quoted = c != '\'';
+         }else if (c == '\'') {
+            statement.append(c);
+            quoted = true;
+         }else if (sql.startsWith("--", i)) {
+            while (i + 1 < sql.length() && sql.charAt(i + 1) != '\n')
+               ++i;
+         }else if (c == '$' && sql.indexOf('$', i + 1) > 0 && sql.substring(i + 1, sql.indexOf('$', i + 1)).matches("\\w*")) {
+            dollar = sql.substring(i, sql.indexOf('$', i + 1) + 1);
+            statement.append(dollar);
+            i += dollar.length() - 1;
+         }else if (c == ';') {
+            add(statements, statement);
+         }else {
+            statement.append(c);
+         }//end if
+      }//end for
+      add(statements, statement);
+      return statements;
+   }//end statements
+
+   private static void add(List<String> statements, StringBuilder statement) {
+      String text = statement.toString().trim();
+      if (text.length() > 0)
+         statements.add(text);
+      statement.setLength(0);
+   }//end add
+}//end TestDatabase
@@ -0,0 +1,96 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class UserCacheTest {
+
+   private static UserEntry user(int userID) {
+      return new UserEntry(userID, "user" + userID, "pw", UserEntry.Role.CUSTOMER);
+   }
+
+   @Test
+   public void cachedUsersAreReturned() {
+      UserCache cache = new UserCache(10, 60000);
+      UserEntry amy = user(2);
+      cache.put(amy);
+      assertSame(amy, cache.get(2));
+      assertNull(cache.get(3));
+   }//end cachedUsersAreReturned
+
+   @Test
+   public void theLeastRecentlyUsedUserIsDropped() {
+      UserCache cache = new UserCache(2, 60000);
+      cache.put(user(1));
+      cache.put(user(2));
+      cache.get(1);
+      cache.put(user(3));
+      assertEquals(2, cache.size());
+      assertNull(cache.get(2));
+      assertEquals(1, cache.get(1).userID);
+      assertEquals(3, cache.get(3).userID);
+   }//end theLeastRecentlyUsedUserIsDropped
+
+   @Test
+   public void expiredUsersAreMissing() throws InterruptedException {
+      UserCache cache = new UserCache(10, 50);
+      cache.put(user(1));
+      Thread.sleep(80);
+      assertNull(cache.get(1));
+      assertEquals(0, cache.size());
+   }//end expiredUsersAreMissing
+
+   @Test
+   public void invalidateAndClearForget() {
+      UserCache cache = new UserCache(10, 60000);
+      cache.put(user(1));
+      cache.put(user(2));
+      cache.invalidate(1);
+      assertNull(cache.get(1));
+      assertEquals(1, cache.size());
+      cache.clear();
+      assertEquals(0, cache.size());
+   }//end invalidateAndClearForget
+
+   @Test
+   public void entriesCompareLikeCharColumns() {
+      UserEntry user = new UserEntry(1, "Amy   ", "xyz   ", UserEntry.Role.parse("  Manager "));
+      assertEquals("Amy", user.name);
+      assertTrue(user.passwordMatches("xyz"));
+      assertTrue(user.passwordMatches("xyz  "));
+      assertFalse(user.passwordMatches(" xyz"));
+      assertFalse(user.passwordMatches(null));
+      assertTrue(user.isManager());
+   }//end entriesCompareLikeCharColumns
+
+   @Test
+   public void unknownUserTypesAreCustomers() {
+      assertEquals(UserEntry.Role.ADMIN, UserEntry.Role.parse("admin"));
+      assertEquals(UserEntry.Role.CUSTOMER, UserEntry.Role.parse("guest"));
+      assertEquals(UserEntry.Role.CUSTOMER, UserEntry.Role.parse(null));
+   }//end unknownUserTypesAreCustomers
+
+   @Test
+   public void logInReadsThroughTheCache() throws Exception {
+      TestDatabase.assumeAvailable();
+      TestDatabase.create();
+      Hotel esql = TestDatabase.open();
+      try {
+         // sample user 2 is the customer Amy with password xyz
+         UserEntry amy = esql.authenticate(2, "xyz");
+         assertEquals("Amy", amy.name);
+         assertEquals(UserEntry.Role.CUSTOMER, amy.role);
+         assertNull(esql.authenticate(2, "wrong"));
+         assertNull(esql.authenticate(999999, "xyz"));
+
+         // a second log in is served from memory
+         TestDatabase.execute("UPDATE Users SET name = 'Renamed' WHERE userID = 2");
+         assertSame(amy, esql.getUser(2));
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end logInReadsThroughTheCache
+}//end UserCacheTest
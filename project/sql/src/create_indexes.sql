@@ -1,17 +1,68 @@
+---user_ID and Rooms_ID repeated the primary keys of Users and Rooms (Rooms is keyed on hotelID first), and
+---Booking_customer is covered by Booking_customer_date; they are only dropped here.
 DROP INDEX IF EXISTS user_ID;
 
-CREATE INDEX user_ID
-ON Users
-(userID);
+DROP INDEX IF EXISTS Rooms_ID;
 
 DROP INDEX IF EXISTS Booking_customer;
 
-CREATE INDEX Booking_customer
+---a customer's bookings, latest first (viewRecentBookingsfromCustomer and its next pages)
+DROP INDEX IF EXISTS Booking_customer_date;
+
+CREATE INDEX Booking_customer_date
 ON RoomBookings
-(customerID);
+(customerID, bookingDate DESC, bookingID DESC);
 
-DROP INDEX IF EXISTS Rooms_ID;
+---a hotel's bookings by night (viewBookingHistoryofHotel and its next pages)
+DROP INDEX IF EXISTS Booking_hotel_date;
+
+CREATE INDEX Booking_hotel_date
+ON RoomBookings
+(hotelID, bookingDate, bookingID);
+
+---a manager's room updates, latest first (viewRecentUpdates and its next pages)
+DROP INDEX IF EXISTS Updates_manager_date;
+
+CREATE INDEX Updates_manager_date
+ON RoomUpdatesLog
+(managerID, updatedOn DESC, updateNumber DESC);
+
+---the hotels a manager runs
+DROP INDEX IF EXISTS Hotel_manager;
+
+CREATE INDEX Hotel_manager
+ON Hotel
+(managerUserID);
+
+DROP INDEX IF EXISTS Hotel_location;
+
+CREATE INDEX Hotel_location
+ON Hotel
+(latitude, longitude);
+
+DROP INDEX IF EXISTS HotelCustomerBookings_top;
+
+CREATE INDEX HotelCustomerBookings_top
+ON HotelCustomerBookings
+(hotelID, numBookings DESC, customerID);
+
+---a manager's repair requests, newest first (viewRoomRepairHistory and its next pages)
+DROP INDEX IF EXISTS RepairRequests_manager;
+
+CREATE INDEX RepairRequests_manager
+ON RoomRepairRequests
+(managerID, requestNumber DESC, repairID);
+
+---the request of a repair, when the repairs of a room are found first
+DROP INDEX IF EXISTS RepairRequests_repair;
+
+CREATE INDEX RepairRequests_repair
+ON RoomRepairRequests
+(repairID);
+
+---the repairs of a room by date
+DROP INDEX IF EXISTS RoomRepairs_room_date;
 
-CREATE INDEX Rooms_ID
-ON Rooms
-(hotelID);
\ No newline at end of file
+CREATE INDEX RoomRepairs_room_date
+ON RoomRepairs
+(hotelID, roomNumber, repairDate);
\ No newline at end of file
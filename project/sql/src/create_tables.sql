@@ -6,6 +6,9 @@ DROP TABLE IF EXISTS RoomBookings CASCADE;
 DROP TABLE IF EXISTS RoomRepairs CASCADE;
 DROP TABLE IF EXISTS RoomRepairRequests CASCADE;
 DROP TABLE IF EXISTS RoomUpdatesLog CASCADE;
+DROP TABLE IF EXISTS HotelCustomerBookings CASCADE;
+DROP TABLE IF EXISTS HotelShards CASCADE;
+DROP TABLE IF EXISTS CatalogChanges CASCADE;
 
 CREATE TABLE Users ( userID serial,
                      name char(50),
@@ -42,16 +45,22 @@ CREATE TABLE MaintenanceCompany (
 );
 
 
+---RoomBookings and RoomUpdatesLog are split into one partition per month (see create_monthly_partitions below),
+---so queries on a date range only read the months in it. Every unique key has to include the partition key.
 CREATE TABLE RoomBookings ( 
                     bookingID serial NOT NULL,
                     customerID integer NOT NULL,
                     hotelID integer NOT NULL,
                     roomNumber integer NOT NULL, 
                     bookingDate date NOT NULL, 
-                    PRIMARY KEY(bookingID),
+                    PRIMARY KEY(bookingID, bookingDate),
+                    UNIQUE(hotelID, roomNumber, bookingDate), ---a room can only be booked once per night
                     FOREIGN KEY(customerID) REFERENCES Users(userID),
                     FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
-);
+) PARTITION BY RANGE (bookingDate);
+
+---rows of months without a partition of their own
+CREATE TABLE RoomBookings_default PARTITION OF RoomBookings DEFAULT;
 
 CREATE TABLE RoomRepairs (  
                             repairID serial,
@@ -81,14 +90,189 @@ CREATE TABLE RoomUpdatesLog (
                             hotelID integer NOT NULL,
                             roomNumber integer NOT NULL,
                             updatedOn timestamp NOT NULL,
-                            PRIMARY KEY(updateNumber),
+                            PRIMARY KEY(updateNumber, updatedOn),
                             FOREIGN KEY(managerID) REFERENCES Users(userID),
                             FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
-);
+) PARTITION BY RANGE (updatedOn);
+
+CREATE TABLE RoomUpdatesLog_default PARTITION OF RoomUpdatesLog DEFAULT;
 
 ---The following is the definition of a user-defined sql function for calculating the distance between two lat-long pairs.
 CREATE OR REPLACE FUNCTION calculate_distance(lat1 decimal, long1 decimal, lat2 decimal, long2 decimal)
 RETURNS decimal AS $dist$
 BEGIN RETURN sqrt((lat1 - lat2) * (lat1 - lat2) + (long1 - long2) * (long1 - long2));
 END;
-$dist$ LANGUAGE plpgsql;
\ No newline at end of file
+$dist$ LANGUAGE plpgsql;
+
+---The following table keeps the number of bookings of every customer at every hotel, so the regular
+---customers of a hotel are read from an index instead of counting its bookings. The trigger below keeps it
+---in step with RoomBookings.
+CREATE TABLE HotelCustomerBookings (
+                            hotelID integer NOT NULL,
+                            customerID integer NOT NULL,
+                            numBookings integer NOT NULL,
+                            PRIMARY KEY(hotelID, customerID)
+);
+
+CREATE OR REPLACE FUNCTION count_hotel_customer_booking()
+RETURNS trigger AS $count$
+BEGIN
+    IF TG_OP IN ('DELETE', 'UPDATE') THEN
+        UPDATE HotelCustomerBookings SET numBookings = numBookings - 1
+        WHERE hotelID = OLD.hotelID AND customerID = OLD.customerID;
+        DELETE FROM HotelCustomerBookings
+        WHERE hotelID = OLD.hotelID AND customerID = OLD.customerID AND numBookings <= 0;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO HotelCustomerBookings (hotelID, customerID, numBookings) VALUES (NEW.hotelID, NEW.customerID, 1)
+        ON CONFLICT (hotelID, customerID) DO UPDATE SET numBookings = HotelCustomerBookings.numBookings + 1;
+    END IF;
+    RETURN NULL;
+END;
+$count$ LANGUAGE plpgsql;
+
+CREATE TRIGGER RoomBookings_count_customer
+AFTER INSERT OR DELETE OR UPDATE OF hotelID, customerID ON RoomBookings
+FOR EACH ROW EXECUTE PROCEDURE count_hotel_customer_booking();
+
+---Recounts HotelCustomerBookings from scratch, for loads that run with the trigger disabled.
+CREATE OR REPLACE FUNCTION recount_hotel_customer_bookings()
+RETURNS void AS $recount$
+BEGIN
+    DELETE FROM HotelCustomerBookings;
+    INSERT INTO HotelCustomerBookings (hotelID, customerID, numBookings)
+    SELECT hotelID, customerID, COUNT(*) FROM RoomBookings GROUP BY hotelID, customerID;
+END;
+$recount$ LANGUAGE plpgsql;
+
+---The following table records which hotel or room changed, one row per changed row of Hotel or Rooms, so an
+---application that keeps both tables in memory patches those entries instead of reloading everything.
+---roomNumber is NULL for a change of the hotel itself; hotelID is NULL after a TRUNCATE or a bulk load, when
+---everything has to be reloaded. pid is the server process that made the change, so a process can skip the
+---changes it made itself. Rows are only needed until every listener has read them and are pruned by age.
+CREATE TABLE CatalogChanges (
+                            changeID serial,
+                            hotelID integer,
+                            roomNumber integer,
+                            pid integer NOT NULL DEFAULT pg_backend_pid(),
+                            changedAt timestamp NOT NULL DEFAULT clock_timestamp(),
+                            PRIMARY KEY(changeID)
+);
+
+CREATE OR REPLACE FUNCTION record_catalog_change()
+RETURNS trigger AS $change$
+BEGIN
+    IF TG_OP = 'TRUNCATE' THEN
+        INSERT INTO CatalogChanges (hotelID, roomNumber) VALUES (NULL, NULL);
+    ELSIF TG_TABLE_NAME = 'hotel' THEN
+        IF TG_OP IN ('DELETE', 'UPDATE') THEN
+            INSERT INTO CatalogChanges (hotelID) VALUES (OLD.hotelID);
+        END IF;
+        IF TG_OP = 'INSERT' OR (TG_OP = 'UPDATE' AND NEW.hotelID <> OLD.hotelID) THEN
+            INSERT INTO CatalogChanges (hotelID) VALUES (NEW.hotelID);
+        END IF;
+    ELSE
+        IF TG_OP IN ('DELETE', 'UPDATE') THEN
+            INSERT INTO CatalogChanges (hotelID, roomNumber) VALUES (OLD.hotelID, OLD.roomNumber);
+        END IF;
+        IF TG_OP = 'INSERT' OR (TG_OP = 'UPDATE' AND (NEW.hotelID, NEW.roomNumber) <> (OLD.hotelID, OLD.roomNumber)) THEN
+            INSERT INTO CatalogChanges (hotelID, roomNumber) VALUES (NEW.hotelID, NEW.roomNumber);
+        END IF;
+    END IF;
+    RETURN NULL;
+END;
+$change$ LANGUAGE plpgsql;
+
+CREATE TRIGGER Hotel_record_change
+AFTER INSERT OR UPDATE OR DELETE ON Hotel
+FOR EACH ROW EXECUTE PROCEDURE record_catalog_change();
+
+CREATE TRIGGER Hotel_record_truncate
+AFTER TRUNCATE ON Hotel
+FOR EACH STATEMENT EXECUTE PROCEDURE record_catalog_change();
+
+CREATE TRIGGER Rooms_record_change
+AFTER INSERT OR UPDATE OR DELETE ON Rooms
+FOR EACH ROW EXECUTE PROCEDURE record_catalog_change();
+
+CREATE TRIGGER Rooms_record_truncate
+AFTER TRUNCATE ON Rooms
+FOR EACH STATEMENT EXECUTE PROCEDURE record_catalog_change();
+
+---Tells listeners on catalog_changed that Hotel or Rooms changed, once per statement, after the rows of
+---CatalogChanges above. The notification only wakes the listener, which reads what changed from CatalogChanges.
+CREATE OR REPLACE FUNCTION notify_catalog_changed()
+RETURNS trigger AS $notify$
+BEGIN
+    PERFORM pg_notify('catalog_changed', TG_TABLE_NAME);
+    RETURN NULL;
+END;
+$notify$ LANGUAGE plpgsql;
+
+CREATE TRIGGER Hotel_notify_catalog
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Hotel
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_catalog_changed();
+
+CREATE TRIGGER Rooms_notify_catalog
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Rooms
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_catalog_changed();
+
+---Creates the monthly partitions of a table from first_month to last_month, both included, named like
+---roombookings_y2015m01. Rows of a new month already in the default partition are moved into it. Names are
+---taken in lower case, the way PostgreSQL folds the unquoted names of create_tables.sql.
+---The PartitionMaintenance command calls this to keep partitions ahead of the calendar.
+CREATE OR REPLACE FUNCTION create_monthly_partitions(parent text, key_column text, first_month date, last_month date)
+RETURNS integer AS $parts$
+DECLARE
+    month date := date_trunc('month', first_month);
+    next_month date;
+    part text;
+    created integer := 0;
+BEGIN
+    WHILE month <= last_month LOOP
+        next_month := month + interval '1 month';
+        part := lower(parent) || to_char(month, '"_y"YYYY"m"MM');
+        IF to_regclass(part) IS NULL THEN
+            EXECUTE format('CREATE TEMP TABLE moving AS SELECT * FROM %I WHERE %I >= %L AND %I < %L',
+                           lower(parent) || '_default', lower(key_column), month, lower(key_column), next_month);
+            EXECUTE format('DELETE FROM %I WHERE %I >= %L AND %I < %L',
+                           lower(parent) || '_default', lower(key_column), month, lower(key_column), next_month);
+            EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                           part, lower(parent), month, next_month);
+            EXECUTE format('INSERT INTO %I SELECT * FROM moving', lower(parent));
+            DROP TABLE moving;
+            created := created + 1;
+        END IF;
+        month := next_month;
+    END LOOP;
+    RETURN created;
+END;
+$parts$ LANGUAGE plpgsql;
+
+SELECT create_monthly_partitions('RoomBookings', 'bookingDate', '2015-01-01', (current_date + interval '12 months')::date);
+SELECT create_monthly_partitions('RoomUpdatesLog', 'updatedOn', '2015-01-01', (current_date + interval '12 months')::date);
+
+---When hotels are spread over several databases (see ShardRouter), the global node keeps Users and this table:
+---the shard each moved or explicitly placed hotel is on. Hotels without a row are placed by range or hash.
+CREATE TABLE HotelShards (
+                            hotelID integer NOT NULL,
+                            shard integer NOT NULL,
+                            PRIMARY KEY(hotelID)
+);
+
+---Run on every shard with its number, from 0: moves the serial keys of the tables keyed on hotelID into a
+---range of 100000000 keys per shard, so keys are unique across shards and a hotel keeps its keys when it moves.
+---Keys already in use are not reused.
+CREATE OR REPLACE FUNCTION set_shard_key_range(shard integer)
+RETURNS void AS $range$
+DECLARE
+    keys text[][] := ARRAY[['roombookings', 'bookingid'], ['roomrepairs', 'repairid'],
+                           ['roomrepairrequests', 'requestnumber'], ['roomupdateslog', 'updatenumber']];
+    used bigint;
+BEGIN
+    FOR i IN 1 .. array_length(keys, 1) LOOP
+        EXECUTE format('SELECT COALESCE(MAX(%I), 0) FROM %I', keys[i][2], keys[i][1]) INTO used;
+        PERFORM setval(pg_get_serial_sequence(keys[i][1], keys[i][2]), GREATEST(used, shard * 100000000::bigint) + 1, false);
+    END LOOP;
+END;
+$range$ LANGUAGE plpgsql;
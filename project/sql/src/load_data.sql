@@ -1,7 +1,8 @@
+--- sequences restart after the largest loaded id, so generated data of any size loads unchanged
 COPY Users
 FROM 'users.csv' 
 WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE users_userID_seq RESTART 101; 
+SELECT setval('users_userID_seq', COALESCE(MAX(userID), 0) + 1, false) FROM Users;
 
 COPY Hotel
 FROM 'hotels.csv'
@@ -18,22 +19,22 @@ WITH DELIMITER ',' CSV HEADER;
 COPY RoomBookings
 FROM 'bookings.csv'
 WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE RoomBookings_bookingID_seq RESTART 501; 
+SELECT setval('RoomBookings_bookingID_seq', COALESCE(MAX(bookingID), 0) + 1, false) FROM RoomBookings;
 
 COPY RoomRepairs
 FROM 'roomRepairs.csv'
 WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE roomRepairs_repairID_seq RESTART 11;
+SELECT setval('roomRepairs_repairID_seq', COALESCE(MAX(repairID), 0) + 1, false) FROM RoomRepairs;
 
 COPY RoomRepairRequests
 FROM 'roomRepairRequests.csv'
 WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE roomRepairRequests_requestNumber_seq RESTART 11;
+SELECT setval('roomRepairRequests_requestNumber_seq', COALESCE(MAX(requestNumber), 0) + 1, false) FROM RoomRepairRequests;
 
 COPY RoomUpdatesLog
 FROM 'roomUpdatesLog.csv'
 WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE roomUpdatesLog_updateNumber_seq RESTART 51;
+SELECT setval('roomUpdatesLog_updateNumber_seq', COALESCE(MAX(updateNumber), 0) + 1, false) FROM RoomUpdatesLog;
 
 COPY USER_LIST
 FROM '/home/user/project/data/usr_list.csv'